@@ -0,0 +1,140 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.benchmark;
+
+import jfk.core.JFK;
+import jfk.function.IClosure;
+import jfk.function.IFunction;
+import jfk.function.delegates.IDelegatable;
+import jfk.function.delegates.IDelegateManager;
+import jfk.function.impl.ClosureBuilderImpl;
+import jfk.function.impl.FunctionBuilderImpl;
+import jfk.role.IRoleManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The binding operations measured by the binding benchmarks. Each operation generates
+ * (or reuses) code at run-time, and the {@link GeneratedCodeCounters} report how many
+ * classes and how much bytecode it has produced.
+ * Subclasses define how the operations are measured.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+@State( Scope.Thread )
+public abstract class AbstractBindingBenchmark {
+
+    /**
+     * The bean that defines the functions, or <i>generated</i> to use the functions
+     * generated at compile time by the annotation processor.
+     */
+    @Param( { "IFunctionClassDefiner", "MethodHandleFunctionDefiner", "generated" } )
+    public String definer;
+
+    /**
+     * The function builder that uses the definer.
+     */
+    private FunctionBuilderImpl functionBuilder;
+
+    /**
+     * The object the functions are bound to.
+     */
+    private BenchmarkTarget target;
+
+    /**
+     * The delegate the delegate functions are bound to.
+     */
+    private BenchmarkEventSink sink;
+
+    /**
+     * The delegate manager and the role manager used in the benchmarks.
+     */
+    private IDelegateManager delegateManager;
+    private IRoleManager roleManager;
+
+
+    @Setup
+    public void setUp(){
+	functionBuilder = new FunctionBuilderImpl();
+	if( "generated".equals( definer ) )
+	    functionBuilder.setGeneratedFunctions( true );
+	else {
+	    functionBuilder.setGeneratedFunctions( false );
+	    functionBuilder.setFunctionClassDefiner( definer );
+	}
+	target          = new BenchmarkTarget();
+	sink            = new BenchmarkEventSink();
+	delegateManager = JFK.getDelegateManager();
+	roleManager     = JFK.getRoleManager();
+    }
+
+
+    @Benchmark
+    public IFunction bindFunction( final GeneratedCodeCounters counters ) throws Exception {
+	counters.begin();
+	final IFunction function = functionBuilder.bindFunction( target, "value2" );
+	counters.end();
+	return function;
+    }
+
+    @Benchmark
+    public IFunction bindDelegateFunction( final GeneratedCodeCounters counters ) throws Exception {
+	counters.begin();
+	final IFunction function = functionBuilder.bindDelegateFunction( sink, "event" );
+	counters.end();
+	return function;
+    }
+
+    @Benchmark
+    public IClosure buildClosure( final GeneratedCodeCounters counters ) throws Exception {
+	counters.begin();
+	final IClosure closure = new ClosureBuilderImpl().buildClosure( BenchmarkTarget.closureCode( 2, false ) );
+	counters.end();
+	return closure;
+    }
+
+    @Benchmark
+    public IDelegatable createAndBind( final GeneratedCodeCounters counters ) throws Exception {
+	counters.begin();
+	delegateManager.forgetDelegatable( BenchmarkEventSource.class );
+	final IDelegatable delegatable = delegateManager.createAndBind( BenchmarkEventSource.class, sink );
+	counters.end();
+	return delegatable;
+    }
+
+    @Benchmark
+    public IRoleManager addRole( final GeneratedCodeCounters counters ){
+	counters.begin();
+	roleManager.addRole( BenchmarkPerson.class, new BenchmarkRole() );
+	counters.end();
+	return roleManager;
+    }
+
+}
@@ -0,0 +1,150 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.benchmark;
+
+import jfk.function.Function;
+
+/**
+ * The target object used by the benchmarks: it exposes, for every arity from 0 to 4,
+ * a function that returns a value and a function that returns nothing.
+ * The value functions are named <i>valueN</i>, the void ones <i>voidN</i>, where
+ * <i>N</i> is the arity.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class BenchmarkTarget {
+
+    /**
+     * The maximum arity used in the benchmarks.
+     */
+    public static final int MAX_ARITY = 4;
+
+    /**
+     * Where the void functions store their result, so that the JIT cannot
+     * remove the call.
+     */
+    public int sink = 0;
+
+
+    @Function( name = "value0" )
+    public Integer value0(){
+	return sink;
+    }
+
+    @Function( name = "value1" )
+    public Integer value1( final Integer a ){
+	return a.intValue() + 1;
+    }
+
+    @Function( name = "value2" )
+    public Integer value2( final Integer a, final Integer b ){
+	return a.intValue() + b.intValue();
+    }
+
+    @Function( name = "value3" )
+    public Integer value3( final Integer a, final Integer b, final Integer c ){
+	return a.intValue() + b.intValue() + c.intValue();
+    }
+
+    @Function( name = "value4" )
+    public Integer value4( final Integer a, final Integer b, final Integer c, final Integer d ){
+	return a.intValue() + b.intValue() + c.intValue() + d.intValue();
+    }
+
+
+
+    @Function( name = "void0" )
+    public void void0(){
+	sink++;
+    }
+
+    @Function( name = "void1" )
+    public void void1( final Integer a ){
+	sink += a.intValue();
+    }
+
+    @Function( name = "void2" )
+    public void void2( final Integer a, final Integer b ){
+	sink += a.intValue() + b.intValue();
+    }
+
+    @Function( name = "void3" )
+    public void void3( final Integer a, final Integer b, final Integer c ){
+	sink += a.intValue() + b.intValue() + c.intValue();
+    }
+
+    @Function( name = "void4" )
+    public void void4( final Integer a, final Integer b, final Integer c, final Integer d ){
+	sink += a.intValue() + b.intValue() + c.intValue() + d.intValue();
+    }
+
+
+
+    /**
+     * Provides the name of the function of this class with the specified arity.
+     * @param arity the number of arguments of the function
+     * @param returnsVoid true if the void function is wanted
+     * @return the name of the function (and of the method)
+     */
+    public static String functionName( final int arity, final boolean returnsVoid ){
+	return ( returnsVoid ? "void" : "value" ) + arity;
+    }
+
+
+    /**
+     * Provides the source code of a closure that does the same job of the function
+     * with the specified arity.
+     * @param arity the number of arguments of the closure
+     * @param returnsVoid true if the closure must not return a value
+     * @return the closure source code
+     */
+    public static String closureCode( final int arity, final boolean returnsVoid ){
+	final StringBuffer code = new StringBuffer( 200 );
+	code.append( "public " );
+	code.append( returnsVoid ? "void " : "Integer " );
+	code.append( functionName( arity, returnsVoid ) );
+	code.append( "(" );
+
+	final StringBuffer sum = new StringBuffer( 100 );
+	sum.append( "0" );
+	for( int i = 0; i < arity; i++ ){
+	    if( i > 0 )
+		code.append( ", " );
+
+	    code.append( "Integer p" + i );
+	    sum.append( " + p" + i + ".intValue()" );
+	}
+
+	code.append( "){ int result = " );
+	code.append( sum );
+	code.append( "; " );
+	if( ! returnsVoid )
+	    code.append( "return new Integer( result );" );
+	code.append( " }" );
+
+	return code.toString();
+    }
+}
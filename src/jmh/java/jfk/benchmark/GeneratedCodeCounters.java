@@ -0,0 +1,78 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.benchmark;
+
+import jfk.function.classloaders.GeneratorStatistics;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A set of secondary benchmark results that reports how many classes and how many bytes
+ * of bytecode have been generated by JFK during each operation.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+@State( Scope.Thread )
+@AuxCounters( AuxCounters.Type.EVENTS )
+public class GeneratedCodeCounters {
+
+    /**
+     * The number of classes defined by JFK.
+     */
+    public long definedClasses;
+
+    /**
+     * The number of bytes of bytecode produced by JFK.
+     */
+    public long bytecodeBytes;
+
+
+    /**
+     * The totals at the time the current operation started.
+     */
+    private long classesAtStart;
+    private long bytesAtStart;
+
+
+    /**
+     * Must be invoked before the operation to measure.
+     */
+    public void begin(){
+	classesAtStart = GeneratorStatistics.getTotalDefinedClasses();
+	bytesAtStart   = GeneratorStatistics.getTotalBytecodeBytes();
+    }
+
+    /**
+     * Must be invoked after the operation to measure, adds the code generated
+     * by the operation to the counters.
+     */
+    public void end(){
+	definedClasses += GeneratorStatistics.getTotalDefinedClasses() - classesAtStart;
+	bytecodeBytes  += GeneratorStatistics.getTotalBytecodeBytes()  - bytesAtStart;
+    }
+}
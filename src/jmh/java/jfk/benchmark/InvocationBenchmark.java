@@ -0,0 +1,239 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import jfk.core.JFK;
+import jfk.function.IClosure;
+import jfk.function.IFunction;
+import jfk.function.IFunction0;
+import jfk.function.IFunction1;
+import jfk.function.IFunction2;
+import jfk.function.IFunction3;
+import jfk.function.IFunction4;
+import jfk.function.impl.ClosureBuilderImpl;
+import jfk.function.impl.FunctionBuilderImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a call thru {@link IFunction#executeCall(Object...)} against the
+ * other ways a method can be invoked in Java: a direct virtual call, reflection,
+ * a dynamic proxy and a method handle. The typed function interfaces (e.g., {@link IFunction2})
+ * are measured too, since they avoid the argument array.
+ * Every strategy receives the same pre-allocated argument array, so that the benchmark
+ * measures only the dispatch and not the argument boxing.
+ * 
+ * The functions are built by each of the function definers configured in the spring configuration,
+ * so that the backends can be compared.
+ * 
+ * Run with <code>mvn -Pbenchmarks test-compile exec:exec -Djmh.args="InvocationBenchmark"</code>.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class InvocationBenchmark {
+
+    /**
+     * The number of arguments of the invoked method.
+     */
+    @Param( { "0", "1", "2", "3", "4" } )
+    public int arity;
+
+    /**
+     * True if the invoked method does not return a value.
+     */
+    @Param( { "false", "true" } )
+    public boolean returnsVoid;
+
+    /**
+     * The bean that defines the functions, or <i>generated</i> to use the functions
+     * generated at compile time by the annotation processor.
+     */
+    @Param( { "IFunctionClassDefiner", "MethodHandleFunctionDefiner", "generated" } )
+    public String definer;
+
+
+    /**
+     * The object all the methods are invoked on.
+     */
+    private BenchmarkTarget target;
+
+    /**
+     * The arguments passed to every call.
+     */
+    private Object[] arguments;
+
+    /**
+     * The function built by the function builder.
+     */
+    private IFunction function;
+
+    /**
+     * The closure that does the same job of the function.
+     */
+    private IClosure closure;
+
+    /**
+     * The method used for the reflective call.
+     */
+    private Method method;
+
+    /**
+     * A dynamic proxy that implements the IFunction interface thru reflection.
+     */
+    private IFunction proxy;
+
+    /**
+     * A method handle bound to the target that accepts the argument array.
+     */
+    private MethodHandle handle;
+
+
+    @Setup
+    public void setUp() throws Exception {
+	target    = new BenchmarkTarget();
+	arguments = new Object[ arity ];
+	final Class[] parameterTypes = new Class[ arity ];
+	for( int i = 0; i < arity; i++ ){
+	    arguments[ i ]      = Integer.valueOf( i + 1 );
+	    parameterTypes[ i ] = Integer.class;
+	}
+
+	final String name = BenchmarkTarget.functionName( arity, returnsVoid );
+	final FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	if( "generated".equals( definer ) )
+	    builder.setGeneratedFunctions( true );
+	else {
+	    builder.setGeneratedFunctions( false );
+	    builder.setFunctionClassDefiner( definer );
+	}
+	function = builder.bindFunction( target, name );
+	closure  = new ClosureBuilderImpl().buildClosure( BenchmarkTarget.closureCode( arity, returnsVoid ) );
+	method   = BenchmarkTarget.class.getMethod( name, parameterTypes );
+
+	proxy = (IFunction) Proxy.newProxyInstance( IFunction.class.getClassLoader(),
+						    new Class[]{ IFunction.class },
+						    new InvocationHandler() {
+							@Override
+							public Object invoke( final Object p, final Method m, final Object[] args ) throws Throwable {
+							    return method.invoke( target, (Object[]) args[ 0 ] );
+							}
+						    } );
+
+	handle = MethodHandles.publicLookup()
+			      .unreflect( method )
+			      .bindTo( target )
+			      .asSpreader( Object[].class, arity )
+			      .asType( MethodType.methodType( Object.class, Object[].class ) );
+    }
+
+
+    @Benchmark
+    public Object direct(){
+	final Object[] a = arguments;
+
+	if( returnsVoid ){
+	    switch( arity ){
+	    case 0:  target.void0(); break;
+	    case 1:  target.void1( (Integer) a[0] ); break;
+	    case 2:  target.void2( (Integer) a[0], (Integer) a[1] ); break;
+	    case 3:  target.void3( (Integer) a[0], (Integer) a[1], (Integer) a[2] ); break;
+	    default: target.void4( (Integer) a[0], (Integer) a[1], (Integer) a[2], (Integer) a[3] ); break;
+	    }
+	    return null;
+	}
+
+	switch( arity ){
+	case 0:  return target.value0();
+	case 1:  return target.value1( (Integer) a[0] );
+	case 2:  return target.value2( (Integer) a[0], (Integer) a[1] );
+	case 3:  return target.value3( (Integer) a[0], (Integer) a[1], (Integer) a[2] );
+	default: return target.value4( (Integer) a[0], (Integer) a[1], (Integer) a[2], (Integer) a[3] );
+	}
+    }
+
+    @Benchmark
+    public Object function() throws Exception {
+	return function.executeCall( arguments );
+    }
+
+    @Benchmark
+    public Object typedFunction(){
+	final Object[] a = arguments;
+
+	switch( arity ){
+	case 0:  return ((IFunction0) function).call();
+	case 1:  return ((IFunction1) function).call( a[0] );
+	case 2:  return ((IFunction2) function).call( a[0], a[1] );
+	case 3:  return ((IFunction3) function).call( a[0], a[1], a[2] );
+	default: return ((IFunction4) function).call( a[0], a[1], a[2], a[3] );
+	}
+    }
+
+    @Benchmark
+    public Object closure() throws Exception {
+	return closure.executeCall( arguments );
+    }
+
+    @Benchmark
+    public Object reflection() throws Exception {
+	return method.invoke( target, arguments );
+    }
+
+    @Benchmark
+    public Object proxy() throws Exception {
+	return proxy.executeCall( arguments );
+    }
+
+    @Benchmark
+    public Object methodHandle() throws Throwable {
+	return (Object) handle.invokeExact( arguments );
+    }
+
+}
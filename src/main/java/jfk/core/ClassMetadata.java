@@ -0,0 +1,262 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jfk.function.Function;
+import jfk.function.delegates.Connect;
+import jfk.function.delegates.Delegate;
+import jfk.role.RoleMap;
+
+/**
+ * An index of the JFK annotations of a class. The index is computed once for each class,
+ * the first time it is required, so that the builders and managers do not have to scan
+ * the methods of a class and check their annotations on every binding.
+ * <p>
+ * The index reflects the way each annotation is searched for: the {@link Function} methods
+ * and the {@link Connect} methods bound as functions are searched among the public methods
+ * (inherited ones included), while the {@link Delegate}, {@link Connect} and {@link RoleMap} methods
+ * used to build delegates and roles are searched among the declared methods.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class ClassMetadata {
+
+    /**
+     * A method annotated with a JFK annotation, along with the name in the annotation
+     * and the signature of the method.
+     */
+    public static final class AnnotatedMethod {
+
+	/**
+	 * The annotated method.
+	 */
+	private final Method method;
+
+	/**
+	 * The annotation of the method.
+	 */
+	private final Annotation annotation;
+
+	/**
+	 * The name of the annotation (empty for the role maps).
+	 */
+	private final String name;
+
+	/**
+	 * The signature of the method.
+	 */
+	private final Class[] parameterTypes;
+	private final Class returnType;
+
+	AnnotatedMethod( final Method method, final Annotation annotation, final String name ){
+	    this.method         = method;
+	    this.annotation     = annotation;
+	    this.name           = name;
+	    this.parameterTypes = method.getParameterTypes();
+	    this.returnType     = method.getReturnType();
+	}
+
+	/**
+	 * Provides the annotated method.
+	 * @return the method
+	 */
+	public Method getMethod() {
+	    return method;
+	}
+
+	/**
+	 * Provides the annotation of the method.
+	 * @return the annotation
+	 */
+	public Annotation getAnnotation() {
+	    return annotation;
+	}
+
+	/**
+	 * Provides the name specified in the annotation.
+	 * @return the name of the function/delegate/connection
+	 */
+	public String getName() {
+	    return name;
+	}
+
+	/**
+	 * Provides the parameter types of the method.
+	 * WARNING: the array is shared, and must not be modified.
+	 * @return the parameter types
+	 */
+	public Class[] getParameterTypes() {
+	    return parameterTypes;
+	}
+
+	/**
+	 * Provides the return type of the method.
+	 * @return the return type
+	 */
+	public Class getReturnType() {
+	    return returnType;
+	}
+    }
+
+
+    /**
+     * The index of each class.
+     */
+    private static final ClassValue<ClassMetadata> metadata = new ClassValue<ClassMetadata>() {
+	@Override
+	protected ClassMetadata computeValue( final Class type ){
+	    return new ClassMetadata( type );
+	}
+    };
+
+
+    /**
+     * The public function methods, mapped by the name of the function.
+     */
+    private final Map<String, AnnotatedMethod> functions = new HashMap<String, AnnotatedMethod>();
+
+    /**
+     * The public connect methods, mapped by the name of the connection.
+     */
+    private final Map<String, AnnotatedMethod> connections = new HashMap<String, AnnotatedMethod>();
+
+    /**
+     * The declared connect, delegate and role map methods.
+     */
+    private final List<AnnotatedMethod> declaredConnections;
+    private final List<AnnotatedMethod> declaredDelegates;
+    private final List<AnnotatedMethod> declaredRoleMaps;
+
+
+
+    /**
+     * Builds the index of the specified class.
+     * @param type the class to index
+     */
+    private ClassMetadata( final Class type ){
+	super();
+
+	// public methods: if more methods have the same name, the first one wins
+	for( final Method currentMethod : type.getMethods() ){
+	    final Function functionAnnotation = currentMethod.getAnnotation( Function.class );
+	    if( (functionAnnotation != null) && (! functions.containsKey( functionAnnotation.name() )) )
+		functions.put( functionAnnotation.name(), new AnnotatedMethod( currentMethod, functionAnnotation, functionAnnotation.name() ) );
+
+	    final Connect connectAnnotation = currentMethod.getAnnotation( Connect.class );
+	    if( (connectAnnotation != null) && (! connections.containsKey( connectAnnotation.name() )) )
+		connections.put( connectAnnotation.name(), new AnnotatedMethod( currentMethod, connectAnnotation, connectAnnotation.name() ) );
+	}
+
+
+	// declared methods
+	final List<AnnotatedMethod> connects  = new ArrayList<AnnotatedMethod>();
+	final List<AnnotatedMethod> delegates = new ArrayList<AnnotatedMethod>();
+	final List<AnnotatedMethod> roleMaps  = new ArrayList<AnnotatedMethod>();
+	for( final Method currentMethod : type.getDeclaredMethods() ){
+	    final Connect connectAnnotation = currentMethod.getAnnotation( Connect.class );
+	    if( connectAnnotation != null )
+		connects.add( new AnnotatedMethod( currentMethod, connectAnnotation, connectAnnotation.name() ) );
+
+	    final Delegate delegateAnnotation = currentMethod.getAnnotation( Delegate.class );
+	    if( delegateAnnotation != null )
+		delegates.add( new AnnotatedMethod( currentMethod, delegateAnnotation, delegateAnnotation.name() ) );
+
+	    final RoleMap roleMapAnnotation = currentMethod.getAnnotation( RoleMap.class );
+	    if( roleMapAnnotation != null )
+		roleMaps.add( new AnnotatedMethod( currentMethod, roleMapAnnotation, "" ) );
+	}
+
+	declaredConnections = Collections.unmodifiableList( connects );
+	declaredDelegates   = Collections.unmodifiableList( delegates );
+	declaredRoleMaps    = Collections.unmodifiableList( roleMaps );
+    }
+
+
+    /**
+     * Provides the index of the specified class.
+     * @param type the class to get the index of
+     * @return the index of the class
+     */
+    public static ClassMetadata forClass( final Class type ){
+	return metadata.get( type );
+    }
+
+
+    /**
+     * Provides the public method annotated as the specified function.
+     * @param name the name of the function
+     * @return the function method, or null if there is no such function
+     */
+    public AnnotatedMethod getFunction( final String name ){
+	return functions.get( name );
+    }
+
+
+    /**
+     * Provides the public method annotated as the specified connection.
+     * @param name the name of the connection
+     * @return the connect method, or null if there is no such connection
+     */
+    public AnnotatedMethod getConnection( final String name ){
+	return connections.get( name );
+    }
+
+
+    /**
+     * Provides the declared methods annotated with {@link Connect}.
+     * @return the (unmodifiable) list of connect methods
+     */
+    public List<AnnotatedMethod> getDeclaredConnections(){
+	return declaredConnections;
+    }
+
+
+    /**
+     * Provides the declared methods annotated with {@link Delegate}.
+     * @return the (unmodifiable) list of delegate methods
+     */
+    public List<AnnotatedMethod> getDeclaredDelegates(){
+	return declaredDelegates;
+    }
+
+
+    /**
+     * Provides the declared methods annotated with {@link RoleMap}.
+     * @return the (unmodifiable) list of role map methods
+     */
+    public List<AnnotatedMethod> getDeclaredRoleMaps(){
+	return declaredRoleMaps;
+    }
+
+}
@@ -0,0 +1,201 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+import jfk.function.classloaders.BytecodeCache;
+import jfk.function.classloaders.DelegateClassLoader;
+import jfk.function.classloaders.FunctionClassLoader;
+import jfk.function.classloaders.MethodHandleFunctionDefiner;
+import jfk.function.impl.ClosureBuilderImpl;
+import jfk.function.impl.ClosureCache;
+import jfk.function.impl.DelegateErrorLogger;
+import jfk.function.impl.DelegateExecutor;
+import jfk.function.impl.DelegateManagerImpl;
+import jfk.function.impl.FunctionBuilderImpl;
+import jfk.role.impl.RoleManagerImpl;
+
+/**
+ * A bean provider that builds the default beans of JFK programmatically, without
+ * parsing any configuration, so that the startup does not pay the spring initialization.
+ * The beans are the same, and with the same defaults, of the jfk.spring-beans.xml configuration;
+ * the singletons (e.g., the {@link FunctionBuilderImpl}) can be configured through their setters,
+ * while the prototypes are configured by the properties of this provider.
+ * Subclasses can provide other beans overriding {@link #createBean(String)}.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class DefaultBeanProvider implements IBeanProvider {
+
+    /**
+     * The function builder, a singleton.
+     */
+    private final FunctionBuilderImpl functionBuilder = new FunctionBuilderImpl();
+
+    /**
+     * The delegate manager, a singleton.
+     */
+    private final DelegateManagerImpl delegateManager = new DelegateManagerImpl();
+
+    /**
+     * The handler of the failures of the delegates, a singleton.
+     */
+    private final DelegateErrorLogger delegateErrorHandler = new DelegateErrorLogger();
+
+    /**
+     * The executor of the asynchronous delegates, a singleton.
+     */
+    private final DelegateExecutor delegateExecutor = new DelegateExecutor();
+
+    /**
+     * The cache of the generated bytecode, shared by all the class loaders.
+     */
+    private final BytecodeCache bytecodeCache = new BytecodeCache();
+
+    /**
+     * The cache of the compiled closure classes, shared by all the closure builders.
+     */
+    private final ClosureCache closureCache = new ClosureCache();
+
+    /**
+     * If true the class loaders define the generated classes as hidden classes.
+     */
+    private volatile boolean hiddenClasses = false;
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.IBeanProvider#getBean(java.lang.String)
+     */
+    @Override
+    public Object getBean( final String name ) {
+	final Object bean = createBean( name );
+	if( bean == null )
+	    throw new IllegalArgumentException("No bean named " + name + " in the default configuration");
+
+	return bean;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.IBeanProvider#isSingleton(java.lang.String)
+     */
+    @Override
+    public boolean isSingleton( final String name ) {
+	return "IFunctionBuilder".equals( name )
+	    || "IDelegateManager".equals( name )
+	    || "IDelegateErrorHandler".equals( name )
+	    || "DelegateExecutor".equals( name )
+	    || "BytecodeCache".equals( name )
+	    || "ClosureCache".equals( name );
+    }
+
+
+    /**
+     * Provides the bean for the specified name, building it if it is a prototype.
+     * @param name the name of the bean
+     * @return the bean or null if this provider does not know the bean
+     */
+    protected Object createBean( final String name ) {
+	if( "IFunctionBuilder".equals( name ) )
+	    return functionBuilder;
+	else if( "IDelegateManager".equals( name ) )
+	    return delegateManager;
+	else if( "IDelegateErrorHandler".equals( name ) )
+	    return delegateErrorHandler;
+	else if( "DelegateExecutor".equals( name ) )
+	    return delegateExecutor;
+	else if( "BytecodeCache".equals( name ) )
+	    return bytecodeCache;
+	else if( "ClosureCache".equals( name ) )
+	    return closureCache;
+	else if( "IFunctionClassDefiner".equals( name ) ){
+	    final FunctionClassLoader definer = new FunctionClassLoader();
+	    definer.setHiddenClasses( hiddenClasses );
+	    definer.setBytecodeCache( bytecodeCache );
+	    return definer;
+	}
+	else if( "MethodHandleFunctionDefiner".equals( name ) )
+	    return new MethodHandleFunctionDefiner();
+	else if( "IClosureBuilder".equals( name ) ){
+	    final ClosureBuilderImpl closureBuilder = new ClosureBuilderImpl();
+	    closureBuilder.setHiddenClasses( hiddenClasses );
+	    closureBuilder.setBytecodeCache( bytecodeCache );
+	    closureBuilder.setClosureCache( closureCache );
+	    return closureBuilder;
+	}
+	else if( "IDelegateConnector".equals( name ) ){
+	    final DelegateClassLoader connector = new DelegateClassLoader();
+	    connector.setHiddenClasses( hiddenClasses );
+	    connector.setBytecodeCache( bytecodeCache );
+	    return connector;
+	}
+	else if( "IRoleManager".equals( name ) ){
+	    final RoleManagerImpl roleManager = new RoleManagerImpl();
+	    roleManager.setHiddenClasses( hiddenClasses );
+	    return roleManager;
+	}
+	else
+	    return null;
+    }
+
+
+    /**
+     * Provides the cache of the generated bytecode used by the class loaders of this provider,
+     * for instance to set its directory.
+     * @return the bytecode cache
+     */
+    public final BytecodeCache getBytecodeCache() {
+	return bytecodeCache;
+    }
+
+
+    /**
+     * Provides the cache of the compiled closure classes used by the closure builders of this provider,
+     * for instance to bound its size.
+     * @return the closure cache
+     */
+    public final ClosureCache getClosureCache() {
+	return closureCache;
+    }
+
+
+    /**
+     * Tells if the class loaders built by this provider define hidden classes.
+     * @return true if the generated classes are hidden
+     */
+    public final boolean isHiddenClasses() {
+	return hiddenClasses;
+    }
+
+
+    /**
+     * Sets if the class loaders built from now on define the generated classes as hidden classes.
+     * @param hiddenClasses true to define hidden classes
+     */
+    public final void setHiddenClasses( final boolean hiddenClasses ) {
+	this.hiddenClasses = hiddenClasses;
+    }
+
+}
@@ -0,0 +1,150 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The invocation metrics of a metered function: the number of calls and their latency.
+ * The latencies are kept in a histogram with power of two buckets: the bucket <i>i</i>
+ * counts the calls that lasted at least 2<sup>i</sup> and less than 2<sup>i+1</sup> nanoseconds
+ * (the first bucket includes the calls shorter than 2 nanoseconds, the last one the
+ * longer calls).
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class FunctionMetrics {
+
+    /**
+     * The number of buckets of the latency histogram (the last one starts at about 1 second).
+     */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    /**
+     * The name of the metered function.
+     */
+    private final String name;
+
+    /**
+     * The number of calls.
+     */
+    private final LongAdder invocations  = new LongAdder();
+
+    /**
+     * The sum of the latencies of all the calls, in nanoseconds.
+     */
+    private final LongAdder totalLatency = new LongAdder();
+
+    /**
+     * The latency histogram.
+     */
+    private final AtomicLongArray histogram = new AtomicLongArray( HISTOGRAM_BUCKETS );
+
+
+    FunctionMetrics( final String name ){
+	super();
+	this.name = name;
+    }
+
+
+    /**
+     * Records a call of the function.
+     * @param nanos the latency of the call, in nanoseconds
+     */
+    public final void record( final long nanos ){
+	invocations.increment();
+	totalLatency.add( nanos );
+	histogram.incrementAndGet( getBucket( nanos ) );
+    }
+
+
+    /**
+     * Clears the calls recorded so far.
+     */
+    final void reset(){
+	invocations.reset();
+	totalLatency.reset();
+	for( int i = 0; i < HISTOGRAM_BUCKETS; i++ )
+	    histogram.set( i, 0 );
+    }
+
+
+    /**
+     * Provides the histogram bucket of a latency.
+     * @param nanos the latency in nanoseconds
+     * @return the index of the bucket
+     */
+    static int getBucket( final long nanos ){
+	if( nanos <= 1 )
+	    return 0;
+
+	return Math.min( HISTOGRAM_BUCKETS - 1, 63 - Long.numberOfLeadingZeros( nanos ) );
+    }
+
+
+    /**
+     * Provides the name of the function, that is the name of the target class and the name of
+     * the function separated by a '#'.
+     * @return the name of the function
+     */
+    public final String getName(){
+	return name;
+    }
+
+
+    /**
+     * Provides the number of calls.
+     * @return the number of calls recorded
+     */
+    public final long getInvocations(){
+	return invocations.sum();
+    }
+
+
+    /**
+     * Provides the mean latency of the calls.
+     * @return the mean latency in nanoseconds, 0 if the function has not been called
+     */
+    public final long getMeanLatency(){
+	final long calls = invocations.sum();
+	return ( calls == 0 ? 0 : totalLatency.sum() / calls );
+    }
+
+
+    /**
+     * Provides the latency histogram.
+     * @return the number of calls in each bucket
+     */
+    public final long[] getHistogram(){
+	final long[] buckets = new long[ HISTOGRAM_BUCKETS ];
+	for( int i = 0; i < buckets.length; i++ )
+	    buckets[ i ] = histogram.get( i );
+
+	return buckets;
+    }
+
+}
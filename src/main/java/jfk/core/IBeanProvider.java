@@ -0,0 +1,58 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+/**
+ * A provider of the beans (i.e., the pluggable components) of JFK.
+ * Each bean is identified by a name, that by convention is the simple name
+ * of the interface the bean implements (e.g., IFunctionBuilder).
+ * A provider can be installed programmatically with {@link JFK#setBeanProvider(IBeanProvider)}
+ * or registered as a service (META-INF/services/jfk.core.IBeanProvider) to be found
+ * by a {@link java.util.ServiceLoader}; if no provider is available the spring
+ * configuration is used.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public interface IBeanProvider {
+
+    /**
+     * Provides the bean with the specified name.
+     * @param name the name (id) of the bean
+     * @return the bean, that is a new instance if the bean is not a singleton
+     * @throws IllegalArgumentException if the provider does not know the bean
+     */
+    public Object getBean( String name );
+
+
+    /**
+     * Tells if the bean with the specified name is a singleton, that is if every
+     * request returns the same instance. The singleton beans are cached by {@link JFK}.
+     * @param name the name (id) of the bean
+     * @return true if the bean is a singleton
+     */
+    public boolean isSingleton( String name );
+
+}
@@ -24,18 +24,25 @@
  */
 package jfk.core;
 
+import java.util.Iterator;
+import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+
 import jfk.function.IClosureBuilder;
 import jfk.function.IFunctionBuilder;
 import jfk.function.classloaders.IDelegateConnector;
+import jfk.function.delegates.IDelegateErrorHandler;
 import jfk.function.delegates.IDelegateManager;
 import jfk.role.IRoleManager;
 
-import org.springframework.beans.factory.xml.XmlBeanFactory;
-import org.springframework.core.io.ClassPathResource;
-
 /**
  * This is a centralized service object that can provide several utility methods
  * to access the main components of JFK.
+ * The beans are provided by an {@link IBeanProvider}: the one set with {@link #setBeanProvider(IBeanProvider)},
+ * or the first one registered as a service, or the spring configuration if none is available.
+ * The provider is resolved at the first lookup, and the lookups do not take any lock
+ * (the singleton beans are cached).
  * 
  * @author Luca Ferrari - fluca1978 (at) gmail.com
  *
@@ -43,17 +50,106 @@ import org.springframework.core.io.ClassPathResource;
 public class JFK {
 
     /**
-     * The spring xml bean factory, used to instantiate the beans.
+     * The current configuration: the bean provider and the singleton beans already provided.
+     * A new provider replaces the whole configuration, so that the singletons of a provider
+     * never survive it.
+     */
+    private static final class Configuration {
+
+	/**
+	 * The provider of the beans.
+	 */
+	private final IBeanProvider beanProvider;
+
+	/**
+	 * The singleton beans already provided, by name.
+	 */
+	private final ConcurrentHashMap<String, Object> singletons = new ConcurrentHashMap<String, Object>();
+
+	private Configuration( final IBeanProvider beanProvider ){
+	    super();
+	    this.beanProvider = beanProvider;
+	}
+
+	/**
+	 * Provides the bean for the specified name, caching it if it is a singleton.
+	 * @param name the name of the bean
+	 * @return the bean
+	 */
+	private Object getBean( final String name ){
+	    final Object singleton = singletons.get( name );
+	    if( singleton != null )
+		return singleton;
+
+	    final Object bean = beanProvider.getBean( name );
+	    if( bean != null && beanProvider.isSingleton( name ) ){
+		final Object previous = singletons.putIfAbsent( name, bean );
+		return ( previous != null ? previous : bean );
+	    }
+
+	    return bean;
+	}
+    }
+
+
+    /**
+     * The current configuration, null until the first lookup.
+     */
+    private static volatile Configuration configuration = null;
+
+
+
+    /**
+     * Provides the current configuration, resolving the bean provider if this is the first lookup.
+     * @return the configuration
+     */
+    private static Configuration getConfiguration(){
+	final Configuration current = configuration;
+	return ( current != null ? current : initializeConfiguration() );
+    }
+
+
+    /**
+     * Resolves the bean provider: the first one registered as a service, if any,
+     * otherwise the spring configuration. Called only until a configuration is available.
+     * The {@link Metrics} are registered in JMX here if the {@value Metrics#JMX_PROPERTY}
+     * system property is true.
+     * @return the configuration
+     */
+    private static synchronized Configuration initializeConfiguration(){
+	if( configuration == null ){
+	    final Iterator<IBeanProvider> services = ServiceLoader.load( IBeanProvider.class, JFK.class.getClassLoader() ).iterator();
+	    configuration = new Configuration( services.hasNext() ? services.next() : new SpringBeanProvider() );
+
+	    // expose the metrics, if required
+	    if( Boolean.getBoolean( Metrics.JMX_PROPERTY ) )
+		Metrics.registerMBean();
+	}
+
+	return configuration;
+    }
+
+
+    /**
+     * Sets the provider of the beans, for instance a {@link DefaultBeanProvider} to configure
+     * JFK programmatically without spring. The singleton beans of the previous provider
+     * are no more returned.
+     * @param beanProvider the bean provider to use
+     */
+    public static synchronized void setBeanProvider( final IBeanProvider beanProvider ){
+	if( beanProvider == null )
+	    throw new IllegalArgumentException("The bean provider cannot be null!");
+
+	configuration = new Configuration( beanProvider );
+    }
+
+
+    /**
+     * Provides the bean provider in use.
+     * @return the bean provider
      */
-    private static XmlBeanFactory xmlBeanFactory = null;
-
-    static{
-	// configure the spring resource in order to get it available for the
-	// beans configurations. Please note that the configuration file must be
-	// in the classpath.
-	final String springConfigurationPath = "jfk.spring-beans.xml";
-	final ClassPathResource classPathResource = new ClassPathResource( springConfigurationPath );
-	xmlBeanFactory = new XmlBeanFactory(classPathResource);
+    public static IBeanProvider getBeanProvider(){
+	return getConfiguration().beanProvider;
     }
 
 
@@ -63,8 +159,18 @@ public class JFK {
      * the configuration.
      * @return the bean from the configuration of this system
      */
-    public static synchronized Object getBean( final Class clazz ){
-	return xmlBeanFactory.getBean( clazz.getSimpleName() );
+    public static Object getBean( final Class clazz ){
+	return getConfiguration().getBean( clazz.getSimpleName() );
+    }
+
+
+    /**
+     * Gets a bean (pluggable and configurable) for the system by its name in the configuration.
+     * @param name the name (id) of the bean in the configuration
+     * @return the bean from the configuration of this system
+     */
+    public static Object getBean( final String name ){
+	return getConfiguration().getBean( name );
     }
 
 
@@ -72,8 +178,8 @@ public class JFK {
      * Provides the default closure builder for this configuration.
      * @return the closure builder for the configuration
      */
-    public synchronized static IClosureBuilder getClosureBuilder() {
-	return xmlBeanFactory.getBean( IClosureBuilder.class );
+    public static IClosureBuilder getClosureBuilder() {
+	return (IClosureBuilder) getBean( IClosureBuilder.class );
     }
 
 
@@ -82,8 +188,26 @@ public class JFK {
      * to implement a delegate.
      * @return the delegate connector
      */
-    public static synchronized IDelegateConnector getDelegateConnector() {
-	return xmlBeanFactory.getBean( IDelegateConnector.class );
+    public static IDelegateConnector getDelegateConnector() {
+	return (IDelegateConnector) getBean( IDelegateConnector.class );
+    }
+
+
+    /**
+     * Provides the handler of the failures of the delegates added to the delegatable objects.
+     * @return the delegate error handler
+     */
+    public static IDelegateErrorHandler getDelegateErrorHandler(){
+	return (IDelegateErrorHandler) getBean( IDelegateErrorHandler.class );
+    }
+
+
+    /**
+     * Provides the executor that calls the delegates of the asynchronous and parallel delegate methods.
+     * @return the delegate executor
+     */
+    public static Executor getDelegateExecutor(){
+	return (Executor) getBean( "DelegateExecutor" );
     }
 
 
@@ -91,8 +215,8 @@ public class JFK {
      * Provides the default delegate manager to use in this configuration.
      * @return the delegate manager to use
      */
-    public static synchronized IDelegateManager getDelegateManager(){
-	return xmlBeanFactory.getBean( IDelegateManager.class );
+    public static IDelegateManager getDelegateManager(){
+	return (IDelegateManager) getBean( IDelegateManager.class );
     }
 
 
@@ -102,8 +226,8 @@ public class JFK {
      * and every function identifier.
      * @return the function builder to use in the current system configuration
      */
-    public static synchronized IFunctionBuilder getFunctionBuilder(){
-	return (IFunctionBuilder) xmlBeanFactory.getBean( IFunctionBuilder.class.getSimpleName() );
+    public static IFunctionBuilder getFunctionBuilder(){
+	return (IFunctionBuilder) getBean( IFunctionBuilder.class );
     }
 
 
@@ -111,8 +235,8 @@ public class JFK {
      * Provides the interface for working with roles.
      * @return the role interface to use
      */
-    public static synchronized IRoleManager getRoleManager() {
-    	return (IRoleManager) xmlBeanFactory.getBean(IRoleManager.class);
+    public static IRoleManager getRoleManager() {
+    	return (IRoleManager) getBean( IRoleManager.class );
     }
 
 
@@ -0,0 +1,466 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jfk.function.classloaders.BytecodeCache;
+import jfk.function.classloaders.GeneratorStatistics;
+import jfk.function.impl.ClosureCache;
+import jfk.function.impl.DelegateDispatcher;
+import jfk.function.impl.FunctionBuilderImpl;
+import jfk.function.impl.FunctionFactoryCache;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The run-time metrics of JFK, exposed as an MXBean named {@value #OBJECT_NAME}.
+ * The generator and cache metrics are always available, since they are collected anyway.
+ * The function and delegate metrics must be enabled: only the functions whose name is in
+ * {@link #getMeteredFunctions()} are metered, and only the delegates implemented while
+ * {@link #isDelegateMetrics()} is true count their dispatches. Functions and delegates
+ * built while the metrics are disabled do not pay anything for them.
+ * <p>
+ * The MXBean is registered in the platform MBean server with {@link #registerMBean()}, or
+ * at the first JFK lookup if the {@value #JMX_PROPERTY} system property is true.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class Metrics implements MetricsMXBean {
+
+    /**
+     * The name of the MXBean.
+     */
+    public static final String OBJECT_NAME = "jfk:type=Metrics";
+
+    /**
+     * The system property that registers the MXBean at startup.
+     */
+    public static final String JMX_PROPERTY = "jfk.metrics.jmx";
+
+    /**
+     * The name that meters all the functions.
+     */
+    public static final String ALL_FUNCTIONS = "*";
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( Metrics.class );
+
+    /**
+     * The only instance.
+     */
+    private static final Metrics instance = new Metrics();
+
+    /**
+     * The names of the metered functions (never modified, replaced when changed).
+     */
+    private volatile Set<String> meteredFunctions = Collections.emptySet();
+
+    /**
+     * The metrics of the metered functions, by qualified name.
+     */
+    private final ConcurrentHashMap<String, FunctionMetrics> functionMetrics = new ConcurrentHashMap<String, FunctionMetrics>();
+
+    /**
+     * If true the delegates implemented from now on count their dispatches.
+     */
+    private volatile boolean delegateMetrics = false;
+
+    /**
+     * The dispatches of the delegates, by qualified name.
+     */
+    private final ConcurrentHashMap<String, LongAdder> delegateDispatches = new ConcurrentHashMap<String, LongAdder>();
+
+
+    private Metrics(){
+	super();
+    }
+
+
+    /**
+     * Provides the metrics.
+     * @return the only instance of the metrics
+     */
+    public static Metrics getInstance(){
+	return instance;
+    }
+
+
+    /**
+     * Registers the metrics in the platform MBean server, if not already registered.
+     * @return true if the metrics are registered
+     */
+    public static synchronized boolean registerMBean(){
+	try {
+	    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    final ObjectName name = new ObjectName( OBJECT_NAME );
+	    if( ! server.isRegistered( name ) )
+		server.registerMBean( instance, name );
+
+	    return true;
+	} catch (final InstanceAlreadyExistsException e) {
+	    return true;
+	} catch (final JMException e) {
+	    logger.error("Cannot register the metrics MXBean", e );
+	    return false;
+	}
+    }
+
+
+    /**
+     * Unregisters the metrics from the platform MBean server.
+     */
+    public static synchronized void unregisterMBean(){
+	try {
+	    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    final ObjectName name = new ObjectName( OBJECT_NAME );
+	    if( server.isRegistered( name ) )
+		server.unregisterMBean( name );
+	} catch (final JMException e) {
+	    logger.error("Cannot unregister the metrics MXBean", e );
+	}
+    }
+
+
+    /**
+     * Provides the metrics of a function, if it has to be metered.
+     * @param targetClass the class of the target object of the function
+     * @param name the name of the function
+     * @return the metrics of the function, or null if the function is not metered
+     */
+    public final FunctionMetrics getFunctionMetrics( final Class targetClass, final String name ){
+	final Set<String> metered = meteredFunctions;
+	if( metered.isEmpty() )
+	    return null;
+
+	final String qualifiedName = targetClass.getName() + "#" + name;
+	if( ! ( metered.contains( ALL_FUNCTIONS ) || metered.contains( name ) || metered.contains( qualifiedName ) ) )
+	    return null;
+
+	FunctionMetrics metrics = functionMetrics.get( qualifiedName );
+	if( metrics == null ){
+	    final FunctionMetrics newMetrics = new FunctionMetrics( qualifiedName );
+	    metrics = functionMetrics.putIfAbsent( qualifiedName, newMetrics );
+	    if( metrics == null )
+		metrics = newMetrics;
+	}
+
+	return metrics;
+    }
+
+
+    /**
+     * Counts a dispatch of a delegate. This is called by the delegates implemented while
+     * the delegate metrics are enabled.
+     * @param delegate the delegatable class and the delegate method name separated by a '#'
+     */
+    public static void delegateDispatched( final String delegate ){
+	LongAdder dispatches = instance.delegateDispatches.get( delegate );
+	if( dispatches == null ){
+	    final LongAdder newDispatches = new LongAdder();
+	    dispatches = instance.delegateDispatches.putIfAbsent( delegate, newDispatches );
+	    if( dispatches == null )
+		dispatches = newDispatches;
+	}
+
+	dispatches.increment();
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getDefinedClasses()
+     */
+    @Override
+    public Map<String, Long> getDefinedClasses(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final GeneratorStatistics generator : GeneratorStatistics.values() )
+	    result.put( generator.name(), generator.getDefinedClasses() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getBytecodeBytes()
+     */
+    @Override
+    public Map<String, Long> getBytecodeBytes(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final GeneratorStatistics generator : GeneratorStatistics.values() )
+	    result.put( generator.name(), generator.getBytecodeBytes() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getCachedClasses()
+     */
+    @Override
+    public Map<String, Long> getCachedClasses(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final GeneratorStatistics generator : GeneratorStatistics.values() )
+	    result.put( generator.name(), generator.getCachedClasses() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getGenerationTimes()
+     */
+    @Override
+    public Map<String, Long> getGenerationTimes(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final GeneratorStatistics generator : GeneratorStatistics.values() )
+	    result.put( generator.name(), TimeUnit.NANOSECONDS.toMillis( generator.getGenerationTime() ) );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getBoundFunctions()
+     */
+    @Override
+    public long getBoundFunctions(){
+	final FunctionBuilderImpl builder = getFunctionBuilder();
+	if( builder == null )
+	    return 0;
+
+	return builder.getFunctionCache().getHits() + builder.getFunctionCache().getMisses();
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getMeteredFunctions()
+     */
+    @Override
+    public String getMeteredFunctions(){
+	final StringBuffer names = new StringBuffer();
+	for( final String name : new TreeSet<String>( meteredFunctions ) ){
+	    if( names.length() > 0 )
+		names.append( "," );
+	    names.append( name );
+	}
+
+	return names.toString();
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#setMeteredFunctions(java.lang.String)
+     */
+    @Override
+    public void setMeteredFunctions( final String meteredFunctions ){
+	final Set<String> names = new HashSet<String>();
+	if( meteredFunctions != null )
+	    for( final String name : meteredFunctions.split( "," ) )
+		if( name.trim().length() > 0 )
+		    names.add( name.trim() );
+
+	this.meteredFunctions = ( names.isEmpty() ? Collections.<String>emptySet() : Collections.unmodifiableSet( names ) );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getFunctionInvocations()
+     */
+    @Override
+    public Map<String, Long> getFunctionInvocations(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final FunctionMetrics metrics : functionMetrics.values() )
+	    result.put( metrics.getName(), metrics.getInvocations() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getFunctionMeanLatencies()
+     */
+    @Override
+    public Map<String, Long> getFunctionMeanLatencies(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final FunctionMetrics metrics : functionMetrics.values() )
+	    result.put( metrics.getName(), metrics.getMeanLatency() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getFunctionLatencyHistograms()
+     */
+    @Override
+    public Map<String, long[]> getFunctionLatencyHistograms(){
+	final Map<String, long[]> result = new TreeMap<String, long[]>();
+	for( final FunctionMetrics metrics : functionMetrics.values() )
+	    result.put( metrics.getName(), metrics.getHistogram() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#isDelegateMetrics()
+     */
+    @Override
+    public boolean isDelegateMetrics(){
+	return delegateMetrics;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#setDelegateMetrics(boolean)
+     */
+    @Override
+    public void setDelegateMetrics( final boolean delegateMetrics ){
+	this.delegateMetrics = delegateMetrics;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getDelegateDispatches()
+     */
+    @Override
+    public Map<String, Long> getDelegateDispatches(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final Map.Entry<String, LongAdder> dispatches : delegateDispatches.entrySet() )
+	    result.put( dispatches.getKey(), dispatches.getValue().sum() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getDelegateQueueDepths()
+     */
+    @Override
+    public Map<String, Integer> getDelegateQueueDepths(){
+	final Map<String, Integer> result = new TreeMap<String, Integer>();
+	for( final DelegateDispatcher dispatcher : DelegateDispatcher.getDispatchers() )
+	    result.put( dispatcher.getName(), dispatcher.getQueueDepth() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getDelegateQueueDrops()
+     */
+    @Override
+    public Map<String, Long> getDelegateQueueDrops(){
+	final Map<String, Long> result = new TreeMap<String, Long>();
+	for( final DelegateDispatcher dispatcher : DelegateDispatcher.getDispatchers() )
+	    result.put( dispatcher.getName(), dispatcher.getDropped() );
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#getCacheHitRates()
+     */
+    @Override
+    public Map<String, Double> getCacheHitRates(){
+	final Map<String, Double> result = new TreeMap<String, Double>();
+	final FunctionBuilderImpl builder = getFunctionBuilder();
+	if( builder != null ){
+	    final FunctionFactoryCache functionCache = builder.getFunctionCache();
+	    final FunctionFactoryCache delegateCache = builder.getDelegateFunctionCache();
+	    result.put( "functions", getHitRate( functionCache.getHits(), functionCache.getMisses() ) );
+	    result.put( "delegateFunctions", getHitRate( delegateCache.getHits(), delegateCache.getMisses() ) );
+	}
+
+	try {
+	    final BytecodeCache bytecodeCache = (BytecodeCache) JFK.getBean( "BytecodeCache" );
+	    result.put( "bytecode", getHitRate( bytecodeCache.getHits(), bytecodeCache.getMisses() ) );
+	} catch (final RuntimeException e) {
+	    // the configuration has no bytecode cache
+	}
+
+	try {
+	    final ClosureCache closureCache = (ClosureCache) JFK.getBean( "ClosureCache" );
+	    result.put( "closures", getHitRate( closureCache.getHits(), closureCache.getMisses() ) );
+	} catch (final RuntimeException e) {
+	    // the configuration has no closure cache
+	}
+
+	return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.MetricsMXBean#reset()
+     */
+    @Override
+    public void reset(){
+	// the metered functions keep their metrics, so the metrics are cleared and not discarded
+	for( final FunctionMetrics metrics : functionMetrics.values() )
+	    metrics.reset();
+	for( final LongAdder dispatches : delegateDispatches.values() )
+	    dispatches.reset();
+	for( final DelegateDispatcher dispatcher : DelegateDispatcher.getDispatchers() )
+	    dispatcher.reset();
+    }
+
+
+    /**
+     * Provides the function builder of the configuration, if it is the default implementation.
+     * @return the function builder or null
+     */
+    private static FunctionBuilderImpl getFunctionBuilder(){
+	final Object builder = JFK.getFunctionBuilder();
+	return ( builder instanceof FunctionBuilderImpl ? (FunctionBuilderImpl) builder : null );
+    }
+
+
+    /**
+     * Computes the hit rate of a cache.
+     * @return the hit rate, NaN if the cache has never been used
+     */
+    private static double getHitRate( final long hits, final long misses ){
+	return ( hits + misses == 0 ? Double.NaN : ( (double) hits ) / ( hits + misses ) );
+    }
+
+}
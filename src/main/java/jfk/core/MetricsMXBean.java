@@ -0,0 +1,147 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+import java.util.Map;
+
+/**
+ * The management interface of the JFK metrics, registered as <code>jfk:type=Metrics</code>.
+ * The maps are keyed by generator (FUNCTION, CLOSURE, DELEGATE, ROLE), by function
+ * (target class and function name separated by a '#'), by delegate (delegatable class and
+ * delegate method separated by a '#') or by cache.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Provides the number of classes defined by each generator.
+     * @return the number of classes by generator
+     */
+    public Map<String, Long> getDefinedClasses();
+
+    /**
+     * Provides the amount of bytecode defined by each generator.
+     * @return the number of bytes by generator
+     */
+    public Map<String, Long> getBytecodeBytes();
+
+    /**
+     * Provides the number of classes each generator loaded from the bytecode cache.
+     * @return the number of cached classes by generator
+     */
+    public Map<String, Long> getCachedClasses();
+
+    /**
+     * Provides the time spent by each generator generating bytecode.
+     * @return the generation time in milliseconds by generator
+     */
+    public Map<String, Long> getGenerationTimes();
+
+    /**
+     * Provides the number of functions bound so far by the function builder.
+     * @return the number of bound functions
+     */
+    public long getBoundFunctions();
+
+    /**
+     * Provides the names of the metered functions.
+     * @return a comma separated list of function names (either simple or qualified
+     * by the target class), or * for all the functions
+     */
+    public String getMeteredFunctions();
+
+    /**
+     * Sets the functions to meter. Only the functions bound from now on are metered.
+     * @param meteredFunctions a comma separated list of function names (either simple or qualified
+     * by the target class), * for all the functions, or an empty string to meter none
+     */
+    public void setMeteredFunctions( String meteredFunctions );
+
+    /**
+     * Provides the number of calls of each metered function.
+     * @return the number of calls by function
+     */
+    public Map<String, Long> getFunctionInvocations();
+
+    /**
+     * Provides the mean latency of each metered function.
+     * @return the mean latency in nanoseconds by function
+     */
+    public Map<String, Long> getFunctionMeanLatencies();
+
+    /**
+     * Provides the latency histogram of each metered function (see {@link FunctionMetrics}).
+     * @return the histogram by function
+     */
+    public Map<String, long[]> getFunctionLatencyHistograms();
+
+    /**
+     * Tells if the dispatches of the delegates are counted.
+     * @return true if the delegate dispatches are counted
+     */
+    public boolean isDelegateMetrics();
+
+    /**
+     * Sets if the dispatches of the delegates are counted. Only the delegates implemented
+     * from now on are counted.
+     * @param delegateMetrics true to count the delegate dispatches
+     */
+    public void setDelegateMetrics( boolean delegateMetrics );
+
+    /**
+     * Provides the number of dispatches of each delegate.
+     * @return the number of dispatches by delegate
+     */
+    public Map<String, Long> getDelegateDispatches();
+
+    /**
+     * Provides the depth of the queue of each asynchronous or parallel delegate, that is the number
+     * of its calls submitted and not completed yet.
+     * @return the pending calls by delegate
+     */
+    public Map<String, Integer> getDelegateQueueDepths();
+
+    /**
+     * Provides the number of calls of each asynchronous or parallel delegate discarded because its
+     * queue was full.
+     * @return the dropped calls by delegate
+     */
+    public Map<String, Long> getDelegateQueueDrops();
+
+    /**
+     * Provides the hit rate of the caches: the function and delegate function caches of the
+     * function builder, the bytecode cache and the closure cache.
+     * @return the hit rate (between 0 and 1) by cache
+     */
+    public Map<String, Double> getCacheHitRates();
+
+    /**
+     * Clears the function and delegate metrics collected so far.
+     */
+    public void reset();
+
+}
@@ -0,0 +1,86 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.core;
+
+import org.springframework.beans.factory.xml.XmlBeanFactory;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * The bean provider that reads the beans from the spring xml configuration
+ * (jfk.spring-beans.xml) in the classpath. This is the provider used when no other
+ * provider has been configured.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class SpringBeanProvider implements IBeanProvider {
+
+    /**
+     * The path, in the classpath, of the default spring configuration.
+     */
+    public static final String DEFAULT_CONFIGURATION_PATH = "jfk.spring-beans.xml";
+
+    /**
+     * The spring xml bean factory, used to instantiate the beans.
+     */
+    private final XmlBeanFactory xmlBeanFactory;
+
+
+    /**
+     * Builds the provider over the default configuration.
+     */
+    public SpringBeanProvider() {
+	this( DEFAULT_CONFIGURATION_PATH );
+    }
+
+
+    /**
+     * Builds the provider over the specified configuration.
+     * @param springConfigurationPath the path of the configuration, that must be in the classpath
+     */
+    public SpringBeanProvider( final String springConfigurationPath ) {
+	super();
+	xmlBeanFactory = new XmlBeanFactory( new ClassPathResource( springConfigurationPath ) );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.IBeanProvider#getBean(java.lang.String)
+     */
+    @Override
+    public Object getBean( final String name ) {
+	return xmlBeanFactory.getBean( name );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.core.IBeanProvider#isSingleton(java.lang.String)
+     */
+    @Override
+    public boolean isSingleton( final String name ) {
+	return xmlBeanFactory.isSingleton( name );
+    }
+
+}
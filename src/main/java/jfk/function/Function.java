@@ -49,4 +49,14 @@ public @interface Function {
      * to a function pointer
      */
     public String name() default "";
+
+    /**
+     * Marks the function as trusted, that is the function object will not check the number and types
+     * of the arguments passed to the executeCall method. This makes the call cheaper, but a call with
+     * wrong arguments results in a runtime exception (e.g., a ClassCastException) instead of a
+     * BadArityException or BadParameterTypeException.
+     * 
+     * @return true if the arguments must not be checked
+     */
+    public boolean unchecked() default false;
 }
@@ -24,6 +24,11 @@
  */
 package jfk.function;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 import jfk.function.exception.ClosureException;
 
 /**
@@ -44,4 +49,57 @@ public interface IClosureBuilder {
      * @throws ClosureException if something has gone wrong with the closure construction (e.g., the code is not valid)
      */
     public IClosure buildClosure( String code ) throws ClosureException;
+
+
+
+    /**
+     * Builds a closure that captures some variables. Each captured variable is a field of the
+     * closure, that the code refers to by its name, initialized with the captured value.
+     * The type of the field is the class of the value (the primitive type for the wrapper classes),
+     * so the closures built from the same code with values of the same types share
+     * the same compiled class, whatever the values are.
+     * 
+     * @param code the Java code of the closure
+     * @param capturedValues the values of the captured variables, by name
+     * @return the closure to use
+     * @throws ClosureException if something has gone wrong with the closure construction (e.g., the code is not valid)
+     */
+    public IClosure buildClosure( String code, Map<String, ?> capturedValues ) throws ClosureException;
+
+
+
+    /**
+     * Builds many closures at once. The closures that have not been compiled yet are compiled
+     * in a single pass, and the same code is compiled only once, so building a set of closures
+     * is much cheaper than building each of them.
+     * 
+     * @param codes the Java code of each closure
+     * @return the closures, in the same order of their code
+     * @throws ClosureException if something has gone wrong with the construction of any closure
+     */
+    public List<IClosure> buildClosures( Collection<String> codes ) throws ClosureException;
+
+
+
+    /**
+     * Builds a closure in background, so that the caller does not wait for its compilation.
+     * 
+     * @param code the Java code of the closure
+     * @return the future closure; its get method throws an ExecutionException
+     *         wrapping the ClosureException if the closure cannot be built
+     */
+    public Future<IClosure> buildClosureAsync( String code );
+
+
+
+    /**
+     * Builds in background a closure that captures some variables
+     * (see {@link #buildClosure(String, Map)}).
+     * 
+     * @param code the Java code of the closure
+     * @param capturedValues the values of the captured variables, by name
+     * @return the future closure; its get method throws an ExecutionException
+     *         wrapping the ClosureException if the closure cannot be built
+     */
+    public Future<IClosure> buildClosureAsync( String code, Map<String, ?> capturedValues );
 }
@@ -0,0 +1,45 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function;
+
+/**
+ * A function bound to a method that accepts two <code>double</code> arguments and returns a <code>double</code>.
+ * A bound function implements this interface when the signature of the target method matches
+ * exactly, so that it can be invoked without any allocation or boxing.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public interface IDoubleFunction2 extends IFunction {
+
+    /**
+     * Invokes the target method.
+     * @param arg0 the argument number 0 of the target method
+     * @param arg1 the argument number 1 of the target method
+     * @return the result of the target method
+     */
+    public double callDouble( double arg0, double arg1 );
+
+}
@@ -0,0 +1,76 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import jfk.function.exception.BadArityException;
+import jfk.function.exception.BadParameterTypeException;
+
+/**
+ * The failure path of the argument checks compiled into the generated functions.
+ * The generated <i>executeCall</i> methods only contain the (cheap) arity and
+ * <i>instanceof</i> tests, and delegate to this class the construction of the exception
+ * to throw, so that the generated code stays small enough to be inlined.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class ArgumentChecks {
+
+    /**
+     * Not instantiable.
+     */
+    private ArgumentChecks() {
+	super();
+    }
+
+
+    /**
+     * Builds the exception for a call with the wrong number of arguments.
+     * @param requiredArity the number of arguments the function requires
+     * @param arguments the arguments supplied (can be null)
+     * @return the exception to throw
+     */
+    public static BadArityException badArity( final int requiredArity, final Object[] arguments ){
+	final BadArityException bae = new BadArityException("Bad arity!");
+	bae.setRequiredArity( requiredArity );
+	bae.setSuppliedArity( (arguments != null ? arguments.length : 0) );
+	return bae;
+    }
+
+
+    /**
+     * Builds the exception for a call with an argument of the wrong type.
+     * @param requiredType the type required (the wrapper type for primitive parameters)
+     * @param argument the argument supplied (can be null)
+     * @return the exception to throw
+     */
+    public static BadParameterTypeException badParameterType( final Class requiredType, final Object argument ){
+	final BadParameterTypeException bpe = new BadParameterTypeException("Bad parameter type!");
+	bpe.setRequiredType( requiredType );
+	bpe.setSuppliedType( (argument != null ? argument.getClass() : Void.class) );
+	return bpe;
+    }
+
+}
@@ -0,0 +1,362 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javassist.CtClass;
+import jfk.function.impl.DelegateBatchStub;
+import jfk.function.impl.DelegateDispatcher;
+import jfk.function.impl.DelegateListenerList;
+import jfk.function.impl.DelegateRingBuffer;
+import jfk.function.impl.IDelegateCall;
+import jfk.function.impl.IDelegateStub;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A cache of the generated bytecode stored on the disk, so that the classes generated
+ * by a run can be loaded directly by the following ones without compiling them again.
+ * Each class is stored in a file of the cache directory, named after a key computed as a hash
+ * of everything the generated code depends on: the version and the bytecode of the generators, of the run-time
+ * classes the generated code links against and the version of javassist, the bytes of the classes involved (e.g., the target class of a function) and the strings that drive the generation
+ * (e.g., the method signature or the closure code). Whenever one of them changes the key changes
+ * and the class is generated again.
+ * <p>
+ * The cache can be shared among several processes: the entries are written to a temporary file
+ * and then atomically renamed, so that a reader sees either a complete entry or none. Since
+ * the key identifies the bytecode, two processes storing the same entry store the same content.
+ * <p>
+ * The cache is disabled if no directory is set.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class BytecodeCache {
+
+    /**
+     * The version of the code generators. It must be changed every time the generated code
+     * changes, so that the entries of the previous versions are no more used; the bytecode of the
+     * generators is part of the keys too, so that a forgotten change does not reuse stale entries.
+     */
+    public static final String GENERATOR_VERSION = "jfk-2";
+
+    /**
+     * The classes that generate the cached code, or whose members the cached code calls.
+     */
+    private static final Class[] GENERATOR_CLASSES = { FunctionClassLoader.class, ClosureClassLoader.class, DelegateClassLoader.class,
+						       DelegateStubs.class, ArgumentChecks.class, ClassLoaderUtils.class,
+						       DelegateListenerList.class, DelegateDispatcher.class, DelegateRingBuffer.class,
+						       IDelegateCall.class, IDelegateStub.class, DelegateBatchStub.class };
+
+    /**
+     * The hash of the bytecode of the generators, computed once.
+     */
+    private static final class GeneratorHash {
+	static final byte[] hash = computeGeneratorHash();
+    }
+
+    /**
+     * The extension of the cache entries.
+     */
+    private static final String ENTRY_EXTENSION = ".class";
+
+    /**
+     * The length of the key part used in the class names.
+     */
+    private static final int CLASS_NAME_KEY_LENGTH = 16;
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( BytecodeCache.class );
+
+    /**
+     * The directory that contains the entries, null if the cache is disabled.
+     */
+    private File directory = null;
+
+    /**
+     * The number of classes found in the cache and the number of classes not found.
+     */
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+
+
+    /**
+     * Tells if the cache is enabled, that is if it has a directory.
+     * @return true if the cache is enabled
+     */
+    public synchronized final boolean isEnabled(){
+	return directory != null;
+    }
+
+
+    /**
+     * Provides the directory of the cache.
+     * @return the path of the directory, or an empty string if the cache is disabled
+     */
+    public synchronized final String getDirectory() {
+	return ( directory == null ? "" : directory.getPath() );
+    }
+
+
+    /**
+     * Sets the directory of the cache, that is created if it does not exist.
+     * @param directory the path of the directory, or an empty string (or null) to disable the cache
+     */
+    public synchronized final void setDirectory(final String directory) {
+	if( (directory == null) || (directory.trim().length() == 0) ){
+	    this.directory = null;
+	    return;
+	}
+
+	final File cacheDirectory = new File( directory.trim() );
+	if( (! cacheDirectory.isDirectory()) && (! cacheDirectory.mkdirs()) && (! cacheDirectory.isDirectory()) )
+	    throw new IllegalArgumentException("Cannot create the bytecode cache directory " + cacheDirectory );
+
+	this.directory = cacheDirectory;
+    }
+
+
+    /**
+     * Computes the key of a generated class. Each part of the key can be a class, whose bytecode
+     * is used (so that the key changes if the class is recompiled), or any other object, whose string
+     * representation is used.
+     * @param parts the parts the generated class depends on
+     * @return the key of the class, or null if the class cannot be cached (the cache is disabled
+     * or the bytecode of a class is not available, as for a class generated at run-time)
+     */
+    public final String computeKey( final Object... parts ){
+	if( ! isEnabled() )
+	    return null;
+
+	try {
+	    final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+	    digest.update( GENERATOR_VERSION.getBytes( StandardCharsets.UTF_8 ) );
+	    digest.update( GeneratorHash.hash );
+
+	    for( final Object part : parts ){
+		// separate the parts, so that they cannot be mixed up
+		digest.update( (byte) 0 );
+
+		if( part instanceof Class ){
+		    final byte[] classBytes = getClassBytes( (Class) part );
+		    if( classBytes == null )
+			return null;
+
+		    digest.update( ((Class) part).getName().getBytes( StandardCharsets.UTF_8 ) );
+		    digest.update( classBytes );
+		}
+		else
+		    digest.update( String.valueOf( part ).getBytes( StandardCharsets.UTF_8 ) );
+	    }
+
+	    final StringBuffer key = new StringBuffer( 64 );
+	    for( final byte b : digest.digest() )
+		key.append( String.format( "%02x", b & 0xff ) );
+
+	    return key.toString();
+
+	} catch (final NoSuchAlgorithmException e) {
+	    logger.error("Cannot compute the key of the bytecode cache", e);
+	    return null;
+	} catch (final IOException e) {
+	    logger.error("Cannot read the class to compute the key of the bytecode cache", e);
+	    return null;
+	}
+    }
+
+
+    /**
+     * Computes the hash of the version of javassist and of the bytecode of the generators.
+     * @return the hash, empty if the bytecode of the generators is not available
+     */
+    private static byte[] computeGeneratorHash(){
+	try {
+	    final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+	    digest.update( CtClass.version.getBytes( StandardCharsets.UTF_8 ) );
+	    for( final Class generator : GENERATOR_CLASSES ){
+		final byte[] classBytes = getClassBytes( generator );
+		if( classBytes == null )
+		    return new byte[0];
+
+		digest.update( classBytes );
+	    }
+
+	    return digest.digest();
+
+	} catch (final NoSuchAlgorithmException e) {
+	    logger.error("Cannot compute the hash of the generators", e);
+	    return new byte[0];
+	} catch (final IOException e) {
+	    logger.error("Cannot read the generators to compute their hash", e);
+	    return new byte[0];
+	}
+    }
+
+
+    /**
+     * Provides the deterministic name of a class to store in the cache: the same key produces
+     * the same name, so that the cached bytecode can be defined in another run.
+     * @param baseName the name of the class without any unique part
+     * @param key the key of the class
+     * @return the name of the class
+     */
+    public static String getClassName( final String baseName, final String key ){
+	return baseName + "_" + key.substring( 0, CLASS_NAME_KEY_LENGTH );
+    }
+
+
+    /**
+     * Loads the bytecode of a class.
+     * @param key the key of the class
+     * @return the bytecode or null if the class is not in the cache
+     */
+    public final byte[] load( final String key ){
+	if( (key == null) || (! isEnabled()) )
+	    return null;
+
+	final File entry = new File( directory, key + ENTRY_EXTENSION );
+	try {
+	    if( entry.isFile() ){
+		final byte[] bytecode = Files.readAllBytes( entry.toPath() );
+		if( isClassFile( bytecode ) ){
+		    hits.incrementAndGet();
+		    if( logger.isDebugEnabled() )
+			logger.debug("Bytecode cache hit for " + key );
+		    return bytecode;
+		}
+
+		logger.warn("Ignoring the invalid bytecode cache entry " + entry );
+	    }
+	} catch (final IOException e) {
+	    logger.warn("Cannot read the bytecode cache entry " + entry, e );
+	}
+
+	misses.incrementAndGet();
+	return null;
+    }
+
+
+    /**
+     * Stores the bytecode of a class. The entry is written to a temporary file and then renamed,
+     * so that other processes never read a partial entry. A failure is only logged, since the
+     * class has been generated anyway.
+     * @param key the key of the class
+     * @param bytecode the bytecode of the class
+     */
+    public final void store( final String key, final byte[] bytecode ){
+	if( (key == null) || (bytecode == null) || (! isEnabled()) )
+	    return;
+
+	File temporaryEntry = null;
+	try {
+	    temporaryEntry = File.createTempFile( key, ".tmp", directory );
+	    Files.write( temporaryEntry.toPath(), bytecode );
+
+	    final File entry = new File( directory, key + ENTRY_EXTENSION );
+	    try {
+		Files.move( temporaryEntry.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE );
+	    } catch (final AtomicMoveNotSupportedException e) {
+		Files.move( temporaryEntry.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING );
+	    }
+
+	    if( logger.isDebugEnabled() )
+		logger.debug("Stored the bytecode cache entry " + entry );
+	} catch (final IOException e) {
+	    logger.warn("Cannot store the bytecode cache entry " + key, e );
+	    if( temporaryEntry != null )
+		temporaryEntry.delete();
+	}
+    }
+
+
+    /**
+     * Provides the number of classes loaded from the cache.
+     * @return the number of hits
+     */
+    public final long getHits(){
+	return hits.get();
+    }
+
+
+    /**
+     * Provides the number of classes searched and not found in the cache.
+     * @return the number of misses
+     */
+    public final long getMisses(){
+	return misses.get();
+    }
+
+
+    /**
+     * Checks if the bytes are a class file (i.e., they start with the magic number).
+     */
+    private static boolean isClassFile( final byte[] bytecode ){
+	return (bytecode.length > 4)
+		&& ((bytecode[ 0 ] & 0xff) == 0xca)
+		&& ((bytecode[ 1 ] & 0xff) == 0xfe)
+		&& ((bytecode[ 2 ] & 0xff) == 0xba)
+		&& ((bytecode[ 3 ] & 0xff) == 0xbe);
+    }
+
+
+    /**
+     * Reads the bytecode of a class from its class loader.
+     * @param clazz the class to read
+     * @return the bytecode of the class, or null if it is not available
+     * @throws IOException if the class file cannot be read
+     */
+    private static byte[] getClassBytes( final Class clazz ) throws IOException {
+	if( clazz.isHidden() || clazz.isPrimitive() || clazz.isArray() )
+	    return null;
+
+	final String resourceName = clazz.getName().replace( '.', '/' ) + ".class";
+	final ClassLoader loader  = clazz.getClassLoader();
+	final InputStream input   = ( loader == null
+				      ? ClassLoader.getSystemResourceAsStream( resourceName )
+				      : loader.getResourceAsStream( resourceName ) );
+	if( input == null )
+	    return null;
+
+	try {
+	    return input.readAllBytes();
+	} finally {
+	    input.close();
+	}
+    }
+
+}
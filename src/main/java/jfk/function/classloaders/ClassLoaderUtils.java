@@ -24,8 +24,12 @@
  */
 package jfk.function.classloaders;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
 import java.util.StringTokenizer;
 
+import javassist.CtClass;
+import javassist.NotFoundException;
 import jfk.function.Function;
 
 /**
@@ -178,6 +182,19 @@ public class ClassLoaderUtils {
     }
 
 
+    /**
+     * Provides a name for the class that implements a role on a target class.
+     * The name is compound by the simple name of the target class, the simple name
+     * of the role class and a unique numeric value, as for instance <tt>PersonTeacher_12</tt>.
+     * @param targetClass the class receiving the role
+     * @param roleClass the class of the role
+     * @return the name to use when defining the role class
+     */
+    public static synchronized String getRoleClassName( final Class targetClass, final Class roleClass ){
+	return targetClass.getSimpleName() + roleClass.getSimpleName() + "_" + (++counter);
+    }
+
+
     /**
      * Provide a standard name for the set target object method.
      * @return the standard name of the method
@@ -187,6 +204,203 @@ public class ClassLoaderUtils {
     }
 
 
+    /**
+     * Provides a standard name for the method of a weakly bound function that
+     * dereferences the target object.
+     * @return the standard name of the method
+     */
+    public static synchronized String getWeakTargetMethodName(){
+	return "__jfk_getTargetObject";
+    }
+
+
+    /**
+     * Provides the name of a type as it must appear in the source code compiled at run-time,
+     * that is the qualified name of the class with the array brackets (if any).
+     * @param type the type to get the name of
+     * @return the source code name of the type
+     */
+    public static String getSourceTypeName( final Class type ){
+	if( type.isArray() )
+	    return getSourceTypeName( type.getComponentType() ) + "[]";
+	else
+	    return type.getName();
+    }
+
+
+    /**
+     * Provides the wrapper class for a primitive type.
+     * @param type the type to wrap
+     * @return the wrapper class of the type if it is a primitive one, the type itself otherwise
+     */
+    public static Class getWrapperClass( final Class type ){
+	if( ! type.isPrimitive() )
+	    return type;
+	else if( Integer.TYPE.equals( type ) )
+	    return Integer.class;
+	else if( Long.TYPE.equals( type ) )
+	    return Long.class;
+	else if( Double.TYPE.equals( type ) )
+	    return Double.class;
+	else if( Float.TYPE.equals( type ) )
+	    return Float.class;
+	else if( Boolean.TYPE.equals( type ) )
+	    return Boolean.class;
+	else if( Character.TYPE.equals( type ) )
+	    return Character.class;
+	else if( Byte.TYPE.equals( type ) )
+	    return Byte.class;
+	else if( Short.TYPE.equals( type ) )
+	    return Short.class;
+	else
+	    return Void.class;
+    }
+
+
+    /**
+     * Provides the primitive type of a wrapper class.
+     * @param type the type to unwrap
+     * @return the primitive type if the type is a wrapper class, the type itself otherwise
+     */
+    public static Class getPrimitiveClass( final Class type ){
+	if( Integer.class.equals( type ) )
+	    return Integer.TYPE;
+	else if( Long.class.equals( type ) )
+	    return Long.TYPE;
+	else if( Double.class.equals( type ) )
+	    return Double.TYPE;
+	else if( Float.class.equals( type ) )
+	    return Float.TYPE;
+	else if( Boolean.class.equals( type ) )
+	    return Boolean.TYPE;
+	else if( Character.class.equals( type ) )
+	    return Character.TYPE;
+	else if( Byte.class.equals( type ) )
+	    return Byte.TYPE;
+	else if( Short.class.equals( type ) )
+	    return Short.TYPE;
+	else
+	    return type;
+    }
+
+
+    /**
+     * Provides the source code that converts an expression of type Object to the specified type,
+     * that is a cast for reference types and an unboxing for primitive types.
+     * @param type the type to convert the expression to
+     * @param expression the expression to convert
+     * @return the source code of the conversion
+     */
+    public static String getUnboxingSourceCode( final Class type, final String expression ){
+	if( ! type.isPrimitive() )
+	    return "((" + getSourceTypeName( type ) + ") " + expression + ")";
+	else
+	    return "((" + getWrapperClass( type ).getName() + ") " + expression + ")." + type.getName() + "Value()";
+    }
+
+
+    /**
+     * Provides the source code that converts an expression of the specified type to an Object,
+     * that is the expression itself for reference types and a boxing for primitive types.
+     * @param type the type of the expression
+     * @param expression the expression to convert
+     * @return the source code of the conversion
+     */
+    public static String getBoxingSourceCode( final Class type, final String expression ){
+	if( ! type.isPrimitive() )
+	    return expression;
+	else
+	    return getWrapperClass( type ).getName() + ".valueOf( " + expression + " )";
+    }
+
+
+    /**
+     * Provides the name of a class to define in the same package of the host class.
+     * Hidden classes must be defined in the package of the class that hosts them.
+     * @param hostClass the class whose package must be used
+     * @param name the simple name of the class
+     * @return the qualified name of the class
+     */
+    public static String getPackagedClassName( final Class hostClass, final String name ){
+	final String packageName = hostClass.getPackageName();
+	if( packageName.length() == 0 )
+	    return name;
+	else
+	    return packageName + "." + name;
+    }
+
+
+    /**
+     * Defines a hidden class in the package and class loader of the host class.
+     * A hidden class cannot be referenced by name from other classes, and is unloaded
+     * as soon as it is no more reachable, even if its class loader is still alive.
+     * The class name in the bytecode must be in the package of the host class
+     * (see {@link #getPackagedClassName(Class, String)}).
+     * @param hostClass the class that hosts the hidden class
+     * @param bytecode the bytecode of the class
+     * @return the hidden class
+     * @throws IllegalAccessException if the package of the host class is not open to JFK
+     */
+    public static Class defineHiddenClass( final Class hostClass, final byte[] bytecode ) throws IllegalAccessException {
+	return MethodHandles.privateLookupIn( hostClass, MethodHandles.lookup() )
+			    .defineHiddenClass( bytecode, true )
+			    .lookupClass();
+    }
+
+
+    /**
+     * Defines a class in the package and class loader of the host class, so that the classes
+     * of such loader can refer to it by name. The class is unloaded only with its class loader.
+     * The class name in the bytecode must be in the package of the host class
+     * (see {@link #getPackagedClassName(Class, String)}).
+     * @param hostClass the class whose package and loader are used
+     * @param bytecode the bytecode of the class
+     * @return the class
+     * @throws IllegalAccessException if the package of the host class is not open to JFK
+     */
+    public static Class defineClass( final Class hostClass, final byte[] bytecode ) throws IllegalAccessException {
+	return MethodHandles.privateLookupIn( hostClass, MethodHandles.lookup() )
+			    .defineClass( bytecode );
+    }
+
+
+    /**
+     * Provides the class corresponding to a javassist type.
+     * @param type the type to get the class of
+     * @param loader the class loader used to load the reference types
+     * @return the class of the type
+     * @throws NotFoundException if the class cannot be loaded
+     */
+    public static Class toClass( final CtClass type, final ClassLoader loader ) throws NotFoundException {
+	if( type.isArray() )
+	    return Array.newInstance( toClass( type.getComponentType(), loader ), 0 ).getClass();
+	else if( CtClass.intType.equals( type ) )
+	    return Integer.TYPE;
+	else if( CtClass.longType.equals( type ) )
+	    return Long.TYPE;
+	else if( CtClass.doubleType.equals( type ) )
+	    return Double.TYPE;
+	else if( CtClass.floatType.equals( type ) )
+	    return Float.TYPE;
+	else if( CtClass.booleanType.equals( type ) )
+	    return Boolean.TYPE;
+	else if( CtClass.charType.equals( type ) )
+	    return Character.TYPE;
+	else if( CtClass.byteType.equals( type ) )
+	    return Byte.TYPE;
+	else if( CtClass.shortType.equals( type ) )
+	    return Short.TYPE;
+	else if( CtClass.voidType.equals( type ) )
+	    return Void.TYPE;
+
+	try {
+	    return Class.forName( type.getName(), false, loader );
+	} catch (final ClassNotFoundException e) {
+	    throw new NotFoundException( type.getName(), e );
+	}
+    }
+
+
     /**
      * Changes the '.' in a class name with a '_'.
      * @param className the name of the class
@@ -0,0 +1,320 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.LoaderClassPath;
+import javassist.bytecode.ClassFile;
+
+/**
+ * Manages the javassist class pools used by the generators.
+ * Each generator has its own pool for each class loader the generated classes depend on
+ * (e.g., the class loader of the target class of a function), so that the pool
+ * finds the classes of such loader and is discarded when the loader is garbage collected.
+ * <p>
+ * A pool retains two kind of entries: the classes being generated, that are removed as soon
+ * as their bytecode is produced (see {@link #toBytecode(CtClass)}), and the classes read from
+ * the class path (e.g., the target classes), that are kept to speed up the following generations
+ * but are bounded to {@link #getMaxEntries()} for each pool, evicting the least recently cached ones.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class ClassPoolManager {
+
+    /**
+     * The default number of class path entries retained by each pool.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * The pools of each class loader, indexed by the generator.
+     * The pools do not keep their class loader strongly reachable.
+     */
+    private static final Map<ClassLoader, BoundedClassPool[]> pools = new WeakHashMap<ClassLoader, BoundedClassPool[]>();
+
+    /**
+     * The number of class path entries retained by each pool.
+     */
+    private static int maxEntries = DEFAULT_MAX_ENTRIES;
+
+
+
+    /**
+     * A class pool that bounds the entries read from the class path.
+     */
+    private static final class BoundedClassPool extends ClassPool {
+
+	/**
+	 * The names of the class path entries, from the least recently cached one.
+	 */
+	private final LinkedHashSet<String> classPathEntries = new LinkedHashSet<String>();
+
+
+	BoundedClassPool( final ClassLoader loader ){
+	    super( true );
+	    insertClassPath( new ClassClassPath( ClassPoolManager.class ) );
+	    insertClassPath( new LoaderClassPath( loader ) );
+	}
+
+
+	@Override
+	protected synchronized void cacheCtClass( final String className, final CtClass ctClass, final boolean dynamic ){
+	    super.cacheCtClass( className, ctClass, dynamic );
+
+	    // the dynamic classes are the ones being generated, that are removed once defined
+	    if( dynamic )
+		return;
+
+	    classPathEntries.remove( className );
+	    classPathEntries.add( className );
+	    evict( getMaxEntries() );
+	}
+
+
+	@Override
+	protected synchronized CtClass removeCached( final String className ){
+	    classPathEntries.remove( className );
+	    return super.removeCached( className );
+	}
+
+
+	/**
+	 * Removes the least recently cached class path entries, so that no more than the specified
+	 * number of entries is retained.
+	 */
+	synchronized void evict( final int retainedEntries ){
+	    final Iterator<String> names = classPathEntries.iterator();
+	    while( classPathEntries.size() > retainedEntries && names.hasNext() ){
+		final String className = names.next();
+		names.remove();
+		super.removeCached( className );
+	    }
+	}
+
+
+	/**
+	 * Provides the number of classes in the pool.
+	 */
+	synchronized int getEntries(){
+	    int entries = 0;
+	    for( final Object ctClass : classes.values() )
+		if( ! ((CtClass) ctClass).isPrimitive() )
+		    entries++;
+
+	    return entries;
+	}
+
+
+	/**
+	 * Provides the size of the class files retained by the pool.
+	 */
+	synchronized long getRetainedBytes(){
+	    final List<CtClass> retainedClasses = new ArrayList<CtClass>( classes.size() );
+	    for( final Object ctClass : classes.values() )
+		retainedClasses.add( (CtClass) ctClass );
+
+	    long bytes = 0;
+	    for( final CtClass ctClass : retainedClasses ){
+		if( ctClass.isPrimitive() || ctClass.isArray() )
+		    continue;
+
+		try {
+		    final ClassFile classFile = ctClass.getClassFile2();
+		    if( classFile == null )
+			continue;
+
+		    final CountingOutputStream counter = new CountingOutputStream();
+		    classFile.write( new DataOutputStream( counter ) );
+		    bytes += counter.size();
+		} catch (final IOException e) {
+		    // cannot be measured, skip it
+		} catch (final RuntimeException e) {
+		    // the class file is not available, skip it
+		}
+	    }
+
+	    return bytes;
+	}
+    }
+
+
+    /**
+     * An output stream that only counts the bytes written.
+     */
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+	@Override
+	public void write( final int b ){
+	    count++;
+	}
+
+	@Override
+	public void write( final byte[] b, final int offset, final int length ){
+	    count += length;
+	}
+    }
+
+
+
+    /**
+     * Not instantiable.
+     */
+    private ClassPoolManager() {
+	super();
+    }
+
+
+    /**
+     * Provides the pool a generator must use to generate classes that depend on the specified class loader.
+     * @param generator the generator that uses the pool
+     * @param loader the class loader whose classes are used by the generated code (the system
+     * class loader if null)
+     * @return the class pool
+     */
+    public static ClassPool getClassPool( final GeneratorStatistics generator, final ClassLoader loader ){
+	final ClassLoader poolLoader = ( loader == null ? ClassLoader.getSystemClassLoader() : loader );
+
+	synchronized( pools ){
+	    BoundedClassPool[] loaderPools = pools.get( poolLoader );
+	    if( loaderPools == null ){
+		loaderPools = new BoundedClassPool[ GeneratorStatistics.values().length ];
+		pools.put( poolLoader, loaderPools );
+	    }
+
+	    if( loaderPools[ generator.ordinal() ] == null )
+		loaderPools[ generator.ordinal() ] = new BoundedClassPool( poolLoader );
+
+	    return loaderPools[ generator.ordinal() ];
+	}
+    }
+
+
+    /**
+     * Provides the bytecode of a generated class and removes the class from its pool, so that
+     * the pool does not retain it (and a class with the same name can be generated again).
+     * The bytecode is also dumped to the {@link Diagnostics}, if enabled.
+     * @param generatedClass the class generated
+     * @return the bytecode of the class
+     * @throws IOException if the bytecode cannot be produced
+     * @throws CannotCompileException if the class cannot be compiled
+     */
+    public static byte[] toBytecode( final CtClass generatedClass ) throws IOException, CannotCompileException {
+	try {
+	    final byte[] bytecode = generatedClass.toBytecode();
+	    Diagnostics.dumpClass( generatedClass.getName(), bytecode );
+	    return bytecode;
+	} finally {
+	    generatedClass.detach();
+	}
+    }
+
+
+    /**
+     * Provides the number of classes retained by all the pools of a generator.
+     * @param generator the generator
+     * @return the number of classes in the pools
+     */
+    public static int getEntries( final GeneratorStatistics generator ){
+	int entries = 0;
+	for( final BoundedClassPool pool : getPools( generator ) )
+	    entries += pool.getEntries();
+
+	return entries;
+    }
+
+
+    /**
+     * Provides an estimation of the memory used by all the pools of a generator, that is
+     * the size of the class files of the classes they retain. The in-memory representation
+     * is proportional to such size, and usually a few times bigger.
+     * This method is expensive, since it serializes each retained class.
+     * @param generator the generator
+     * @return the size of the class files retained, in bytes
+     */
+    public static long getRetainedBytes( final GeneratorStatistics generator ){
+	long bytes = 0;
+	for( final BoundedClassPool pool : getPools( generator ) )
+	    bytes += pool.getRetainedBytes();
+
+	return bytes;
+    }
+
+
+    /**
+     * Provides the number of class path entries retained by each pool.
+     * @return the maximum number of entries of a pool
+     */
+    public static synchronized int getMaxEntries(){
+	return maxEntries;
+    }
+
+
+    /**
+     * Sets the number of class path entries retained by each pool, evicting the exceeding entries
+     * from the existing pools.
+     * @param maxEntries the maximum number of entries of a pool
+     */
+    public static void setMaxEntries( final int maxEntries ){
+	if( maxEntries < 0 )
+	    throw new IllegalArgumentException("The number of entries of a class pool cannot be negative!");
+
+	synchronized( ClassPoolManager.class ){
+	    ClassPoolManager.maxEntries = maxEntries;
+	}
+
+	for( final GeneratorStatistics generator : GeneratorStatistics.values() )
+	    for( final BoundedClassPool pool : getPools( generator ) )
+		pool.evict( maxEntries );
+    }
+
+
+    /**
+     * Provides the existing pools of a generator.
+     */
+    private static List<BoundedClassPool> getPools( final GeneratorStatistics generator ){
+	final List<BoundedClassPool> generatorPools = new ArrayList<BoundedClassPool>();
+	synchronized( pools ){
+	    for( final BoundedClassPool[] loaderPools : pools.values() )
+		if( loaderPools[ generator.ordinal() ] != null )
+		    generatorPools.add( loaderPools[ generator.ordinal() ] );
+	}
+
+	return generatorPools;
+    }
+
+}
@@ -25,7 +25,11 @@
 package jfk.function.classloaders;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import javassist.CannotCompileException;
 import javassist.ClassPool;
@@ -33,16 +37,16 @@ import javassist.CtClass;
 import javassist.CtConstructor;
 import javassist.CtField;
 import javassist.CtMethod;
+import javassist.CtNewConstructor;
 import javassist.NotFoundException;
 import jfk.function.IClosure;
 import jfk.function.IFunction;
-import jfk.function.exception.BadArityException;
-import jfk.function.exception.BadParameterTypeException;
 import jfk.function.exception.ClosureException;
-import jfk.function.exception.TargetBindException;
 
 /**
  * The class loader to build a closure.
+ * The closure is a single class that contains the closure code as a method and
+ * implements the function interfaces invoking such method on itself.
  * 
  * @author Luca Ferrari - fluca1978 (at) gmail.com
  *
@@ -58,6 +62,12 @@ public class ClosureClassLoader extends FunctionClassLoader {
      */
     private String closureCode = null;
 
+    /**
+     * The types of the captured variables, by name, in the order of the captured values
+     * passed to the constructor of the closure.
+     */
+    private Map<String, Class> capturedTypes = Collections.emptyMap();
+
 
     /**
      * 
@@ -87,404 +97,261 @@ public class ClosureClassLoader extends FunctionClassLoader {
 	    }
 
 
-	    // get the class pool for working with classes and modifying them on the fly
-	    final ClassPool pool = ClassPool.getDefault();
-	    final CtClass baseProxyClass = null;
-
-	    // the array that will store the in-memory byte code
-	    byte[] bytecode = null;
-
-
-
-	    // I need also a ctclass for the target object
-	    // Since a closure does not have a target, I need to use a simple Object
-	    final String targetObjectClassName = ClassLoaderUtils.getClosureClassName();
-	    final CtClass targetObjectCtClass = pool.makeClass( targetObjectClassName );
-
-	    // compile the method passed and inject it into the target object
-	    logger.debug("Compiling the closure method code\n");
-	    logger.debug( closureCode );
-	    final CtMethod closureMethod = CtMethod.make( closureCode, targetObjectCtClass );
-	    targetObjectCtClass.addMethod(closureMethod);
-
-
-	    try{
-		// now I compile the class and create a new object
-		bytecode = targetObjectCtClass.toBytecode();
-		final Class compiledClosureClass = this.defineClass( targetObjectClassName, bytecode, 0, bytecode.length );
-		targetInstance = compiledClosureClass.newInstance();
-
-		// if here I've got the closure target object, get the method for such target object
-		for( final Method met : compiledClosureClass.getDeclaredMethods() )
-		    if( met.getName().equals( closureMethod.getName() ) ){
-			currentMethod = met;
-			break;
-		    }
-
-		// the method must be found
-		if( currentMethod == null )
-		    throw new ClassNotFoundException("Cannot find the closure implementation method");
-
-		logger.debug("Closure target object built: " + targetInstance.getClass() );
-
-	    }catch (final InstantiationException e) {
-		logger.error("Cannot instantiate class while defining closure target object", e);
-		throw new ClassNotFoundException("Instantiation problem while creating the closure target object", e);
-	    } catch (final IllegalAccessException e) {
-		logger.error("Cannot access class while defining closure target object", e);
-		throw new ClassNotFoundException("Access problem while defining the closure target object",  e);
+	    // the key of the class in the bytecode cache (null if the cache is not used)
+	    final String cacheKey = ( bytecodeCache == null
+				      ? null
+				      : bytecodeCache.computeKey( IClosure.class.getName(), closureCode, getCapturedSignature(), uncheckedInvocation, hiddenClasses ) );
+
+	    // I have to compute a name for the class to implement (hidden classes must be in the package of their host).
+	    // A cached class must have a name that depends only on its key, since the name is in the bytecode.
+	    String closureClassName = ( cacheKey == null
+					? ClassLoaderUtils.computeClosureClassName()
+					: BytecodeCache.getClassName( "Closure", cacheKey ) );
+	    if( hiddenClasses )
+		closureClassName = ClassLoaderUtils.getPackagedClassName( ClosureClassLoader.class, closureClassName );
+	    if( logger.isDebugEnabled() )
+		logger.debug("The new closure class name is " + closureClassName );
+
+	    // use the cached bytecode if any, otherwise generate the class
+	    byte[] bytecode = ( cacheKey == null ? null : bytecodeCache.load( cacheKey ) );
+	    if( bytecode != null )
+		GeneratorStatistics.CLOSURE.classCached();
+	    else {
+		final long generationStart = System.nanoTime();
+		bytecode = getClosureBytecode( closureClassName );
+		GeneratorStatistics.CLOSURE.classGenerated( System.nanoTime() - generationStart );
+		if( cacheKey != null )
+		    bytecodeCache.store( cacheKey, bytecode );
 	    }
 
+	    // the class loader is ready now
+	    synchronized( this ){
+		status = ClassLoaderStatus.READY;
+	    }
 
 
-	    // I have to compute a name for the class to implement.
-	    final String closureClassName = ClassLoaderUtils.computeClosureClassName();
-	    logger.debug("The new closure class name is " + closureClassName );
-
-	    // create a new class for the specified name
-	    final CtClass newClosureClass = pool.makeClass( closureClassName );
-
-
-
-	    // now the class has the new member, I need an empty constructor so to be sure that reflection
-	    // will work instantiating the class
-	    logger.debug("Creating a new empty constructor");
-	    final CtConstructor constructor = new CtConstructor(null, newClosureClass );
-	    constructor.setBody(";");
-	    newClosureClass.addConstructor(constructor);
-
-
-
-	    // now I have to add a field with the target object on which I'm going to call the method.
-	    // The idea is that the function object will have a private refence to the target object
-	    // on which it will call the method specified.
-	    final String privateReferenceName = ClassLoaderUtils.computePrivateTargetReferenceName( targetObjectClassName );
-	    logger.debug("The private reference to the target object will be " + privateReferenceName );
-
-	    // now that I've got the name, create the field to add to the new class
-	    final CtField privateReferenceField = new CtField( targetObjectCtClass,		// class type of the field 
-		    privateReferenceName, 		// field name
-		    newClosureClass 		// declaring class
-	    );
-	    // TODO make the modifier private
-	    //privateReferenceField.setModifiers(  )
-	    newClosureClass.addField( privateReferenceField );
-
-
-	    // now I need to implement the inteface IClosure
-	    final CtClass iClosureCtClass = pool.get( IClosure.class.getName() );
-	    newClosureClass.addInterface(iClosureCtClass);
-
-	    // now add the IFunction method implementation
-	    StringBuffer methodCode = new StringBuffer(1000);
-	    // WARNING: IClosure does not define any method, I have to go to the superclass which is a IFunction
-	    final CtClass functionCtClass = pool.get( IFunction.class.getName() );
-	    for( final CtMethod iFunctionMethod : functionCtClass.getDeclaredMethods() ){
-
-		logger.debug("Implementing the IClosure method " + iFunctionMethod.getName() );
-
-		// method name and qualifiers
-		methodCode.append( "public");
-		methodCode.append( " " );
-		methodCode.append( iFunctionMethod.getReturnType().getName() );
-		methodCode.append( " " );
-		methodCode.append( iFunctionMethod.getName() );
-		methodCode.append( "(" );
-
-		// parameter list
-		final CtClass params[] = iFunctionMethod.getParameterTypes();
-		for( int paramNumber = 0; (params != null) && (paramNumber < params.length); paramNumber++ ){
-		    if( paramNumber > 0 )
-			methodCode.append( ", ");
-
-		    methodCode.append( params[paramNumber].getName() );
-		    methodCode.append( " " );
-		    methodCode.append( "param" + paramNumber); 
-		}
-
-		methodCode.append( ") " );
-
-
-		// exception management
-		final CtClass exceptions[] = iFunctionMethod.getExceptionTypes();
-		if( (exceptions != null) && (exceptions.length > 0) ){
-		    methodCode.append( "throws " );
-
-		    for( int exceptionNumber = 0; exceptionNumber < exceptions.length; exceptionNumber++ ){
-			if( exceptionNumber > 0 )
-			    methodCode.append( ", " );
-
-			methodCode.append( exceptions[ exceptionNumber ].getName() );
-		    }
-		}
-
+	    GeneratorStatistics.CLOSURE.classDefined( bytecode.length );
+	    if( hiddenClasses )
+		return ClassLoaderUtils.defineHiddenClass( ClosureClassLoader.class, bytecode );
+	    else
+		return this.defineClass( closureClassName, bytecode, 0, bytecode.length );
 
 
-		// the body of the method starts here
-		methodCode.append( "\n{\n\t" );
+	} catch (final NotFoundException e) {
+	    logger.error("Exception caught while defining a class",e);
+	    throw new ClassNotFoundException("Cannot find class", e );
+	} catch (final IOException e) {
+	    throw new ClassNotFoundException("Cannot find class", e );
+	} catch (final CannotCompileException e) {
+	    logger.error("Cannot compile exception caught while definining a IFunction class ", e);
+	    throw new ClassNotFoundException("Cannot find class", e );
+	} catch (final IllegalAccessException e) {
+	    logger.error("Cannot define the hidden closure class", e);
+	    throw new ClassNotFoundException("Cannot define the hidden class", e );
+	} finally{
+	    // the class loader is ready now
+	    synchronized( this ){
+		status = ClassLoaderStatus.READY;
+	    }
+	}
 
+    }
 
 
 
 
-		// security checks: the method must receive the exact number of parameters!
-		final int requiredParameters = ( currentMethod.getParameterTypes() != null ? currentMethod.getParameterTypes().length : 0 );
-		if( requiredParameters > 0 ){
-		    methodCode.append(" if( param0 == null || param0.length != ");
-		    methodCode.append( currentMethod.getParameterTypes().length );
-		    methodCode.append( ")\n\t\t" );
-		    methodCode.append( "{\n\t\t\t" );
-		    methodCode.append( BadArityException.class.getName() );
-		    methodCode.append( " bae = new " );
-		    methodCode.append( BadArityException.class.getName() );
-		    methodCode.append( "(\"Bad arity!\");\n\n");
-		    methodCode.append( "\n\t\t\t" );
-		    methodCode.append( "bae.setRequiredArity( " );
-		    methodCode.append( requiredParameters );
-		    methodCode.append( " );" );
-		    methodCode.append( "\n\t\t\t" );
-		    methodCode.append( "bae.setSuppliedArity( (param0 != null ? param0.length : 0 ) );" );
-		    methodCode.append( "\n\t\t\t" );
-		    methodCode.append( "throw bae; " );
-		    methodCode.append( "\n\t\t" );
-		    methodCode.append( "}\n" );
-
-
-		    // another security check: the method must receive the exact type of the parameters
-		    final Class parameterTypes[] = currentMethod.getParameterTypes();
-
-		    for( int checkNumber = 0; checkNumber < parameterTypes.length; checkNumber ++ ){
-			methodCode.append( "\n\t" );
-			methodCode.append( "if( ! param0[" );
-			methodCode.append( checkNumber );
-			methodCode.append( "].getClass().getName().equals( \"" );
-			methodCode.append( parameterTypes[checkNumber].getName() );
-			methodCode.append( "\") )" );
-			methodCode.append( "\n\t\t" );
-			methodCode.append( "{\n\t\t\t" );
-			methodCode.append( BadParameterTypeException.class.getName() );
-			methodCode.append( " bpe = new " );
-			methodCode.append( BadParameterTypeException.class.getName() );
-			methodCode.append( "(\"Bad parameter type!\");\n\n");
-			methodCode.append( "\n\t\t\t" );
-			methodCode.append( "bpe.setRequiredType( ");
-			methodCode.append( parameterTypes[checkNumber].getName() );
-			methodCode.append( ".class" );
-			methodCode.append( " );" );
-			methodCode.append( "\n\t\t\t" );
-			methodCode.append( "bpe.setSuppliedType( (param0[" );
-			methodCode.append( checkNumber );
-			methodCode.append( "] != null ? param0[" );
-			methodCode.append( checkNumber );
-			methodCode.append( "].getClass() : java.lang.Void.class) );" );
-			methodCode.append( "\n\t\t\t" );
-			methodCode.append( "throw bpe; " );
-			methodCode.append( "\n\t\t" );
-			methodCode.append( "}\n" );
-
-		    }
-
-		}
-
-
-
-
-
-		methodCode.append( "\n\t" );
-
-		// WARNING: if the method has a void return type, do not insert a return statement
-		final boolean isVoid = ( currentMethod.getReturnType().toString().equals("void") || java.lang.Void.class.equals( currentMethod.getReturnType() ) ); 
-		if(! isVoid ){
-		    methodCode.append( "return");
-		    methodCode.append( " " );
-		    methodCode.append( "(" );
-		    methodCode.append( currentMethod.getReturnType().getName() );
-		    methodCode.append( ") " );
-		}
-
-		methodCode.append( " this." );
-		methodCode.append( privateReferenceName );
-		methodCode.append( "." );
-		methodCode.append( currentMethod.getName() );
-		methodCode.append( "(" );
-
-		// now the parameter list, that should be only for those expected
-		final Class targetMethodParameters[] = currentMethod.getParameterTypes();
-
-		for( int paramNumber = 0; (targetMethodParameters != null) && (paramNumber < targetMethodParameters.length); paramNumber++ ){
-		    if( paramNumber > 0 )
-			methodCode.append( ", " );
-
-		    // cast the current argument to the right type
-		    methodCode.append( "(" );
-		    methodCode.append( targetMethodParameters[paramNumber].getName() );
-		    methodCode.append( ")" );
-		    // the argument value is in the param array
-		    methodCode.append( "param0"  + "[" + paramNumber + "]" );	// variadic method -> array param0!
-		}
-
-		methodCode.append( ");" );
-
-
-		// a return statement?
-		if( isVoid ){
-		    // insert a return statement
-		    methodCode.append( "\n\t return null;\n" );
-		}
-
-		// end of the method body
-		methodCode.append( "\n}\n" );
-
-		logger.debug("Generated method body:\n");
-		logger.debug( methodCode.toString() );
-
-		// now compile the method and add it to the class
-		final CtMethod compiledMethod = CtMethod.make( methodCode.toString(), newClosureClass );
-		newClosureClass.addMethod(compiledMethod);
-		logger.debug("Creation of the method completed!");
+    /**
+     * Generates the bytecode of the closure class.
+     * @param closureClassName the name of the class to generate
+     * @return the bytecode of the class
+     * @throws NotFoundException if a class cannot be found by javassist
+     * @throws CannotCompileException if the closure code cannot be compiled
+     * @throws IOException if the bytecode cannot be produced
+     */
+    private final byte[] getClosureBytecode( final String closureClassName ) throws NotFoundException, CannotCompileException, IOException {
+	// get the pool of the closures of the parent class loader
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.CLOSURE, getParent() );
+
+	// create a new class for the specified name
+	final CtClass newClosureClass = pool.makeClass( closureClassName );
+
+
+
+	// now the class has the new member, I need an empty constructor so to be sure that reflection
+	// will work instantiating the class
+	final CtConstructor constructor = new CtConstructor(null, newClosureClass );
+	constructor.setBody(";");
+	newClosureClass.addConstructor(constructor);
+
+
+	// the captured variables are fields of the closure, that the closure code can refer to,
+	// initialized by a constructor that receives the captured values
+	if( ! capturedTypes.isEmpty() ){
+	    final StringBuffer constructorCode = new StringBuffer( 500 );
+	    constructorCode.append( "{\n" );
+	    int index = 0;
+	    for( final Map.Entry<String, Class> captured : capturedTypes.entrySet() ){
+		final StringBuffer fieldCode = new StringBuffer( 100 );
+		fieldCode.append( "private " );
+		fieldCode.append( ClassLoaderUtils.getSourceTypeName( captured.getValue() ) );
+		fieldCode.append( " " );
+		fieldCode.append( captured.getKey() );
+		fieldCode.append( ";" );
+		Diagnostics.dumpSource( newClosureClass.getName(), fieldCode );
+		newClosureClass.addField( CtField.make( fieldCode.toString(), newClosureClass ) );
+
+		constructorCode.append( "\t this." );
+		constructorCode.append( captured.getKey() );
+		constructorCode.append( " = " );
+		constructorCode.append( ClassLoaderUtils.getUnboxingSourceCode( captured.getValue(), "$1[" + index + "]" ) );
+		constructorCode.append( ";\n" );
+		index++;
 	    }
+	    constructorCode.append( "}" );
 
+	    Diagnostics.dumpSource( newClosureClass.getName(), constructorCode );
+	    newClosureClass.addConstructor( CtNewConstructor.make( new CtClass[]{ pool.get( Object[].class.getName() ) },
+								   new CtClass[ 0 ],
+								   constructorCode.toString(),
+								   newClosureClass ) );
+	}
 
 
 
+	// compile the method passed and inject it into the closure class itself:
+	// a closure does not have a target, so the closure invokes its own method
+	Diagnostics.dumpSource( newClosureClass.getName(), closureCode );
+	final CtMethod closureMethod = CtMethod.make( closureCode, newClosureClass );
+	newClosureClass.addMethod(closureMethod);
 
-	    // now I need to add the interface and the method to initialize the private
-	    // variable of the new function instance
-	    methodCode = new StringBuffer( 1000 );
-	    final CtClass binderClass = pool.get( IFunctionBinder.class.getName() );
-
-	    // add the interface to the current class
-	    newClosureClass.addInterface(binderClass);
-
-	    // create all the methods (it should be only one)
-	    for( final CtMethod currentMethod : binderClass.getDeclaredMethods() ){
-		methodCode.append( " public ");
-		methodCode.append( currentMethod.getReturnType().getName() );
-		methodCode.append(  " " );
-		methodCode.append( currentMethod.getName() );
-		methodCode.append( "(" );
+	// the signature of the closure method
+	final CtClass closureParameterTypes[] = closureMethod.getParameterTypes();
+	final Class parameterTypes[] = new Class[ closureParameterTypes.length ];
+	for( int i = 0; i < closureParameterTypes.length; i++ )
+	    parameterTypes[ i ] = ClassLoaderUtils.toClass( closureParameterTypes[ i ], getParent() );
 
-		final CtClass[] parameters = currentMethod.getParameterTypes();
-		for( int parameterNumber = 0; (parameters != null) && (parameterNumber < parameters.length); parameterNumber++ ){
-		    if( parameterNumber > 0 )
-			methodCode.append( ", " );
+	final Class returnType = ClassLoaderUtils.toClass( closureMethod.getReturnType(), getParent() );
 
-		    methodCode.append( parameters[parameterNumber].getName() );
-		    methodCode.append( " " );
-		    methodCode.append( " param" + parameterNumber );
-		}
 
-		methodCode.append( ") " );
 
-		// exception management
-		final CtClass exceptions[] = currentMethod.getExceptionTypes();
-		if( (exceptions != null) && (exceptions.length > 0) ){
-		    methodCode.append( "throws " );
+	// now I need to implement the inteface IClosure
+	final CtClass iClosureCtClass = pool.get( IClosure.class.getName() );
+	newClosureClass.addInterface(iClosureCtClass);
 
-		    for( int exceptionNumber = 0; exceptionNumber < exceptions.length; exceptionNumber++ ){
-			if( exceptionNumber > 0 )
-			    methodCode.append( ", " );
+	// now add the IFunction method implementation
+	// WARNING: IClosure does not define any method, I have to go to the superclass which is a IFunction
+	final CtClass functionCtClass = pool.get( IFunction.class.getName() );
+	for( final CtMethod iFunctionMethod : functionCtClass.getDeclaredMethods() ){
+	    final StringBuffer methodCode = new StringBuffer(1000);
+	    methodCode.append( getMethodHeaderSourceCode( iFunctionMethod ) );
+	    methodCode.append( getExecuteCallBodySourceCode( closureMethod.getName(), parameterTypes, returnType, "this", ! uncheckedInvocation ) );
 
-			methodCode.append( exceptions[ exceptionNumber ].getName() );
-		    }
-		}
+	    Diagnostics.dumpSource( newClosureClass.getName(), methodCode );
 
-		methodCode.append( "\n" );
-		// body definition
-		methodCode.append( "{\n\t" );
+	    // now compile the method and add it to the class
+	    final CtMethod compiledMethod = CtMethod.make( methodCode.toString(), newClosureClass );
+	    newClosureClass.addMethod(compiledMethod);
+	}
 
 
-		// security check: the first argument must be of the right type
-		methodCode.append(" if( param0 == null || (! ( param0 instanceof ");
-		methodCode.append( targetInstance.getClass().getName() );
-		methodCode.append( ") ) )" );
-		methodCode.append( "\n\t\t" );
-		methodCode.append( "throw new " );
-		methodCode.append( TargetBindException.class.getName() );
-		methodCode.append( "(\"The binding object is not of the right type!\");" );
-		methodCode.append( "\n\n" );
+	// implement also the typed interfaces the closure signature matches
+	addTypedCallMethods( pool, newClosureClass, closureMethod.getName(), parameterTypes, returnType, "this" );
 
 
-		methodCode.append( " this." );
-		methodCode.append( privateReferenceName );
-		methodCode.append( " = " );
-		methodCode.append( "(" );
-		methodCode.append( targetObjectCtClass.getName() );
-		methodCode.append( ") " );
-		methodCode.append( "param0;" );
-		methodCode.append( "\n}\n" );
 
-		logger.debug("Generated setter method \n" + methodCode.toString() );
+	// now get the bytecode of the class, and remove the class from the pool so that
+	// it is not retained (and a class with the same cached name can be generated again)
+	return ClassPoolManager.toBytecode( newClosureClass );
+    }
 
-		// now compile the method and add it to the class
-		final CtMethod compiledMethod = CtMethod.make( methodCode.toString(), newClosureClass );
-		newClosureClass.addMethod(compiledMethod);
-		logger.debug("Creation of the method completed!");
-	    }
 
 
 
-	    // now define the class
-	    bytecode = newClosureClass.toBytecode();
+    /**
+     * A method to get the closure implementation.
+     * @return
+     * @throws ClosureException
+     */
+    public synchronized final IClosure getClosure() throws ClosureException {
+	try {
+	    final Class<?> closureClass = getClosureClass();
+	    return (IClosure) closureClass.getDeclaredConstructor().newInstance();
+	} catch (final InstantiationException e) {
+	    throw new ClosureException( e );
+	} catch (final IllegalAccessException e) {
+	    throw new ClosureException( e );
+	} catch (final NoSuchMethodException e) {
+	    throw new ClosureException( e );
+	} catch (final InvocationTargetException e) {
+	    throw new ClosureException( e );
+	}
 
-	    // the class loader is ready now
-	    synchronized( this ){
-		status = ClassLoaderStatus.READY;
-	    }
+    }
 
 
-	    return this.defineClass( closureClassName, bytecode, 0, bytecode.length );
 
 
-	} catch (final NotFoundException e) {
-	    logger.error("Exception caught while defining a class",e);
-	    throw new ClassNotFoundException("Cannot find class", e );
-	} catch (final IOException e) {
-	    throw new ClassNotFoundException("Cannot find class", e );
-	} catch (final CannotCompileException e) {
-	    logger.error("Cannot compile exception caught while definining a IFunction class ", e);
-	    throw new ClassNotFoundException("Cannot find class", e );
-	} finally{
-	    // the class loader is ready now
-	    synchronized( this ){
-		status = ClassLoaderStatus.READY;
-	    }
+    /**
+     * Compiles the closure code and provides the closure class, that can be instantiated
+     * to get closures.
+     * @return the closure class
+     * @throws ClosureException if the closure cannot be compiled
+     */
+    public synchronized final Class getClosureClass() throws ClosureException {
+	try {
+	    return findClass( IClosure.class.getName() );
+	} catch (final ClassNotFoundException e) {
+	    throw new ClosureException( e );
 	}
-
     }
 
 
 
 
     /**
-     * A method to get the closure implementation.
-     * @return
-     * @throws ClosureException
+     * Compiles several closures, without captured variables, in a single pass: all the closure
+     * classes are defined by this class loader, so that they share it (and they are unloaded
+     * together). The codes must be distinct, since the same code may produce the same class name.
+     * @param closureCodes the codes of the closures
+     * @return the closure classes, in the same order of the codes
+     * @throws ClosureException if a closure cannot be compiled
      */
-    public synchronized final IClosure getClosure() throws ClosureException {
-	Class closureClass;
-	try {
-	    closureClass = findClass( IClosure.class.getName() );
-	    return (IClosure) closureClass.newInstance();
-	} catch (final ClassNotFoundException e) {
-	    throw new ClosureException( e );
-	} catch (final InstantiationException e) {
-	    throw new ClosureException( e );
-	} catch (final IllegalAccessException e) {
-	    throw new ClosureException( e );
+    public synchronized final List<Class> getClosureClasses( final List<String> closureCodes ) throws ClosureException {
+	final List<Class> closureClasses = new ArrayList<Class>( closureCodes.size() );
+	for( final String code : closureCodes ){
+	    setClosureCode( code );
+	    setCapturedTypes( null );
+	    closureClasses.add( getClosureClass() );
 	}
 
+	return closureClasses;
     }
 
 
+    /**
+     * Sets the captured variables of the closure, that become fields of the closure class.
+     * The closure class has a constructor that receives the values of the captured variables
+     * as an array, in the iteration order of the map.
+     * @param capturedTypes the types of the captured variables, by name
+     */
+    public synchronized final void setCapturedTypes(final Map<String, Class> capturedTypes) {
+	this.capturedTypes = ( capturedTypes == null ? Collections.<String, Class>emptyMap() : capturedTypes );
+    }
 
 
     /**
-     * Provides the built target instance.
-     * @return
+     * Provides a description of the captured variables, that is part of the bytecode cache key.
      */
-    public synchronized final Object getTargetInstance() {
-	return targetInstance;
+    private final String getCapturedSignature(){
+	final StringBuffer signature = new StringBuffer();
+	for( final Map.Entry<String, Class> captured : capturedTypes.entrySet() ){
+	    signature.append( captured.getValue().getName() );
+	    signature.append( " " );
+	    signature.append( captured.getKey() );
+	    signature.append( ";" );
+	}
+
+	return signature.toString();
     }
 
 
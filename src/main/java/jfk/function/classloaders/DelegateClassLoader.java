@@ -26,10 +26,15 @@ package jfk.function.classloaders;
 
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javassist.CannotCompileException;
 import javassist.ClassPool;
@@ -37,15 +42,19 @@ import javassist.CtClass;
 import javassist.CtField;
 import javassist.CtMethod;
 import javassist.NotFoundException;
+import jfk.core.Metrics;
 import jfk.function.delegates.Connect;
+import jfk.function.delegates.Delegate;
+import jfk.function.delegates.DispatchMode;
 import jfk.function.delegates.IDelegatable;
 import jfk.function.delegates.IDelegate;
 import jfk.function.exception.delegates.AlreadyImplementedDelegateException;
 import jfk.function.exception.delegates.CannotConnectDelegateException;
+import jfk.function.impl.DelegateListenerList;
+import jfk.function.impl.DelegateRingBuffer;
 import jfk.function.impl.IDelegatableInitializer;
 
 import org.apache.log4j.Logger;
-import org.apache.log4j.xml.DOMConfigurator;
 
 /**
  * The delegate class loaders, that implements abstract methods delegate.
@@ -68,6 +77,7 @@ IDelegateConnector {
 	public IDelegate targetInstance = null;
 	public String privateReferenceKey = null;
 	public String annotationMethodName = null;
+	public boolean batch = false;
     }
 
     /**
@@ -76,12 +86,6 @@ IDelegateConnector {
     protected static Logger logger = org.apache.log4j.Logger.getLogger( FunctionClassLoader.class );
 
 
-    // configure the logger
-    static{
-	DOMConfigurator.configure("jfk.log4j.xml");
-    }
-
-
     /**
      * A list of the connections to do when defining the implementation of the delegate.
      */
@@ -99,6 +103,27 @@ IDelegateConnector {
      */
     private String delegatableSuperClassName;
 
+    /**
+     * The class to load and instantiate, that hosts the hidden delegate class (if any).
+     */
+    private Class delegatableSource;
+
+    /**
+     * If true the delegate classes are defined as hidden classes.
+     */
+    private boolean hiddenClasses = false;
+
+    /**
+     * The cache of the generated bytecode, null if the classes are always generated.
+     */
+    private BytecodeCache bytecodeCache = null;
+
+    /**
+     * If true the class being generated counts the dispatches of its delegates in the
+     * {@link Metrics}. It is read from the metrics when the class is generated.
+     */
+    private boolean dispatchMetrics = false;
+
 
 
 
@@ -113,12 +138,17 @@ IDelegateConnector {
 
 
 	try {
-	    final Class clazz = findClass( delegatableSuperClassName );
-	    final IDelegatable delegatable = (IDelegatable) clazz.newInstance();
+	    final Class<?> clazz = findClass( delegatableSuperClassName );
+	    final IDelegatable delegatable = (IDelegatable) clazz.getDeclaredConstructor().newInstance();
 	    // now initialize the delegate
 	    for( final ConnectionData data : connectionsToDo )
 		((IDelegatableInitializer) delegatable)._setPrivateTarget( data.privateReferenceKey, data.targetInstance);
 
+	    // the target of an asynchronous void method, or of a batch connection, is one of its delegates
+	    for( final ConnectionData data : connectionsToDo )
+		if( data.batch || ((! isSynchronous( data.sourceMethod )) && data.sourceMethod.getReturnType().equals( Void.TYPE )) )
+		    delegatable.addDelegate( data.targetInstance, data.annotationMethodName );
+
 	    // all done
 	    return delegatable;
 
@@ -128,6 +158,10 @@ IDelegateConnector {
 	    throw new CannotConnectDelegateException("Cannot instantiate the delegate ", e);
 	} catch (final IllegalAccessException e) {
 	    throw new CannotConnectDelegateException("Cannot instantiate the delegate ", e);
+	} catch (final NoSuchMethodException e) {
+	    throw new CannotConnectDelegateException("Cannot instantiate the delegate ", e);
+	} catch (final InvocationTargetException e) {
+	    throw new CannotConnectDelegateException("Cannot instantiate the delegate ", e);
 	}
 
     }
@@ -147,295 +181,494 @@ IDelegateConnector {
 	}
 
 
-	// get the class pool for working with classes and modifying them on the fly
-	final ClassPool pool = ClassPool.getDefault();
-	final CtClass baseProxyClass = null;
+	try {
+	    // the targets are stored by a key that depends only on their class; check that the methods
+	    // have the same signature, or that the target is a batch connection
+	    for( final ConnectionData currentConnectionData : connectionsToDo ){
+		currentConnectionData.privateReferenceKey = ClassLoaderUtils.computePrivateTargetReferenceName( currentConnectionData.targetInstance.getClass() );
+		currentConnectionData.batch               = DelegateStubs.checkConnection( currentConnectionData.sourceMethod, currentConnectionData.targetMethod );
+	    }
 
-	// the array that will store the in-memory byte code
-	byte[] bytecode = null;
+	    // the delegates count their dispatches only if the metrics are enabled now
+	    dispatchMetrics = Metrics.getInstance().isDelegateMetrics();
+
+	    // the stub interfaces the delegate methods call the added delegates through, that
+	    // must be defined also if the class is cached
+	    final Map<Method, Class> stubInterfaces = new LinkedHashMap<Method, Class>();
+	    for( final ConnectionData currentConnectionData : connectionsToDo )
+		if( ! stubInterfaces.containsKey( currentConnectionData.sourceMethod ) )
+		    stubInterfaces.put( currentConnectionData.sourceMethod,
+					DelegateStubs.getStubInterface( delegatableSource, currentConnectionData.sourceMethod ) );
+
+	    // the asynchronous and parallel methods keep their calls in a call class
+	    final Map<Method, Class> callClasses = new HashMap<Method, Class>();
+	    for( final Map.Entry<Method, Class> stubInterface : stubInterfaces.entrySet() )
+		if( ! isSynchronous( stubInterface.getKey() ) )
+		    callClasses.put( stubInterface.getKey(),
+				     DelegateStubs.getCallClass( delegatableSource, stubInterface.getKey(), stubInterface.getValue() ) );
+
+	    // the key of the class in the bytecode cache (null if the cache is not used)
+	    final String cacheKey = computeCacheKey();
+
+	    // now compute the name of the subclass: a cached class must have a name that depends only on its key,
+	    // since the name is in the bytecode
+	    final String delegatableClassName = ( cacheKey == null
+						  ? ClassLoaderUtils.getDelegateClassName(name)
+						  : BytecodeCache.getClassName( name + "_impl", cacheKey ) );
+	    if( logger.isDebugEnabled() )
+		logger.debug("The new subclass will have the name " + delegatableClassName);
+
+	    // use the cached bytecode if any, otherwise generate the class
+	    byte[] bytecode = ( cacheKey == null ? null : bytecodeCache.load( cacheKey ) );
+	    if( bytecode != null )
+		GeneratorStatistics.DELEGATE.classCached();
+	    else {
+		final long generationStart = System.nanoTime();
+		bytecode = getDelegateBytecode( name, delegatableClassName, stubInterfaces, callClasses );
+		GeneratorStatistics.DELEGATE.classGenerated( System.nanoTime() - generationStart );
+		if( cacheKey != null )
+		    bytecodeCache.store( cacheKey, bytecode );
+	    }
 
+	    // the class loader is ready now
+	    synchronized( this ){
+		status = ClassLoaderStatus.READY;
+	    }
 
 
-	try {
-	    // load the class requested as superclass
-	    final CtClass delegatableSuperClass = pool.get(name);
+	    GeneratorStatistics.DELEGATE.classDefined( bytecode.length );
+	    if( hiddenClasses )
+		return ClassLoaderUtils.defineHiddenClass( delegatableSource, bytecode );
+	    else
+		return this.defineClass( delegatableClassName, bytecode, 0, bytecode.length );
 
-	    // now create a new class as subclass of the above one
-	    final String delegatableClassName = ClassLoaderUtils.getDelegateClassName(name);
-	    logger.debug("The new subclass will have the name " + delegatableClassName);
-	    final CtClass delegatableCtClass = pool.makeClass(delegatableClassName);
-	    delegatableCtClass.setSuperclass(delegatableSuperClass);
 
+	} catch (final NotFoundException e) {
+	    logger.error("Not Found!", e);
+	    throw new ClassNotFoundException("Cannot load the delegatable class", e);
+	} catch (final CannotCompileException e) {
+	    logger.error("Compilation error!", e);
+	    throw new ClassNotFoundException("Cannot compile the subclass", e);
+	} catch (final CannotConnectDelegateException e) {
+	    logger.error("Delegate error!", e);
+	    throw new ClassNotFoundException("Cannot bind the delegate", e);
+	} catch (final IOException e) {
+	    throw new ClassNotFoundException("Cannot generate the bytecode for the delegate", e);
+	} catch (final IllegalAccessException e) {
+	    logger.error("Cannot define the hidden delegate class", e);
+	    throw new ClassNotFoundException("Cannot define the hidden delegate class", e);
+	}
 
 
 
 
-	    // create a map to keep track of the objects to be used as target
-	    final String privateMapName = "__targetMap_";
-	    final CtField mapField = new CtField( pool.get("java.util.HashMap"),	// type of the field
-		    privateMapName,			// the name of the field
-		    delegatableCtClass			// the class this field belongs to
-	    );
-	    delegatableCtClass.addField(mapField);
+    }
 
-	    // the list for the functions to bind at run-time
-	    final String privateFunctionListName = ClassLoaderUtils.computePrivateListName( name );
-	    // add a new list member to contain all the functions
-	    final CtField privateFunctionListCtField = new CtField( pool.get("java.util.List"),	// field type
-		    privateFunctionListName,		// name of the field
-		    delegatableCtClass			// declaring class
-	    );
-	    delegatableCtClass.addField(privateFunctionListCtField);
+    /**
+     * Computes the key of the delegate class in the bytecode cache, that depends on the
+     * delegatable class and on each connection.
+     * @return the key of the class, or null if the cache is not used
+     */
+    private final String computeCacheKey(){
+	if( bytecodeCache == null )
+	    return null;
+
+	final List<Object> keyParts = new LinkedList<Object>();
+	keyParts.add( IDelegatable.class.getName() );
+	keyParts.add( delegatableSource );
+	keyParts.add( hiddenClasses );
+	keyParts.add( dispatchMetrics );
+	for( final ConnectionData currentConnectionData : connectionsToDo ){
+	    keyParts.add( currentConnectionData.sourceMethod.toGenericString() );
+	    keyParts.add( currentConnectionData.targetInstance.getClass() );
+	    keyParts.add( currentConnectionData.targetMethod.toGenericString() );
+	}
 
-	    // now iterate on each connection I need to do
-	    for( final ConnectionData currentConnectionData : connectionsToDo ){
-		// extract the data for this connection
-		final Method sourceMethod = currentConnectionData.sourceMethod;
-		final Method targetMethod = currentConnectionData.targetMethod;
-		final IDelegate target    = currentConnectionData.targetInstance;
+	return bytecodeCache.computeKey( keyParts.toArray() );
+    }
 
 
 
-		logger.debug("Analyzing the connection " + sourceMethod.getName() +" -> " + target + "->" + targetMethod.getName());
+    /**
+     * Generates the bytecode of the subclass that implements the connections.
+     * @param name the name of the delegatable class
+     * @param delegatableClassName the name of the subclass to generate
+     * @param stubInterfaces the stub interface of each delegate method
+     * @param callClasses the call class of each asynchronous or parallel delegate method
+     * @return the bytecode of the subclass
+     * @throws NotFoundException if a class cannot be found by javassist
+     * @throws CannotCompileException if the generated code cannot be compiled
+     * @throws CannotConnectDelegateException if a connection is not valid
+     * @throws IOException if the bytecode cannot be produced
+     */
+    private final byte[] getDelegateBytecode( final String name, final String delegatableClassName, final Map<Method, Class> stubInterfaces,
+					     final Map<Method, Class> callClasses )
+    throws NotFoundException, CannotCompileException, CannotConnectDelegateException, IOException {
+	// get the pool of the delegates of the delegatable class loader
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.DELEGATE, delegatableSource.getClassLoader() );
+
+	// load the class requested as superclass
+	final CtClass delegatableSuperClass = pool.get(name);
+
+	// now create a new class as subclass of the above one
+	final CtClass delegatableCtClass = pool.makeClass(delegatableClassName);
+	delegatableCtClass.setSuperclass(delegatableSuperClass);
+
+
+
+
+
+	// each target is kept in a field of its own type, named after its reference key, so
+	// that a delegate method calls its target directly; the fields are set by _setPrivateTarget
+	final Map<String, Class> targetFields = new LinkedHashMap<String, Class>();
+
+	// the list for the functions to bind at run-time
+	final String privateFunctionListName = ClassLoaderUtils.computePrivateListName( name );
+	// add a new list member to contain all the delegates, created with the instance:
+	// each delegate method is a channel of the list, with its stub interface, call class and name
+	final List<Method> channels = new ArrayList<Method>( stubInterfaces.keySet() );
+	final StringBuffer listCode = new StringBuffer( 500 );
+	listCode.append( "private final " );
+	listCode.append( DelegateListenerList.class.getName() );
+	listCode.append( " " );
+	listCode.append( privateFunctionListName );
+	listCode.append( " = new " );
+	listCode.append( DelegateListenerList.class.getName() );
+	listCode.append( "( " );
+	listCode.append( delegatableSource.getName() );
+	listCode.append( ".class, new Class[]{ " );
+	for( int i = 0; i < channels.size(); i++ ){
+	    if( i > 0 )
+		listCode.append( ", " );
+
+	    listCode.append( stubInterfaces.get( channels.get( i ) ).getName() );
+	    listCode.append( ".class" );
+	}
+	listCode.append( " }, new Class[]{ " );
+	for( int i = 0; i < channels.size(); i++ ){
+	    if( i > 0 )
+		listCode.append( ", " );
+
+	    if( callClasses.containsKey( channels.get( i ) ) ){
+		listCode.append( callClasses.get( channels.get( i ) ).getName() );
+		listCode.append( ".class" );
+	    }
+	    else
+		listCode.append( "null" );
+	}
+	listCode.append( " }, new String[]{ " );
+	for( int i = 0; i < channels.size(); i++ ){
+	    if( i > 0 )
+		listCode.append( ", " );
+
+	    listCode.append( "\"" );
+	    listCode.append( getConnectionName( channels.get( i ) ) );
+	    listCode.append( "\"" );
+	}
+	listCode.append( " } );" );
+	Diagnostics.dumpSource( delegatableCtClass.getName(), listCode );
+	delegatableCtClass.addField( CtField.make( listCode.toString(), delegatableCtClass ) );
 
+	// now iterate on each connection I need to do
+	for( final ConnectionData currentConnectionData : connectionsToDo ){
+	    // extract the data for this connection
+	    final Method sourceMethod = currentConnectionData.sourceMethod;
+	    final Method targetMethod = currentConnectionData.targetMethod;
+	    final IDelegate target    = currentConnectionData.targetInstance;
 
-		// check that the methods have the same number of parameters and the same type
-		// as well as the same type of return
-		final Class[] sourceParameters = sourceMethod.getParameterTypes();
-		final Class[] targetParameters = targetMethod.getParameterTypes();
-		if( ((sourceParameters == null) && (targetParameters != null) ) || ((sourceParameters != null) && (targetParameters == null)) 
-			|| (sourceParameters.length != targetParameters.length) )
-		    throw new CannotConnectDelegateException("Wrong signature: invalid argument numbers");
 
-		// check arguments type
-		for( int i = 0; (sourceParameters != null) && (targetParameters != null) && (i < sourceParameters.length); i++ )
-		    if( ! sourceParameters[i].equals(targetParameters[i]) )
-			throw new CannotConnectDelegateException("Wrong signature: argument " + i + " mismatch");
 
-		// check the return type
-		if( ! sourceMethod.getReturnType().equals(targetMethod.getReturnType()) )
-		    throw new CannotConnectDelegateException("Wrong signature: return type mismatch");
+	    if( logger.isDebugEnabled() )
+		logger.debug("Analyzing the connection " + sourceMethod.getName() +" -> " + target + "->" + targetMethod.getName());
 
 
+	    // the methods have the same number of parameters, since the connection has been checked
+	    final Class[] sourceParameters = sourceMethod.getParameterTypes();
+	    final Class[] targetParameters = targetMethod.getParameterTypes();
 
-		// if here I can proceed building the method binding
 
 
+	    // if here I can proceed building the method binding
 
-		// the target field will be stored in the private map with the key as the string
-		// defined here
-		final String privateRefenceName = ClassLoaderUtils.computePrivateTargetReferenceName( target.getClass() );
-		logger.debug("Injecting the private reference to the target object " + privateRefenceName);
-		currentConnectionData.privateReferenceKey = privateRefenceName;
 
 
-		// now I can implement the method
-		final StringBuffer methodCode = new StringBuffer( 1000 );
-		methodCode.append( "public " );
-		if( sourceMethod.getReturnType().getName().equals("void") || sourceMethod.getReturnType().equals(java.lang.Void.class) )
-		    methodCode.append(" void ");
-		else
-		    methodCode.append( sourceMethod.getReturnType().getName() );
+	    // the target will be stored in the private field named after the key defined here
+	    final String privateRefenceName = ClassLoaderUtils.computePrivateTargetReferenceName( target.getClass() );
+	    currentConnectionData.privateReferenceKey = privateRefenceName;
+	    final String privateTargetName = getPrivateTargetFieldName( privateRefenceName );
+	    if( ! targetFields.containsKey( privateRefenceName ) ){
+		targetFields.put( privateRefenceName, target.getClass() );
+		delegatableCtClass.addField( CtField.make( "private " + target.getClass().getName() + " " + privateTargetName + ";",
+							   delegatableCtClass ) );
+	    }
+
 
-		methodCode.append(" ");
+	    // now I can implement the method
+	    final StringBuffer methodCode = new StringBuffer( 1000 );
+	    methodCode.append( "public " );
+	    if( sourceMethod.getReturnType().getName().equals("void") || sourceMethod.getReturnType().equals(java.lang.Void.class) )
+		methodCode.append(" void ");
+	    else
+		methodCode.append( sourceMethod.getReturnType().getName() );
+
+	    methodCode.append(" ");
+	    methodCode.append( sourceMethod.getName() );
+	    methodCode.append( "(" );
+	    for(int i = 0; (targetParameters != null) &&  (i < targetParameters.length); i++){
+		if( i > 0 )
+	    	methodCode.append(",");
+
+		methodCode.append( sourceParameters[i].getName() );
+		methodCode.append( " " );
+		methodCode.append( "param" + i );
+	    }
+
+	    methodCode.append( "){\n\t" );
+
+	    // count the dispatch, if required
+	    if( dispatchMetrics ){
+		methodCode.append( Metrics.class.getName() );
+		methodCode.append( ".delegateDispatched(\"" );
+		methodCode.append( delegatableSource.getName() );
+		methodCode.append( "#" );
 		methodCode.append( sourceMethod.getName() );
-		methodCode.append( "(" );
-		for(int i = 0; (targetParameters != null) &&  (i < targetParameters.length); i++){
-		    if( i > 0 )
-			methodCode.append(",");
+		methodCode.append( "\");\n\t" );
+	    }
 
-		    methodCode.append( sourceParameters[i].getName() );
-		    methodCode.append( " " );
-		    methodCode.append( "param" + i );
-		}
+	    // body definition: the result of the target (if any) is returned once the delegates have been called
+	    final boolean voidMethod = sourceMethod.getReturnType().getName().equals("void") || sourceMethod.getReturnType().equals(java.lang.Void.class);
+	    final boolean synchronous = isSynchronous( sourceMethod );
+	    final StringBuffer parameterCode = new StringBuffer(500);
+	    for(int i = 0; (targetParameters != null) &&  (i < targetParameters.length); i++){
+		if( i > 0 )
+	    	parameterCode.append(",");
 
-		methodCode.append( "){\n\t" );
+		parameterCode.append( "param" + i );
+	    }
 
-		// body definition
-		if( sourceMethod.getReturnType().getName().equals("void") || sourceMethod.getReturnType().equals(java.lang.Void.class) )
-		    methodCode.append(" ");
-		else
-		    methodCode.append( "return ");
+	    // the target of an asynchronous void method, or of a batch connection, is called as the other
+	    // delegates (it is added to them when the delegate is created)
+	    if( (synchronous || (! voidMethod)) && (! currentConnectionData.batch) ){
+		if( ! voidMethod ){
+		    methodCode.append( ClassLoaderUtils.getSourceTypeName( sourceMethod.getReturnType() ) );
+		    methodCode.append( " result = " );
+		}
 
-		methodCode.append( "((" );
-		methodCode.append( target.getClass().getName() );
-		methodCode.append( ")" );
 		methodCode.append("this.");
-		methodCode.append( privateMapName );
-		methodCode.append( ".get(\"");
-		methodCode.append( privateRefenceName );
-		methodCode.append( "\")" );
-		methodCode.append( ")" );
-
+		methodCode.append( privateTargetName );
 		methodCode.append(".");
 		methodCode.append( targetMethod.getName() );
-
-
-		final StringBuffer parameterCode = new StringBuffer(500);
 		methodCode.append( "(" );
-
-		for(int i = 0; (targetParameters != null) &&  (i < targetParameters.length); i++){
-		    if( i > 0 )
-			parameterCode.append(",");
-
-		    parameterCode.append( "(" );
-		    parameterCode.append( targetParameters[i].getName() );
-		    parameterCode.append( ") " );
-		    parameterCode.append( " " );
-		    parameterCode.append( "param" + i );
-		}
-
-		// copy the list of parameters to the method code
 		methodCode.append( parameterCode.toString() );
 		methodCode.append(");");
-
-
 		methodCode.append("\n\n\n\t");
+	    }
 
-		// now I've done the first connection, the others must be done
-		// using an iteration over the function list
-		methodCode.append(" try{\n\t\t" );
-		methodCode.append( "if( this." );
+	    // now I've done the first connection, the others must be done
+	    // iterating over a snapshot of the stubs of this method, that have its same arguments;
+	    // a failure of a delegate is handled by the list and does not stop the others
+	    final String stubInterfaceName = stubInterfaces.get( sourceMethod ).getName();
+	    methodCode.append( stubInterfaceName );
+	    methodCode.append( "[] stubs = (" );
+	    methodCode.append( stubInterfaceName );
+	    methodCode.append( "[]) this." );
+	    methodCode.append( privateFunctionListName );
+	    methodCode.append( ".getStubs(" );
+	    methodCode.append( channels.indexOf( sourceMethod ) );
+	    methodCode.append( ");\n\t" );
+	    final StringBuffer loopCode = new StringBuffer( 500 );
+	    loopCode.append( "for(int i = 0; i < stubs.length; i++){\n\t\t" );
+	    loopCode.append( "try{\n\t\t\t" );
+	    loopCode.append( "stubs[i]." );
+	    loopCode.append( DelegateStubs.DISPATCH_METHOD_NAME );
+	    loopCode.append( "(" );
+	    loopCode.append( parameterCode.toString() );
+	    loopCode.append( ");\n\t\t" );
+	    loopCode.append( "}catch(Exception e){\n\t\t\t" );
+	    loopCode.append( "this." );
+	    loopCode.append( privateFunctionListName );
+	    loopCode.append( ".dispatchFailed( this, stubs[i], e );\n\t\t" );
+	    loopCode.append( "}\n\t" );
+	    loopCode.append( "}\n" );
+
+	    // the arguments of an asynchronous call are set into a new call, or into a slot of the ring buffer
+	    final StringBuffer setCode = new StringBuffer( 500 );
+	    setCode.append( DelegateStubs.CALL_SET_METHOD_NAME );
+	    setCode.append( "( this." );
+	    setCode.append( privateFunctionListName );
+	    setCode.append( ", this, stubs" );
+	    if( parameterCode.length() > 0 )
+		setCode.append( ", " );
+	    setCode.append( parameterCode.toString() );
+	    setCode.append( " );\n\t\t" );
+
+	    final int channel = channels.indexOf( sourceMethod );
+	    if( synchronous )
+		methodCode.append( loopCode.toString() );
+	    else if( sourceMethod.getAnnotation( Delegate.class ).dispatch() == DispatchMode.RING_BUFFER ){
+		// the caller calls the delegates itself when the buffer is full and the overflow policy requires it
+		methodCode.append( "if( stubs.length > 0 ){\n\t\t" );
+		methodCode.append( "long sequence = this." );
 		methodCode.append( privateFunctionListName );
-		methodCode.append( " != null )\n\t\t\t" );
-		methodCode.append( "for(int i = 0; i < " );
+		methodCode.append( ".claim(" );
+		methodCode.append( channel );
+		methodCode.append( ");\n\t\t" );
+		methodCode.append( "if( sequence >= 0L ){\n\t\t" );
+		methodCode.append( "((" );
+		methodCode.append( callClasses.get( sourceMethod ).getName() );
+		methodCode.append( ") this." );
 		methodCode.append( privateFunctionListName );
-		methodCode.append( ".size(); i++)\n\t\t\t\t" );
-		methodCode.append( " ((jfk.function.IFunction) " );
+		methodCode.append( ".getSlot(" );
+		methodCode.append( channel );
+		methodCode.append( ", sequence))." );
+		methodCode.append( setCode.toString() );
+		methodCode.append( "this." );
 		methodCode.append( privateFunctionListName );
-		methodCode.append(".get(i) " );
-		methodCode.append( ").executeCall" );
-		methodCode.append( "( new Object[]{" );
-		methodCode.append( parameterCode.toString() );
-		methodCode.append( "} );");
-		methodCode.append( "\n\n\t" );
-		methodCode.append("}catch(Exception e){ }\n\n ");
+		methodCode.append( ".publish(" );
+		methodCode.append( channel );
+		methodCode.append( ", sequence);\n\t\t" );
+		methodCode.append( "}\n\t\t" );
+		methodCode.append( "else if( sequence == " );
+		methodCode.append( DelegateRingBuffer.class.getName() );
+		methodCode.append( ".CALLER_RUNS ){\n\t" );
+		methodCode.append( loopCode.toString() );
+		methodCode.append( "}\n\t" );
+		methodCode.append( "}\n" );
+	    }
+	    else {
+		// the call keeps the arguments for the threads of the dispatcher
+		methodCode.append( "if( stubs.length > 0 ){\n\t\t" );
+		methodCode.append( callClasses.get( sourceMethod ).getName() );
+		methodCode.append( " call = new " );
+		methodCode.append( callClasses.get( sourceMethod ).getName() );
+		methodCode.append( "();\n\t\t" );
+		methodCode.append( "call." );
+		methodCode.append( setCode.toString() );
+		methodCode.append( "this." );
+		methodCode.append( privateFunctionListName );
+		methodCode.append( ".dispatch(" );
+		methodCode.append( channel );
+		methodCode.append( ", call );\n\t" );
+		methodCode.append( "}\n" );
+	    }
 
+	    if( ! voidMethod )
+		methodCode.append( "\treturn result;\n" );
 
-		// end of the body
-		methodCode.append("\n}\n");
 
-		logger.debug("Generated method code\n\n" + methodCode.toString());
+	    // end of the body
+	    methodCode.append("\n}\n");
 
-		// now create this method and add to the class
-		final CtMethod currentMethodImplementation = CtMethod.make( methodCode.toString(), delegatableCtClass);
-		delegatableCtClass.addMethod(currentMethodImplementation);
+	    Diagnostics.dumpSource( delegatableCtClass.getName(), methodCode );
 
+	    // now create this method and add to the class
+	    final CtMethod currentMethodImplementation = CtMethod.make( methodCode.toString(), delegatableCtClass);
+	    delegatableCtClass.addMethod(currentMethodImplementation);
 
 
 
 
 
-	    }
 
+	}
 
 
-	    // now I need to implement a new method to set the delegate reference (initialization)
-	    StringBuffer methodCode = new StringBuffer(1000);
-	    methodCode = new StringBuffer(1000);
-	    methodCode.append( "public void _setPrivateTarget(" );
-	    methodCode.append( " String key, " );
-	    methodCode.append( IDelegate.class.getName() );
-	    methodCode.append( " delegate){\n\t" );
-	    methodCode.append(" if( this." );
-	    methodCode.append( privateMapName );
-	    methodCode.append( " == null )\n\t\t this. ");
-	    methodCode.append( privateMapName );
-	    methodCode.append( " = new java.util.HashMap();\n" );
-	    methodCode.append( "\t this.");
-	    methodCode.append( privateMapName );
-	    methodCode.append( ".put(key,delegate);" );
 
-	    methodCode.append( "\n}\n");
+	// now I need to implement a new method to set the delegate reference (initialization)
+	StringBuffer methodCode = new StringBuffer(1000);
+	methodCode = new StringBuffer(1000);
+	methodCode.append( "public void _setPrivateTarget(" );
+	methodCode.append( " String key, " );
+	methodCode.append( IDelegate.class.getName() );
+	methodCode.append( " delegate){\n\t" );
+	for( final Map.Entry<String, Class> targetField : targetFields.entrySet() ){
+	    methodCode.append( "if( \"" );
+	    methodCode.append( targetField.getKey() );
+	    methodCode.append( "\".equals(key) ){\n\t\t this." );
+	    methodCode.append( getPrivateTargetFieldName( targetField.getKey() ) );
+	    methodCode.append( " = (" );
+	    methodCode.append( targetField.getValue().getName() );
+	    methodCode.append( ") delegate;\n\t\t return;\n\t}\n\t" );
+	}
+	methodCode.append( "throw new IllegalArgumentException(\"No delegate target for the key \" + key);" );
+	methodCode.append( "\n}\n");
 
-	    logger.debug("Generated setter method\n" + methodCode.toString() );
-	    // now create this method and add to the class
-	    final CtMethod currentMethodImplementation = CtMethod.make( methodCode.toString(), delegatableCtClass);
-	    delegatableCtClass.addMethod(currentMethodImplementation);
-	    // add the delegate initializer interface
-	    delegatableCtClass.addInterface( pool.get( IDelegatableInitializer.class.getName() ) );
+	Diagnostics.dumpSource( delegatableCtClass.getName(), methodCode );
+	// now create this method and add to the class
+	final CtMethod currentMethodImplementation = CtMethod.make( methodCode.toString(), delegatableCtClass);
+	delegatableCtClass.addMethod(currentMethodImplementation);
+	// add the delegate initializer interface
+	delegatableCtClass.addInterface( pool.get( IDelegatableInitializer.class.getName() ) );
 
 
 
 
 
 
-	    // I need to create the methods to add a new delegate and to remove one
+	// I need to create the methods to add a new delegate and to remove one
 
-	    methodCode = new StringBuffer( 1000 );
-	    methodCode.append( "public boolean addDelegate( jfk.function.delegates.IDelegate delegateToAdd, String name ){\n\t");
-	    methodCode.append("if( this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( " == null)\n\t\t" );
-	    methodCode.append( " this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( " = new java.util.LinkedList();\n\n\t");
-	    methodCode.append( "if( ! this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( ".contains(delegateToAdd) ){\n\t\t");
-	    methodCode.append( "this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( ".add( ");
-	    // I have to build a function for this target
-	    methodCode.append( " jfk.core.JFK.getFunctionBuilder().bindDelegateFunction(delegateToAdd, name  ) " );
+	methodCode = new StringBuffer( 1000 );
+	methodCode.append( "public boolean addDelegate( jfk.function.delegates.IDelegate delegateToAdd, String name ){\n\t");
+	methodCode.append( "return this." );
+	methodCode.append( privateFunctionListName );
+	methodCode.append( ".add( delegateToAdd, name );\n}\n" );
+	Diagnostics.dumpSource( delegatableCtClass.getName(), methodCode );
+	final CtMethod addDelegateMethod = CtMethod.make( methodCode.toString(), delegatableCtClass);
+	delegatableCtClass.addMethod(addDelegateMethod);
 
-	    methodCode.append(" );\n\t\t return true;\n\t}\n" );
+	// create the remove delegate method
+	methodCode = new StringBuffer( 1000 );
+	methodCode.append( "public boolean removeDelegate( jfk.function.delegates.IDelegate delegateToRemove ){\n\t");
+	methodCode.append( "return this." );
+	methodCode.append( privateFunctionListName );
+	methodCode.append( ".remove( delegateToRemove );\n}\n" );
+	Diagnostics.dumpSource( delegatableCtClass.getName(), methodCode );
+	final CtMethod removeDelegateMethod = CtMethod.make( methodCode.toString(), delegatableCtClass);
+	delegatableCtClass.addMethod(removeDelegateMethod);
 
-	    methodCode.append("\telse return false;\n}\n");
-	    logger.debug("Creating the add delegate method\n" + methodCode.toString());
-	    final CtMethod addDelegateMethod = CtMethod.make( methodCode.toString(), delegatableCtClass);
-	    delegatableCtClass.addMethod(addDelegateMethod);
 
-	    // create the remove delegate method
-	    methodCode = new StringBuffer( 1000 );
-	    methodCode.append( "public boolean removeDelegate( jfk.function.delegates.IDelegate delegateToRemove ){\n\t");
-	    methodCode.append("if( this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( " == null)\n\t\t return false;\n\n\t" );
-	    methodCode.append( "if(  this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( ".contains(delegateToRemove) ){\n\t\t");
-	    methodCode.append( "this." );
-	    methodCode.append( privateFunctionListName );
-	    methodCode.append( ".remove(delegateToRemove);\n\t\t return true;\n\t}\n");
-	    methodCode.append("\telse return false;\n}\n");
-	    logger.debug("Creating the remove delegate method\n" + methodCode.toString());
-	    final CtMethod removeDelegateMethod = CtMethod.make( methodCode.toString(), delegatableCtClass);
-	    delegatableCtClass.addMethod(removeDelegateMethod);
 
+	// all ready
+	// now get the bytecode of the class, and remove the class from the pool so that
+	// it is not retained (and a class with the same cached name can be generated again)
+	return ClassPoolManager.toBytecode( delegatableCtClass );
+    }
 
 
-	    // all ready
-	    // now define the class
-	    bytecode = delegatableCtClass.toBytecode();
 
-	    // the class loader is ready now
-	    synchronized( this ){
-		status = ClassLoaderStatus.READY;
-	    }
+    /**
+     * Tells if a delegate method calls its delegates synchronously.
+     * @param delegateMethod the delegate method
+     * @return true if the method is synchronous
+     */
+    private static final boolean isSynchronous( final Method delegateMethod ){
+	return delegateMethod.getAnnotation( Delegate.class ).dispatch() == DispatchMode.SYNCHRONOUS;
+    }
 
 
-	    logger.debug("Defining bytecode for class " + delegatableClassName);
-	    return this.defineClass( delegatableClassName, bytecode, 0, bytecode.length );
 
+    /**
+     * Provides the name of the connections of a delegate method, that is the name of its delegate annotation.
+     * @param delegateMethod the delegate method
+     * @return the name of the connections
+     */
+    private static final String getConnectionName( final Method delegateMethod ){
+	return delegateMethod.getAnnotation( Delegate.class ).name();
+    }
 
-	} catch (final NotFoundException e) {
-	    logger.error("Not Found!", e);
-	    throw new ClassNotFoundException("Cannot load the delegatable class", e);
-	} catch (final CannotCompileException e) {
-	    logger.error("Compilation error!", e);
-	    throw new ClassNotFoundException("Cannot compile the subclass", e);
-	} catch (final CannotConnectDelegateException e) {
-	    logger.error("Delegate error!", e);
-	    throw new ClassNotFoundException("Cannot bind the delegate", e);
-	} catch (final IOException e) {
-	    throw new ClassNotFoundException("Cannot generate the bytecode for the delegate", e);
-	}
 
 
+    /**
+     * Provides the name of the private field that keeps the target stored with the
+     * specified reference key.
+     * @param privateReferenceName the reference key of the target
+     * @return the name of the field
+     */
+    private static final String getPrivateTargetFieldName( final String privateReferenceName ){
+	return "__target_" + privateReferenceName;
+    }
 
 
-    }
 
     /* (non-Javadoc)
      * @see jfk.function.classloaders.IDelegateConnector#prepareConnection(java.lang.reflect.Method, java.lang.reflect.Method, jfk.function.delegates.IDelegate)
@@ -473,6 +706,7 @@ IDelegateConnector {
 
 	// store the name of the class to instantiate
 	delegatableSuperClassName = source.getName();	
+	delegatableSource         = source;
 
 
 
@@ -480,6 +714,31 @@ IDelegateConnector {
     }
 
 
+    /**
+     * Sets if the delegate classes must be defined as hidden classes, so that they can be
+     * unloaded as soon as they are no more reachable. A hidden delegate class is defined in the
+     * package and class loader of the delegatable class it extends.
+     * @param hiddenClasses true to define hidden classes
+     */
+    public synchronized void setHiddenClasses(final boolean hiddenClasses) {
+	if( status.equals( ClassLoaderStatus.BUSY) )
+	    throw new IllegalArgumentException("Cannot change the class definition while busy");
+
+	this.hiddenClasses = hiddenClasses;
+    }
+
+
+    /**
+     * Sets the cache of the generated bytecode, so that the delegate classes generated by
+     * a previous run are loaded without compiling them again.
+     * @param bytecodeCache the cache to use, or null to always generate the classes
+     */
+    public synchronized void setBytecodeCache(final BytecodeCache bytecodeCache) {
+	if( status.equals( ClassLoaderStatus.BUSY) )
+	    throw new IllegalArgumentException("Cannot change the class definition while busy");
+
+	this.bytecodeCache = bytecodeCache;
+    }
 
 
 }
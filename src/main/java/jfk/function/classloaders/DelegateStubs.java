@@ -0,0 +1,646 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.NotFoundException;
+import jfk.core.ClassMetadata;
+import jfk.core.ClassMetadata.AnnotatedMethod;
+import jfk.core.JFK;
+import jfk.function.IFunction;
+import jfk.function.delegates.Connect;
+import jfk.function.delegates.IDelegatable;
+import jfk.function.delegates.IDelegate;
+import jfk.function.exception.CannotBindFunctionException;
+import jfk.function.exception.delegates.CannotConnectDelegateException;
+import jfk.function.impl.DelegateBatchStub;
+import jfk.function.impl.DelegateListenerList;
+import jfk.function.impl.IDelegateCall;
+import jfk.function.impl.IDelegateStub;
+
+/**
+ * Generates the stubs that call the delegates added to a delegatable object.
+ * Each delegate method of a delegatable class has a stub interface, that extends {@link IDelegateStub}
+ * with a <i>dispatch</i> method of the same arguments of the delegate method; the interface is defined
+ * in the package and class loader of the delegatable class, so that the generated delegatable subclass
+ * calls the stubs without boxing the arguments.
+ * The stub of a delegate is a hidden class that implements such interface calling the connected method of the
+ * delegate directly or, if the delegate class is not visible from the delegatable class, through the function
+ * bound to the connection; the stub of a batch connection extends {@link DelegateBatchStub}, so that it
+ * delivers the calls in batches. The asynchronous and parallel delegate methods also have a call class, that keeps
+ * the arguments of a call to dispatch them later.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class DelegateStubs {
+
+    /**
+     * The name of the method of the stub interfaces.
+     */
+    public static final String DISPATCH_METHOD_NAME = "dispatch";
+
+    /**
+     * The name of the method of the call classes that sets the arguments of a call.
+     */
+    public static final String CALL_SET_METHOD_NAME = "set";
+
+
+    /**
+     * The stub classes of each delegate class, by stub interface.
+     */
+    private static final ClassValue<Map<Class, Class>> stubClasses = new ClassValue<Map<Class, Class>>() {
+	@Override
+	protected Map<Class, Class> computeValue( final Class delegateClass ){
+	    return new HashMap<Class, Class>();
+	}
+    };
+
+
+    /**
+     * Not instantiable.
+     */
+    private DelegateStubs() {
+	super();
+    }
+
+
+    /**
+     * Checks that a connect method can be the target of a delegate method, that is it has the same
+     * signature of the delegate method or it is a batch connection of a void delegate method.
+     * @param delegateMethod the delegate method
+     * @param connectionMethod the connect method
+     * @return true if the connect method is a batch connection
+     * @throws CannotConnectDelegateException if the methods cannot be connected
+     */
+    public static boolean checkConnection( final Method delegateMethod, final Method connectionMethod )
+    throws CannotConnectDelegateException {
+	if( isBatchConnection( delegateMethod.getParameterTypes(), connectionMethod ) ){
+	    if( ! delegateMethod.getReturnType().equals( Void.TYPE ) )
+		throw new CannotConnectDelegateException("Wrong signature: the batch connection " + connectionMethod.getName() + " requires a void delegate method");
+
+	    return true;
+	}
+
+	// check that the methods have the same number of parameters and the same type
+	// as well as the same type of return
+	final Class[] sourceParameters = delegateMethod.getParameterTypes();
+	final Class[] targetParameters = connectionMethod.getParameterTypes();
+	if( sourceParameters.length != targetParameters.length )
+	    throw new CannotConnectDelegateException("Wrong signature: invalid argument numbers");
+
+	for( int i = 0; i < sourceParameters.length; i++ )
+	    if( ! sourceParameters[i].equals( targetParameters[i] ) )
+		throw new CannotConnectDelegateException("Wrong signature: argument " + i + " mismatch");
+
+	if( ! delegateMethod.getReturnType().equals( connectionMethod.getReturnType() ) )
+	    throw new CannotConnectDelegateException("Wrong signature: return type mismatch");
+
+	return false;
+    }
+
+
+    /**
+     * Tells if a connect method is a batch connection for a delegate method: its only argument is a list, and the
+     * delegate method has a single argument (other than the same list) that the elements of the list can be.
+     * @param delegateParameters the parameter types of the delegate method
+     * @param connectionMethod the connect method
+     * @return true if the connect method is a batch connection, false if it must have the same arguments
+     * of the delegate method
+     * @throws CannotConnectDelegateException if the connect method takes a list that cannot keep the
+     * arguments of the delegate method, or its batches are not valid
+     */
+    public static boolean isBatchConnection( final Class[] delegateParameters, final Method connectionMethod )
+    throws CannotConnectDelegateException {
+	final Class[] connectionParameters = connectionMethod.getParameterTypes();
+	if( (connectionParameters.length != 1) || (! connectionParameters[0].equals( List.class ))
+	    || Arrays.equals( delegateParameters, connectionParameters ) )
+	    return false;
+
+	if( delegateParameters.length != 1 )
+	    throw new CannotConnectDelegateException("Wrong signature: the batch connection " + connectionMethod.getName() + " requires a delegate method with one argument");
+
+	if( ! connectionMethod.getReturnType().equals( Void.TYPE ) )
+	    throw new CannotConnectDelegateException("Wrong signature: the batch connection " + connectionMethod.getName() + " must be void");
+
+	final Class<?> elementType = getRawType( ((connectionMethod.getGenericParameterTypes()[0] instanceof ParameterizedType)
+					       ? ((ParameterizedType) connectionMethod.getGenericParameterTypes()[0]).getActualTypeArguments()[0]
+					       : Object.class) );
+	if( ! elementType.isAssignableFrom( ClassLoaderUtils.getWrapperClass( delegateParameters[0] ) ) )
+	    throw new CannotConnectDelegateException("Wrong signature: the batch connection " + connectionMethod.getName()
+						     + " cannot receive " + delegateParameters[0].getName() + " arguments");
+
+	final Connect connect = connectionMethod.getAnnotation( Connect.class );
+	if( (connect != null) && ((connect.batchSize() <= 0) || (connect.batchTimeout() < 0)) )
+	    throw new CannotConnectDelegateException("Invalid batch size or timeout for the batch connection " + connectionMethod.getName());
+
+	return true;
+    }
+
+
+    /**
+     * Provides the class a type argument is erased to.
+     */
+    private static Class getRawType( final Type type ){
+	if( type instanceof Class )
+	    return (Class) type;
+	else if( type instanceof ParameterizedType )
+	    return getRawType( ((ParameterizedType) type).getRawType() );
+	else if( type instanceof WildcardType )
+	    return getRawType( ((WildcardType) type).getUpperBounds()[0] );
+	else if( type instanceof TypeVariable )
+	    return getRawType( ((TypeVariable) type).getBounds()[0] );
+	else
+	    return Object.class;
+    }
+
+
+    /**
+     * Provides the name of the stub interface of a delegate method, that depends only on the method.
+     * @param delegatableSource the delegatable class
+     * @param delegateMethod the delegate method
+     * @return the name of the stub interface
+     */
+    static String getStubInterfaceName( final Class delegatableSource, final Method delegateMethod ){
+	return ClassLoaderUtils.getPackagedClassName( delegatableSource,
+						      delegatableSource.getSimpleName() + "_" + delegateMethod.getName()
+						      + "_stub_" + Integer.toHexString( delegateMethod.toGenericString().hashCode() ) );
+    }
+
+
+    /**
+     * Provides the stub interface of a delegate method, defining it in the class loader of the delegatable
+     * class if it has not been defined yet. The interface is also kept in the class pool of the
+     * delegates, so that the generated code can refer to it.
+     * @param delegatableSource the delegatable class
+     * @param delegateMethod the delegate method
+     * @return the stub interface
+     * @throws NotFoundException if a class cannot be found by javassist
+     * @throws CannotCompileException if the interface cannot be compiled
+     * @throws IOException if the bytecode cannot be produced
+     * @throws IllegalAccessException if the package of the delegatable class is not open to JFK
+     */
+    static synchronized Class getStubInterface( final Class delegatableSource, final Method delegateMethod )
+    throws NotFoundException, CannotCompileException, IOException, IllegalAccessException {
+	final String interfaceName = getStubInterfaceName( delegatableSource, delegateMethod );
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.DELEGATE, delegatableSource.getClassLoader() );
+
+	// the interface is kept in the pool, the pool of a collected loader is created again
+	if( pool.getOrNull( interfaceName ) == null ){
+	    final CtClass stubInterface = pool.makeInterface( interfaceName, pool.get( IDelegateStub.class.getName() ) );
+
+	    final StringBuffer methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public abstract void " );
+	    methodCode.append( DISPATCH_METHOD_NAME );
+	    methodCode.append( "(" );
+	    appendParameters( methodCode, delegateMethod.getParameterTypes(), true );
+	    methodCode.append( ");" );
+	    Diagnostics.dumpSource( interfaceName, methodCode );
+	    stubInterface.addMethod( CtMethod.make( methodCode.toString(), stubInterface ) );
+	}
+
+	return loadOrDefine( delegatableSource, pool, interfaceName );
+    }
+
+
+    /**
+     * Provides the class of the calls of a delegate method, that keeps the arguments of a call to dispatch them
+     * later (see {@link IDelegateCall}), defining it in the class loader of the delegatable class if it has not
+     * been defined yet. A call is created with no arguments, that are set (also again, when the call is
+     * a slot of a ring buffer) by its {@link #CALL_SET_METHOD_NAME} method. The class is also kept in the class pool of the delegates, so that the generated code
+     * can refer to it.
+     * @param delegatableSource the delegatable class
+     * @param delegateMethod the delegate method
+     * @param stubInterface the stub interface of the method
+     * @return the call class
+     * @throws NotFoundException if a class cannot be found by javassist
+     * @throws CannotCompileException if the class cannot be compiled
+     * @throws IOException if the bytecode cannot be produced
+     * @throws IllegalAccessException if the package of the delegatable class is not open to JFK
+     */
+    static synchronized Class getCallClass( final Class delegatableSource, final Method delegateMethod, final Class stubInterface )
+    throws NotFoundException, CannotCompileException, IOException, IllegalAccessException {
+	final String callClassName = stubInterface.getName() + "_call";
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.DELEGATE, delegatableSource.getClassLoader() );
+
+	if( pool.getOrNull( callClassName ) == null ){
+	    final CtClass callClass = pool.makeClass( callClassName );
+	    callClass.addInterface( pool.get( IDelegateCall.class.getName() ) );
+	    final String stubArrayName = stubInterface.getName() + "[]";
+	    final Class[] parameterTypes = delegateMethod.getParameterTypes();
+
+	    callClass.addField( CtField.make( "private " + DelegateListenerList.class.getName() + " list;", callClass ) );
+	    callClass.addField( CtField.make( "private " + IDelegatable.class.getName() + " source;", callClass ) );
+	    callClass.addField( CtField.make( "private " + stubArrayName + " stubs;", callClass ) );
+	    for( int i = 0; i < parameterTypes.length; i++ )
+		callClass.addField( CtField.make( "private " + ClassLoaderUtils.getSourceTypeName( parameterTypes[i] ) + " param" + i + ";", callClass ) );
+
+	    // the call is created empty and then set, so that the slots of a ring buffer can be reused
+	    callClass.addConstructor( CtNewConstructor.defaultConstructor( callClass ) );
+	    StringBuffer methodCode = new StringBuffer( 1000 );
+	    methodCode.append( "public void " );
+	    methodCode.append( CALL_SET_METHOD_NAME );
+	    methodCode.append( "(" );
+	    methodCode.append( DelegateListenerList.class.getName() );
+	    methodCode.append( " list, " );
+	    methodCode.append( IDelegatable.class.getName() );
+	    methodCode.append( " source, " );
+	    methodCode.append( IDelegateStub.class.getName() );
+	    methodCode.append( "[] stubs" );
+	    if( parameterTypes.length > 0 )
+		methodCode.append( ", " );
+	    appendParameters( methodCode, parameterTypes, true );
+	    methodCode.append( "){\n\t" );
+	    methodCode.append( "this.list = $1;\n\tthis.source = $2;\n\tthis.stubs = (" );
+	    methodCode.append( stubArrayName );
+	    methodCode.append( ") $3;\n" );
+	    for( int i = 0; i < parameterTypes.length; i++ ){
+		methodCode.append( "\tthis.param" );
+		methodCode.append( i );
+		methodCode.append( " = $" );
+		methodCode.append( i + 4 );
+		methodCode.append( ";\n" );
+	    }
+	    methodCode.append( "}\n" );
+	    Diagnostics.dumpSource( callClassName, methodCode );
+	    callClass.addMethod( CtMethod.make( methodCode.toString(), callClass ) );
+
+	    methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public int getStubCount(){ return this.stubs.length; }" );
+	    Diagnostics.dumpSource( callClassName, methodCode );
+	    callClass.addMethod( CtMethod.make( methodCode.toString(), callClass ) );
+
+	    // the primitive arguments are not references, and are left as they are
+	    methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public void clear(){\n\t" );
+	    methodCode.append( "this.list = null;\n\tthis.source = null;\n\tthis.stubs = null;\n" );
+	    for( int i = 0; i < parameterTypes.length; i++ )
+		if( ! parameterTypes[i].isPrimitive() ){
+		    methodCode.append( "\tthis.param" );
+		    methodCode.append( i );
+		    methodCode.append( " = null;\n" );
+		}
+	    methodCode.append( "}\n" );
+	    Diagnostics.dumpSource( callClassName, methodCode );
+	    callClass.addMethod( CtMethod.make( methodCode.toString(), callClass ) );
+
+	    methodCode = new StringBuffer( 1000 );
+	    methodCode.append( "public void dispatch( int index ){\n\t" );
+	    methodCode.append( "try{\n\t\t" );
+	    methodCode.append( "this.stubs[index]." );
+	    methodCode.append( DISPATCH_METHOD_NAME );
+	    methodCode.append( "(" );
+	    for( int i = 0; i < parameterTypes.length; i++ ){
+		if( i > 0 )
+		    methodCode.append( "," );
+
+		methodCode.append( "this.param" + i );
+	    }
+	    methodCode.append( ");\n\t" );
+	    methodCode.append( "}catch(Exception e){\n\t\t" );
+	    methodCode.append( "this.list.dispatchFailed( this.source, this.stubs[index], e );\n\t" );
+	    methodCode.append( "}\n}\n" );
+	    Diagnostics.dumpSource( callClassName, methodCode );
+	    callClass.addMethod( CtMethod.make( methodCode.toString(), callClass ) );
+	}
+
+	return loadOrDefine( delegatableSource, pool, callClassName );
+    }
+
+
+    /**
+     * Provides a class generated for a delegatable class, defining it in the class loader of the delegatable
+     * class (from the class in the pool) if it has not been defined yet.
+     */
+    private static Class loadOrDefine( final Class delegatableSource, final ClassPool pool, final String className )
+    throws NotFoundException, CannotCompileException, IOException, IllegalAccessException {
+	try {
+	    return Class.forName( className, false, delegatableSource.getClassLoader() );
+	} catch (final ClassNotFoundException e) {
+	    final byte[] bytecode = pool.get( className ).toBytecode();
+	    Diagnostics.dumpClass( className, bytecode );
+	    GeneratorStatistics.DELEGATE.classDefined( bytecode.length );
+	    return ClassLoaderUtils.defineClass( delegatableSource, bytecode );
+	}
+    }
+
+
+    /**
+     * Provides the method of a stub interface.
+     * @param stubInterface the stub interface
+     * @return the dispatch method
+     */
+    public static Method getDispatchMethod( final Class stubInterface ){
+	for( final Method method : stubInterface.getDeclaredMethods() )
+	    if( method.getName().equals( DISPATCH_METHOD_NAME ) )
+		return method;
+
+	throw new IllegalArgumentException( stubInterface + " is not a stub interface" );
+    }
+
+
+    /**
+     * Creates the stub that calls the connection of a delegate.
+     * @param stubInterface the stub interface of the delegate method
+     * @param delegate the delegate to call
+     * @param name the name of the connection of the delegate
+     * @return the stub
+     * @throws CannotConnectDelegateException if the delegate has no connection with the name and the
+     * arguments of the delegate method, or its stub cannot be generated
+     */
+    public static IDelegateStub createStub( final Class stubInterface, final IDelegate delegate, final String name )
+    throws CannotConnectDelegateException {
+	final AnnotatedMethod connection = ClassMetadata.forClass( delegate.getClass() ).getConnection( name );
+	if( connection == null )
+	    throw new CannotConnectDelegateException( "No connection named " + name + " in " + delegate.getClass() );
+
+	final Class[] parameterTypes = getDispatchMethod( stubInterface ).getParameterTypes();
+	final boolean batch = isBatchConnection( parameterTypes, connection.getMethod() );
+	if( (! batch) && (! Arrays.equals( parameterTypes, connection.getParameterTypes() )) )
+	    throw new CannotConnectDelegateException( "Wrong signature: the connection " + name + " does not match the delegate method" );
+
+	try {
+	    // a delegate not visible from the delegatable class is called through its function
+	    final boolean direct = isVisible( delegate.getClass(), stubInterface.getClassLoader() );
+	    final IFunction function = ( direct ? null : JFK.getFunctionBuilder().bindDelegateFunction( delegate, name ) );
+
+	    final Map<Class, Class> delegateStubClasses = stubClasses.get( delegate.getClass() );
+	    Class<?> stubClass;
+	    synchronized( delegateStubClasses ){
+		stubClass = delegateStubClasses.get( stubInterface );
+		if( stubClass == null ){
+		    stubClass = ( batch
+				  ? defineBatchStubClass( stubInterface, delegate.getClass(), connection.getMethod(), direct )
+				  : defineStubClass( stubInterface, delegate.getClass(), connection.getMethod(), direct ) );
+		    delegateStubClasses.put( stubInterface, stubClass );
+		}
+	    }
+
+	    return (IDelegateStub) stubClass.getConstructor( IDelegate.class, IFunction.class ).newInstance( delegate, function );
+	} catch (final CannotBindFunctionException e) {
+	    throw new CannotConnectDelegateException( "Cannot bind the connection " + name, e );
+	} catch (final NotFoundException e) {
+	    throw new CannotConnectDelegateException( "Cannot generate the stub of the connection " + name, e );
+	} catch (final CannotCompileException e) {
+	    throw new CannotConnectDelegateException( "Cannot compile the stub of the connection " + name, e );
+	} catch (final IOException e) {
+	    throw new CannotConnectDelegateException( "Cannot generate the stub of the connection " + name, e );
+	} catch (final IllegalAccessException e) {
+	    throw new CannotConnectDelegateException( "Cannot define the stub of the connection " + name, e );
+	} catch (final InstantiationException e) {
+	    throw new CannotConnectDelegateException( "Cannot instantiate the stub of the connection " + name, e );
+	} catch (final NoSuchMethodException e) {
+	    throw new CannotConnectDelegateException( "Cannot instantiate the stub of the connection " + name, e );
+	} catch (final InvocationTargetException e) {
+	    throw new CannotConnectDelegateException( "Cannot instantiate the stub of the connection " + name, e.getCause() );
+	}
+    }
+
+
+    /**
+     * Generates and defines the class of a stub, as a hidden class in the package of the stub interface.
+     * @param stubInterface the stub interface
+     * @param delegateClass the class of the delegates called by the stub
+     * @param connectionMethod the method called
+     * @param direct true if the stub calls the method, false if it calls the function of the connection
+     * @return the stub class
+     */
+    private static Class defineStubClass( final Class stubInterface, final Class delegateClass,
+					  final Method connectionMethod, final boolean direct )
+    throws NotFoundException, CannotCompileException, IOException, IllegalAccessException {
+	final long generationStart = System.nanoTime();
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.DELEGATE, stubInterface.getClassLoader() );
+	final byte[] bytecode;
+	synchronized( pool ){
+	    final CtClass stubClass = pool.makeClass( stubInterface.getName() + "_impl" );
+	    stubClass.addInterface( pool.get( stubInterface.getName() ) );
+
+	    stubClass.addField( CtField.make( "private final " + IDelegate.class.getName() + " delegate;", stubClass ) );
+	    stubClass.addField( CtField.make( "private final " + IFunction.class.getName() + " function;", stubClass ) );
+	    if( direct )
+		stubClass.addField( CtField.make( "private final " + delegateClass.getName() + " target;", stubClass ) );
+
+	    // the constructor
+	    StringBuffer methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public " );
+	    methodCode.append( stubClass.getSimpleName() );
+	    methodCode.append( "(" );
+	    methodCode.append( IDelegate.class.getName() );
+	    methodCode.append( " delegate, " );
+	    methodCode.append( IFunction.class.getName() );
+	    methodCode.append( " function){\n\t" );
+	    methodCode.append( "this.delegate = $1;\n\tthis.function = $2;\n" );
+	    if( direct ){
+		methodCode.append( "\tthis.target = (" );
+		methodCode.append( delegateClass.getName() );
+		methodCode.append( ") $1;\n" );
+	    }
+	    methodCode.append( "}\n" );
+	    Diagnostics.dumpSource( stubClass.getName(), methodCode );
+	    stubClass.addConstructor( CtNewConstructor.make( methodCode.toString(), stubClass ) );
+
+	    methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public " );
+	    methodCode.append( IDelegate.class.getName() );
+	    methodCode.append( " getDelegate(){ return this.delegate; }" );
+	    Diagnostics.dumpSource( stubClass.getName(), methodCode );
+	    stubClass.addMethod( CtMethod.make( methodCode.toString(), stubClass ) );
+
+	    // the dispatch, with the same arguments of the connection
+	    final Class[] parameterTypes = connectionMethod.getParameterTypes();
+	    methodCode = new StringBuffer( 1000 );
+	    methodCode.append( "public void " );
+	    methodCode.append( DISPATCH_METHOD_NAME );
+	    methodCode.append( "(" );
+	    appendParameters( methodCode, parameterTypes, true );
+	    methodCode.append( "){\n\t" );
+	    if( direct ){
+		methodCode.append( "this.target." );
+		methodCode.append( connectionMethod.getName() );
+		methodCode.append( "(" );
+		appendParameters( methodCode, parameterTypes, false );
+		methodCode.append( ");" );
+	    }
+	    else {
+		methodCode.append( "this.function.executeCall( new Object[]{" );
+		for( int i = 0; i < parameterTypes.length; i++ ){
+		    if( i > 0 )
+			methodCode.append( "," );
+
+		    methodCode.append( ClassLoaderUtils.getBoxingSourceCode( parameterTypes[i], "param" + i ) );
+		}
+		methodCode.append( "} );" );
+	    }
+	    methodCode.append( "\n}\n" );
+	    Diagnostics.dumpSource( stubClass.getName(), methodCode );
+	    stubClass.addMethod( CtMethod.make( methodCode.toString(), stubClass ) );
+
+	    bytecode = ClassPoolManager.toBytecode( stubClass );
+	}
+
+	GeneratorStatistics.DELEGATE.classGenerated( System.nanoTime() - generationStart );
+	GeneratorStatistics.DELEGATE.classDefined( bytecode.length );
+	return ClassLoaderUtils.defineHiddenClass( stubInterface, bytecode );
+    }
+
+
+    /**
+     * Generates and defines the class of the stub of a batch connection, as a hidden class in the package of the stub
+     * interface that extends {@link DelegateBatchStub} with the batch size and timeout of the connection.
+     * @param stubInterface the stub interface
+     * @param delegateClass the class of the delegates called by the stub
+     * @param connectionMethod the batch connection
+     * @param direct true if the stub calls the method, false if it calls the function of the connection
+     * @return the stub class
+     */
+    private static Class defineBatchStubClass( final Class stubInterface, final Class delegateClass,
+					       final Method connectionMethod, final boolean direct )
+    throws NotFoundException, CannotCompileException, IOException, IllegalAccessException {
+	final long generationStart = System.nanoTime();
+	final Connect connect = connectionMethod.getAnnotation( Connect.class );
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.DELEGATE, stubInterface.getClassLoader() );
+	final byte[] bytecode;
+	synchronized( pool ){
+	    final CtClass stubClass = pool.makeClass( stubInterface.getName() + "_batch" );
+	    stubClass.setSuperclass( pool.get( DelegateBatchStub.class.getName() ) );
+	    stubClass.addInterface( pool.get( stubInterface.getName() ) );
+
+	    stubClass.addField( CtField.make( "private final " + IFunction.class.getName() + " function;", stubClass ) );
+	    if( direct )
+		stubClass.addField( CtField.make( "private final " + delegateClass.getName() + " target;", stubClass ) );
+
+	    // the constructor, with the batches of the connection
+	    StringBuffer methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public " );
+	    methodCode.append( stubClass.getSimpleName() );
+	    methodCode.append( "(" );
+	    methodCode.append( IDelegate.class.getName() );
+	    methodCode.append( " delegate, " );
+	    methodCode.append( IFunction.class.getName() );
+	    methodCode.append( " function){\n\t" );
+	    methodCode.append( "super( $1, " );
+	    methodCode.append( connect.batchSize() );
+	    methodCode.append( ", " );
+	    methodCode.append( connect.batchTimeout() );
+	    methodCode.append( "L );\n\tthis.function = $2;\n" );
+	    if( direct ){
+		methodCode.append( "\tthis.target = (" );
+		methodCode.append( delegateClass.getName() );
+		methodCode.append( ") $1;\n" );
+	    }
+	    methodCode.append( "}\n" );
+	    Diagnostics.dumpSource( stubClass.getName(), methodCode );
+	    stubClass.addConstructor( CtNewConstructor.make( methodCode.toString(), stubClass ) );
+
+	    // the dispatch appends the argument to the batch
+	    final Class[] parameterTypes = getDispatchMethod( stubInterface ).getParameterTypes();
+	    methodCode = new StringBuffer( 500 );
+	    methodCode.append( "public void " );
+	    methodCode.append( DISPATCH_METHOD_NAME );
+	    methodCode.append( "(" );
+	    appendParameters( methodCode, parameterTypes, true );
+	    methodCode.append( "){\n\t" );
+	    methodCode.append( "this.append( " );
+	    methodCode.append( ClassLoaderUtils.getBoxingSourceCode( parameterTypes[0], "param0" ) );
+	    methodCode.append( " );\n}\n" );
+	    Diagnostics.dumpSource( stubClass.getName(), methodCode );
+	    stubClass.addMethod( CtMethod.make( methodCode.toString(), stubClass ) );
+
+	    // the delivery of a batch
+	    methodCode = new StringBuffer( 500 );
+	    methodCode.append( "protected void deliver( java.util.List batch ){\n\t" );
+	    if( direct ){
+		methodCode.append( "this.target." );
+		methodCode.append( connectionMethod.getName() );
+		methodCode.append( "( $1 );" );
+	    }
+	    else
+		methodCode.append( "this.function.executeCall( new Object[]{ $1 } );" );
+	    methodCode.append( "\n}\n" );
+	    Diagnostics.dumpSource( stubClass.getName(), methodCode );
+	    stubClass.addMethod( CtMethod.make( methodCode.toString(), stubClass ) );
+
+	    bytecode = ClassPoolManager.toBytecode( stubClass );
+	}
+
+	GeneratorStatistics.DELEGATE.classGenerated( System.nanoTime() - generationStart );
+	GeneratorStatistics.DELEGATE.classDefined( bytecode.length );
+	return ClassLoaderUtils.defineHiddenClass( stubInterface, bytecode );
+    }
+
+
+    /**
+     * Appends the parameters <i>param0, param1, ...</i> of a method, with their types if required.
+     */
+    private static void appendParameters( final StringBuffer methodCode, final Class[] parameterTypes, final boolean withTypes ){
+	for( int i = 0; i < parameterTypes.length; i++ ){
+	    if( i > 0 )
+		methodCode.append( "," );
+
+	    if( withTypes ){
+		methodCode.append( ClassLoaderUtils.getSourceTypeName( parameterTypes[i] ) );
+		methodCode.append( " " );
+	    }
+	    methodCode.append( "param" + i );
+	}
+    }
+
+
+    /**
+     * Tells if a class can be called by name from the classes of a class loader: it must be public
+     * and be the class that the loader finds with its name.
+     */
+    private static boolean isVisible( final Class type, final ClassLoader loader ){
+	if( type.isHidden() || (! Modifier.isPublic( type.getModifiers() )) )
+	    return false;
+	if( (type.getDeclaringClass() != null) && (! isVisible( type.getDeclaringClass(), loader )) )
+	    return false;
+
+	try {
+	    return Class.forName( type.getName(), false, loader ) == type;
+	} catch (final ClassNotFoundException e) {
+	    return false;
+	}
+    }
+
+}
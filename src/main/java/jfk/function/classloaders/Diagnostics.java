@@ -0,0 +1,166 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The diagnostics of the code generators: when enabled, the source code compiled by the
+ * generators and the bytecode of every generated class are dumped to a directory, so that
+ * they can be inspected (e.g., with javap). For each generated class the directory contains
+ * a <i>class-name</i>.src file, with all the source fragments compiled into the class, and
+ * a <i>class-name</i>.class file.
+ * <p>
+ * The diagnostics are enabled setting a directory, either with {@link #setDirectory(String)} or with
+ * the {@value #DIRECTORY_PROPERTY} system property. When they are disabled the generators do not
+ * format nor write anything: every dump method returns after reading a single volatile field.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class Diagnostics {
+
+    /**
+     * The system property that enables the diagnostics at startup, its value is the dump directory.
+     */
+    public static final String DIRECTORY_PROPERTY = "jfk.diagnostics.directory";
+
+    /**
+     * The extension of the source dumps.
+     */
+    private static final String SOURCE_EXTENSION = ".src";
+
+    /**
+     * The extension of the bytecode dumps.
+     */
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( Diagnostics.class );
+
+    /**
+     * The dump directory, null if the diagnostics are disabled.
+     */
+    private static volatile File directory = null;
+
+    static{
+	final String configuredDirectory = System.getProperty( DIRECTORY_PROPERTY );
+	if( configuredDirectory != null )
+	    setDirectory( configuredDirectory );
+    }
+
+
+    private Diagnostics(){
+	super();
+    }
+
+
+
+    /**
+     * Tells if the diagnostics are enabled, that is if they have a dump directory.
+     * @return true if the generated code is dumped
+     */
+    public static boolean isEnabled(){
+	return directory != null;
+    }
+
+
+    /**
+     * Provides the dump directory.
+     * @return the path of the directory, or an empty string if the diagnostics are disabled
+     */
+    public static String getDirectory(){
+	final File currentDirectory = directory;
+	return ( currentDirectory == null ? "" : currentDirectory.getPath() );
+    }
+
+
+    /**
+     * Sets the dump directory, that is created if it does not exist.
+     * @param directory the path of the directory, or an empty string (or null) to disable the diagnostics
+     */
+    public static synchronized void setDirectory( final String directory ){
+	if( (directory == null) || (directory.trim().length() == 0) ){
+	    Diagnostics.directory = null;
+	    return;
+	}
+
+	final File dumpDirectory = new File( directory.trim() );
+	if( (! dumpDirectory.isDirectory()) && (! dumpDirectory.mkdirs()) && (! dumpDirectory.isDirectory()) )
+	    throw new IllegalArgumentException("Cannot create the diagnostics directory " + dumpDirectory );
+
+	Diagnostics.directory = dumpDirectory;
+    }
+
+
+    /**
+     * Dumps a source fragment compiled into a generated class, appending it to the source
+     * dump of the class. The source is converted to a string only if the diagnostics are enabled.
+     * @param className the name of the generated class
+     * @param sourceCode the source code compiled
+     */
+    public static void dumpSource( final String className, final CharSequence sourceCode ){
+	final File dumpDirectory = directory;
+	if( dumpDirectory == null )
+	    return;
+
+	final File dump = new File( dumpDirectory, className + SOURCE_EXTENSION );
+	try {
+	    Files.write( dump.toPath(),
+			 ( sourceCode + "\n\n" ).getBytes( StandardCharsets.UTF_8 ),
+			 StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+	} catch (final IOException e) {
+	    logger.warn("Cannot dump the source of the class " + className, e );
+	}
+    }
+
+
+    /**
+     * Dumps the bytecode of a generated class.
+     * @param className the name of the generated class
+     * @param bytecode the bytecode of the class
+     */
+    public static void dumpClass( final String className, final byte[] bytecode ){
+	final File dumpDirectory = directory;
+	if( dumpDirectory == null )
+	    return;
+
+	final File dump = new File( dumpDirectory, className + CLASS_EXTENSION );
+	try {
+	    Files.write( dump.toPath(), bytecode );
+	} catch (final IOException e) {
+	    logger.warn("Cannot dump the bytecode of the class " + className, e );
+	}
+    }
+
+}
@@ -25,8 +25,14 @@
 package jfk.function.classloaders;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.security.SecureClassLoader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javassist.CannotCompileException;
 import javassist.ClassPool;
@@ -36,16 +42,28 @@ import javassist.CtField;
 import javassist.CtMethod;
 import javassist.NotFoundException;
 import jfk.function.Function;
+import jfk.function.IDoubleFunction0;
+import jfk.function.IDoubleFunction1;
+import jfk.function.IDoubleFunction2;
 import jfk.function.IFunction;
+import jfk.function.IFunction0;
+import jfk.function.IFunction1;
+import jfk.function.IFunction2;
+import jfk.function.IFunction3;
+import jfk.function.IFunction4;
+import jfk.function.IIntFunction0;
+import jfk.function.IIntFunction1;
+import jfk.function.IIntFunction2;
+import jfk.function.ILongFunction0;
+import jfk.function.ILongFunction1;
+import jfk.function.ILongFunction2;
 import jfk.function.JFKException;
 import jfk.function.delegates.Connect;
-import jfk.function.exception.BadArityException;
-import jfk.function.exception.BadParameterTypeException;
 import jfk.function.exception.CannotBindFunctionException;
+import jfk.function.exception.CollectedTargetException;
 import jfk.function.exception.TargetBindException;
 
 import org.apache.log4j.Logger;
-import org.apache.log4j.xml.DOMConfigurator;
 
 
 
@@ -63,10 +81,44 @@ public class FunctionClassLoader extends SecureClassLoader implements IFunctionC
      */
     protected static Logger logger = org.apache.log4j.Logger.getLogger( FunctionClassLoader.class );
 
-    // configure the logger
-    static{
-	DOMConfigurator.configure("jfk.log4j.xml");
-    }
+
+    /**
+     * The typed function interfaces, indexed by arity.
+     */
+    private static final List<Class> TYPED_FUNCTION_INTERFACES = Arrays.asList( new Class[]{ IFunction0.class,
+											 IFunction1.class,
+											 IFunction2.class,
+											 IFunction3.class,
+											 IFunction4.class } );
+
+    /**
+     * The primitive function interfaces, indexed by arity.
+     */
+    private static final List<Class> INT_FUNCTION_INTERFACES    = Arrays.asList( new Class[]{ IIntFunction0.class,
+											  IIntFunction1.class,
+											  IIntFunction2.class } );
+    private static final List<Class> LONG_FUNCTION_INTERFACES   = Arrays.asList( new Class[]{ ILongFunction0.class,
+											  ILongFunction1.class,
+											  ILongFunction2.class } );
+    private static final List<Class> DOUBLE_FUNCTION_INTERFACES = Arrays.asList( new Class[]{ IDoubleFunction0.class,
+											  IDoubleFunction1.class,
+											  IDoubleFunction2.class } );
+
+
+    /**
+     * The function classes already defined, for each target class and method.
+     * A function class does not depend on the target instance (that is set thru the
+     * {@link IFunctionBinder} interface), so it is defined only once and then shared
+     * among all the functions bound to the same method of the same class.
+     * The classes are mapped by the method and the way they have been defined (i.e.,
+     * checked or unchecked, hidden or not, weakly bound or not).
+     */
+    private static final ClassValue<Map<List<Object>, Class>> definedFunctionClasses = new ClassValue<Map<List<Object>, Class>>() {
+	@Override
+	protected Map<List<Object>, Class> computeValue( final Class targetClass ){
+	    return new HashMap<List<Object>, Class>();
+	}
+    };
 
 
     /**
@@ -84,6 +136,33 @@ public class FunctionClassLoader extends SecureClassLoader implements IFunctionC
      */
     protected ClassLoaderStatus status = ClassLoaderStatus.READY;
 
+    /**
+     * If true the functions defined by this loader do not check their arguments, regardless
+     * of the function annotation.
+     */
+    protected boolean uncheckedInvocation = false;
+
+    /**
+     * If true the classes are defined as hidden classes, that are unloaded as soon as they
+     * are no more reachable.
+     */
+    protected boolean hiddenClasses = false;
+
+    /**
+     * The cache of the generated bytecode, null if the classes are always generated.
+     */
+    protected BytecodeCache bytecodeCache = null;
+
+    /**
+     * If true the functions refer to their target objects thru a weak reference.
+     */
+    protected boolean weakBinding = false;
+
+    /**
+     * If true the class being defined checks its arguments.
+     */
+    private boolean checkedInvocation = true;
+
 
     /**
      * The name (i.e., the ID) of the method to connect to the function, that is the one that is specified in
@@ -109,279 +188,172 @@ public class FunctionClassLoader extends SecureClassLoader implements IFunctionC
 	    }
 
 
-	    // get the class pool for working with classes and modifying them on the fly
-	    final ClassPool pool = ClassPool.getDefault();
-	    final CtClass baseProxyClass = null;
-
-	    // the array that will store the in-memory byte code
-	    byte[] bytecode = null;
-
-	    // I have to compute a name for the class to implement.
-	    final String functionClassName = ClassLoaderUtils.computeFunctionClassName( functionNameFromAnnotation, targetInstance.getClass() );
-	    logger.debug("The new function class name is " + functionClassName );
-
-	    // create a new class for the specified name
-	    final CtClass newFunctionClass = pool.makeClass( functionClassName );
-
-	    // I need also a ctclass for the target object
-	    final CtClass targetObjectCtClass = pool.get( targetInstance.getClass().getName() );
-
-
-
-
-	    // now the class has the new member, I need an empty constructor so to be sure that reflection
-	    // will work instantiating the class
-	    logger.debug("Creating a new empty constructor");
-	    final CtConstructor constructor = new CtConstructor(null, newFunctionClass );
-	    constructor.setBody(";");
-	    newFunctionClass.addConstructor(constructor);
-
-
-
-	    // now I have to add a field with the target object on which I'm going to call the method.
-	    // The idea is that the function object will have a private refence to the target object
-	    // on which it will call the method specified.
-	    final String privateReferenceName = ClassLoaderUtils.computePrivateTargetReferenceName( targetInstance.getClass() );
-	    logger.debug("The private reference to the target object will be " + privateReferenceName );
-
-	    // now that I've got the name, create the field to add to the new class
-	    final CtField privateReferenceField = new CtField( targetObjectCtClass,		// class type of the field 
-		    privateReferenceName, 		// field name
-		    newFunctionClass 		// declaring class
-	    );
-	    // TODO make the modifier private
-	    //privateReferenceField.setModifiers(  )
-	    newFunctionClass.addField( privateReferenceField );
-
-
-	    // now I need to implement the inteface IFunction
-	    final CtClass iFunctionCtClass = pool.get( IFunction.class.getName() );
-	    newFunctionClass.addInterface(iFunctionCtClass);
-
-	    // now add the IFunction method implementation
-	    StringBuffer methodCode = new StringBuffer(1000);
-	    for( final CtMethod iFunctionMethod : iFunctionCtClass.getDeclaredMethods() ){
-
-		logger.debug("Implementing the IFunction method " + iFunctionMethod.getName() );
-
-		// method name and qualifiers
-		methodCode.append( "public");
-		methodCode.append( " " );
-		methodCode.append( iFunctionMethod.getReturnType().getName() );
-		methodCode.append( " " );
-		methodCode.append( iFunctionMethod.getName() );
-		methodCode.append( "(" );
-
-		// parameter list
-		final CtClass params[] = iFunctionMethod.getParameterTypes();
-		for( int paramNumber = 0; (params != null) && (paramNumber < params.length); paramNumber++ ){
-		    if( paramNumber > 0 )
-			methodCode.append( ", ");
-
-		    methodCode.append( params[paramNumber].getName() );
-		    methodCode.append( " " );
-		    methodCode.append( "param" + paramNumber); 
-		}
-
-		methodCode.append( ") " );
-
-
-		// exception management
-		final CtClass exceptions[] = iFunctionMethod.getExceptionTypes();
-		if( (exceptions != null) && (exceptions.length > 0) ){
-		    methodCode.append( "throws " );
-
-		    for( int exceptionNumber = 0; exceptionNumber < exceptions.length; exceptionNumber++ ){
-			if( exceptionNumber > 0 )
-			    methodCode.append( ", " );
-
-			methodCode.append( exceptions[ exceptionNumber ].getName() );
-		    }
-		}
-
-
-
-		// the body of the method starts here
-		methodCode.append( "\n{\n\t" );
-		//methodCode.append( "System.out.println(\" method call on \" + "+ privateReferenceName + ");");
-
-
-
-		// security checks: the method must receive the exact number of parameters!
-		final int requiredParameters = ( currentMethod.getParameterTypes() != null ? currentMethod.getParameterTypes().length : 0 );
-		if( requiredParameters > 0 ){
-		    methodCode.append(" if( param0 == null || param0.length != ");
-		    methodCode.append( currentMethod.getParameterTypes().length );
-		    methodCode.append( ")\n\t\t" );
-		    methodCode.append( "{\n\t\t\t" );
-		    methodCode.append( BadArityException.class.getName() );
-		    methodCode.append( " bae = new " );
-		    methodCode.append( BadArityException.class.getName() );
-		    methodCode.append( "(\"Bad arity!\");\n\n");
-		    methodCode.append( "\n\t\t\t" );
-		    methodCode.append( "bae.setRequiredArity( " );
-		    methodCode.append( requiredParameters );
-		    methodCode.append( " );" );
-		    methodCode.append( "\n\t\t\t" );
-		    methodCode.append( "bae.setSuppliedArity( (param0 != null ? param0.length : 0 ) );" );
-		    methodCode.append( "\n\t\t\t" );
-		    methodCode.append( "throw bae; " );
-		    methodCode.append( "\n\t\t" );
-		    methodCode.append( "}\n" );
-
-
-		    // another security check: the method must receive the exact type of the parameters
-		    final Class parameterTypes[] = currentMethod.getParameterTypes();
-
-		    for( int checkNumber = 0; checkNumber < parameterTypes.length; checkNumber ++ ){
-			methodCode.append( "\n\t" );
-			methodCode.append( "if( ! param0[" );
-			methodCode.append( checkNumber );
-			methodCode.append( "].getClass().getName().equals( \"" );
-			methodCode.append( parameterTypes[checkNumber].getName() );
-			methodCode.append( "\") )" );
-			methodCode.append( "\n\t\t" );
-			methodCode.append( "{\n\t\t\t" );
-			methodCode.append( BadParameterTypeException.class.getName() );
-			methodCode.append( " bpe = new " );
-			methodCode.append( BadParameterTypeException.class.getName() );
-			methodCode.append( "(\"Bad parameter type!\");\n\n");
-			methodCode.append( "\n\t\t\t" );
-			methodCode.append( "bpe.setRequiredType( ");
-			methodCode.append( parameterTypes[checkNumber].getName() );
-			methodCode.append( ".class" );
-			methodCode.append( " );" );
-			methodCode.append( "\n\t\t\t" );
-			methodCode.append( "bpe.setSuppliedType( (param0[" );
-			methodCode.append( checkNumber );
-			methodCode.append( "] != null ? param0[" );
-			methodCode.append( checkNumber );
-			methodCode.append( "].getClass() : java.lang.Void.class) );" );
-			methodCode.append( "\n\t\t\t" );
-			methodCode.append( "throw bpe; " );
-			methodCode.append( "\n\t\t" );
-			methodCode.append( "}\n" );
-
-		    }
-
-		}
-
-
-
-
-
-		methodCode.append( "\n\t" );
-		// WARNING: if the method has a void return type, do not insert a return statement
-		System.out.println("\n\n\t\t =>\t "   );
-		final boolean isVoid = ( currentMethod.getReturnType().toString().equals("void") || java.lang.Void.class.equals( currentMethod.getReturnType() ) ); 
-		if(! isVoid ){
-		    methodCode.append( "return");
-		    methodCode.append( " " );
-		    methodCode.append( "(" );
-		    methodCode.append( currentMethod.getReturnType().getName() );
-		    methodCode.append( ") " );
-		}
-
-		methodCode.append( " this." );
-		methodCode.append( privateReferenceName );
-		methodCode.append( "." );
-		methodCode.append( currentMethod.getName() );
-		methodCode.append( "(" );
-
-		// now the parameter list, that should be only for those expected
-		final Class targetMethodParameters[] = currentMethod.getParameterTypes();
-
-		for( int paramNumber = 0; (targetMethodParameters != null) && (paramNumber < targetMethodParameters.length); paramNumber++ ){
-		    if( paramNumber > 0 )
-			methodCode.append( ", " );
-
-		    // cast the current argument to the right type
-		    methodCode.append( "(" );
-		    methodCode.append( targetMethodParameters[paramNumber].getName() );
-		    methodCode.append( ")" );
-		    // the argument value is in the param array
-		    methodCode.append( "param0"  + "[" + paramNumber + "]" );	// variadic method -> array param0!
-		}
-
-		methodCode.append( ");" );
-
+	    // the key of the class in the bytecode cache (null if the cache is not used)
+	    final Class targetClass = targetInstance.getClass();
+	    final String cacheKey   = ( bytecodeCache == null
+					? null
+					: bytecodeCache.computeKey( IFunction.class.getName(), targetClass, currentMethod.getDeclaringClass(),
+								    currentMethod.toGenericString(), checkedInvocation, hiddenClasses, weakBinding ) );
+
+	    // I have to compute a name for the class to implement (hidden classes must be in the package of the target class).
+	    // A cached class must have a name that depends only on its key, since the name is in the bytecode.
+	    String functionClassName = ( cacheKey == null
+					 ? ClassLoaderUtils.computeFunctionClassName( functionNameFromAnnotation, targetClass )
+					 : BytecodeCache.getClassName( targetClass.getSimpleName() + "_" + functionNameFromAnnotation, cacheKey ) );
+	    if( hiddenClasses )
+		functionClassName = ClassLoaderUtils.getPackagedClassName( targetClass, functionClassName );
+	    if( logger.isDebugEnabled() )
+		logger.debug("The new function class name is " + functionClassName );
+
+	    // use the cached bytecode if any, otherwise generate the class
+	    byte[] bytecode = ( cacheKey == null ? null : bytecodeCache.load( cacheKey ) );
+	    if( bytecode != null )
+		GeneratorStatistics.FUNCTION.classCached();
+	    else {
+		final long generationStart = System.nanoTime();
+		bytecode = getFunctionBytecode( functionClassName );
+		GeneratorStatistics.FUNCTION.classGenerated( System.nanoTime() - generationStart );
+		if( cacheKey != null )
+		    bytecodeCache.store( cacheKey, bytecode );
+	    }
 
-		// a return statement?
-		if( isVoid ){
-		    // insert a return statement
-		    methodCode.append( "\n\t return null;\n" );
-		}
+	    // the class loader is ready now
+	    synchronized( this ){
+		status = ClassLoaderStatus.READY;
+	    }
 
 
-		// end of the method body
-		methodCode.append( "\n}\n" );
+	    GeneratorStatistics.FUNCTION.classDefined( bytecode.length );
+	    if( hiddenClasses )
+		return ClassLoaderUtils.defineHiddenClass( targetClass, bytecode );
+	    else
+		return this.defineClass( functionClassName, bytecode, 0, bytecode.length );
 
-		logger.debug("Generated method body:\n");
-		logger.debug( methodCode.toString() );
 
-		// now compile the method and add it to the class
-		final CtMethod compiledMethod = CtMethod.make( methodCode.toString(), newFunctionClass );
-		newFunctionClass.addMethod(compiledMethod);
-		logger.debug("Creation of the method completed!");
+	} catch (final Exception e) {
+	    logger.error("Exception caught while defining a class",e);
+	    throw new ClassNotFoundException("Cannot find class", e );
+	} finally{
+	    // the class loader is ready now
+	    synchronized( this ){
+		status = ClassLoaderStatus.READY;
 	    }
+	}
 
+    }
 
 
 
+    /**
+     * Generates the bytecode of the function class for the current target object and method.
+     * @param functionClassName the name of the class to generate
+     * @return the bytecode of the class
+     * @throws NotFoundException if a class cannot be found by javassist
+     * @throws CannotCompileException if the generated code cannot be compiled
+     * @throws IOException if the bytecode cannot be produced
+     */
+    private final byte[] getFunctionBytecode( final String functionClassName ) throws NotFoundException, CannotCompileException, IOException {
+	// get the pool of the functions of the target class loader
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.FUNCTION, targetInstance.getClass().getClassLoader() );
+
+	// create a new class for the specified name
+	final CtClass newFunctionClass = pool.makeClass( functionClassName );
+
+	// I need also a ctclass for the target object
+	final CtClass targetObjectCtClass = pool.get( targetInstance.getClass().getName() );
+
+
+
+
+	// now the class has the new member, I need an empty constructor so to be sure that reflection
+	// will work instantiating the class
+	final CtConstructor constructor = new CtConstructor(null, newFunctionClass );
+	constructor.setBody(";");
+	newFunctionClass.addConstructor(constructor);
+
+
+
+	// now I have to add a field with the target object on which I'm going to call the method.
+	// The idea is that the function object will have a private refence to the target object
+	// on which it will call the method specified.
+	final String privateReferenceName = ClassLoaderUtils.computePrivateTargetReferenceName( targetInstance.getClass() );
+
+	// now that I've got the name, create the field to add to the new class
+	// (a weak reference to the target object if the function is weakly bound)
+	final CtField privateReferenceField = new CtField( ( weakBinding ? pool.get( WeakReference.class.getName() ) : targetObjectCtClass ),	// class type of the field 
+		privateReferenceName, 		// field name
+		newFunctionClass 		// declaring class
+	);
+	// TODO make the modifier private
+	//privateReferenceField.setModifiers(  )
+	newFunctionClass.addField( privateReferenceField );
+
+	// the expression that refers to the target object: a weakly bound function
+	// has a method that dereferences the target object, checking it is still alive
+	final String targetReference;
+	if( weakBinding ){
+	    final StringBuffer methodCode = new StringBuffer( 500 );
+	    methodCode.append( "private " );
+	    methodCode.append( targetInstance.getClass().getName() );
+	    methodCode.append( " " );
+	    methodCode.append( ClassLoaderUtils.getWeakTargetMethodName() );
+	    methodCode.append( "(){\n\t" );
+	    methodCode.append( " java.lang.Object target = ( this." );
+	    methodCode.append( privateReferenceName );
+	    methodCode.append( " == null ? null : this." );
+	    methodCode.append( privateReferenceName );
+	    methodCode.append( ".get() );\n\t" );
+	    methodCode.append( " if( target == null )\n\t\t throw new " );
+	    methodCode.append( CollectedTargetException.class.getName() );
+	    methodCode.append( "();\n\t" );
+	    methodCode.append( " return (" );
+	    methodCode.append( targetInstance.getClass().getName() );
+	    methodCode.append( ") target;\n}\n" );
+	    Diagnostics.dumpSource( newFunctionClass.getName(), methodCode );
+	    newFunctionClass.addMethod( CtMethod.make( methodCode.toString(), newFunctionClass ) );
+
+	    targetReference = "this." + ClassLoaderUtils.getWeakTargetMethodName() + "()";
+	}
+	else
+	    targetReference = "this." + privateReferenceName;
 
-	    // now I need to add the interface and the method to initialize the private
-	    // variable of the new function instance
-	    methodCode = new StringBuffer( 1000 );
-	    final CtClass binderClass = pool.get( IFunctionBinder.class.getName() );
-
-	    // add the interface to the current class
-	    newFunctionClass.addInterface(binderClass);
-
-	    // create all the methods (it should be only one)
-	    for( final CtMethod currentMethod : binderClass.getDeclaredMethods() ){
 
-		String methodBodySourceCode = getMethodSourceCode( currentMethod,
-								   privateReferenceName,
-								   targetObjectCtClass,
-								   targetInstance.getClass()
-								   );
+	// now I need to implement the inteface IFunction
+	final CtClass iFunctionCtClass = pool.get( IFunction.class.getName() );
+	newFunctionClass.addInterface(iFunctionCtClass);
 
-		System.out.println( "\n\n\n\n#####Method " + methodBodySourceCode );
+	// now add the IFunction method implementation
+	for( final CtMethod iFunctionMethod : iFunctionCtClass.getDeclaredMethods() ){
+	    final StringBuffer methodCode = new StringBuffer(1000);
+	    methodCode.append( getMethodHeaderSourceCode( iFunctionMethod ) );
+	    methodCode.append( getExecuteCallBodySourceCode( currentMethod, targetReference, checkedInvocation ) );
 
+	    Diagnostics.dumpSource( newFunctionClass.getName(), methodCode );
 
-		logger.debug("Generated method \n" + methodBodySourceCode );
+	    // now compile the method and add it to the class
+	    final CtMethod compiledMethod = CtMethod.make( methodCode.toString(), newFunctionClass );
+	    newFunctionClass.addMethod(compiledMethod);
+	}
 
-		// now compile the method and add it to the class
-		final CtMethod compiledMethod = CtMethod.make( methodBodySourceCode, newFunctionClass );
-		newFunctionClass.addMethod(compiledMethod);
-		logger.debug("Creation of the method completed!");
-	    }
 
+	// implement also the typed interfaces the target method signature matches, so that
+	// the function can be called without the argument array
+	addTypedCallMethods( pool, newFunctionClass, currentMethod, targetReference );
 
 
-	    // now define the class
-	    bytecode = newFunctionClass.toBytecode();
 
-	    // the class loader is ready now
-	    synchronized( this ){
-		status = ClassLoaderStatus.READY;
-	    }
+	// now I need to add the interface and the method to initialize the private
+	// variable of the new function instance
+	addFunctionBinderMethods( pool, newFunctionClass, privateReferenceName, targetInstance.getClass(), weakBinding );
 
 
-	    return this.defineClass( functionClassName, bytecode, 0, bytecode.length );
 
+	// now get the bytecode of the class, and remove the class from the pool so that
+	// it is not retained (and a class with the same cached name can be generated again)
+	return ClassPoolManager.toBytecode( newFunctionClass );
+    }
 
-	} catch (final Exception e) {
-	    logger.error("Exception caught while defining a class",e);
-	    throw new ClassNotFoundException("Cannot find class", e );
-	} finally{
-	    // the class loader is ready now
-	    synchronized( this ){
-		status = ClassLoaderStatus.READY;
-	    }
-	}
 
-    }
 
     /* (non-Javadoc)
      * @see jfk.function.classloaders.IFunctionClassDefiner#getIFunctionClassDefinition(java.lang.Object, java.lang.reflect.Method)
@@ -400,22 +372,40 @@ public class FunctionClassLoader extends SecureClassLoader implements IFunctionC
 		throw new CannotBindFunctionException("The specified method is not a function/connect annotated one!");
 
 	    // get the annotation name and parameters
+	    checkedInvocation = ! uncheckedInvocation;
 	    if( targetMethod.isAnnotationPresent( Function.class) ){
 		final Function functionAnnotation = targetMethod.getAnnotation( Function.class );
 		functionNameFromAnnotation = functionAnnotation.name();
+		checkedInvocation = checkedInvocation && (! functionAnnotation.unchecked());
 	    }
 	    else if( targetMethod.isAnnotationPresent( Connect.class ) ){
 		final Connect connectAnnotation = targetMethod.getAnnotation( Connect.class );
 		functionNameFromAnnotation = connectAnnotation.name();
 	    }
 
-	    // set the parameters for the loader
-	    currentMethod = targetMethod;
-	    targetInstance = targetObject;
-
+	    // if the class has already been defined for this method, reuse it
+	    final Map<List<Object>, Class> functionClasses = definedFunctionClasses.get( targetObject.getClass() );
+	    final List<Object> functionKey = Arrays.asList( new Object[]{ targetMethod, checkedInvocation, hiddenClasses, weakBinding } );
+	    synchronized( functionClasses ){
+		Class functionClass = functionClasses.get( functionKey );
+		if( functionClass == null ){
+		    // set the parameters for the loader
+		    currentMethod = targetMethod;
+		    targetInstance = targetObject;
+
+		    // define the class, then forget the target object and the method so that
+		    // this loader (that is reachable from the class) does not keep them reachable
+		    try {
+			functionClass = findClass( IFunction.class.getName() );
+		    } finally {
+			currentMethod  = null;
+			targetInstance = null;
+		    }
+		    functionClasses.put( functionKey, functionClass );
+		}
 
-	    // define the class
-	    return findClass( IFunction.class.getName() );
+		return functionClass;
+	    }
 	} catch (final ClassNotFoundException e) {
 	    logger.error("Error defining the IFunction class", e);
 	    throw new JFKException(e);
@@ -424,6 +414,98 @@ public class FunctionClassLoader extends SecureClassLoader implements IFunctionC
 
 
 
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionClassDefiner#getIFunctionFactory(java.lang.Object, java.lang.reflect.Method)
+     */
+    @Override
+    public final IFunctionFactory getIFunctionFactory(final Object targetObject, final Method targetMethod ) throws JFKException{
+	final Class<?> functionClass = getIFunctionClassDefinition( targetObject, targetMethod );
+	try {
+	    return new FunctionClassFactory( functionClass.getConstructor() );
+	} catch (final NoSuchMethodException e) {
+	    throw new JFKException( e );
+	}
+    }
+
+
+    /**
+     * The factory of the functions of a defined function class: it instantiates the class
+     * and binds the function to the target object.
+     */
+    private static final class FunctionClassFactory implements IFunctionFactory {
+
+	/**
+	 * The empty constructor of the function class.
+	 */
+	private final Constructor constructor;
+
+	FunctionClassFactory( final Constructor constructor ){
+	    this.constructor = constructor;
+	}
+
+	@Override
+	public IFunction newFunction( final Object targetObject ) throws JFKException {
+	    try {
+		final IFunction function = (IFunction) constructor.newInstance();
+		((IFunctionBinder) function).setTargetObject( targetObject );
+		return function;
+	    } catch (final JFKException e) {
+		throw e;
+	    } catch (final Exception e) {
+		throw new JFKException( e );
+	    }
+	}
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionClassDefiner#setUncheckedInvocation(boolean)
+     */
+    @Override
+    public synchronized final void setUncheckedInvocation(final boolean uncheckedInvocation) {
+	// set the value of the this.uncheckedInvocation field only if the class loader is not busy
+	if(  ClassLoaderStatus.BUSY.equals( status ) )
+	    throw new IllegalArgumentException("Class loader is busy at the moment!");
+
+	this.uncheckedInvocation = uncheckedInvocation;
+    }
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionClassDefiner#setWeakBinding(boolean)
+     */
+    @Override
+    public synchronized final void setWeakBinding(final boolean weakBinding) {
+	if(  ClassLoaderStatus.BUSY.equals( status ) )
+	    throw new IllegalArgumentException("Class loader is busy at the moment!");
+
+	this.weakBinding = weakBinding;
+    }
+
+    /**
+     * Sets if the classes must be defined as hidden classes, so that they can be unloaded
+     * as soon as they are no more reachable (i.e., as soon as the target class or the closure is).
+     * A hidden function class is defined in the package and class loader of the target class.
+     * @param hiddenClasses true to define hidden classes
+     */
+    public synchronized final void setHiddenClasses(final boolean hiddenClasses) {
+	if(  ClassLoaderStatus.BUSY.equals( status ) )
+	    throw new IllegalArgumentException("Class loader is busy at the moment!");
+
+	this.hiddenClasses = hiddenClasses;
+    }
+
+    /**
+     * Sets the cache of the generated bytecode, so that the classes generated by
+     * a previous run are loaded without compiling them again.
+     * @param bytecodeCache the cache to use, or null to always generate the classes
+     */
+    public synchronized final void setBytecodeCache(final BytecodeCache bytecodeCache) {
+	if(  ClassLoaderStatus.BUSY.equals( status ) )
+	    throw new IllegalArgumentException("Class loader is busy at the moment!");
+
+	this.bytecodeCache = bytecodeCache;
+    }
+
     /**
      * A method to set the value of the currentMethod
      * field within this object instance.
@@ -464,91 +546,415 @@ public class FunctionClassLoader extends SecureClassLoader implements IFunctionC
 
 
     /**
-     * Utility method to generate the source code of a method that represents a function.
-     *
-     * @param iFunctionMethod the target method
-     * @param internalReferenceName the name of the reference that will be used to access the
-     * method
-     * @param targetObjectCtClass the target class for the function
-     * @param firstArgumentTypeClass the argument to check as first argument, if null no check code
-     * will be generated
-     * @return the source code for the method body
-     */
-    private final String getMethodSourceCode( CtMethod iFunctionMethod, 
-					      String internalReferenceName,  
-					      CtClass targetObjectCtClass,
-					      Class firstArgumentTypeClass ) throws Exception{
-
-	CtClass params[]     = iFunctionMethod.getParameterTypes();
-	CtClass exceptions[] = iFunctionMethod.getExceptionTypes();
-
-	StringBuffer paramsListBuffer = new StringBuffer( 10 * params.length );
-	StringBuffer paramsNameBuffer = new StringBuffer( 10 * params.length );
-	StringBuffer exceptionsBuffer = new StringBuffer( 10 * exceptions.length );
-	String firstParamName = null;
-
-	for( int i = 0; i < params.length; i++ ){
-	    // compute the name of this parameter
-	    String currentParamName = String.format( "parameter_%d", i );
-	    if( i == 0 )
-		firstParamName = currentParamName;
-
-
-	    paramsListBuffer.append( String.format( "%s %s %s", 
-						    ( i > 0 ? "," : "" ),
-						    params[ i ].getName(),
-						    currentParamName )
-				     );
-
-	    paramsNameBuffer.append( String.format( "%s %s", 
-						    ( i > 0 ? "," : "" ),
-						    currentParamName )
-				     );
-
-	    
+     * Generates the declaration of a method (i.e., the modifiers, return type, name, parameters
+     * and exceptions) that implements the specified interface method.
+     * Parameters are named <i>param0</i>, <i>param1</i> and so on.
+     * @param interfaceMethod the method to implement
+     * @return the source code of the method declaration, without the body
+     * @throws NotFoundException if the types of the method cannot be resolved
+     */
+    protected final String getMethodHeaderSourceCode( final CtMethod interfaceMethod ) throws NotFoundException {
+	final StringBuffer methodCode = new StringBuffer(200);
+
+	// method name and qualifiers
+	methodCode.append( "public");
+	methodCode.append( " " );
+	methodCode.append( interfaceMethod.getReturnType().getName() );
+	methodCode.append( " " );
+	methodCode.append( interfaceMethod.getName() );
+	methodCode.append( "(" );
+
+	// parameter list
+	final CtClass params[] = interfaceMethod.getParameterTypes();
+	for( int paramNumber = 0; (params != null) && (paramNumber < params.length); paramNumber++ ){
+	    if( paramNumber > 0 )
+		methodCode.append( ", ");
+
+	    methodCode.append( params[paramNumber].getName() );
+	    methodCode.append( " " );
+	    methodCode.append( "param" + paramNumber); 
+	}
+
+	methodCode.append( ") " );
+
+
+	// exception management
+	final CtClass exceptions[] = interfaceMethod.getExceptionTypes();
+	if( (exceptions != null) && (exceptions.length > 0) ){
+	    methodCode.append( "throws " );
+
+	    for( int exceptionNumber = 0; exceptionNumber < exceptions.length; exceptionNumber++ ){
+		if( exceptionNumber > 0 )
+		    methodCode.append( ", " );
+
+		methodCode.append( exceptions[ exceptionNumber ].getName() );
+	    }
+	}
+
+	return methodCode.toString();
+    }
+
+
+
+    /**
+     * Generates the body of the IFunction executeCall method, that checks the arguments
+     * contained in the <i>param0</i> array and invokes the target method on the target reference.
+     * Primitive arguments are unboxed and primitive return values are boxed.
+     * The checks are compiled as an arity test and an <i>instanceof</i> test for each argument
+     * (null is accepted for reference parameters only), while the exceptions are built by {@link ArgumentChecks}.
+     * If the checks are disabled, a wrong call results in a runtime exception (e.g., a ClassCastException)
+     * thrown by the function.
+     * @param targetMethod the method to invoke
+     * @param targetReference the expression that evaluates to the object the method must be invoked on
+     * @param checked true if the arguments must be checked before the invocation
+     * @return the source code of the method body
+     */
+    protected final String getExecuteCallBodySourceCode( final Method targetMethod, final String targetReference, final boolean checked ){
+	return getExecuteCallBodySourceCode( targetMethod.getName(), targetMethod.getParameterTypes(), targetMethod.getReturnType(), targetReference, checked );
+    }
+
+
+    /**
+     * The same as {@link #getExecuteCallBodySourceCode(Method, String, boolean)} but for a method
+     * that has not been loaded yet, and therefore is known only by its signature.
+     * @param methodName the name of the method to invoke
+     * @param parameterTypes the types of the parameters of the method
+     * @param returnType the return type of the method
+     * @param targetReference the expression that evaluates to the object the method must be invoked on
+     * @param checked true if the arguments must be checked before the invocation
+     * @return the source code of the method body
+     */
+    protected final String getExecuteCallBodySourceCode( final String methodName,
+							 final Class[] parameterTypes,
+							 final Class returnType,
+							 final String targetReference,
+							 final boolean checked ){
+	final StringBuffer methodCode = new StringBuffer(1000);
+
+	// the body of the method starts here
+	methodCode.append( "\n{\n\t" );
+
+
+	// security checks: the method must receive the exact number of parameters!
+	final int requiredParameters = parameterTypes.length;
+	if( checked && requiredParameters > 0 ){
+	    methodCode.append(" if( param0 == null || param0.length != ");
+	    methodCode.append( requiredParameters );
+	    methodCode.append( " )\n\t\t" );
+	    methodCode.append( "throw " );
+	    methodCode.append( ArgumentChecks.class.getName() );
+	    methodCode.append( ".badArity( " );
+	    methodCode.append( requiredParameters );
+	    methodCode.append( ", param0 );\n" );
+
+
+	    // another security check: the method must receive the right type of the parameters
+	    // (primitive arguments are received as their wrappers, and so cannot be null)
+	    for( int checkNumber = 0; checkNumber < parameterTypes.length; checkNumber ++ ){
+		final Class requiredType = ClassLoaderUtils.getWrapperClass( parameterTypes[checkNumber] );
+
+		// everything is an object, nothing to check
+		if( Object.class.equals( requiredType ) )
+		    continue;
+
+		final String argument = "param0[" + checkNumber + "]";
+		final String requiredTypeName = ClassLoaderUtils.getSourceTypeName( requiredType );
+
+		methodCode.append( "\n\t" );
+		methodCode.append( "if( " );
+		if( ! parameterTypes[checkNumber].isPrimitive() ){
+		    methodCode.append( argument );
+		    methodCode.append( " != null && " );
+		}
+		methodCode.append( "! (" );
+		methodCode.append( argument );
+		methodCode.append( " instanceof " );
+		methodCode.append( requiredTypeName );
+		methodCode.append( ") )" );
+		methodCode.append( "\n\t\t" );
+		methodCode.append( "throw " );
+		methodCode.append( ArgumentChecks.class.getName() );
+		methodCode.append( ".badParameterType( " );
+		methodCode.append( requiredTypeName );
+		methodCode.append( ".class, " );
+		methodCode.append( argument );
+		methodCode.append( " );\n" );
+	    }
+
+	}
+
+
+	// now the invocation, with the arguments taken from the param array (variadic method -> array param0!)
+	final String arguments[] = new String[ parameterTypes.length ];
+	for( int paramNumber = 0; paramNumber < parameterTypes.length; paramNumber++ )
+	    arguments[ paramNumber ] = ClassLoaderUtils.getUnboxingSourceCode( parameterTypes[paramNumber], "param0[" + paramNumber + "]" );
+
+	methodCode.append( "\n\t" );
+	methodCode.append( getReturnSourceCode( returnType, getInvocationSourceCode( methodName, targetReference, arguments ), true ) );
+
+	// end of the method body
+	methodCode.append( "\n}\n" );
+
+	return methodCode.toString();
+    }
+
+
+
+    /**
+     * Adds to the function class the implementation of the typed function interfaces
+     * (e.g., {@link IFunction2}, {@link IIntFunction1}) that match the signature of the target method.
+     * The arity-specific interfaces are implemented for every method with up to four arguments,
+     * the primitive ones only when the signature matches exactly.
+     * @param pool the class pool to use
+     * @param functionClass the class that is implementing the function
+     * @param targetMethod the method the function is bound to
+     * @param targetReference the expression that evaluates to the object the method must be invoked on
+     * @throws NotFoundException if an interface cannot be found
+     * @throws CannotCompileException if a method cannot be compiled
+     */
+    protected final void addTypedCallMethods( final ClassPool pool,
+					      final CtClass functionClass,
+					      final Method targetMethod,
+					      final String targetReference ) throws NotFoundException, CannotCompileException {
+	addTypedCallMethods( pool, functionClass, targetMethod.getName(), targetMethod.getParameterTypes(), targetMethod.getReturnType(), targetReference );
+    }
+
+
+    /**
+     * The same as {@link #addTypedCallMethods(ClassPool, CtClass, Method, String)} but for a method
+     * that has not been loaded yet, and therefore is known only by its signature.
+     * @param pool the class pool to use
+     * @param functionClass the class that is implementing the function
+     * @param methodName the name of the method to invoke
+     * @param parameterTypes the types of the parameters of the method
+     * @param returnType the return type of the method
+     * @param targetReference the expression that evaluates to the object the method must be invoked on
+     * @throws NotFoundException if an interface cannot be found
+     * @throws CannotCompileException if a method cannot be compiled
+     */
+    protected final void addTypedCallMethods( final ClassPool pool,
+					      final CtClass functionClass,
+					      final String methodName,
+					      final Class[] parameterTypes,
+					      final Class returnType,
+					      final String targetReference ) throws NotFoundException, CannotCompileException {
+
+	// the generic interface depending only on the arity
+	if( parameterTypes.length < TYPED_FUNCTION_INTERFACES.size() ){
+	    final Class arityInterface = TYPED_FUNCTION_INTERFACES.get( parameterTypes.length );
+	    final StringBuffer methodCode = new StringBuffer(500);
+	    methodCode.append( "public java.lang.Object call(" );
+
+	    final String arguments[] = new String[ parameterTypes.length ];
+	    for( int paramNumber = 0; paramNumber < parameterTypes.length; paramNumber++ ){
+		if( paramNumber > 0 )
+		    methodCode.append( ", " );
+
+		methodCode.append( "java.lang.Object param" + paramNumber );
+		arguments[ paramNumber ] = ClassLoaderUtils.getUnboxingSourceCode( parameterTypes[paramNumber], "param" + paramNumber );
+	    }
+
+	    methodCode.append( "){\n\t" );
+	    methodCode.append( getReturnSourceCode( returnType, getInvocationSourceCode( methodName, targetReference, arguments ), true ) );
+	    methodCode.append( "\n}\n" );
+
+	    addInterfaceMethod( pool, functionClass, arityInterface, methodCode.toString() );
 	}
 
-	for( int i = 0; i < exceptions.length; i++ ){
-	    exceptionsBuffer.append( String.format( "%s %s", 
-						    ( i > 0 ? "," : "" ),
-						    exceptions[ i ].getName() )
-				     );
+
+	// the primitive specialization, only if all the types are the same primitive
+	final Class primitiveInterface = getPrimitiveFunctionInterface( parameterTypes, returnType );
+	if( primitiveInterface != null ){
+	    final String typeName      = returnType.getName();
+	    final StringBuffer methodCode = new StringBuffer(500);
+	    methodCode.append( "public " );
+	    methodCode.append( typeName );
+	    methodCode.append( " call" );
+	    methodCode.append( Character.toUpperCase( typeName.charAt( 0 ) ) );
+	    methodCode.append( typeName.substring( 1 ) );
+	    methodCode.append( "(" );
+
+	    final String arguments[] = new String[ parameterTypes.length ];
+	    for( int paramNumber = 0; paramNumber < parameterTypes.length; paramNumber++ ){
+		if( paramNumber > 0 )
+		    methodCode.append( ", " );
+
+		methodCode.append( typeName + " param" + paramNumber );
+		arguments[ paramNumber ] = "param" + paramNumber;
+	    }
+
+	    methodCode.append( "){\n\t" );
+	    methodCode.append( getReturnSourceCode( returnType, getInvocationSourceCode( methodName, targetReference, arguments ), false ) );
+	    methodCode.append( "\n}\n" );
+
+	    addInterfaceMethod( pool, functionClass, primitiveInterface, methodCode.toString() );
 	}
+    }
 
 
-	StringBuffer methodBodySourceCode = new StringBuffer( 500 );
+    /**
+     * Compiles a method and adds it, along with the interface it implements, to the function class.
+     */
+    private final void addInterfaceMethod( final ClassPool pool,
+					   final CtClass functionClass,
+					   final Class interfaceClass,
+					   final String methodCode ) throws NotFoundException, CannotCompileException {
+	Diagnostics.dumpSource( functionClass.getName(), methodCode );
+	functionClass.addInterface( pool.get( interfaceClass.getName() ) );
+	functionClass.addMethod( CtMethod.make( methodCode, functionClass ) );
+    }
 
-	// do I have to generate a check statament to ensure the first argument
-	// is of the specified type?
-	if( firstArgumentTypeClass != null ){
-	    methodBodySourceCode.append( String.format( "if( %s == null || ( ! ( %s instanceof %s) ) ){ throw new %s(%s); }",
-							firstParamName,
-							firstParamName,
-							firstArgumentTypeClass.getName(),
-							JFKException.class.getName(),
-							" \"The binding object is not of the right type!\" "
-							)
-					 );
+
+    /**
+     * Provides the primitive function interface that matches exactly the specified signature.
+     * @param parameterTypes the types of the method parameters
+     * @param returnType the return type of the method
+     * @return the interface to implement or null if no one matches
+     */
+    private static final Class getPrimitiveFunctionInterface( final Class[] parameterTypes, final Class returnType ){
+	final List<Class> candidates;
+	if( Integer.TYPE.equals( returnType ) )
+	    candidates = INT_FUNCTION_INTERFACES;
+	else if( Long.TYPE.equals( returnType ) )
+	    candidates = LONG_FUNCTION_INTERFACES;
+	else if( Double.TYPE.equals( returnType ) )
+	    candidates = DOUBLE_FUNCTION_INTERFACES;
+	else
+	    return null;
+
+	if( parameterTypes.length >= candidates.size() )
+	    return null;
+
+	for( final Class parameterType : parameterTypes )
+	    if( ! returnType.equals( parameterType ) )
+		return null;
+
+	return candidates.get( parameterTypes.length );
+    }
+
+
+    /**
+     * Generates the invocation of the target method on the target reference.
+     * @param methodName the name of the method to invoke
+     * @param targetReference the expression that evaluates to the object the method must be invoked on
+     * @param arguments the source code of each argument
+     * @return the source code of the invocation (without a trailing semicolon)
+     */
+    private static final String getInvocationSourceCode( final String methodName, final String targetReference, final String[] arguments ){
+	final StringBuffer invocation = new StringBuffer(200);
+	invocation.append( targetReference );
+	invocation.append( "." );
+	invocation.append( methodName );
+	invocation.append( "(" );
+	for( int paramNumber = 0; paramNumber < arguments.length; paramNumber++ ){
+	    if( paramNumber > 0 )
+		invocation.append( ", " );
+
+	    invocation.append( arguments[ paramNumber ] );
 	}
+	invocation.append( ")" );
+
+	return invocation.toString();
+    }
+
+
+    /**
+     * Generates the statements that return the result of the invocation.
+     * WARNING: if the method has a void return type, the invocation is not returned, but null is.
+     * @param returnType the return type of the method that is invoked
+     * @param invocation the source code of the invocation
+     * @param boxed true if the result must be returned as an object, false if a primitive
+     * result must be returned as it is
+     * @return the source code of the return statement(s)
+     */
+    private static final String getReturnSourceCode( final Class returnType, final String invocation, final boolean boxed ){
+	if( Void.TYPE.equals( returnType ) || Void.class.equals( returnType ) )
+	    return invocation + ";\n\t return null;";
+	else if( boxed )
+	    return "return " + ClassLoaderUtils.getBoxingSourceCode( returnType, invocation ) + ";";
+	else
+	    return "return " + invocation + ";";
+    }
+
 
-	// generate the assignment of the first parameter to the internal refernce
-	methodBodySourceCode.append( String.format( " %s = (%s) %s; ",
-						    internalReferenceName,
-						    targetObjectCtClass.getName(),
-						    firstParamName
-						    ) 
-				     );
-
-	// generate the source code of the method body
-	return String.format( "%s %s %s( %s ) %s { %s }",
-			      "public",
-			      iFunctionMethod.getReturnType().getName(),
-			      iFunctionMethod.getName(),
-			      paramsListBuffer.toString(),
-			      ( exceptions.length > 0 ? String.format( " throws %s", exceptionsBuffer.toString() ) : "" ),
-			      methodBodySourceCode.toString()
-			      );
-	
+
+    /**
+     * Adds to the function class the implementation of the {@link IFunctionBinder} interface,
+     * that sets and gets the private reference to the target object, as well as the
+     * <i>equals</i> and <i>hashCode</i> methods: two functions are equal if they are
+     * of the same class (i.e., they point to the same method) and are bound to the
+     * same target object.
+     * @param pool the class pool to use
+     * @param functionClass the class that is implementing the function
+     * @param privateReferenceName the name of the field that keeps the target object
+     * @param targetClass the class of the target object
+     * @param weakBinding true if the field is a weak reference to the target object
+     * @throws NotFoundException if the interface cannot be found
+     * @throws CannotCompileException if a method cannot be compiled
+     */
+    protected final void addFunctionBinderMethods( final ClassPool pool,
+						   final CtClass functionClass,
+						   final String privateReferenceName,
+						   final Class targetClass,
+						   final boolean weakBinding ) throws NotFoundException, CannotCompileException {
+
+	functionClass.addInterface( pool.get( IFunctionBinder.class.getName() ) );
+
+	// the setter, that checks the target is of the right type
+	StringBuffer methodCode = new StringBuffer( 500 );
+	methodCode.append( "public void setTargetObject( java.lang.Object param0 ) throws " );
+	methodCode.append( TargetBindException.class.getName() );
+	methodCode.append( "{\n\t" );
+	methodCode.append( " if( param0 == null || (! ( param0 instanceof " );
+	methodCode.append( targetClass.getName() );
+	methodCode.append( ") ) )" );
+	methodCode.append( "\n\t\t" );
+	methodCode.append( "throw new " );
+	methodCode.append( TargetBindException.class.getName() );
+	methodCode.append( "(\"The binding object is not of the right type!\");" );
+	methodCode.append( "\n\n\t" );
+	methodCode.append( " this." );
+	methodCode.append( privateReferenceName );
+	if( weakBinding )
+	    methodCode.append( " = new java.lang.ref.WeakReference( param0 );" );
+	else {
+	    methodCode.append( " = (" );
+	    methodCode.append( targetClass.getName() );
+	    methodCode.append( ") param0;" );
+	}
+	methodCode.append( "\n}\n" );
+	Diagnostics.dumpSource( functionClass.getName(), methodCode );
+	functionClass.addMethod( CtMethod.make( methodCode.toString(), functionClass ) );
+
+	// the getter
+	methodCode = new StringBuffer( 200 );
+	methodCode.append( "public java.lang.Object getTargetObject(){ return this." );
+	methodCode.append( privateReferenceName );
+	if( weakBinding ){
+	    methodCode.append( " == null ? null : this." );
+	    methodCode.append( privateReferenceName );
+	    methodCode.append( ".get()" );
+	}
+	methodCode.append( "; }" );
+	Diagnostics.dumpSource( functionClass.getName(), methodCode );
+	functionClass.addMethod( CtMethod.make( methodCode.toString(), functionClass ) );
+
+	// equality depends on the function class and the target identity
+	methodCode = new StringBuffer( 500 );
+	methodCode.append( "public boolean equals( java.lang.Object param0 ){\n\t" );
+	methodCode.append( " if( param0 == this ) return true;\n\t" );
+	methodCode.append( " if( param0 == null || param0.getClass() != this.getClass() ) return false;\n\t" );
+	methodCode.append( " return ((" );
+	methodCode.append( IFunctionBinder.class.getName() );
+	methodCode.append( ") param0).getTargetObject() == this.getTargetObject();" );
+	methodCode.append( "\n}\n" );
+	Diagnostics.dumpSource( functionClass.getName(), methodCode );
+	functionClass.addMethod( CtMethod.make( methodCode.toString(), functionClass ) );
+
+	methodCode = new StringBuffer( 200 );
+	methodCode.append( "public int hashCode(){ return this.getClass().hashCode() ^ java.lang.System.identityHashCode( this.getTargetObject() ); }" );
+	Diagnostics.dumpSource( functionClass.getName(), methodCode );
+	functionClass.addMethod( CtMethod.make( methodCode.toString(), functionClass ) );
     }
 
 
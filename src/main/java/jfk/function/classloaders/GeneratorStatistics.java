@@ -0,0 +1,150 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the code generated at run-time by each of the JFK generators.
+ * Every time a generator defines a new class it notifies the matching constant, so that
+ * it is possible to know how many classes (and how much bytecode) each generator
+ * has produced so far.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public enum GeneratorStatistics {
+
+    FUNCTION,	// classes implementing IFunction
+    CLOSURE,	// classes implementing IClosure and their target objects
+    DELEGATE,	// subclasses implementing the delegatable methods
+    ROLE;	// classes implementing a role
+
+
+    /**
+     * The number of classes defined by this generator.
+     */
+    private final AtomicLong definedClasses = new AtomicLong();
+
+    /**
+     * The total size of the bytecode of the classes defined by this generator.
+     */
+    private final AtomicLong bytecodeBytes  = new AtomicLong();
+
+    /**
+     * The number of classes whose bytecode has been loaded from the bytecode cache instead of being generated.
+     */
+    private final AtomicLong cachedClasses  = new AtomicLong();
+
+    /**
+     * The time spent generating the bytecode of the classes, in nanoseconds.
+     */
+    private final AtomicLong generationTime = new AtomicLong();
+
+
+    /**
+     * Notifies that a new class has been defined by this generator.
+     * @param bytecodeLength the length of the bytecode of the class
+     */
+    public final void classDefined( final int bytecodeLength ){
+	definedClasses.incrementAndGet();
+	bytecodeBytes.addAndGet( bytecodeLength );
+    }
+
+    /**
+     * Notifies that the bytecode of the class being defined has been found in the {@link BytecodeCache}.
+     */
+    public final void classCached(){
+	cachedClasses.incrementAndGet();
+    }
+
+    /**
+     * Notifies that the bytecode of a class has been generated.
+     * @param nanos the time spent generating the bytecode, in nanoseconds
+     */
+    public final void classGenerated( final long nanos ){
+	generationTime.addAndGet( nanos );
+    }
+
+    /**
+     * Provides the number of classes defined so far by this generator.
+     * @return the number of defined classes
+     */
+    public final long getDefinedClasses(){
+	return definedClasses.get();
+    }
+
+    /**
+     * Provides the amount of bytecode produced so far by this generator.
+     * @return the number of bytes of all the defined classes
+     */
+    public final long getBytecodeBytes(){
+	return bytecodeBytes.get();
+    }
+
+
+    /**
+     * Provides the number of classes defined by this generator that have been loaded from the bytecode cache.
+     * @return the number of cached classes
+     */
+    public final long getCachedClasses(){
+	return cachedClasses.get();
+    }
+
+
+    /**
+     * Provides the time spent by this generator generating bytecode (the classes loaded from the
+     * bytecode cache are not generated).
+     * @return the generation time in nanoseconds
+     */
+    public final long getGenerationTime(){
+	return generationTime.get();
+    }
+
+
+    /**
+     * Provides the number of classes defined by all the generators.
+     * @return the total number of defined classes
+     */
+    public static long getTotalDefinedClasses(){
+	long total = 0;
+	for( final GeneratorStatistics generator : values() )
+	    total += generator.getDefinedClasses();
+
+	return total;
+    }
+
+    /**
+     * Provides the amount of bytecode produced by all the generators.
+     * @return the total number of bytes of the defined classes
+     */
+    public static long getTotalBytecodeBytes(){
+	long total = 0;
+	for( final GeneratorStatistics generator : values() )
+	    total += generator.getBytecodeBytes();
+
+	return total;
+    }
+}
@@ -42,4 +42,11 @@ public interface IFunctionBinder {
      */
     public void setTargetObject( Object target ) throws TargetBindException;
 
+
+    /**
+     * Provides the target object the function is bound to.
+     * @return the target object, or null if the function has not been bound yet
+     */
+    public Object getTargetObject();
+
 }
@@ -13,6 +13,9 @@ public interface IFunctionClassDefiner {
 
     /**
      * The entry method to define a Function object.
+     * The class defined does not depend on the target object, that must be set on each
+     * instance thru the {@link IFunctionBinder} interface, so implementations can define
+     * it only once for each target class and method.
      * @param targetObject the reference on which the method must be invoked
      * @param targetMethod the method to invoke
      * @return the class defintion
@@ -23,4 +26,40 @@ public interface IFunctionClassDefiner {
                                                       Method targetMethod)
     throws JFKException;
 
+
+
+    /**
+     * Provides a factory for the functions bound to the specified method. The factory can be used
+     * to build the functions for every target object of the same class.
+     * Implementations that do not define a function class (i.e., that cannot implement
+     * {@link #getIFunctionClassDefinition(Object, Method)}) must implement at least this method.
+     * @param targetObject the reference on which the method must be invoked
+     * @param targetMethod the method to invoke
+     * @return the factory of the functions
+     * @throws JFKException if something goes wrong
+     */
+    public abstract IFunctionFactory getIFunctionFactory(
+                                                         Object targetObject,
+                                                         Method targetMethod)
+    throws JFKException;
+
+
+    /**
+     * Disables the argument checks in the executeCall method of the functions defined
+     * from now on, even if the function annotation does not ask for it.
+     * Unchecked functions are faster, but a call with wrong arguments results in a runtime
+     * exception thrown by the function.
+     * @param uncheckedInvocation true to skip the argument checks
+     */
+    public abstract void setUncheckedInvocation( boolean uncheckedInvocation );
+
+
+    /**
+     * Makes the functions defined from now on refer to their target objects weakly, so that
+     * a function does not keep its target reachable. A weakly bound function whose target has been
+     * garbage collected throws a {@link jfk.function.exception.CollectedTargetException} when called.
+     * @param weakBinding true to bind the functions weakly
+     */
+    public abstract void setWeakBinding( boolean weakBinding );
+
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import jfk.function.IFunction;
+import jfk.function.JFKException;
+
+/**
+ * A factory of the functions bound to a specific method of a target class.
+ * A factory is obtained from a {@link IFunctionClassDefiner} once for each method,
+ * and then used to create the functions bound to the different target objects, so that
+ * the (expensive) definition of the function is done only once.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public interface IFunctionFactory {
+
+    /**
+     * Creates a new function bound to the specified target object.
+     * @param targetObject the object on which the method will be invoked
+     * @return the function
+     * @throws JFKException if the function cannot be created or bound to the target object
+     */
+    public IFunction newFunction( Object targetObject ) throws JFKException;
+
+}
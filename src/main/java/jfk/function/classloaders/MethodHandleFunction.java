@@ -0,0 +1,386 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+
+import jfk.function.IFunction;
+import jfk.function.IFunction0;
+import jfk.function.IFunction1;
+import jfk.function.IFunction2;
+import jfk.function.IFunction3;
+import jfk.function.IFunction4;
+import jfk.function.exception.BadArityException;
+import jfk.function.exception.BadParameterTypeException;
+import jfk.function.exception.CollectedTargetException;
+import jfk.function.exception.TargetBindException;
+
+/**
+ * The function built by the {@link MethodHandleFunctionDefiner}. The function does not
+ * invoke the target method by itself, but thru an <i>invoker</i>, that is an object
+ * that receives the target object and the (boxed) arguments and calls the method.
+ * Invokers are defined once for each method and shared among all the functions bound to
+ * such method, so that a function is nothing more than a pair invoker-target.
+ * There is a subclass for each arity, so that the typed function interfaces (e.g., {@link IFunction2})
+ * can be implemented without the argument array.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+abstract class MethodHandleFunction implements IFunction, IFunctionBinder {
+
+    /**
+     * The invokers of the methods with up to four arguments. Each invoker receives
+     * the target object and the arguments to pass to the method.
+     */
+    interface Invoker0 { public Object invoke( Object target ); }
+    interface Invoker1 { public Object invoke( Object target, Object arg0 ); }
+    interface Invoker2 { public Object invoke( Object target, Object arg0, Object arg1 ); }
+    interface Invoker3 { public Object invoke( Object target, Object arg0, Object arg1, Object arg2 ); }
+    interface Invoker4 { public Object invoke( Object target, Object arg0, Object arg1, Object arg2, Object arg3 ); }
+
+    /**
+     * The invoker of the methods with any number of arguments.
+     */
+    interface ArrayInvoker { public Object invoke( Object target, Object[] arguments ); }
+
+
+    /**
+     * The class the target object must be an instance of.
+     */
+    private final Class targetClass;
+
+    /**
+     * The parameter types of the method, and the types the arguments must be instances of
+     * (i.e., the wrapper types for primitive parameters). The latter are null if the arguments
+     * must not be checked.
+     */
+    private final Class[] parameterTypes;
+    private final Class[] requiredTypes;
+
+    /**
+     * If true the function refers to its target object weakly.
+     */
+    private final boolean weak;
+
+    /**
+     * The target object the function is bound to, or its weak reference if the function is weakly bound.
+     */
+    private Object target = null;
+    private WeakReference<Object> weakTarget = null;
+
+
+    /**
+     * Builds the function.
+     * @param targetMethod the method the function is bound to
+     * @param targetClass the class of the target objects
+     * @param checked true if the arguments of executeCall must be checked
+     * @param weak true if the function must not keep its target object reachable
+     */
+    protected MethodHandleFunction( final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	super();
+	this.targetClass    = targetClass;
+	this.weak           = weak;
+	this.parameterTypes = targetMethod.getParameterTypes();
+
+	if( checked ){
+	    requiredTypes = new Class[ parameterTypes.length ];
+	    for( int i = 0; i < parameterTypes.length; i++ )
+		requiredTypes[ i ] = ClassLoaderUtils.getWrapperClass( parameterTypes[ i ] );
+	}
+	else
+	    requiredTypes = null;
+    }
+
+
+    /**
+     * Creates a new function for the specified invoker.
+     * @param invoker the invoker to use, that must be of the interface that matches the arity of the method
+     * (or an {@link ArrayInvoker} if the method has more than four arguments)
+     * @param targetMethod the method the function is bound to
+     * @param targetClass the class of the target objects
+     * @param checked true if the arguments of executeCall must be checked
+     * @param weak true if the function must not keep its target object reachable
+     * @return the function, not yet bound to a target object
+     */
+    static final MethodHandleFunction newInstance( final Object invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	switch( targetMethod.getParameterTypes().length ){
+	case 0:  return new Arity0( (Invoker0) invoker, targetMethod, targetClass, checked, weak );
+	case 1:  return new Arity1( (Invoker1) invoker, targetMethod, targetClass, checked, weak );
+	case 2:  return new Arity2( (Invoker2) invoker, targetMethod, targetClass, checked, weak );
+	case 3:  return new Arity3( (Invoker3) invoker, targetMethod, targetClass, checked, weak );
+	case 4:  return new Arity4( (Invoker4) invoker, targetMethod, targetClass, checked, weak );
+	default: return new ArityN( (ArrayInvoker) invoker, targetMethod, targetClass, checked, weak );
+	}
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.IFunction#executeCall(java.lang.Object[])
+     */
+    @Override
+    public final Object executeCall( final Object... param0 ) throws BadArityException, BadParameterTypeException {
+	if( requiredTypes != null && requiredTypes.length > 0 ){
+	    // the method must receive the exact number of parameters
+	    if( param0 == null || param0.length != requiredTypes.length )
+		throw ArgumentChecks.badArity( requiredTypes.length, param0 );
+
+	    // and of the right types (null is not allowed for primitive types)
+	    for( int i = 0; i < requiredTypes.length; i++ )
+		if( param0[ i ] == null ? parameterTypes[ i ].isPrimitive() : ! requiredTypes[ i ].isInstance( param0[ i ] ) )
+		    throw ArgumentChecks.badParameterType( requiredTypes[ i ], param0[ i ] );
+	}
+
+	return invoke( param0 );
+    }
+
+
+    /**
+     * Invokes the method with the arguments of the array.
+     * @param arguments the arguments
+     * @return the result of the method
+     */
+    protected abstract Object invoke( Object[] arguments );
+
+
+    /**
+     * Provides the invoker of this function.
+     * @return the invoker
+     */
+    protected abstract Object getInvoker();
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionBinder#setTargetObject(java.lang.Object)
+     */
+    @Override
+    public final void setTargetObject( final Object target ) throws TargetBindException {
+	if( target == null || (! targetClass.isInstance( target )) )
+	    throw new TargetBindException("The binding object is not of the right type!");
+
+	if( weak )
+	    this.weakTarget = new WeakReference<Object>( target );
+	else
+	    this.target = target;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionBinder#getTargetObject()
+     */
+    @Override
+    public final Object getTargetObject(){
+	if( weak )
+	    return ( weakTarget == null ? null : weakTarget.get() );
+	else
+	    return target;
+    }
+
+
+    /**
+     * Provides the target object the method must be invoked on.
+     * @return the target object
+     * @throws CollectedTargetException if the function is weakly bound and its target has been collected
+     */
+    protected final Object target(){
+	if( ! weak )
+	    return target;
+
+	final Object referent = ( weakTarget == null ? null : weakTarget.get() );
+	if( referent == null )
+	    throw new CollectedTargetException();
+
+	return referent;
+    }
+
+
+    /**
+     * Two functions are equal if they invoke the same method on the same target object.
+     */
+    @Override
+    public final boolean equals( final Object other ){
+	if( other == this )
+	    return true;
+	if( other == null || other.getClass() != getClass() )
+	    return false;
+
+	final MethodHandleFunction function = (MethodHandleFunction) other;
+	return function.getInvoker() == getInvoker() && function.getTargetObject() == getTargetObject();
+    }
+
+
+    @Override
+    public final int hashCode(){
+	return getInvoker().hashCode() ^ System.identityHashCode( getTargetObject() );
+    }
+
+
+
+    static final class Arity0 extends MethodHandleFunction implements IFunction0 {
+	private final Invoker0 invoker;
+
+	Arity0( final Invoker0 invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	    super( targetMethod, targetClass, checked, weak );
+	    this.invoker = invoker;
+	}
+
+	@Override
+	public Object call(){
+	    return invoker.invoke( target() );
+	}
+
+	@Override
+	protected Object invoke( final Object[] arguments ){
+	    return invoker.invoke( target() );
+	}
+
+	@Override
+	protected Object getInvoker(){
+	    return invoker;
+	}
+    }
+
+
+    static final class Arity1 extends MethodHandleFunction implements IFunction1 {
+	private final Invoker1 invoker;
+
+	Arity1( final Invoker1 invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	    super( targetMethod, targetClass, checked, weak );
+	    this.invoker = invoker;
+	}
+
+	@Override
+	public Object call( final Object arg0 ){
+	    return invoker.invoke( target(), arg0 );
+	}
+
+	@Override
+	protected Object invoke( final Object[] arguments ){
+	    return invoker.invoke( target(), arguments[0] );
+	}
+
+	@Override
+	protected Object getInvoker(){
+	    return invoker;
+	}
+    }
+
+
+    static final class Arity2 extends MethodHandleFunction implements IFunction2 {
+	private final Invoker2 invoker;
+
+	Arity2( final Invoker2 invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	    super( targetMethod, targetClass, checked, weak );
+	    this.invoker = invoker;
+	}
+
+	@Override
+	public Object call( final Object arg0, final Object arg1 ){
+	    return invoker.invoke( target(), arg0, arg1 );
+	}
+
+	@Override
+	protected Object invoke( final Object[] arguments ){
+	    return invoker.invoke( target(), arguments[0], arguments[1] );
+	}
+
+	@Override
+	protected Object getInvoker(){
+	    return invoker;
+	}
+    }
+
+
+    static final class Arity3 extends MethodHandleFunction implements IFunction3 {
+	private final Invoker3 invoker;
+
+	Arity3( final Invoker3 invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	    super( targetMethod, targetClass, checked, weak );
+	    this.invoker = invoker;
+	}
+
+	@Override
+	public Object call( final Object arg0, final Object arg1, final Object arg2 ){
+	    return invoker.invoke( target(), arg0, arg1, arg2 );
+	}
+
+	@Override
+	protected Object invoke( final Object[] arguments ){
+	    return invoker.invoke( target(), arguments[0], arguments[1], arguments[2] );
+	}
+
+	@Override
+	protected Object getInvoker(){
+	    return invoker;
+	}
+    }
+
+
+    static final class Arity4 extends MethodHandleFunction implements IFunction4 {
+	private final Invoker4 invoker;
+
+	Arity4( final Invoker4 invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	    super( targetMethod, targetClass, checked, weak );
+	    this.invoker = invoker;
+	}
+
+	@Override
+	public Object call( final Object arg0, final Object arg1, final Object arg2, final Object arg3 ){
+	    return invoker.invoke( target(), arg0, arg1, arg2, arg3 );
+	}
+
+	@Override
+	protected Object invoke( final Object[] arguments ){
+	    return invoker.invoke( target(), arguments[0], arguments[1], arguments[2], arguments[3] );
+	}
+
+	@Override
+	protected Object getInvoker(){
+	    return invoker;
+	}
+    }
+
+
+    static final class ArityN extends MethodHandleFunction {
+	private final ArrayInvoker invoker;
+
+	ArityN( final ArrayInvoker invoker, final Method targetMethod, final Class targetClass, final boolean checked, final boolean weak ){
+	    super( targetMethod, targetClass, checked, weak );
+	    this.invoker = invoker;
+	}
+
+	@Override
+	protected Object invoke( final Object[] arguments ){
+	    return invoker.invoke( target(), arguments );
+	}
+
+	@Override
+	protected Object getInvoker(){
+	    return invoker;
+	}
+    }
+
+}
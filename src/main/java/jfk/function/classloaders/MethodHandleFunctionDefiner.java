@@ -0,0 +1,371 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.classloaders;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+import jfk.function.Function;
+import jfk.function.IFunction;
+import jfk.function.JFKException;
+import jfk.function.delegates.Connect;
+import jfk.function.exception.CannotBindFunctionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A function definer that does not compile any source code: the functions are built
+ * around an invoker obtained from the {@link LambdaMetafactory}, that is the same mechanism
+ * the JVM uses for lambda expressions, so that the target method can be inlined by the JIT.
+ * When a lambda cannot be used (e.g., the method returns void, is static, has more than four
+ * arguments or its types are not visible from this class loader) the invoker
+ * falls back to a plain {@link MethodHandle}.
+ * <p>
+ * This definer does not define any function class, and therefore it can be used only
+ * thru {@link #getIFunctionFactory(Object, Method)}. The functions implement the arity
+ * typed interfaces (e.g., {@link jfk.function.IFunction2}) but not the primitive ones.
+ * <p>
+ * To use this definer, set the <i>functionClassDefiner</i> property of the function builder
+ * in the spring configuration.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class MethodHandleFunctionDefiner implements IFunctionClassDefiner {
+
+    /**
+     * The logger for this definer.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( MethodHandleFunctionDefiner.class );
+
+
+    /**
+     * The invoker interfaces, indexed by arity.
+     */
+    private static final Class[] INVOKER_INTERFACES = new Class[]{ MethodHandleFunction.Invoker0.class,
+								   MethodHandleFunction.Invoker1.class,
+								   MethodHandleFunction.Invoker2.class,
+								   MethodHandleFunction.Invoker3.class,
+								   MethodHandleFunction.Invoker4.class };
+
+
+    /**
+     * The invokers already built, for each class and method. An invoker does not depend
+     * on the target object, so it is shared among all the functions bound to the same method.
+     */
+    private static final ClassValue<Map<Method, Object>> invokers = new ClassValue<Map<Method, Object>>() {
+	@Override
+	protected Map<Method, Object> computeValue( final Class targetClass ){
+	    return new HashMap<Method, Object>();
+	}
+    };
+
+
+    /**
+     * If true the functions do not check their arguments, regardless of the function annotation.
+     */
+    private boolean uncheckedInvocation = false;
+
+    /**
+     * If true the functions refer to their target objects weakly.
+     */
+    private boolean weakBinding = false;
+
+
+
+    /**
+     * This definer does not define classes.
+     * @throws JFKException always
+     */
+    @Override
+    public Class getIFunctionClassDefinition( final Object targetObject, final Method targetMethod ) throws JFKException {
+	throw new JFKException("The method handle definer does not define function classes, use the function factory!");
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionClassDefiner#getIFunctionFactory(java.lang.Object, java.lang.reflect.Method)
+     */
+    @Override
+    public IFunctionFactory getIFunctionFactory( final Object targetObject, final Method targetMethod ) throws JFKException {
+	// check params
+	if( (targetObject == null) || (targetMethod == null) )
+	    throw new IllegalArgumentException("Cannot proceed without the method and the target object");
+
+	if( (! targetMethod.isAnnotationPresent( Function.class )) && (! targetMethod.isAnnotationPresent(Connect.class))   )
+	    throw new CannotBindFunctionException("The specified method is not a function/connect annotated one!");
+
+	boolean checked = ! uncheckedInvocation;
+	if( targetMethod.isAnnotationPresent( Function.class ) )
+	    checked = checked && (! targetMethod.getAnnotation( Function.class ).unchecked());
+
+	final Class targetClass = targetObject.getClass();
+	final Object invoker = getInvoker( targetClass, targetMethod );
+	final boolean checkedInvocation = checked;
+	final boolean weak              = weakBinding;
+
+	return new IFunctionFactory() {
+	    @Override
+	    public IFunction newFunction( final Object target ) throws JFKException {
+		final MethodHandleFunction function = MethodHandleFunction.newInstance( invoker, targetMethod, targetClass, checkedInvocation, weak );
+		function.setTargetObject( target );
+		return function;
+	    }
+	};
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionClassDefiner#setUncheckedInvocation(boolean)
+     */
+    @Override
+    public synchronized void setUncheckedInvocation( final boolean uncheckedInvocation ){
+	this.uncheckedInvocation = uncheckedInvocation;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.classloaders.IFunctionClassDefiner#setWeakBinding(boolean)
+     */
+    @Override
+    public synchronized void setWeakBinding( final boolean weakBinding ){
+	this.weakBinding = weakBinding;
+    }
+
+
+
+    /**
+     * Provides the invoker for the specified method, building it if it has not been built yet.
+     * @param targetClass the class of the target objects
+     * @param targetMethod the method to invoke
+     * @return the invoker
+     * @throws JFKException if the method cannot be accessed
+     */
+    private final Object getInvoker( final Class targetClass, final Method targetMethod ) throws JFKException {
+	final Map<Method, Object> classInvokers = invokers.get( targetClass );
+	synchronized( classInvokers ){
+	    Object invoker = classInvokers.get( targetMethod );
+	    if( invoker == null ){
+		try {
+		    invoker = buildLambdaInvoker( targetMethod );
+		    if( invoker == null )
+			invoker = new MethodHandleInvoker( targetMethod );
+		} catch (final Throwable e) {
+		    logger.error("Cannot build the invoker for the method " + targetMethod, e );
+		    throw new CannotBindFunctionException("Cannot build the invoker for the method " + targetMethod, e );
+		}
+
+		classInvokers.put( targetMethod, invoker );
+	    }
+
+	    return invoker;
+	}
+    }
+
+
+    /**
+     * Builds an invoker for the method using the lambda meta-factory, so that the invoker is
+     * as fast as a lambda expression.
+     * @param targetMethod the method to invoke
+     * @return the invoker or null if a lambda cannot be built for the method
+     * @throws Throwable if the lambda meta-factory fails
+     */
+    private final Object buildLambdaInvoker( final Method targetMethod ) throws Throwable {
+	final Class parameterTypes[] = targetMethod.getParameterTypes();
+	final Class returnType       = targetMethod.getReturnType();
+
+	// a lambda can be used only for public instance methods that return a value
+	if( parameterTypes.length >= INVOKER_INTERFACES.length
+		|| Void.TYPE.equals( returnType )
+		|| Modifier.isStatic( targetMethod.getModifiers() )
+		|| (! Modifier.isPublic( targetMethod.getModifiers() ))
+		|| (! isVisible( targetMethod.getDeclaringClass() ))
+		|| (! isVisible( returnType )) )
+	    return null;
+
+	// the lambda receives the target and the arguments as objects, and casts/unboxes them
+	final Class instantiatedTypes[] = new Class[ parameterTypes.length + 1 ];
+	instantiatedTypes[ 0 ] = targetMethod.getDeclaringClass();
+	for( int i = 0; i < parameterTypes.length; i++ ){
+	    if( ! isVisible( parameterTypes[ i ] ) )
+		return null;
+
+	    instantiatedTypes[ i + 1 ] = ClassLoaderUtils.getWrapperClass( parameterTypes[ i ] );
+	}
+
+	final MethodHandles.Lookup lookup = MethodHandles.lookup();
+	final Class invokerInterface = INVOKER_INTERFACES[ parameterTypes.length ];
+	try {
+	    final CallSite site = LambdaMetafactory.metafactory( lookup,
+								 "invoke",
+								 MethodType.methodType( invokerInterface ),
+								 MethodType.genericMethodType( parameterTypes.length + 1 ),
+								 lookup.unreflect( targetMethod ),
+								 MethodType.methodType( ClassLoaderUtils.getWrapperClass( returnType ), instantiatedTypes ) );
+	    if( logger.isDebugEnabled() )
+		logger.debug("Lambda invoker built for the method " + targetMethod );
+	    return site.getTarget().invoke();
+	} catch (final LambdaConversionException e) {
+	    if( logger.isDebugEnabled() )
+		logger.debug("Cannot build a lambda invoker for the method " + targetMethod, e );
+	    return null;
+	}
+    }
+
+
+    /**
+     * Checks if a class is public and visible from the class loader of this definer, and therefore
+     * can be used in a lambda.
+     * @param type the class to check
+     * @return true if the class can be used in a lambda
+     */
+    private static final boolean isVisible( Class type ){
+	while( type.isArray() )
+	    type = type.getComponentType();
+
+	if( type.isPrimitive() )
+	    return true;
+
+	if( ! Modifier.isPublic( type.getModifiers() ) )
+	    return false;
+
+	try {
+	    return Class.forName( type.getName(), false, MethodHandleFunctionDefiner.class.getClassLoader() ) == type;
+	} catch (final ClassNotFoundException e) {
+	    return false;
+	}
+    }
+
+
+
+    /**
+     * An invoker that calls the method thru a method handle, used when a lambda
+     * cannot be built.
+     */
+    private static final class MethodHandleInvoker implements MethodHandleFunction.Invoker0,
+							     MethodHandleFunction.Invoker1,
+							     MethodHandleFunction.Invoker2,
+							     MethodHandleFunction.Invoker3,
+							     MethodHandleFunction.Invoker4,
+							     MethodHandleFunction.ArrayInvoker {
+
+	/**
+	 * The handle that receives the target and the arguments as objects, and the
+	 * one that receives the arguments as an array.
+	 */
+	private final MethodHandle handle;
+	private final MethodHandle spreadHandle;
+
+	MethodHandleInvoker( final Method targetMethod ) throws IllegalAccessException {
+	    final int arity = targetMethod.getParameterTypes().length;
+
+	    // a method not public is looked up with the private access to its class, since the method
+	    // can be shared (see jfk.core.ClassMetadata) and its accessibility must not be changed
+	    final MethodHandles.Lookup lookup = ( (Modifier.isPublic( targetMethod.getModifiers() )
+						    && Modifier.isPublic( targetMethod.getDeclaringClass().getModifiers() ))
+						  ? MethodHandles.lookup()
+						  : MethodHandles.privateLookupIn( targetMethod.getDeclaringClass(), MethodHandles.lookup() ) );
+	    MethodHandle targetHandle = lookup.unreflect( targetMethod );
+
+	    // a static method ignores the target object
+	    if( Modifier.isStatic( targetMethod.getModifiers() ) )
+		targetHandle = MethodHandles.dropArguments( targetHandle, 0, Object.class );
+
+	    handle       = targetHandle.asType( MethodType.genericMethodType( arity + 1 ) );
+	    spreadHandle = handle.asSpreader( Object[].class, arity );
+	}
+
+	@Override
+	public Object invoke( final Object target ){
+	    try {
+		return (Object) handle.invokeExact( target );
+	    } catch (final Throwable e) {
+		throw MethodHandleInvoker.<RuntimeException>rethrow( e );
+	    }
+	}
+
+	@Override
+	public Object invoke( final Object target, final Object arg0 ){
+	    try {
+		return (Object) handle.invokeExact( target, arg0 );
+	    } catch (final Throwable e) {
+		throw MethodHandleInvoker.<RuntimeException>rethrow( e );
+	    }
+	}
+
+	@Override
+	public Object invoke( final Object target, final Object arg0, final Object arg1 ){
+	    try {
+		return (Object) handle.invokeExact( target, arg0, arg1 );
+	    } catch (final Throwable e) {
+		throw MethodHandleInvoker.<RuntimeException>rethrow( e );
+	    }
+	}
+
+	@Override
+	public Object invoke( final Object target, final Object arg0, final Object arg1, final Object arg2 ){
+	    try {
+		return (Object) handle.invokeExact( target, arg0, arg1, arg2 );
+	    } catch (final Throwable e) {
+		throw MethodHandleInvoker.<RuntimeException>rethrow( e );
+	    }
+	}
+
+	@Override
+	public Object invoke( final Object target, final Object arg0, final Object arg1, final Object arg2, final Object arg3 ){
+	    try {
+		return (Object) handle.invokeExact( target, arg0, arg1, arg2, arg3 );
+	    } catch (final Throwable e) {
+		throw MethodHandleInvoker.<RuntimeException>rethrow( e );
+	    }
+	}
+
+	@Override
+	public Object invoke( final Object target, final Object[] arguments ){
+	    try {
+		return (Object) spreadHandle.invokeExact( target, arguments );
+	    } catch (final Throwable e) {
+		throw MethodHandleInvoker.<RuntimeException>rethrow( e );
+	    }
+	}
+
+	/**
+	 * Rethrows the exception of the target method as it is, as the compiled functions do.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static <T extends Throwable> T rethrow( final Throwable e ) throws T {
+	    throw (T) e;
+	}
+    }
+
+}
@@ -31,6 +31,10 @@ import java.lang.annotation.Target;
 
 /**
  * This annotation is used to mark a method as a "slot" to connect to a delegate.
+ * A connect method has the same arguments of the delegate method, or it is a <i>batch connection</i>
+ * of a void delegate method with a single argument: its only argument is a {@link java.util.List} of the
+ * argument of the delegate method, and it receives the calls in batches, delivered when the batch is
+ * full or when the first call of the batch is older than the batch timeout.
  * 
  * @author Luca Ferrari - fluca1978 (at) gmail.com
  *
@@ -45,4 +49,20 @@ public @interface Connect {
      * in the @Delegate annotation)
      */
     public String name() default "";
+
+
+    /**
+     * The number of calls a batch connection receives at once.
+     * @return the size of the batches
+     */
+    public int batchSize() default 64;
+
+
+    /**
+     * How long, in milliseconds, a call waits in an incomplete batch before the batch is delivered
+     * to a batch connection anyway; if zero the batches are delivered only when full, therefore an incomplete
+     * batch waits for the next calls, and is delivered only when the delegate is removed from the delegatable object.
+     * @return the timeout of the batches
+     */
+    public long batchTimeout() default 100;
 }
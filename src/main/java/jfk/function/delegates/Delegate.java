@@ -54,4 +54,45 @@ public @interface Delegate {
      * @return the name used to reference this delegate
      */
     public String name() default "";
+
+
+    /**
+     * How the delegates added to the object are called. The connected target of a delegate method that
+     * returns a value is always called synchronously, since it provides the result, while the target of
+     * a void delegate method is called as the added delegates.
+     * @return the dispatch mode of the delegate
+     */
+    public DispatchMode dispatch() default DispatchMode.SYNCHRONOUS;
+
+
+    /**
+     * If true a parallel delegate method returns only when all the delegates have been called.
+     * @return true to wait for the delegates
+     */
+    public boolean join() default false;
+
+
+    /**
+     * The maximum number of calls of an asynchronous or parallel delegate method (of all the
+     * objects of the class) that can be pending, that is queued or running, at the same time.
+     * For a ring buffer delegate method it is the number of slots of the buffer, rounded up to
+     * a power of two.
+     * @return the capacity of the queue of the delegate
+     */
+    public int queueCapacity() default 1024;
+
+
+    /**
+     * What an asynchronous, parallel or ring buffer delegate method does when its queue is full.
+     * @return the overflow policy of the delegate
+     */
+    public OverflowPolicy overflow() default OverflowPolicy.BLOCK;
+
+
+    /**
+     * How the consumer thread of a ring buffer delegate method waits for new calls, and how the
+     * callers wait for a free slot when the buffer is full.
+     * @return the wait strategy of the delegate
+     */
+    public WaitStrategy waitStrategy() default WaitStrategy.BLOCK;
 }
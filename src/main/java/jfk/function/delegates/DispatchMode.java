@@ -0,0 +1,58 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.delegates;
+
+/**
+ * How a delegate method calls the delegates added to its object (see {@link Delegate#dispatch()}).
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public enum DispatchMode {
+
+    /**
+     * The delegates are called one after the other by the thread that calls the delegate method.
+     */
+    SYNCHRONOUS,
+
+    /**
+     * The delegates are called one after the other by a thread of the delegate executor, while the
+     * delegate method returns immediately. The calls of the delegate method can run concurrently.
+     */
+    ASYNCHRONOUS,
+
+    /**
+     * Each delegate is called by its own thread of the delegate executor, and the delegate method returns
+     * immediately or, if {@link Delegate#join()} is true, as soon as all the delegates have been called.
+     */
+    PARALLEL,
+
+    /**
+     * The arguments of the call are written into a preallocated slot of a ring buffer, and the delegate
+     * method returns immediately; a consumer thread of the method drains the buffer in batches, calling the
+     * delegates one after the other in the order of the calls (see {@link Delegate#waitStrategy()}).
+     */
+    RING_BUFFER;
+}
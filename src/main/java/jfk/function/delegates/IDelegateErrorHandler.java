@@ -0,0 +1,47 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.delegates;
+
+/**
+ * A handler of the failures of the delegates added to a delegatable object.
+ * When a delegate method is called, the delegates added with {@link IDelegatable#addDelegate(IDelegate, String)}
+ * are called one after the other, and the exception thrown by one of them does not prevent the others from being
+ * called: it is passed to the handler configured as the IDelegateErrorHandler bean.
+ * A handler can throw an unchecked exception to stop the dispatch and make the delegate method fail.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public interface IDelegateErrorHandler {
+
+    /**
+     * Handles the failure of a delegate.
+     * @param source the delegatable object whose delegate method has been called, null if the failure
+     * happened delivering a batch whose timeout expired (see {@link Connect#batchTimeout()})
+     * @param delegate the delegate that failed
+     * @param error the exception thrown by the delegate
+     */
+    public void delegateFailed( IDelegatable source, IDelegate delegate, Throwable error );
+}
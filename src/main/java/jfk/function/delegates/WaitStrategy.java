@@ -0,0 +1,56 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.delegates;
+
+/**
+ * How the threads of a ring buffer delegate method wait (see {@link Delegate#waitStrategy()}):
+ * the strategies trade the latency of the dispatch for the CPU used while waiting.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public enum WaitStrategy {
+
+    /**
+     * The thread spins, keeping a CPU busy: the lowest latency.
+     */
+    BUSY_SPIN,
+
+    /**
+     * The thread spins for a while, then yields the CPU to the other threads.
+     */
+    YIELD,
+
+    /**
+     * The thread spins and yields for a while, then sleeps for short periods.
+     */
+    SLEEP,
+
+    /**
+     * The thread blocks until it is signaled: no CPU is used while waiting, at the cost of
+     * signaling the waiting threads.
+     */
+    BLOCK;
+}
@@ -24,12 +24,31 @@
  */
 package jfk.function.impl;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import jfk.function.IClosure;
 import jfk.function.IClosureBuilder;
+import jfk.function.classloaders.BytecodeCache;
+import jfk.function.classloaders.ClassLoaderUtils;
 import jfk.function.classloaders.ClosureClassLoader;
-import jfk.function.classloaders.IFunctionBinder;
 import jfk.function.exception.ClosureException;
-import jfk.function.exception.TargetBindException;
 
 /**
  * The default closure builder.
@@ -40,6 +59,37 @@ import jfk.function.exception.TargetBindException;
  */
 public class ClosureBuilderImpl implements IClosureBuilder {
 
+    /**
+     * If true the closures built do not check the arguments they are called with.
+     */
+    private boolean uncheckedInvocation = false;
+
+    /**
+     * If true the closure classes are defined as hidden classes.
+     */
+    private boolean hiddenClasses = false;
+
+    /**
+     * The cache of the generated bytecode, null if the closure classes are always generated.
+     */
+    private BytecodeCache bytecodeCache = null;
+
+    /**
+     * The cache of the compiled closure classes, null if every closure is compiled.
+     */
+    private ClosureCache closureCache = null;
+
+    /**
+     * The executor the asynchronous closures are compiled by, null to use the shared one.
+     */
+    private Executor executor = null;
+
+    /**
+     * The executor shared by the builders that have no executor of their own,
+     * created the first time a closure is compiled asynchronously.
+     */
+    private static ExecutorService sharedExecutor = null;
+
     /**
      * 
      */
@@ -53,18 +103,395 @@ public class ClosureBuilderImpl implements IClosureBuilder {
     @Override
     public IClosure buildClosure(final String code)
     throws  ClosureException {
+	return buildClosure( code, Collections.<String, Class>emptyMap(), null );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.IClosureBuilder#buildClosure(java.lang.String, java.util.Map)
+     */
+    @Override
+    public IClosure buildClosure(final String code, final Map<String, ?> capturedValues)
+    throws  ClosureException {
+	// the captured variables are sorted by name, so that the same variables always
+	// produce the same closure class
+	final Map<String, Object> sortedValues = new TreeMap<String, Object>();
+	if( capturedValues != null )
+	    sortedValues.putAll( capturedValues );
+
+	final Map<String, Class> capturedTypes = new LinkedHashMap<String, Class>();
+	final Object[] values = new Object[ sortedValues.size() ];
+	int index = 0;
+	for( final Map.Entry<String, Object> captured : sortedValues.entrySet() ){
+	    if( ! isIdentifier( captured.getKey() ) )
+		throw new ClosureException("The captured variable name " + captured.getKey() + " is not a valid identifier");
+
+	    capturedTypes.put( captured.getKey(), getCapturedType( captured.getValue() ) );
+	    values[ index++ ] = captured.getValue();
+	}
+
+	return buildClosure( code, capturedTypes, values );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.IClosureBuilder#buildClosures(java.util.Collection)
+     */
+    @Override
+    public List<IClosure> buildClosures(final Collection<String> codes)
+    throws  ClosureException {
+	final BuildOptions options = getBuildOptions();
+
+	// the classes of the closures, by key: the cached ones are reused, and the
+	// same code is compiled only once
+	final Map<String, Class> closureClasses = new HashMap<String, Class>();
+	final Map<String, String> codesToCompile = new LinkedHashMap<String, String>();
+	final List<String> keys = new ArrayList<String>( codes.size() );
+	for( final String code : codes ){
+	    final String key = ClosureCache.computeKey( code, options.uncheckedInvocation, options.hiddenClasses );
+	    keys.add( key );
+
+	    if( closureClasses.containsKey( key ) || codesToCompile.containsKey( key ) )
+		continue;
+
+	    final Class cachedClass = ( options.closureCache == null ? null : options.closureCache.get( key ) );
+	    if( cachedClass != null )
+		closureClasses.put( key, cachedClass );
+	    else
+		codesToCompile.put( key, code );
+	}
+
+	// compile all the missing closures in a single pass
+	if( ! codesToCompile.isEmpty() ){
+	    final List<Class> compiledClasses = options.newClassLoader().getClosureClasses( new ArrayList<String>( codesToCompile.values() ) );
+	    int index = 0;
+	    for( final String key : codesToCompile.keySet() ){
+		final Class compiledClass = compiledClasses.get( index++ );
+		closureClasses.put( key, compiledClass );
+		if( options.closureCache != null )
+		    options.closureCache.put( key, compiledClass );
+	    }
+	}
+
+	final List<IClosure> closures = new ArrayList<IClosure>( keys.size() );
+	for( final String key : keys )
+	    closures.add( newClosure( closureClasses.get( key ), Collections.<String, Class>emptyMap(), null ) );
+
+	return closures;
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.IClosureBuilder#buildClosureAsync(java.lang.String)
+     */
+    @Override
+    public Future<IClosure> buildClosureAsync(final String code) {
+	return buildClosureAsync( code, null );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.IClosureBuilder#buildClosureAsync(java.lang.String, java.util.Map)
+     */
+    @Override
+    public Future<IClosure> buildClosureAsync(final String code, final Map<String, ?> capturedValues) {
+	final FutureTask<IClosure> closure = new FutureTask<IClosure>( new Callable<IClosure>() {
+	    @Override
+	    public IClosure call() throws ClosureException {
+		return buildClosure( code, capturedValues );
+	    }
+	});
+
+	getExecutor().execute( closure );
+	return closure;
+    }
+
+
+    /**
+     * Builds a closure, compiling its class only if it is not in the closure cache.
+     * @param code the code of the closure
+     * @param capturedTypes the types of the captured variables, by name
+     * @param values the values of the captured variables, in the same order of the types
+     * @return the closure
+     * @throws ClosureException if the closure cannot be compiled or instantiated
+     */
+    private final IClosure buildClosure(final String code, final Map<String, Class> capturedTypes, final Object[] values)
+    throws  ClosureException {
+	final BuildOptions options = getBuildOptions();
+
+	// a closure has no state but its captured values, so a new instance of an already
+	// compiled class is a new closure
+	final String cacheKey = ( options.closureCache == null
+				  ? null
+				  : ClosureCache.computeKey( code, capturedTypes, options.uncheckedInvocation, options.hiddenClasses ) );
+	Class closureClass = ( cacheKey == null ? null : options.closureCache.get( cacheKey ) );
+
+	if( closureClass == null ){
+	    final ClosureClassLoader loader = options.newClassLoader();
+	    loader.setClosureCode(code);
+	    loader.setCapturedTypes( capturedTypes );
+	    closureClass = loader.getClosureClass();
+
+	    if( cacheKey != null )
+		options.closureCache.put( cacheKey, closureClass );
+	}
+
+	return newClosure( closureClass, capturedTypes, values );
+    }
+
+
+    /**
+     * Instantiates a closure class.
+     * @param closureClass the class of the closure
+     * @param capturedTypes the types of the captured variables, by name
+     * @param values the values of the captured variables, in the same order of the types
+     * @return the closure
+     * @throws ClosureException if the closure cannot be instantiated
+     */
+    private static IClosure newClosure(final Class closureClass, final Map<String, Class> capturedTypes, final Object[] values)
+    throws  ClosureException {
+	// the closure does not need any target object, it invokes itself
 	try {
+	    final Class<?> closure = closureClass;
+	    if( capturedTypes.isEmpty() )
+		return (IClosure) closure.getDeclaredConstructor().newInstance();
+	    else
+		return (IClosure) closure.getConstructor( Object[].class ).newInstance( new Object[]{ values } );
+	} catch (final InstantiationException e) {
+	    throw new ClosureException( e );
+	} catch (final IllegalAccessException e) {
+	    throw new ClosureException( e );
+	} catch (final NoSuchMethodException e) {
+	    throw new ClosureException( e );
+	} catch (final InvocationTargetException e) {
+	    throw new ClosureException( e.getCause() );
+	}
+    }
+
+
+    /**
+     * Provides the current options of this builder, so that a closure is built with
+     * consistent options even if they are changed meanwhile.
+     * @return the current options
+     */
+    private synchronized final BuildOptions getBuildOptions() {
+	return new BuildOptions( uncheckedInvocation, hiddenClasses, bytecodeCache, closureCache );
+    }
+
+
+    /**
+     * The options a closure is built with, taken all together from the builder.
+     */
+    private static final class BuildOptions {
+	final boolean uncheckedInvocation;
+	final boolean hiddenClasses;
+	final BytecodeCache bytecodeCache;
+	final ClosureCache closureCache;
+
+	BuildOptions( final boolean uncheckedInvocation, final boolean hiddenClasses,
+		      final BytecodeCache bytecodeCache, final ClosureCache closureCache ){
+	    this.uncheckedInvocation = uncheckedInvocation;
+	    this.hiddenClasses       = hiddenClasses;
+	    this.bytecodeCache       = bytecodeCache;
+	    this.closureCache        = closureCache;
+	}
+
+	/**
+	 * Provides a new class loader configured with these options.
+	 */
+	ClosureClassLoader newClassLoader(){
 	    final ClosureClassLoader loader = new ClosureClassLoader();
-	    loader.setClosureCode(code);
-	    final IClosure closure = loader.getClosure();
+	    loader.setUncheckedInvocation( uncheckedInvocation );
+	    loader.setHiddenClasses( hiddenClasses );
+	    loader.setBytecodeCache( bytecodeCache );
+	    return loader;
+	}
+    }
+
+
+    /**
+     * Provides the executor the asynchronous closures are compiled by: the one set
+     * on this builder or, if none, a shared pool of daemon threads as large as the
+     * available processors.
+     * @return the executor to use
+     */
+    private final Executor getExecutor() {
+	synchronized( this ){
+	    if( executor != null )
+		return executor;
+	}
+
+	synchronized( ClosureBuilderImpl.class ){
+	    if( sharedExecutor == null )
+		sharedExecutor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(),
+							       new ThreadFactory() {
+		    private final AtomicInteger threads = new AtomicInteger();
+
+		    @Override
+		    public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread( runnable, "jfk-closure-builder-" + threads.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		    }
+		});
 
-	    ((IFunctionBinder) closure).setTargetObject( loader.getTargetInstance() );
-	    return closure;
-	} catch (final TargetBindException e) {
-	    throw new ClosureException("Cannot bind closure", e);
+	    return sharedExecutor;
 	}
+    }
+
+
+    /**
+     * Provides the type of the field of a captured variable: the primitive type for the wrapper
+     * classes, otherwise the class of the value, or its first superclass that is public and
+     * visible to the closures (an Object field for a null value).
+     * @param value the captured value
+     * @return the type of the field
+     */
+    private static Class getCapturedType( final Object value ){
+	if( value == null )
+	    return Object.class;
+
+	final Class primitiveType = ClassLoaderUtils.getPrimitiveClass( value.getClass() );
+	if( primitiveType.isPrimitive() )
+	    return primitiveType;
+
+	for( Class type = value.getClass(); type != null; type = type.getSuperclass() )
+	    if( isVisible( type ) )
+		return type;
+
+	return Object.class;
+    }
+
+
+    /**
+     * Tells if a type can be referred to by the code of a closure, that is compiled against the
+     * system class loader (the parent of the closure class loaders).
+     */
+    private static boolean isVisible( final Class type ){
+	if( type.isArray() )
+	    return isVisible( type.getComponentType() );
+	if( type.isPrimitive() )
+	    return true;
+	if( type.isHidden() || (! Modifier.isPublic( type.getModifiers() )) )
+	    return false;
+	if( (type.getDeclaringClass() != null) && (! isVisible( type.getDeclaringClass() )) )
+	    return false;
+
+	try {
+	    return Class.forName( type.getName(), false, ClassLoader.getSystemClassLoader() ) == type;
+	} catch (final ClassNotFoundException e) {
+	    return false;
+	}
+    }
+
+
+    /**
+     * Tells if a name can be the name of a captured variable.
+     */
+    private static boolean isIdentifier( final String name ){
+	if( (name == null) || (name.length() == 0) || (! Character.isJavaIdentifierStart( name.charAt( 0 ) )) )
+	    return false;
+
+	for( int i = 1; i < name.length(); i++ )
+	    if( ! Character.isJavaIdentifierPart( name.charAt( i ) ) )
+		return false;
+
+	return true;
+    }
+
+
+    /**
+     * Tells if the closures built by this builder skip the argument checks.
+     * @return true if the closures do not check their arguments
+     */
+    public synchronized final boolean isUncheckedInvocation() {
+	return uncheckedInvocation;
+    }
 
 
+    /**
+     * Sets if the closures built by this builder must skip the argument checks
+     * (see {@link FunctionBuilderImpl#setUncheckedInvocation(boolean)}).
+     * @param uncheckedInvocation true to skip the argument checks
+     */
+    public synchronized final void setUncheckedInvocation(final boolean uncheckedInvocation) {
+	this.uncheckedInvocation = uncheckedInvocation;
+    }
+
+
+    /**
+     * Tells if the closure classes are defined as hidden classes.
+     * @return true if the closures are hidden classes
+     */
+    public synchronized final boolean isHiddenClasses() {
+	return hiddenClasses;
+    }
+
+
+    /**
+     * Sets if the closure classes must be defined as hidden classes, so that
+     * each class is unloaded as soon as its closure is no more reachable.
+     * @param hiddenClasses true to define hidden classes
+     */
+    public synchronized final void setHiddenClasses(final boolean hiddenClasses) {
+	this.hiddenClasses = hiddenClasses;
+    }
+
+
+    /**
+     * Provides the cache of the generated bytecode used by this builder.
+     * @return the bytecode cache, or null if the closure classes are always generated
+     */
+    public synchronized final BytecodeCache getBytecodeCache() {
+	return bytecodeCache;
+    }
+
+
+    /**
+     * Sets the cache of the generated bytecode, so that the closures compiled by a previous
+     * run are loaded without compiling them again.
+     * @param bytecodeCache the cache to use, or null to always generate the closure classes
+     */
+    public synchronized final void setBytecodeCache(final BytecodeCache bytecodeCache) {
+	this.bytecodeCache = bytecodeCache;
+    }
+
+
+    /**
+     * Provides the cache of the compiled closure classes used by this builder.
+     * @return the closure cache, or null if every closure is compiled
+     */
+    public synchronized final ClosureCache getClosureCache() {
+	return closureCache;
+    }
+
+
+    /**
+     * Sets the cache of the compiled closure classes, so that building a closure whose code
+     * has already been compiled only creates a new instance. The cache can be shared among builders.
+     * @param closureCache the cache to use, or null to compile every closure
+     */
+    public synchronized final void setClosureCache(final ClosureCache closureCache) {
+	this.closureCache = closureCache;
+    }
+
+
+    /**
+     * Provides the executor the asynchronous closures are compiled by.
+     * @return the executor, or null if the shared one is used
+     */
+    public synchronized final Executor getAsyncExecutor() {
+	return executor;
+    }
+
+
+    /**
+     * Sets the executor the asynchronous closures are compiled by, for instance to bound
+     * the number of closures compiled at the same time.
+     * @param executor the executor to use, or null to use a shared pool of daemon threads
+     */
+    public synchronized final void setAsyncExecutor(final Executor executor) {
+	this.executor = executor;
     }
 
 }
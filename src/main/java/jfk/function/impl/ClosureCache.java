@@ -0,0 +1,231 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the compiled closure classes, addressed by the content of the closures:
+ * the key of a closure is a hash of its code (without leading and trailing whitespaces), of the
+ * names and types of its captured variables and of the options it is compiled with. Building a closure already in the cache does not compile
+ * anything, it only creates a new instance of the cached class.
+ * <p>
+ * When the cache is full the least recently used classes are evicted. The cache is the only
+ * reference JFK keeps to a closure class, so an evicted class can be unloaded as soon as
+ * its closures are no more reachable.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class ClosureCache {
+
+    /**
+     * The default number of closure classes in the cache.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * The closure classes, from the least recently used one.
+     */
+    private final LinkedHashMap<String, Class> closureClasses = new LinkedHashMap<String, Class>( 16, 0.75f, true );
+
+    /**
+     * The maximum number of closure classes in the cache, 0 to disable the cache.
+     */
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * The number of closures found in the cache, the number of closures not found
+     * and the number of classes evicted.
+     */
+    private final AtomicLong hits      = new AtomicLong();
+    private final AtomicLong misses    = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+
+    /**
+     * Computes the key of a closure.
+     * @param code the code of the closure
+     * @param uncheckedInvocation true if the closure does not check its arguments
+     * @param hiddenClasses true if the closure class is a hidden class
+     * @return the key of the closure
+     */
+    public static String computeKey( final String code, final boolean uncheckedInvocation, final boolean hiddenClasses ){
+	return computeKey( code, Collections.<String, Class>emptyMap(), uncheckedInvocation, hiddenClasses );
+    }
+
+
+    /**
+     * Computes the key of a closure that captures some variables.
+     * @param code the code of the closure
+     * @param capturedTypes the types of the captured variables, by name
+     * @param uncheckedInvocation true if the closure does not check its arguments
+     * @param hiddenClasses true if the closure class is a hidden class
+     * @return the key of the closure
+     */
+    public static String computeKey( final String code, final Map<String, Class> capturedTypes, final boolean uncheckedInvocation, final boolean hiddenClasses ){
+	try {
+	    final MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+	    digest.update( (byte) ( uncheckedInvocation ? 1 : 0 ) );
+	    digest.update( (byte) ( hiddenClasses ? 1 : 0 ) );
+	    for( final Map.Entry<String, Class> captured : capturedTypes.entrySet() ){
+		digest.update( captured.getValue().getName().getBytes( StandardCharsets.UTF_8 ) );
+		digest.update( (byte) ' ' );
+		digest.update( captured.getKey().getBytes( StandardCharsets.UTF_8 ) );
+		digest.update( (byte) ';' );
+	    }
+	    digest.update( (byte) 0 );
+	    digest.update( String.valueOf( code ).trim().getBytes( StandardCharsets.UTF_8 ) );
+
+	    final StringBuffer key = new StringBuffer( 64 );
+	    for( final byte b : digest.digest() )
+		key.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+
+	    return key.toString();
+
+	} catch (final NoSuchAlgorithmException e) {
+	    // every JVM provides SHA-256
+	    throw new IllegalStateException( e );
+	}
+    }
+
+
+    /**
+     * Provides the closure class with the specified key.
+     * @param key the key of the closure
+     * @return the class of the closure, or null if it is not in the cache
+     */
+    public synchronized final Class get( final String key ){
+	final Class closureClass = ( maxEntries == 0 ? null : closureClasses.get( key ) );
+	if( closureClass == null )
+	    misses.incrementAndGet();
+	else
+	    hits.incrementAndGet();
+
+	return closureClass;
+    }
+
+
+    /**
+     * Stores a compiled closure class, evicting the least recently used ones if the cache is full.
+     * @param key the key of the closure
+     * @param closureClass the class of the closure
+     */
+    public synchronized final void put( final String key, final Class closureClass ){
+	if( maxEntries == 0 )
+	    return;
+
+	closureClasses.put( key, closureClass );
+	evict( maxEntries );
+    }
+
+
+    /**
+     * Evicts the least recently used classes, so that no more than the specified number of classes is kept.
+     */
+    private final void evict( final int retainedEntries ){
+	final Iterator<Map.Entry<String, Class>> entries = closureClasses.entrySet().iterator();
+	while( closureClasses.size() > retainedEntries && entries.hasNext() ){
+	    entries.next();
+	    entries.remove();
+	    evictions.incrementAndGet();
+	}
+    }
+
+
+    /**
+     * Removes all the classes from the cache.
+     */
+    public synchronized final void clear(){
+	closureClasses.clear();
+    }
+
+
+    /**
+     * Provides the maximum number of closure classes in the cache.
+     * @return the maximum number of classes, 0 if the cache is disabled
+     */
+    public synchronized final int getMaxEntries(){
+	return maxEntries;
+    }
+
+
+    /**
+     * Sets the maximum number of closure classes in the cache, evicting the exceeding ones.
+     * @param maxEntries the maximum number of classes, 0 to disable the cache
+     */
+    public synchronized final void setMaxEntries( final int maxEntries ){
+	if( maxEntries < 0 )
+	    throw new IllegalArgumentException("The number of entries of the closure cache cannot be negative!");
+
+	this.maxEntries = maxEntries;
+	evict( maxEntries );
+    }
+
+
+    /**
+     * Provides the number of closure classes in the cache.
+     * @return the number of classes
+     */
+    public synchronized final int getSize(){
+	return closureClasses.size();
+    }
+
+
+    /**
+     * Provides the number of closures built from a cached class.
+     * @return the number of hits
+     */
+    public final long getHits(){
+	return hits.get();
+    }
+
+
+    /**
+     * Provides the number of closures compiled because their class was not in the cache.
+     * @return the number of misses
+     */
+    public final long getMisses(){
+	return misses.get();
+    }
+
+
+    /**
+     * Provides the number of classes evicted from the cache.
+     * @return the number of evictions
+     */
+    public final long getEvictions(){
+	return evictions.get();
+    }
+
+}
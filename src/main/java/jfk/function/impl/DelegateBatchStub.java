@@ -0,0 +1,293 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jfk.core.JFK;
+import jfk.function.delegates.IDelegate;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The base class of the stubs of the batch connections (see {@link jfk.function.delegates.Connect}).
+ * The generated stubs append the argument of each call to the current batch, that is delivered to the
+ * connection when it is full, by the thread of the call that fills it, or when its timeout expires,
+ * by the batch timer. A full batch is swapped out for a new one holding the lock of the stub, and delivered
+ * after releasing it, so that a slow connection does not block the calls; the batches are delivered one at a time,
+ * in the order of the calls, under a separate delivery lock, even when the connection calls the delegate method again.
+ * The failure of a batch delivered by the timer is passed to the configured
+ * {@link jfk.function.delegates.IDelegateErrorHandler}, with no delegatable object.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public abstract class DelegateBatchStub implements IDelegateStub {
+
+    /**
+     * The timer of the batches, created with the first batch that needs it.
+     */
+    private static final class BatchTimer {
+	static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+	    @Override
+	    public Thread newThread( final Runnable task ) {
+		final Thread thread = new Thread( task, "jfk-delegate-batch-timer" );
+		thread.setDaemon( true );
+		return thread;
+	    }
+	});
+    }
+
+    /**
+     * The logger for the failures of the error handler.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( DelegateBatchStub.class );
+
+    /**
+     * The delegate called by this stub.
+     */
+    private final IDelegate delegate;
+
+    /**
+     * The number of calls of a batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The timeout of a batch, in milliseconds.
+     */
+    private final long batchTimeout;
+
+    /**
+     * The calls of the current batch.
+     */
+    private List<Object> events;
+
+    /**
+     * The number of batches started before the current one, that is the sequence of the current
+     * batch, so that the timer does not deliver a batch started later.
+     */
+    private long started;
+
+    /**
+     * The lock of the deliveries, separated from the lock of the stub so that the calls are
+     * not blocked while a batch is delivered.
+     */
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private final Condition deliveryTurn = deliveryLock.newCondition();
+
+    /**
+     * The number of batches delivered, guarded by the delivery lock.
+     */
+    private long delivered;
+
+    /**
+     * The batches filled by the connection while delivering a batch, by sequence, guarded by the delivery lock.
+     */
+    private final Map<Long, List<Object>> pending = new HashMap<Long, List<Object>>();
+
+
+    /**
+     * Builds the stub of a batch connection.
+     * @param delegate the delegate to call
+     * @param batchSize the number of calls of a batch
+     * @param batchTimeout the timeout of a batch, in milliseconds, zero if the batches are delivered only when full
+     */
+    protected DelegateBatchStub( final IDelegate delegate, final int batchSize, final long batchTimeout ){
+	super();
+	if( (batchSize <= 0) || (batchTimeout < 0) )
+	    throw new IllegalArgumentException("Invalid batch size or timeout for the delegate " + delegate);
+
+	this.delegate     = delegate;
+	this.batchSize    = batchSize;
+	this.batchTimeout = batchTimeout;
+	events            = new ArrayList<Object>( batchSize );
+    }
+
+
+    /* (non-Javadoc)
+     * @see jfk.function.impl.IDelegateStub#getDelegate()
+     */
+    @Override
+    public IDelegate getDelegate() {
+	return delegate;
+    }
+
+
+    /**
+     * Appends a call to the current batch, delivering the batch if it is full.
+     * @param event the argument of the call
+     * @throws Exception if the delivery of the batch fails
+     */
+    protected final void append( final Object event ) throws Exception {
+	final long sequence;
+	final List<Object> batch;
+	synchronized( this ){
+	    events.add( event );
+	    if( events.size() < batchSize ){
+		if( (events.size() == 1) && (batchTimeout > 0) ){
+		    final long expected = started;
+		    BatchTimer.timer.schedule( new Runnable() {
+			@Override
+			public void run() {
+			    flush( expected );
+			}
+		    }, batchTimeout, TimeUnit.MILLISECONDS );
+		}
+
+		return;
+	    }
+
+	    sequence = started;
+	    batch    = swapBatch();
+	}
+
+	deliverBatch( sequence, batch );
+    }
+
+
+    /**
+     * Delivers the current batch, if it is not empty.
+     */
+    public final void flush(){
+	flush( -1L );
+    }
+
+
+    /**
+     * Delivers the current batch if it is not empty and it is the specified one, that is its timeout has expired.
+     * @param expected the sequence of the batch to deliver, -1 for any batch
+     */
+    private void flush( final long expected ){
+	final long sequence;
+	final List<Object> batch;
+	synchronized( this ){
+	    if( events.isEmpty() || ((expected >= 0) && (expected != started)) )
+		return;
+
+	    sequence = started;
+	    batch    = swapBatch();
+	}
+
+	try {
+	    deliverBatch( sequence, batch );
+	} catch (final Exception e) {
+	    batchFailed( e );
+	}
+    }
+
+
+    /**
+     * Passes the failure of a batch not delivered by a call to the error handler.
+     * @param error the exception thrown by the connection
+     */
+    private void batchFailed( final Exception error ){
+	try {
+	    JFK.getDelegateErrorHandler().delegateFailed( null, delegate, error );
+	} catch (final RuntimeException handlerError) {
+	    logger.error( "Cannot deliver a batch to the delegate " + delegate, handlerError );
+	}
+    }
+
+
+    /**
+     * Starts a new batch, to be called holding the lock of the stub.
+     * @return the current batch
+     */
+    private List<Object> swapBatch(){
+	final List<Object> batch = events;
+	events = new ArrayList<Object>( batchSize );
+	started++;
+	return batch;
+    }
+
+
+    /**
+     * Delivers a batch once the previous ones have been delivered. A batch filled by the connection
+     * itself, calling the delegate method again while a batch is delivered, cannot wait for the delivery
+     * in progress on the same thread: it is left pending, and delivered as soon as its turn comes by
+     * the thread that completes the previous batch.
+     * @param sequence the sequence of the batch
+     * @param batch the batch to deliver
+     * @throws Exception if the connection fails
+     */
+    private void deliverBatch( final long sequence, final List<Object> batch ) throws Exception {
+	if( deliveryLock.isHeldByCurrentThread() ){
+	    pending.put( sequence, batch );
+	    return;
+	}
+
+	deliveryLock.lock();
+	try {
+	    while( delivered != sequence )
+		deliveryTurn.awaitUninterruptibly();
+
+	    try {
+		deliver( batch );
+	    } finally {
+		delivered++;
+		deliverPending();
+		deliveryTurn.signalAll();
+	    }
+	} finally {
+	    deliveryLock.unlock();
+	}
+    }
+
+
+    /**
+     * Delivers the pending batches whose turn has come, to be called holding the delivery lock.
+     * Their failures are passed to the error handler, since the calls that filled them have already returned.
+     */
+    private void deliverPending(){
+	List<Object> batch;
+	while( (batch = pending.remove( delivered )) != null )
+	    try {
+		deliver( batch );
+	    } catch (final Exception e) {
+		batchFailed( e );
+	    } finally {
+		delivered++;
+	    }
+    }
+
+
+    /**
+     * Delivers a batch to the connection of the delegate.
+     * @param batch the arguments of the calls, in their order
+     * @throws Exception if the connection fails
+     */
+    protected abstract void deliver( List batch ) throws Exception;
+
+}
@@ -0,0 +1,363 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import jfk.core.JFK;
+import jfk.function.delegates.Delegate;
+import jfk.function.delegates.DispatchMode;
+import jfk.function.delegates.OverflowPolicy;
+
+/**
+ * Dispatches the calls of an asynchronous or parallel delegate method to the delegate executor
+ * (see {@link JFK#getDelegateExecutor()}). The pending calls of the method, that is the tasks
+ * submitted and not completed yet, are bounded by the queue capacity of the method, and shared by
+ * all the objects of its class; when the queue is full the overflow policy of the method applies.
+ * There is a dispatcher for each delegate method, that keeps its queue metrics and lives as long as
+ * the delegatable class, that keeps it (a class with the same name in another class loader has its own dispatchers); the dispatcher of a
+ * ring buffer delegate method keeps the {@link DelegateRingBuffer} of the method, that is its queue, whose consumer thread
+ * runs only while the method is called, and is stopped for good when the dispatcher is closed.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class DelegateDispatcher {
+
+    /**
+     * The dispatchers of each delegatable class, by delegate method name.
+     */
+    private static final ClassValue<ConcurrentHashMap<String, DelegateDispatcher>> dispatchers = new ClassValue<ConcurrentHashMap<String, DelegateDispatcher>>() {
+	@Override
+	protected ConcurrentHashMap<String, DelegateDispatcher> computeValue( final Class delegatableSource ){
+	    return new ConcurrentHashMap<String, DelegateDispatcher>();
+	}
+    };
+
+    /**
+     * All the dispatchers, for the metrics: they are weakly referenced, so that they are collected
+     * along with their class.
+     */
+    private static final Map<DelegateDispatcher, Boolean> allDispatchers = Collections.synchronizedMap( new WeakHashMap<DelegateDispatcher, Boolean>() );
+
+    /**
+     * The name of the delegate method.
+     */
+    private final String name;
+
+    /**
+     * How the delegates are called.
+     */
+    private final DispatchMode mode;
+
+    /**
+     * If true a parallel dispatch waits for all the delegates.
+     */
+    private final boolean join;
+
+    /**
+     * The capacity of the queue.
+     */
+    private final int capacity;
+
+    /**
+     * What to do when the queue is full.
+     */
+    private final OverflowPolicy overflow;
+
+    /**
+     * The free places of the queue.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The tasks submitted to the executor.
+     */
+    private final LongAdder submitted = new LongAdder();
+
+    /**
+     * The tasks discarded because the queue was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The ring buffer, null if the method is not dispatched as {@link DispatchMode#RING_BUFFER}.
+     */
+    private final DelegateRingBuffer ringBuffer;
+
+
+    private DelegateDispatcher( final String name, final Delegate delegate, final Class callClass ){
+	super();
+	if( delegate.queueCapacity() <= 0 )
+	    throw new IllegalArgumentException("The queue capacity of the delegate " + name + " must be positive!");
+
+	this.name     = name;
+	this.mode     = delegate.dispatch();
+	this.join     = delegate.join();
+	this.capacity = delegate.queueCapacity();
+	this.overflow = delegate.overflow();
+	this.permits  = new Semaphore( capacity );
+	ringBuffer    = ( mode == DispatchMode.RING_BUFFER
+			  ? new DelegateRingBuffer( name, callClass, capacity, delegate.waitStrategy(), overflow )
+			  : null );
+    }
+
+
+    /**
+     * Provides the dispatcher of a delegate method, creating it at its first use.
+     * @param delegatableSource the delegatable class
+     * @param methodName the name of the delegate method
+     * @param delegate the annotation of the method
+     * @param callClass the call class of the method
+     * @return the dispatcher of the method
+     */
+    public static DelegateDispatcher forDelegate( final Class delegatableSource, final String methodName, final Delegate delegate,
+						  final Class callClass ){
+	final ConcurrentHashMap<String, DelegateDispatcher> classDispatchers = dispatchers.get( delegatableSource );
+	DelegateDispatcher dispatcher = classDispatchers.get( methodName );
+	if( dispatcher == null ){
+	    final DelegateDispatcher newDispatcher = new DelegateDispatcher( delegatableSource.getName() + "#" + methodName, delegate, callClass );
+	    dispatcher = classDispatchers.putIfAbsent( methodName, newDispatcher );
+	    if( dispatcher == null ){
+		dispatcher = newDispatcher;
+		allDispatchers.put( dispatcher, Boolean.TRUE );
+	    }
+	}
+
+	return dispatcher;
+    }
+
+
+    /**
+     * Provides all the dispatchers of the delegatable classes not collected yet.
+     * @return a snapshot of the dispatchers
+     */
+    public static Collection<DelegateDispatcher> getDispatchers(){
+	synchronized( allDispatchers ){
+	    return new ArrayList<DelegateDispatcher>( allDispatchers.keySet() );
+	}
+    }
+
+
+    /**
+     * Dispatches a call to its delegates.
+     * @param call the call of the delegate method
+     * @throws RejectedExecutionException if the queue is full and the overflow policy is {@link OverflowPolicy#FAIL}
+     */
+    public void dispatch( final IDelegateCall call ){
+	final int stubCount = call.getStubCount();
+	if( stubCount == 0 )
+	    return;
+
+	if( mode == DispatchMode.ASYNCHRONOUS ){
+	    submit( new Runnable() {
+		@Override
+		public void run() {
+		    for( int i = 0; i < stubCount; i++ )
+			call.dispatch( i );
+		}
+	    });
+
+	    return;
+	}
+
+	// parallel: a task for each delegate
+	final CountDownLatch completed = ( join ? new CountDownLatch( stubCount ) : null );
+	for( int i = 0; i < stubCount; i++ ){
+	    final int index = i;
+	    final boolean submittedTask = submit( new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			call.dispatch( index );
+		    } finally {
+			if( completed != null )
+			    completed.countDown();
+		    }
+		}
+	    });
+
+	    if( (! submittedTask) && (completed != null) )
+		completed.countDown();
+	}
+
+	if( completed != null )
+	    try {
+		completed.await();
+	    } catch (final InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+    }
+
+
+    /**
+     * Submits a task to the executor if the queue is not full, otherwise applies the overflow policy.
+     * @param task the task to run
+     * @return false if the task has been dropped
+     */
+    private boolean submit( final Runnable task ){
+	if( ! permits.tryAcquire() )
+	    switch( overflow ){
+	    case DROP:
+		dropped.increment();
+		return false;
+	    case CALLER_RUNS:
+		task.run();
+		return true;
+	    case FAIL:
+		throw new RejectedExecutionException( "The queue of the delegate " + name + " is full" );
+	    default:
+		try {
+		    permits.acquire();
+		} catch (final InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    dropped.increment();
+		    return false;
+		}
+	    }
+
+	try {
+	    JFK.getDelegateExecutor().execute( new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			task.run();
+		    } finally {
+			permits.release();
+		    }
+		}
+	    });
+	} catch (final RejectedExecutionException e) {
+	    permits.release();
+	    throw e;
+	}
+
+	submitted.increment();
+	return true;
+    }
+
+
+    /**
+     * Provides the name of the delegate method.
+     * @return the delegatable class and the method name separated by a '#'
+     */
+    public String getName() {
+	return name;
+    }
+
+
+    /**
+     * Provides how the delegates are called.
+     * @return the dispatch mode
+     */
+    public DispatchMode getMode() {
+	return mode;
+    }
+
+
+    /**
+     * Provides the ring buffer of the method.
+     * @return the ring buffer, null if the method is not dispatched as {@link DispatchMode#RING_BUFFER}
+     */
+    public DelegateRingBuffer getRingBuffer() {
+	return ringBuffer;
+    }
+
+
+    /**
+     * Provides the capacity of the queue.
+     * @return the maximum number of pending tasks
+     */
+    public int getCapacity() {
+	return ( ringBuffer != null ? ringBuffer.getSize() : capacity );
+    }
+
+
+    /**
+     * Provides the depth of the queue, that is the number of tasks submitted and not completed yet.
+     * @return the pending tasks
+     */
+    public int getQueueDepth() {
+	if( ringBuffer != null )
+	    return ringBuffer.getDepth();
+
+	return capacity - permits.availablePermits();
+    }
+
+
+    /**
+     * Provides the number of tasks submitted to the executor.
+     * @return the submitted tasks
+     */
+    public long getSubmitted() {
+	if( ringBuffer != null )
+	    return ringBuffer.getSubmitted();
+
+	return submitted.sum();
+    }
+
+
+    /**
+     * Provides the number of tasks discarded because the queue was full.
+     * @return the dropped tasks
+     */
+    public long getDropped() {
+	if( ringBuffer != null )
+	    return ringBuffer.getDropped();
+
+	return dropped.sum();
+    }
+
+
+    /**
+     * Closes the dispatcher: the ring buffer, if any, dispatches its pending calls and stops its
+     * consumer thread, and the next calls of the method are dispatched by their callers.
+     */
+    public void close() {
+	if( ringBuffer != null )
+	    ringBuffer.close();
+    }
+
+
+    /**
+     * Clears the counters of the tasks.
+     */
+    public void reset() {
+	submitted.reset();
+	dropped.reset();
+	if( ringBuffer != null )
+	    ringBuffer.reset();
+    }
+
+}
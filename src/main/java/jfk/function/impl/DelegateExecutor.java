@@ -0,0 +1,85 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The default executor of the asynchronous and parallel delegates: a pool of daemon threads,
+ * created when needed and discarded when idle. The pool is not bounded, since the delegates can block
+ * on I/O, while the pending calls of each delegate method are bounded by its queue capacity.
+ * Another executor (e.g., one running a virtual thread per task) can be configured as the
+ * DelegateExecutor bean.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class DelegateExecutor implements Executor {
+
+    /**
+     * The pool of threads, created at the first call.
+     */
+    private volatile ExecutorService pool = null;
+
+
+    /* (non-Javadoc)
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute( final Runnable task ) {
+	getPool().execute( task );
+    }
+
+
+    /**
+     * Provides the pool of threads, creating it if needed.
+     */
+    private ExecutorService getPool(){
+	final ExecutorService current = pool;
+	if( current != null )
+	    return current;
+
+	synchronized( this ){
+	    if( pool == null )
+		pool = Executors.newCachedThreadPool( new ThreadFactory() {
+		    private final AtomicInteger threads = new AtomicInteger();
+
+		    @Override
+		    public Thread newThread( final Runnable runnable ) {
+			final Thread thread = new Thread( runnable, "jfk-delegate-" + threads.incrementAndGet() );
+			thread.setDaemon( true );
+			return thread;
+		    }
+		});
+
+	    return pool;
+	}
+    }
+
+}
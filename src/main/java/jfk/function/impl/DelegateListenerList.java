@@ -0,0 +1,318 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import jfk.core.ClassMetadata;
+import jfk.core.ClassMetadata.AnnotatedMethod;
+import jfk.core.JFK;
+import jfk.function.classloaders.DelegateStubs;
+import jfk.function.delegates.Delegate;
+import jfk.function.delegates.DispatchMode;
+import jfk.function.delegates.IDelegatable;
+import jfk.function.delegates.IDelegate;
+import jfk.function.exception.delegates.CannotConnectDelegateException;
+
+/**
+ * The list of the delegates a delegatable object dispatches its delegate calls to, besides
+ * its connected target. Each delegate method has its own channel, that keeps the stubs of the delegates
+ * connected to it in a copy-on-write array typed as the stub interface of the method (see {@link DelegateStubs}),
+ * so the delegate methods iterate over them without any lock, allocation or boxing. The delegates are
+ * indexed by identity, along with the position of their stub in each channel, so adding or removing a
+ * delegate does not scan the stubs: a removed stub is replaced by the last one of its channel, therefore
+ * the delegates are called in the order they have been added only until one of them is removed.
+ * The calls of the asynchronous and parallel delegate methods are dispatched by the {@link DelegateDispatcher}
+ * of the method, the calls of the ring buffer ones are written into the {@link DelegateRingBuffer} of the method.
+ * The generated delegatable classes keep an instance of this list, and the delegates can be added
+ * and removed by any thread.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class DelegateListenerList {
+
+    /**
+     * The stub interface of each channel.
+     */
+    private final Class[] stubInterfaces;
+
+    /**
+     * The name of the delegate of each channel, that the connections of the delegates must have.
+     */
+    private final String[] names;
+
+    /**
+     * The dispatcher of each channel, null for the synchronous ones.
+     */
+    private final DelegateDispatcher[] dispatchers;
+
+    /**
+     * The ring buffer of each channel, null for the methods not dispatched as {@link DispatchMode#RING_BUFFER}.
+     */
+    private final DelegateRingBuffer[] ringBuffers;
+
+    /**
+     * The stubs of each channel. The arrays are never changed, they are replaced.
+     */
+    private volatile IDelegateStub[][] stubs;
+
+    /**
+     * A delegate added to the list.
+     */
+    private static final class AddedDelegate {
+
+	/**
+	 * The connection names the delegate has been added with.
+	 */
+	final Set<String> names = new HashSet<String>();
+
+	/**
+	 * The position of the stub of the delegate in each channel, -1 if it is not connected to the channel.
+	 */
+	final int[] positions;
+
+	AddedDelegate( final int channels ){
+	    positions = new int[ channels ];
+	    Arrays.fill( positions, -1 );
+	}
+    }
+
+    /**
+     * The added delegates, by identity.
+     */
+    private final Map<IDelegate, AddedDelegate> delegates = new IdentityHashMap<IDelegate, AddedDelegate>();
+
+
+    /**
+     * Builds the list for the delegate methods of a delegatable class.
+     * @param delegatableSource the delegatable class
+     * @param stubInterfaces the stub interface of each delegate method
+     * @param callClasses the call class of each delegate method, null for the synchronous ones
+     * @param names the name of each delegate method
+     */
+    public DelegateListenerList( final Class delegatableSource, final Class[] stubInterfaces, final Class[] callClasses, final String[] names ){
+	super();
+	if( (stubInterfaces == null) || (callClasses == null) || (names == null)
+	    || (stubInterfaces.length != names.length) || (callClasses.length != names.length) )
+	    throw new IllegalArgumentException("Each delegate method must have a stub interface, a call class and a name!");
+
+	this.stubInterfaces = stubInterfaces.clone();
+	this.names          = names.clone();
+	stubs               = new IDelegateStub[ stubInterfaces.length ][];
+	for( int i = 0; i < stubInterfaces.length; i++ )
+	    stubs[ i ] = (IDelegateStub[]) Array.newInstance( stubInterfaces[ i ], 0 );
+
+	dispatchers = new DelegateDispatcher[ names.length ];
+	ringBuffers = new DelegateRingBuffer[ names.length ];
+	for( final AnnotatedMethod delegateMethod : ClassMetadata.forClass( delegatableSource ).getDeclaredDelegates() ){
+	    final Delegate delegate = (Delegate) delegateMethod.getAnnotation();
+	    if( delegate.dispatch() == DispatchMode.SYNCHRONOUS )
+		continue;
+
+	    for( int i = 0; i < names.length; i++ )
+		if( names[ i ].equals( delegateMethod.getName() ) ){
+		    dispatchers[ i ] = DelegateDispatcher.forDelegate( delegatableSource, delegateMethod.getMethod().getName(), delegate,
+								       callClasses[ i ] );
+		    ringBuffers[ i ] = dispatchers[ i ].getRingBuffer();
+		}
+	}
+    }
+
+
+    /**
+     * Adds a delegate to all the delegate methods with the name of its connection.
+     * @param delegate the delegate to add
+     * @param name the name of the connection of the delegate
+     * @return true if the delegate has been added, false if it has already been added
+     * with the same connection, or no delegate method can be connected to it
+     */
+    public synchronized boolean add( final IDelegate delegate, final String name ){
+	if( (delegate == null) || (name == null) )
+	    return false;
+
+	AddedDelegate addedDelegate = delegates.get( delegate );
+	if( (addedDelegate != null) && addedDelegate.names.contains( name ) )
+	    return false;
+
+	// create all the stubs before changing any channel
+	final IDelegateStub[] newStubs = new IDelegateStub[ names.length ];
+	boolean connected = false;
+	try {
+	    for( int i = 0; i < names.length; i++ )
+		if( names[ i ].equals( name ) ){
+		    newStubs[ i ] = DelegateStubs.createStub( stubInterfaces[ i ], delegate, name );
+		    connected = true;
+		}
+	} catch (final CannotConnectDelegateException e) {
+	    return false;
+	}
+
+	if( ! connected )
+	    return false;
+
+	if( addedDelegate == null ){
+	    addedDelegate = new AddedDelegate( names.length );
+	    delegates.put( delegate, addedDelegate );
+	}
+	addedDelegate.names.add( name );
+
+	final IDelegateStub[][] currentStubs = stubs;
+	final IDelegateStub[][] changedStubs = currentStubs.clone();
+	for( int i = 0; i < newStubs.length; i++ )
+	    if( newStubs[ i ] != null ){
+		changedStubs[ i ] = (IDelegateStub[]) Array.newInstance( stubInterfaces[ i ], currentStubs[ i ].length + 1 );
+		System.arraycopy( currentStubs[ i ], 0, changedStubs[ i ], 0, currentStubs[ i ].length );
+		changedStubs[ i ][ currentStubs[ i ].length ] = newStubs[ i ];
+		addedDelegate.positions[ i ]                 = currentStubs[ i ].length;
+	    }
+
+	stubs = changedStubs;
+	return true;
+    }
+
+
+    /**
+     * Removes a delegate from all the delegate methods, delivering the pending batches of its batch connections.
+     * @param delegate the delegate to remove
+     * @return true if the delegate has been removed, false if it was not in this list
+     */
+    public synchronized boolean remove( final IDelegate delegate ){
+	final AddedDelegate removedDelegate = delegates.remove( delegate );
+	if( removedDelegate == null )
+	    return false;
+
+	// the last stub of each channel takes the place of the removed one
+	final IDelegateStub[][] currentStubs = stubs;
+	final IDelegateStub[][] changedStubs = currentStubs.clone();
+	final IDelegateStub[] removedStubs   = new IDelegateStub[ currentStubs.length ];
+	for( int i = 0; i < currentStubs.length; i++ ){
+	    final int position = removedDelegate.positions[ i ];
+	    if( position < 0 )
+		continue;
+
+	    final int last     = currentStubs[ i ].length - 1;
+	    removedStubs[ i ]  = currentStubs[ i ][ position ];
+	    changedStubs[ i ]  = (IDelegateStub[]) Array.newInstance( stubInterfaces[ i ], last );
+	    System.arraycopy( currentStubs[ i ], 0, changedStubs[ i ], 0, last );
+	    if( position < last ){
+		changedStubs[ i ][ position ] = currentStubs[ i ][ last ];
+		delegates.get( currentStubs[ i ][ last ].getDelegate() ).positions[ i ] = position;
+	    }
+	}
+
+	stubs = changedStubs;
+
+	// the batches pending when the delegate has been removed
+	for( final IDelegateStub stub : removedStubs )
+	    if( stub instanceof DelegateBatchStub )
+		((DelegateBatchStub) stub).flush();
+
+	return true;
+    }
+
+
+    /**
+     * Provides the stubs of a delegate method. The array is typed as the stub interface of the method
+     * and must not be modified: it is a snapshot of the channel, that does not change when the delegates
+     * are added or removed.
+     * @param channel the index of the delegate method
+     * @return the current stubs of the method
+     */
+    public IDelegateStub[] getStubs( final int channel ){
+	return stubs[ channel ];
+    }
+
+
+    /**
+     * Dispatches a call of an asynchronous or parallel delegate method to its delegates.
+     * @param channel the index of the delegate method
+     * @param call the call, with the stubs to call
+     */
+    public void dispatch( final int channel, final IDelegateCall call ){
+	dispatchers[ channel ].dispatch( call );
+    }
+
+
+    /**
+     * Claims a slot of the ring buffer of a delegate method.
+     * @param channel the index of the delegate method
+     * @return the claimed sequence, see {@link DelegateRingBuffer#claim()}
+     */
+    public long claim( final int channel ){
+	return ringBuffers[ channel ].claim();
+    }
+
+
+    /**
+     * Provides a claimed slot of the ring buffer of a delegate method.
+     * @param channel the index of the delegate method
+     * @param sequence the claimed sequence
+     * @return the slot to write the call into
+     */
+    public IDelegateCall getSlot( final int channel, final long sequence ){
+	return ringBuffers[ channel ].getSlot( sequence );
+    }
+
+
+    /**
+     * Publishes a written slot of the ring buffer of a delegate method.
+     * @param channel the index of the delegate method
+     * @param sequence the claimed sequence
+     */
+    public void publish( final int channel, final long sequence ){
+	ringBuffers[ channel ].publish( sequence );
+    }
+
+
+    /**
+     * Handles the failure of a delegate, passing it to the configured {@link jfk.function.delegates.IDelegateErrorHandler}.
+     * @param source the delegatable object that dispatched the call
+     * @param stub the stub of the delegate that failed
+     * @param error the exception thrown by the delegate
+     */
+    public void dispatchFailed( final IDelegatable source, final IDelegateStub stub, final Throwable error ){
+	JFK.getDelegateErrorHandler().delegateFailed( source, stub.getDelegate(), error );
+    }
+
+
+    /**
+     * Provides the number of the stubs of all the delegate methods.
+     * @return the number of stubs
+     */
+    public int size(){
+	int size = 0;
+	for( final IDelegateStub[] channelStubs : stubs )
+	    size += channelStubs.length;
+
+	return size;
+    }
+
+}
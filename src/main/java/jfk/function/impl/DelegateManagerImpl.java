@@ -24,14 +24,15 @@
  */
 package jfk.function.impl;
 
-import java.lang.reflect.Method;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import jfk.core.ClassMetadata;
+import jfk.core.ClassMetadata.AnnotatedMethod;
 import jfk.core.JFK;
+import jfk.function.classloaders.DelegateStubs;
 import jfk.function.classloaders.IDelegateConnector;
-import jfk.function.delegates.Connect;
-import jfk.function.delegates.Delegate;
 import jfk.function.delegates.IDelegatable;
 import jfk.function.delegates.IDelegate;
 import jfk.function.delegates.IDelegateManager;
@@ -65,11 +66,8 @@ public class DelegateManagerImpl implements IDelegateManager {
 	    return false;
 
 	// see in the destination which connections there are
-	for( final Method currentMethod : destination.getClass().getDeclaredMethods() )
-	    if( currentMethod.isAnnotationPresent( Connect.class ) ){
-		final Connect annotation = currentMethod.getAnnotation( Connect.class );
-		source.addDelegate(destination,  annotation.name() );
-	    }
+	for( final AnnotatedMethod connectMethod : ClassMetadata.forClass( destination.getClass() ).getDeclaredConnections() )
+	    source.addDelegate(destination,  connectMethod.getName() );
 
 	return true;
 
@@ -92,31 +90,14 @@ public class DelegateManagerImpl implements IDelegateManager {
 
 
 	// the first thing to do is to check if the class has at least one delegatable method
-	boolean found = false;
-	for( final Method delegatebleMethod : delegatableClass.getDeclaredMethods() ){
-	    // is the method annotated?
-	    if( delegatebleMethod.isAnnotationPresent( Delegate.class  ) ){
-		found = true;
-		break;
-	    }
-	}
-
-	// if not found at least a method, throw an exception
-	if( ! found )
+	final List<AnnotatedMethod> delegateMethods = ClassMetadata.forClass( delegatableClass ).getDeclaredDelegates();
+	if( delegateMethods.isEmpty() )
 	    throw new CannotConnectDelegateException( "No delegate method found!" );
 
 
 	// now check if the target object has at least one connect annotation
-	found = false;
-	for( final Method connectMethod : delegateTarget.getClass().getDeclaredMethods() )
-	    if( connectMethod.isAnnotationPresent( Connect.class ) ){
-		found = true;
-		break;
-	    }
-
-
-	// if not found at least a method, throw an exception
-	if( ! found )
+	final List<AnnotatedMethod> connectMethods = ClassMetadata.forClass( delegateTarget.getClass() ).getDeclaredConnections();
+	if( connectMethods.isEmpty() )
 	    throw new CannotConnectDelegateException( "No connect method found!" );
 
 
@@ -128,36 +109,30 @@ public class DelegateManagerImpl implements IDelegateManager {
 
 
 	// if here both the target and the delegatable class have annotated methods, now I must check for
-	// each method in the delegate that a method with the same name and signature is in
-	// the target
-	for( final Method delegatableMethod : delegatableClass.getDeclaredMethods() )
-	    if( delegatableMethod.isAnnotationPresent( Delegate.class ) ){
-		// get the annotation and its parameters
-		final Delegate delegateAnnotation = delegatableMethod.getAnnotation( Delegate.class );
-		final String delegateName   = delegateAnnotation.name();
-		final boolean allowMultiple = delegateAnnotation.allowMultiple();
-
-		// now iterate on the target to see if a method with the counterpart connect annotation
-		// can be found
-		found = false;
-		for( final Method connectMethod : delegateTarget.getClass().getDeclaredMethods() )
-		    if( connectMethod.isAnnotationPresent( Connect.class ) ){
-			// get the annotation and check the parameters
-			final Connect connectAnnotation = connectMethod.getAnnotation( Connect.class );
-			if( connectAnnotation.name().equals(delegateName) ){
-			    found = true;
-
-			    // add this method connection
-			    connector.prepareConnection(delegatableMethod, connectMethod, delegateTarget);
-
-			}
-		    }
-
-
-		// if here and the connect method has not been found, throw an exception
-		if( ! found )
-		    throw new CannotConnectDelegateException("Delegate method " + delegatableMethod.getName() + " has not connection to any method!");
-	    }
+	// each method in the delegate that a method with the same name and signature, or a batch
+	// connection, is in the target
+	for( final AnnotatedMethod delegatableMethod : delegateMethods ){
+	    final String delegateName = delegatableMethod.getName();
+
+	    // now iterate on the target to see if a method with the counterpart connect annotation
+	    // can be found
+	    boolean found = false;
+	    for( final AnnotatedMethod connectMethod : connectMethods )
+		if( connectMethod.getName().equals(delegateName) ){
+		    found = true;
+
+		    // check the signature, a batch connection is wired as the other ones
+		    DelegateStubs.checkConnection( delegatableMethod.getMethod(), connectMethod.getMethod() );
+
+		    // add this method connection
+		    connector.prepareConnection(delegatableMethod.getMethod(), connectMethod.getMethod(), delegateTarget);
+		}
+
+
+	    // if here and the connect method has not been found, throw an exception
+	    if( ! found )
+		throw new CannotConnectDelegateException("Delegate method " + delegatableMethod.getMethod().getName() + " has not connection to any method!");
+	}
 
 
 
@@ -0,0 +1,485 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jfk.function.delegates.OverflowPolicy;
+import jfk.function.delegates.WaitStrategy;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The ring buffer of a delegate method dispatched as {@link jfk.function.delegates.DispatchMode#RING_BUFFER}.
+ * The buffer has a power of two preallocated slots, instances of the call class of the method (see {@link IDelegateCall}),
+ * that are reused for all the calls: a caller claims the sequence of the next slot, writes the arguments into it
+ * and publishes the sequence, without any allocation or lock. A single consumer thread, started with the first call,
+ * drains the published slots in batches and calls their delegates in the order of the sequences, clearing each slot
+ * once dispatched and freeing the slots of a batch all together. The threads wait as the {@link WaitStrategy} of the method.
+ * The consumer thread stops once the buffer has been idle for a while, so that it neither spins nor keeps the delegatable
+ * class alive when the method is no longer called, and the next call starts it again. Once the buffer has been
+ * closed the consumer dispatches the pending calls and stops, and the callers call the delegates themselves.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class DelegateRingBuffer {
+
+    /**
+     * The sequence claimed when the call has been dropped.
+     */
+    public static final long DROPPED = -1L;
+
+    /**
+     * The sequence claimed when the caller must call the delegates itself.
+     */
+    public static final long CALLER_RUNS = -2L;
+
+    /**
+     * How many times a thread spins before yielding or sleeping.
+     */
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * How long a thread sleeps when waiting with {@link WaitStrategy#SLEEP}.
+     */
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos( 50 );
+
+    /**
+     * How long a thread blocks at most when waiting with {@link WaitStrategy#BLOCK}.
+     */
+    private static final long BLOCK_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    /**
+     * How long the consumer thread waits for new calls before stopping.
+     */
+    private static final long IDLE_NANOS = TimeUnit.SECONDS.toNanos( 1 );
+
+    /**
+     * The logger for the failures of the consumer.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( DelegateRingBuffer.class );
+
+    /**
+     * The name of the delegate method.
+     */
+    private final String name;
+
+    /**
+     * The slots, reused for all the calls.
+     */
+    private final IDelegateCall[] slots;
+
+    /**
+     * The mask that maps a sequence to its slot.
+     */
+    private final int mask;
+
+    /**
+     * The sequence published into each slot, -1 if none.
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * The next sequence to claim, that is the number of the claimed calls.
+     */
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * The next sequence to consume: the slots of the previous ones are free.
+     */
+    private volatile long consumed;
+
+    /**
+     * How the threads wait.
+     */
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * What to do when the buffer is full.
+     */
+    private final OverflowPolicy overflow;
+
+    /**
+     * The calls discarded because the buffer was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * The claimed calls not counted as submitted, after a reset.
+     */
+    private volatile long submittedBase;
+
+    /**
+     * The lock and condition of the threads that block, see {@link WaitStrategy#BLOCK}.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * The number of the blocked threads.
+     */
+    private volatile int waiters;
+
+    /**
+     * The consumer thread, null when it is not running.
+     */
+    private volatile Thread consumer;
+
+    /**
+     * True once the buffer has been closed.
+     */
+    private volatile boolean closed;
+
+
+    /**
+     * Builds the ring buffer of a delegate method.
+     * @param name the name of the delegate method
+     * @param callClass the call class of the method, that provides the slots
+     * @param capacity the minimum number of slots
+     * @param waitStrategy how the threads wait
+     * @param overflow what to do when the buffer is full
+     */
+    DelegateRingBuffer( final String name, final Class<?> callClass, final int capacity, final WaitStrategy waitStrategy, final OverflowPolicy overflow ){
+	super();
+	if( (capacity <= 0) || (capacity > (1 << 30)) )
+	    throw new IllegalArgumentException("The ring buffer of the delegate " + name + " cannot have " + capacity + " slots!");
+
+	this.name         = name;
+	this.waitStrategy = waitStrategy;
+	this.overflow     = overflow;
+
+	final int size = ( capacity == 1 ? 1 : Integer.highestOneBit( capacity - 1 ) << 1 );
+	mask           = size - 1;
+	slots          = new IDelegateCall[ size ];
+	published      = new AtomicLongArray( size );
+	try {
+	    for( int i = 0; i < size; i++ ){
+		slots[ i ] = (IDelegateCall) callClass.getDeclaredConstructor().newInstance();
+		published.set( i, -1L );
+	    }
+	} catch (final ReflectiveOperationException e) {
+	    throw new IllegalStateException( "Cannot create the slots of the delegate " + name, e );
+	}
+    }
+
+
+    /**
+     * Claims the slot for a call, waiting for it if the buffer is full and the overflow policy is
+     * {@link OverflowPolicy#BLOCK}, unless the caller is the consumer thread itself, that calls the delegates.
+     * The claimed sequence must be published once the slot has been written.
+     * @return the sequence of the claimed slot, or {@link #DROPPED} or {@link #CALLER_RUNS}, that is
+     * always the case once the buffer has been closed
+     * @throws RejectedExecutionException if the buffer is full and the overflow policy is {@link OverflowPolicy#FAIL}
+     */
+    public long claim(){
+	if( closed )
+	    return CALLER_RUNS;
+
+	int attempts = 0;
+	while( true ){
+	    final long sequence = next.get();
+	    if( sequence - slots.length < consumed ){
+		if( next.compareAndSet( sequence, sequence + 1 ) )
+		    return sequence;
+
+		continue;
+	    }
+
+	    switch( overflow ){
+	    case DROP:
+		dropped.increment();
+		return DROPPED;
+	    case CALLER_RUNS:
+		return CALLER_RUNS;
+	    case FAIL:
+		throw new RejectedExecutionException( "The ring buffer of the delegate " + name + " is full" );
+	    default:
+		// a delegate called by the consumer would wait for a slot that only the consumer frees
+		if( Thread.currentThread() == consumer )
+		    return CALLER_RUNS;
+
+		waitFor( -1L, attempts++ );
+	    }
+	}
+    }
+
+
+    /**
+     * Provides the slot of a claimed sequence.
+     * @param sequence the claimed sequence
+     * @return the slot to write the call into
+     */
+    public IDelegateCall getSlot( final long sequence ){
+	return slots[ (int) (sequence & mask) ];
+    }
+
+
+    /**
+     * Publishes a claimed sequence, whose slot has been written, to the consumer.
+     * @param sequence the claimed sequence
+     */
+    public void publish( final long sequence ){
+	published.set( (int) (sequence & mask), sequence );
+	if( consumer == null )
+	    startConsumer();
+
+	signal();
+    }
+
+
+    /**
+     * Closes the buffer: the consumer thread dispatches the pending calls and stops, and the
+     * next calls are called by their callers.
+     */
+    public void close(){
+	closed = true;
+	signal();
+    }
+
+
+    /**
+     * Provides if the buffer has been closed.
+     * @return true if the buffer has been closed
+     */
+    public boolean isClosed() {
+	return closed;
+    }
+
+
+    /**
+     * Provides if the consumer thread is running.
+     * @return true if the consumer thread is running
+     */
+    public boolean isRunning() {
+	return consumer != null;
+    }
+
+
+    /**
+     * Starts the consumer thread, if it is not running. The thread starts from the first call
+     * not consumed yet.
+     */
+    private synchronized void startConsumer(){
+	if( consumer != null )
+	    return;
+
+	final Thread thread = new Thread( new Runnable() {
+	    @Override
+	    public void run() {
+		consume();
+	    }
+	}, "jfk-ring-" + name );
+	thread.setDaemon( true );
+	consumer = thread;
+	thread.start();
+    }
+
+
+    /**
+     * Stops the consumer thread, unless a call has been published in the meantime without starting another one.
+     * @param sequence the sequence the consumer waits for
+     * @return true if the consumer thread must stop
+     */
+    private boolean stopConsumer( final long sequence ){
+	synchronized( this ){
+	    consumer = null;
+	}
+
+	// a call published before the consumer has been cleared has not started another consumer
+	if( published.get( (int) (sequence & mask) ) != sequence )
+	    return true;
+
+	synchronized( this ){
+	    if( consumer != null )
+		return true;
+
+	    consumer = Thread.currentThread();
+	    return false;
+	}
+    }
+
+
+    /**
+     * The loop of the consumer thread: dispatches the published calls in batches, that is all the calls
+     * published when a batch begins, clears their slots and frees them at the end of the batch. The loop ends
+     * when the buffer is idle or closed.
+     */
+    private void consume(){
+	long sequence  = consumed;
+	int attempts   = 0;
+	long idleSince = 0L;
+	while( true ){
+	    long end = sequence;
+	    while( (end - sequence < slots.length) && (published.get( (int) (end & mask) ) == end) )
+		end++;
+
+	    if( end == sequence ){
+		if( attempts == 0 )
+		    idleSince = System.nanoTime();
+		else if( closed || (System.nanoTime() - idleSince >= IDLE_NANOS) ){
+		    if( stopConsumer( sequence ) )
+			return;
+
+		    attempts = 0;
+		    continue;
+		}
+
+		waitFor( sequence, attempts++ );
+		continue;
+	    }
+
+	    for( long current = sequence; current < end; current++ ){
+		final IDelegateCall call = slots[ (int) (current & mask) ];
+		try {
+		    final int stubCount = call.getStubCount();
+		    for( int i = 0; i < stubCount; i++ )
+			call.dispatch( i );
+		} catch (final Throwable e) {
+		    // the failures of the delegates are already handled, this is the error handler failing
+		    logger.error( "Cannot dispatch a call of the delegate " + name, e );
+		} finally {
+		    // the slot must not keep the arguments until it is reused
+		    call.clear();
+		}
+	    }
+
+	    sequence = end;
+	    consumed = end;
+	    attempts = 0;
+	    signal();
+	}
+    }
+
+
+    /**
+     * Waits as the wait strategy before checking the buffer again.
+     * @param sequence the sequence the consumer waits for, -1 if a caller waits for a free slot
+     * @param attempts how many times the thread has already waited
+     */
+    private void waitFor( final long sequence, final int attempts ){
+	switch( waitStrategy ){
+	case BUSY_SPIN:
+	    Thread.onSpinWait();
+	    break;
+	case YIELD:
+	    if( attempts < SPIN_TRIES )
+		Thread.onSpinWait();
+	    else
+		Thread.yield();
+	    break;
+	case SLEEP:
+	    if( attempts < SPIN_TRIES )
+		Thread.onSpinWait();
+	    else if( attempts < SPIN_TRIES * 2 )
+		Thread.yield();
+	    else
+		LockSupport.parkNanos( SLEEP_NANOS );
+	    break;
+	default:
+	    lock.lock();
+	    try {
+		// check again once counted as waiting, so that the signal is not lost
+		waiters++;
+		if( (sequence >= 0) ? (published.get( (int) (sequence & mask) ) != sequence) : (next.get() - slots.length >= consumed) )
+		    changed.awaitNanos( BLOCK_NANOS );
+	    } catch (final InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    } finally {
+		waiters--;
+		lock.unlock();
+	    }
+	}
+    }
+
+
+    /**
+     * Wakes up the blocked threads, if any.
+     */
+    private void signal(){
+	if( waiters == 0 )
+	    return;
+
+	lock.lock();
+	try {
+	    changed.signalAll();
+	} finally {
+	    lock.unlock();
+	}
+    }
+
+
+    /**
+     * Provides the number of slots.
+     * @return the size of the buffer
+     */
+    public int getSize() {
+	return slots.length;
+    }
+
+
+    /**
+     * Provides the number of calls claimed and not dispatched yet.
+     * @return the pending calls
+     */
+    public int getDepth() {
+	return (int) ( next.get() - consumed );
+    }
+
+
+    /**
+     * Provides the number of calls claimed since the last reset.
+     * @return the submitted calls
+     */
+    public long getSubmitted() {
+	return next.get() - submittedBase;
+    }
+
+
+    /**
+     * Provides the number of calls discarded because the buffer was full.
+     * @return the dropped calls
+     */
+    public long getDropped() {
+	return dropped.sum();
+    }
+
+
+    /**
+     * Clears the counters of the calls.
+     */
+    public void reset() {
+	submittedBase = next.get();
+	dropped.reset();
+    }
+
+}
@@ -25,18 +25,20 @@
 package jfk.function.impl;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
+import jfk.core.ClassMetadata;
+import jfk.core.ClassMetadata.AnnotatedMethod;
+import jfk.core.FunctionMetrics;
 import jfk.core.JFK;
-import jfk.function.Function;
+import jfk.core.Metrics;
 import jfk.function.IFunction;
 import jfk.function.IFunctionBuilder;
-import jfk.function.classloaders.IFunctionBinder;
 import jfk.function.classloaders.IFunctionClassDefiner;
-import jfk.function.delegates.Connect;
+import jfk.function.classloaders.IFunctionFactory;
 import jfk.function.delegates.IDelegate;
 import jfk.function.exception.CannotBindFunctionException;
+import jfk.function.processor.GeneratedFunctions;
 
 /**
  * The default implementation of a method builder. This implementation simply
@@ -48,11 +50,43 @@ public class FunctionBuilderImpl implements IFunctionBuilder {
 
 
     /**
-     * A cache for already defined classes. Each function is mapped with a key
-     * that corresponds to the class name the function will be bound to compound
-     * by the name of the function annotation.
+     * A cache for the factories of already defined functions, for each target class. The function
+     * factories of a target class are mapped by the name of the function annotation.
+     * The cache keeps factories and not functions, since every function must be bound
+     * to its own target object.
      */
-    private final Map<String, IFunction> cache = new HashMap<String, IFunction>();
+    private volatile FunctionFactoryCache cache = new FunctionFactoryCache();
+
+    /**
+     * The same as the cache above, but for the delegate functions (i.e., mapped by the name
+     * of the connect annotation).
+     */
+    private volatile FunctionFactoryCache delegateCache = new FunctionFactoryCache();
+
+    /**
+     * The maximum number of factories in each cache, 0 if unbounded.
+     */
+    private int cacheMaxEntries = 0;
+
+    /**
+     * If true the functions built do not check the arguments they are called with.
+     */
+    private boolean uncheckedInvocation = false;
+
+    /**
+     * The name of the bean (i.e., the implementation of {@link IFunctionClassDefiner}) used to define the functions.
+     */
+    private String functionClassDefiner = IFunctionClassDefiner.class.getSimpleName();
+
+    /**
+     * If true the functions generated at compile time (if any) are used instead of defining them at run-time.
+     */
+    private boolean generatedFunctions = true;
+
+    /**
+     * If true the functions refer to their target objects weakly.
+     */
+    private boolean weakBinding = false;
 
 
     /**
@@ -66,107 +100,272 @@ public class FunctionBuilderImpl implements IFunctionBuilder {
 
 	// check arguments
 	if( (target == null) || (name == null) || (name.length() < 0) )
-	    throw new CannotBindFunctionException("Cannot bind the method call to a function on " + target.getClass() + " for identifier " + name);
+	    throw new CannotBindFunctionException("Cannot bind the method call to a function on " + target + " for identifier " + name);
 
 
-	// now iterate on each public method to see if one of the target object has the annotation
-	// of a function with the specified name, and in such case prepare to get the function object
-	for( final Method currentMethod : target.getClass().getMethods() )
-	    if( currentMethod.isAnnotationPresent( Connect.class ) ){
-		final Connect functionAnnotation = currentMethod.getAnnotation( Connect.class );
+	// get the function factory from the cache, defining it only once
+	final IFunctionFactory functionFactory = delegateCache.get( target.getClass(), name, new Callable<IFunctionFactory>() {
+	    @Override
+	    public IFunctionFactory call() throws CannotBindFunctionException {
+		// search for the public method of the target object that has the annotation
+		// of a connection with the specified name
+		final AnnotatedMethod connectMethod = ClassMetadata.forClass( target.getClass() ).getConnection( name );
 
+		// if here there is no method to map as a function
+		if( connectMethod == null )
+		    throw new CannotBindFunctionException("No method found to be mapped as " + name + " on " + target.getClass() );
 
+		// ok, this method must be mapped as a function!!
+		return defineFunctionFactory( target, connectMethod.getMethod() );
+	    }
+	});
 
-		if( functionAnnotation.name().equals( name ) ){
-		    // ok, this method must be mapped as a function!!    
-
-		    try {
-			// get a new function definer and build the function
-			final IFunctionClassDefiner definer = (IFunctionClassDefiner) JFK.getBean( IFunctionClassDefiner.class );
-			final Class functionClass = definer.getIFunctionClassDefinition(target, currentMethod);
 
-			// now create the instance
-			final IFunction function = (IFunction) functionClass.newInstance();
+	// all done
+	return newFunction( functionFactory, target );
+    }
 
-			// set the target object
-			((IFunctionBinder) function ).setTargetObject(target);
 
-			// all done
-			return function;
 
-		    } catch (final Exception e){
-			e.printStackTrace();
-			throw new CannotBindFunctionException("Cannot create the function object ", e);
-		    }
-		}
 
+    /* (non-Javadoc)
+     * @see jfk.function.IFunctionBuilder#bindFunction(java.lang.Object, jfk.function.Function)
+     */
+    @Override
+    public IFunction bindFunction(final Object target, final String name )
+    throws CannotBindFunctionException {
+	// check arguments
+	if( (target == null) || (name == null) || (name.length() < 0) )
+	    throw new CannotBindFunctionException("Cannot bind the method call to a function on " + target + " for identifier " + name);
+
+	// get the function factory from the cache, defining it only once
+	final IFunctionFactory functionFactory = cache.get( target.getClass(), name, new Callable<IFunctionFactory>() {
+	    @Override
+	    public IFunctionFactory call() throws CannotBindFunctionException {
+		// search for the public method of the target object that has the annotation
+		// of a function with the specified name
+		final AnnotatedMethod functionMethod = ClassMetadata.forClass( target.getClass() ).getFunction( name );
+
+		// if here there is no method to map as a function
+		if( functionMethod == null )
+		    throw new CannotBindFunctionException("No method found to be mapped as " + name + " on " + target.getClass() );
+
+		// ok, this method must be mapped as a function!!
+		return defineFunctionFactory( target, functionMethod.getMethod() );
 	    }
+	});
 
 
-	// if here there is no method to map as a function
-	throw new CannotBindFunctionException("No method found to be mapped as " + name + " on " + target.getClass() );
+	// all done, metering the function if required
+	final IFunction function = newFunction( functionFactory, target );
+	final FunctionMetrics metrics = Metrics.getInstance().getFunctionMetrics( target.getClass(), name );
+	return ( metrics == null ? function : MeteredFunction.meter( function, metrics ) );
+    }
+
 
 
+    /**
+     * Defines the function for the specified method and provides its factory.
+     * If the class of the method has been processed at compile time the generated
+     * functions are used, otherwise the function class definer builds the function.
+     * @param target the target object
+     * @param method the method the function is bound to
+     * @return the function factory
+     * @throws CannotBindFunctionException if the function cannot be defined
+     */
+    private final IFunctionFactory defineFunctionFactory( final Object target, final Method method ) throws CannotBindFunctionException {
+	// use the function generated by the annotation processor, if any
+	// (the generated functions keep their target objects strongly)
+	if( generatedFunctions && (! weakBinding) ){
+	    final IFunctionFactory generatedFactory = GeneratedFunctions.getFunctionFactory( method, ! uncheckedInvocation );
+	    if( generatedFactory != null )
+		return generatedFactory;
+	}
+
+	try {
+	    // get a new function definer and build the function
+	    final IFunctionClassDefiner definer = (IFunctionClassDefiner) JFK.getBean( functionClassDefiner );
+	    definer.setUncheckedInvocation( uncheckedInvocation );
+	    definer.setWeakBinding( weakBinding );
+	    return definer.getIFunctionFactory( target, method );
+	} catch (final Exception e){
+	    throw new CannotBindFunctionException("Cannot create the function object ", e);
+	}
     }
 
 
+    /**
+     * Creates a new function instance bound to the specified target.
+     * @param functionFactory the factory of the function
+     * @param target the object the function is bound to
+     * @return the function
+     * @throws CannotBindFunctionException if the function cannot be instantiated
+     */
+    private final IFunction newFunction( final IFunctionFactory functionFactory, final Object target ) throws CannotBindFunctionException {
+	try {
+	    return functionFactory.newFunction( target );
+	} catch (final Exception e){
+	    throw new CannotBindFunctionException("Cannot create the function object ", e);
+	}
+    }
+
 
 
-    /* (non-Javadoc)
-     * @see jfk.function.IFunctionBuilder#bindFunction(java.lang.Object, jfk.function.Function)
+    /**
+     * Tells if the functions built by this builder skip the argument checks.
+     * @return true if the functions do not check their arguments
      */
-    @Override
-    public IFunction bindFunction(final Object target, final String name )
-    throws CannotBindFunctionException {
-	// check arguments
-	if( (target == null) || (name == null) || (name.length() < 0) )
-	    throw new CannotBindFunctionException("Cannot bind the method call to a function on " + target.getClass() + " for identifier " + name);
+    public synchronized final boolean isUncheckedInvocation() {
+	return uncheckedInvocation;
+    }
 
-	// create a key for the cache entry
-	final String cacheKey = target.getClass().getName() + "_" + name;
 
-	// check if the function is already in the cache
-	if( cache.containsKey(cacheKey) )
-	    return cache.get(cacheKey);
+    /**
+     * Sets if the functions built by this builder must skip the argument checks, that is if
+     * the executeCall method must invoke the target method without checking the arity and
+     * types of the arguments. This should be used only for code known to be correct, since
+     * a wrong call will result in a runtime exception. Functions annotated as unchecked never
+     * check their arguments.
+     * Changing this value discards the functions already cached.
+     * @param uncheckedInvocation true to skip the argument checks
+     */
+    public synchronized final void setUncheckedInvocation(final boolean uncheckedInvocation) {
+	if( this.uncheckedInvocation != uncheckedInvocation ){
+	    this.uncheckedInvocation = uncheckedInvocation;
+	    resetCaches();
+	}
+    }
 
 
-	// now iterate on each public method to see if one of the target object has the annotation
-	// of a function with the specified name, and in such case prepare to get the function object
-	for( final Method currentMethod : target.getClass().getMethods() )
-	    if( currentMethod.isAnnotationPresent( Function.class ) ){
-		final Function functionAnnotation = currentMethod.getAnnotation( Function.class );
+    /**
+     * Provides the name of the bean used to define the functions.
+     * @return the name of the function class definer bean
+     */
+    public synchronized final String getFunctionClassDefiner() {
+	return functionClassDefiner;
+    }
 
 
+    /**
+     * Sets the name of the bean used to define the functions, that is the name of a bean
+     * implementing {@link IFunctionClassDefiner} in the spring configuration. This allows
+     * to choose the backend that builds the functions.
+     * Changing this value discards the functions already cached.
+     * @param functionClassDefiner the name of the bean to use
+     */
+    public synchronized final void setFunctionClassDefiner(final String functionClassDefiner) {
+	if( (functionClassDefiner == null) || (functionClassDefiner.length() == 0) )
+	    throw new IllegalArgumentException("The function class definer bean name cannot be empty!");
+
+	if( ! this.functionClassDefiner.equals( functionClassDefiner ) ){
+	    this.functionClassDefiner = functionClassDefiner;
+	    resetCaches();
+	}
+    }
 
-		if( functionAnnotation.name().equals( name ) ){
-		    // ok, this method must be mapped as a function!!    
 
-		    try {
-			// get a new function definer and build the function
-			final IFunctionClassDefiner definer = (IFunctionClassDefiner) JFK.getBean( IFunctionClassDefiner.class );
-			final Class functionClass = definer.getIFunctionClassDefinition(target, currentMethod);
+    /**
+     * Tells if the functions generated at compile time are used.
+     * @return true if the generated functions are used
+     */
+    public synchronized final boolean isGeneratedFunctions() {
+	return generatedFunctions;
+    }
 
-			// now create the instance
-			final IFunction function = (IFunction) functionClass.newInstance();
 
-			// set the target object
-			((IFunctionBinder) function ).setTargetObject(target);
+    /**
+     * Sets if the functions generated at compile time by the {@link jfk.function.processor.FunctionProcessor}
+     * must be used. If false, or if the class of the target object has not been processed, the functions
+     * are defined at run-time by the function class definer.
+     * Changing this value discards the functions already cached.
+     * @param generatedFunctions true to use the generated functions
+     */
+    public synchronized final void setGeneratedFunctions(final boolean generatedFunctions) {
+	if( this.generatedFunctions != generatedFunctions ){
+	    this.generatedFunctions = generatedFunctions;
+	    resetCaches();
+	}
+    }
 
-			// all done
-			cache.put(cacheKey, function);
-			return function;
 
-		    } catch (final Exception e){
-			throw new CannotBindFunctionException("Cannot create the function object ", e);
-		    }
-		}
+    /**
+     * Tells if the functions built by this builder refer to their target objects weakly.
+     * @return true if the functions are weakly bound
+     */
+    public synchronized final boolean isWeakBinding() {
+	return weakBinding;
+    }
 
-	    }
 
+    /**
+     * Sets if the functions built by this builder must refer to their target objects weakly,
+     * so that a function does not keep its target reachable (the caches keep only the function
+     * factories, that do not refer to any target). Calling a function whose target has been
+     * garbage collected throws a {@link jfk.function.exception.CollectedTargetException}.
+     * The functions generated at compile time are not used for weak bindings.
+     * Changing this value discards the functions already cached.
+     * @param weakBinding true to bind the functions weakly
+     */
+    public synchronized final void setWeakBinding(final boolean weakBinding) {
+	if( this.weakBinding != weakBinding ){
+	    this.weakBinding = weakBinding;
+	    resetCaches();
+	}
+    }
 
-	// if here there is no method to map as a function
-	throw new CannotBindFunctionException("No method found to be mapped as " + name + " on " + target.getClass() );
 
+    /**
+     * Provides the maximum number of function factories kept in each cache.
+     * @return the maximum number of factories, 0 if the caches are unbounded
+     */
+    public synchronized final int getCacheMaxEntries() {
+	return cacheMaxEntries;
+    }
+
+
+    /**
+     * Sets the maximum number of function factories kept in each cache (one for the functions
+     * and one for the delegate functions): when a cache is full the oldest factories are evicted,
+     * and defined again if needed.
+     * Changing this value discards the functions already cached.
+     * @param cacheMaxEntries the maximum number of factories, 0 for unbounded caches
+     */
+    public synchronized final void setCacheMaxEntries(final int cacheMaxEntries) {
+	if( cacheMaxEntries < 0 )
+	    throw new IllegalArgumentException("The number of entries of the function cache cannot be negative!");
+
+	if( this.cacheMaxEntries != cacheMaxEntries ){
+	    this.cacheMaxEntries = cacheMaxEntries;
+	    resetCaches();
+	}
+    }
+
+
+    /**
+     * Provides the cache of the function factories, for instance to read its statistics.
+     * @return the function cache
+     */
+    public final FunctionFactoryCache getFunctionCache() {
+	return cache;
+    }
+
+
+    /**
+     * Provides the cache of the delegate function factories, for instance to read its statistics.
+     * @return the delegate function cache
+     */
+    public final FunctionFactoryCache getDelegateFunctionCache() {
+	return delegateCache;
+    }
+
+
+    /**
+     * Discards the cached functions, since they have been defined with a different configuration,
+     * keeping the statistics of the caches.
+     */
+    private final void resetCaches(){
+	cache         = new FunctionFactoryCache( cacheMaxEntries, cache );
+	delegateCache = new FunctionFactoryCache( cacheMaxEntries, delegateCache );
     }
 
 
@@ -0,0 +1,253 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jfk.function.classloaders.IFunctionFactory;
+import jfk.function.exception.CannotBindFunctionException;
+
+/**
+ * A thread-safe cache of function factories, mapped by the target class and by the name
+ * of the function (i.e., the name in the annotation).
+ * The cache is single-flight: when a factory is not in the cache it is defined only once,
+ * by the first thread that asks for it, while the other threads asking for the same factory
+ * wait for the definition to complete. A failed definition is not cached, so it is tried again
+ * at the next request.
+ * <p>
+ * The cache can be bounded: when it holds more than the maximum number of factories, the
+ * oldest defined ones are evicted.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class FunctionFactoryCache {
+
+    /**
+     * The factories of each target class, mapped by the function name.
+     */
+    private final ClassValue<ConcurrentMap<String, FutureTask<IFunctionFactory>>> factories = new ClassValue<ConcurrentMap<String, FutureTask<IFunctionFactory>>>() {
+	@Override
+	protected ConcurrentMap<String, FutureTask<IFunctionFactory>> computeValue( final Class targetClass ){
+	    return new ConcurrentHashMap<String, FutureTask<IFunctionFactory>>();
+	}
+    };
+
+    /**
+     * The maximum number of factories in the cache, 0 if unbounded.
+     */
+    private final int maxEntries;
+
+    /**
+     * The cached factories, from the oldest one (used only if the cache is bounded).
+     */
+    private final Queue<CacheEntry> entries = new ConcurrentLinkedQueue<CacheEntry>();
+
+    /**
+     * The number of factories in the cache.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The statistics of the cache: the number of factories found (or waited for), the
+     * number of factories defined and the time spent defining them.
+     */
+    private final AtomicLong hits           = new AtomicLong();
+    private final AtomicLong misses         = new AtomicLong();
+    private final AtomicLong definitionTime = new AtomicLong();
+
+
+
+    /**
+     * A factory in the cache, with the map it is stored in.
+     */
+    private static final class CacheEntry {
+	final ConcurrentMap<String, FutureTask<IFunctionFactory>> map;
+	final String name;
+	final FutureTask<IFunctionFactory> factory;
+
+	CacheEntry( final ConcurrentMap<String, FutureTask<IFunctionFactory>> map, final String name, final FutureTask<IFunctionFactory> factory ){
+	    this.map     = map;
+	    this.name    = name;
+	    this.factory = factory;
+	}
+    }
+
+
+
+    /**
+     * Builds an unbounded cache.
+     */
+    public FunctionFactoryCache() {
+	this( 0 );
+    }
+
+
+    /**
+     * Builds a cache.
+     * @param maxEntries the maximum number of factories in the cache, 0 if unbounded
+     */
+    public FunctionFactoryCache( final int maxEntries ) {
+	super();
+	if( maxEntries < 0 )
+	    throw new IllegalArgumentException("The number of entries of the function cache cannot be negative!");
+
+	this.maxEntries = maxEntries;
+    }
+
+
+    /**
+     * Builds an empty cache that replaces another one, keeping its statistics.
+     * @param maxEntries the maximum number of factories in the cache, 0 if unbounded
+     * @param replaced the cache replaced
+     */
+    public FunctionFactoryCache( final int maxEntries, final FunctionFactoryCache replaced ) {
+	this( maxEntries );
+	hits.set( replaced.getHits() );
+	misses.set( replaced.getMisses() );
+	definitionTime.set( replaced.getDefinitionTime() );
+    }
+
+
+    /**
+     * Provides the factory of a function, defining it if it is not in the cache.
+     * @param targetClass the class of the target object
+     * @param name the name of the function
+     * @param definition the definition of the factory, executed only if the factory is not in the cache
+     * @return the function factory
+     * @throws CannotBindFunctionException if the factory cannot be defined
+     */
+    public final IFunctionFactory get( final Class targetClass, final String name, final Callable<IFunctionFactory> definition ) throws CannotBindFunctionException {
+	final ConcurrentMap<String, FutureTask<IFunctionFactory>> classFactories = factories.get( targetClass );
+	FutureTask<IFunctionFactory> factory = classFactories.get( name );
+
+	if( factory == null ){
+	    final FutureTask<IFunctionFactory> newFactory = new FutureTask<IFunctionFactory>( definition );
+	    factory = classFactories.putIfAbsent( name, newFactory );
+
+	    // if no other thread is defining the factory, define it in this thread
+	    if( factory == null ){
+		factory = newFactory;
+		misses.incrementAndGet();
+		final long start = System.nanoTime();
+		newFactory.run();
+		definitionTime.addAndGet( System.nanoTime() - start );
+		added( classFactories, name, newFactory );
+	    }
+	    else
+		hits.incrementAndGet();
+	}
+	else
+	    hits.incrementAndGet();
+
+
+	try {
+	    return factory.get();
+	} catch (final ExecutionException e) {
+	    // do not keep the failure, so that the definition can be tried again
+	    if( classFactories.remove( name, factory ) )
+		size.decrementAndGet();
+
+	    if( e.getCause() instanceof CannotBindFunctionException )
+		throw (CannotBindFunctionException) e.getCause();
+	    else
+		throw new CannotBindFunctionException("Cannot create the function object ", e.getCause() );
+	} catch (final InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new CannotBindFunctionException("Interrupted while waiting for the definition of the function " + name, e );
+	}
+    }
+
+
+    /**
+     * Keeps track of a new factory, evicting the oldest ones if the cache is full.
+     */
+    private final void added( final ConcurrentMap<String, FutureTask<IFunctionFactory>> map, final String name, final FutureTask<IFunctionFactory> factory ){
+	size.incrementAndGet();
+	if( maxEntries == 0 )
+	    return;
+
+	entries.add( new CacheEntry( map, name, factory ) );
+	while( size.get() > maxEntries ){
+	    final CacheEntry oldest = entries.poll();
+	    if( oldest == null )
+		break;
+
+	    if( oldest.map.remove( oldest.name, oldest.factory ) )
+		size.decrementAndGet();
+	}
+    }
+
+
+    /**
+     * Provides the maximum number of factories in the cache.
+     * @return the maximum number of factories, 0 if the cache is unbounded
+     */
+    public final int getMaxEntries(){
+	return maxEntries;
+    }
+
+    /**
+     * Provides the number of factories in the cache.
+     * @return the number of cached factories
+     */
+    public final int getSize(){
+	return size.get();
+    }
+
+    /**
+     * Provides the number of requests that have found the factory in the cache
+     * (or that have waited for another thread to define it).
+     * @return the number of hits
+     */
+    public final long getHits(){
+	return hits.get();
+    }
+
+    /**
+     * Provides the number of requests that have defined the factory.
+     * @return the number of misses
+     */
+    public final long getMisses(){
+	return misses.get();
+    }
+
+    /**
+     * Provides the time spent defining the factories.
+     * @return the definition time in nanoseconds
+     */
+    public final long getDefinitionTime(){
+	return definitionTime.get();
+    }
+
+}
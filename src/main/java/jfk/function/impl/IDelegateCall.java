@@ -0,0 +1,55 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+/**
+ * A call of a delegate method, kept to call the delegates later by other threads.
+ * The call keeps the arguments of the delegate method and a snapshot of its stubs, and is generated
+ * with the stub interface of the method (see {@link jfk.function.classloaders.DelegateStubs}).
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public interface IDelegateCall {
+
+    /**
+     * Provides the number of delegates to call.
+     * @return the number of stubs of the call
+     */
+    public int getStubCount();
+
+
+    /**
+     * Calls a delegate, passing its failure (if any) to the error handler.
+     * @param index the index of the stub of the delegate
+     */
+    public void dispatch( int index );
+
+
+    /**
+     * Releases the references of the call, that is its source, stubs and object arguments, so that
+     * a reused call (as the slot of a ring buffer) does not retain them once dispatched.
+     */
+    public void clear();
+}
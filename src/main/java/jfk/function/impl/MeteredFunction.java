@@ -0,0 +1,289 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.NotFoundException;
+import jfk.core.FunctionMetrics;
+import jfk.function.IFunction;
+import jfk.function.classloaders.ClassLoaderUtils;
+import jfk.function.classloaders.ClassPoolManager;
+import jfk.function.classloaders.Diagnostics;
+import jfk.function.classloaders.GeneratorStatistics;
+import jfk.function.classloaders.IFunctionBinder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A function that records the calls of another function in its {@link FunctionMetrics}.
+ * The metered functions are instances of a class generated for each class of function, as a hidden
+ * class that extends this one and implements the same interfaces of the function it meters (so it can be cast to
+ * the same typed function interfaces): each method calls the same method of the function directly, without
+ * boxing nor reflection, and only such call is timed. The metered functions are built only for the functions
+ * whose metrics have been enabled: the other functions are returned as is.
+ *
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+abstract class MeteredFunction {
+
+    /**
+     * The logger for the classes that cannot be metered.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( MeteredFunction.class );
+
+    /**
+     * The constructor of the metered class of each class of function, null if the class cannot be metered.
+     */
+    private static final ClassValue<Constructor<?>> meteredClasses = new ClassValue<Constructor<?>>() {
+	@Override
+	protected Constructor<?> computeValue( final Class functionClass ){
+	    return defineMeteredClass( functionClass );
+	}
+    };
+
+    /**
+     * The function metered.
+     */
+    protected final IFunction function;
+
+    /**
+     * The metrics the calls are recorded in.
+     */
+    protected final FunctionMetrics metrics;
+
+
+    protected MeteredFunction( final IFunction function, final FunctionMetrics metrics ){
+	super();
+	this.function = function;
+	this.metrics  = metrics;
+    }
+
+
+    /**
+     * Builds a metered function.
+     * @param function the function to meter
+     * @param metrics the metrics the calls are recorded in
+     * @return the metered function, or the function itself if it cannot be metered
+     */
+    static IFunction meter( final IFunction function, final FunctionMetrics metrics ){
+	final Constructor<?> meteredConstructor = meteredClasses.get( function.getClass() );
+	if( meteredConstructor == null )
+	    return function;
+
+	try {
+	    return (IFunction) meteredConstructor.newInstance( function, metrics );
+	} catch (final ReflectiveOperationException e) {
+	    logger.error( "Cannot meter the function " + function, e );
+	    return function;
+	}
+    }
+
+
+    /**
+     * Generates the metered class of a class of function.
+     * @param functionClass the class of the function
+     * @return the constructor of the metered class, null if an interface of the function is not visible from JFK
+     */
+    private static Constructor<?> defineMeteredClass( final Class functionClass ){
+	final Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+	for( Class<?> current = functionClass; current != null; current = current.getSuperclass() )
+	    for( final Class<?> currentInterface : current.getInterfaces() )
+		interfaces.add( currentInterface );
+
+	final long generationStart = System.nanoTime();
+	final ClassLoader loader   = MeteredFunction.class.getClassLoader();
+	final ClassPool pool       = ClassPoolManager.getClassPool( GeneratorStatistics.FUNCTION, loader );
+	final byte[] bytecode;
+	try {
+	    synchronized( pool ){
+		final CtClass meteredClass = pool.makeClass( MeteredFunction.class.getName() + "_metered" );
+		meteredClass.setSuperclass( pool.get( MeteredFunction.class.getName() ) );
+
+		final Set<String> signatures = new HashSet<String>();
+		for( final Class<?> functionInterface : interfaces ){
+		    if( Class.forName( functionInterface.getName(), false, loader ) != functionInterface ){
+			logger.warn( "Cannot meter the functions of " + functionClass + ": " + functionInterface + " is not visible" );
+			meteredClass.detach();
+			return null;
+		    }
+
+		    meteredClass.addInterface( pool.get( functionInterface.getName() ) );
+		    for( final Method method : functionInterface.getMethods() )
+			if( Modifier.isAbstract( method.getModifiers() )
+			    && signatures.add( method.getName() + Arrays.toString( method.getParameterTypes() ) + method.getReturnType() ) )
+			    meteredClass.addMethod( CtMethod.make( getMeteredMethodCode( meteredClass.getName(), method ), meteredClass ) );
+		}
+
+		// the constructor
+		final StringBuffer methodCode = new StringBuffer( 500 );
+		methodCode.append( "public " );
+		methodCode.append( meteredClass.getSimpleName() );
+		methodCode.append( "(" );
+		methodCode.append( IFunction.class.getName() );
+		methodCode.append( " function, " );
+		methodCode.append( FunctionMetrics.class.getName() );
+		methodCode.append( " metrics){\n\tsuper( $1, $2 );\n}\n" );
+		Diagnostics.dumpSource( meteredClass.getName(), methodCode );
+		meteredClass.addConstructor( CtNewConstructor.make( methodCode.toString(), meteredClass ) );
+
+		bytecode = ClassPoolManager.toBytecode( meteredClass );
+	    }
+
+	    GeneratorStatistics.FUNCTION.classGenerated( System.nanoTime() - generationStart );
+	    GeneratorStatistics.FUNCTION.classDefined( bytecode.length );
+	    final Class<?> meteredClass = ClassLoaderUtils.defineHiddenClass( MeteredFunction.class, bytecode );
+	    return meteredClass.getDeclaredConstructor( IFunction.class, FunctionMetrics.class );
+
+	} catch (final ClassNotFoundException e) {
+	    logger.warn( "Cannot meter the functions of " + functionClass, e );
+	    return null;
+	} catch (final NotFoundException e) {
+	    logger.error( "Cannot meter the functions of " + functionClass, e );
+	    return null;
+	} catch (final CannotCompileException e) {
+	    logger.error( "Cannot meter the functions of " + functionClass, e );
+	    return null;
+	} catch (final IOException e) {
+	    logger.error( "Cannot meter the functions of " + functionClass, e );
+	    return null;
+	} catch (final ReflectiveOperationException e) {
+	    logger.error( "Cannot meter the functions of " + functionClass, e );
+	    return null;
+	}
+    }
+
+
+    /**
+     * Generates the code of a method of a metered class, that calls the same method of the function:
+     * the methods of {@link IFunctionBinder} are not calls of the function, and are not timed.
+     * @param className the name of the metered class
+     * @param method the method of an interface of the function
+     * @return the source code of the method
+     */
+    private static String getMeteredMethodCode( final String className, final Method method ){
+	final boolean timed = ( method.getDeclaringClass() != IFunctionBinder.class );
+	final boolean returns = ( method.getReturnType() != void.class );
+	final Class[] parameterTypes = method.getParameterTypes();
+	final StringBuffer methodCode = new StringBuffer( 1000 );
+	methodCode.append( "public " );
+	methodCode.append( ClassLoaderUtils.getSourceTypeName( method.getReturnType() ) );
+	methodCode.append( " " );
+	methodCode.append( method.getName() );
+	methodCode.append( "(" );
+	for( int i = 0; i < parameterTypes.length; i++ ){
+	    if( i > 0 )
+		methodCode.append( "," );
+
+	    methodCode.append( ClassLoaderUtils.getSourceTypeName( parameterTypes[i] ) );
+	    methodCode.append( " param" );
+	    methodCode.append( i );
+	}
+	methodCode.append( ")" );
+	final Class[] exceptionTypes = method.getExceptionTypes();
+	for( int i = 0; i < exceptionTypes.length; i++ ){
+	    methodCode.append( ( i == 0 ? " throws " : ", " ) );
+	    methodCode.append( exceptionTypes[i].getName() );
+	}
+	methodCode.append( "{\n" );
+
+	final StringBuffer call = new StringBuffer( 200 );
+	call.append( "((" );
+	call.append( method.getDeclaringClass().getName() );
+	call.append( ") this.function)." );
+	call.append( method.getName() );
+	call.append( "( $$ );\n" );
+
+	if( ! timed ){
+	    methodCode.append( ( returns ? "\treturn " : "\t" ) );
+	    methodCode.append( call );
+	}
+	else {
+	    methodCode.append( "\tlong start = System.nanoTime();\n" );
+	    methodCode.append( "\ttry {\n\t    " );
+	    methodCode.append( ( returns ? "return " : "" ) );
+	    methodCode.append( call );
+	    methodCode.append( "\t} finally {\n\t    this.metrics.record( System.nanoTime() - start );\n\t}\n" );
+	}
+	methodCode.append( "}\n" );
+
+	Diagnostics.dumpSource( className, methodCode );
+	return methodCode.toString();
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals( final Object object ){
+	return function.equals( unwrap( object ) );
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode(){
+	return function.hashCode();
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString(){
+	return function.toString();
+    }
+
+
+    /**
+     * Provides the function metered by a metered function.
+     * @param object an object, possibly a metered function
+     * @return the function metered, or the object itself if it is not a metered function
+     */
+    static Object unwrap( final Object object ){
+	if( object instanceof MeteredFunction )
+	    return ((MeteredFunction) object).function;
+
+	return object;
+    }
+
+}
@@ -0,0 +1,545 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import jfk.function.Function;
+import jfk.function.IFunction;
+import jfk.function.classloaders.ArgumentChecks;
+import jfk.function.classloaders.IFunctionBinder;
+import jfk.function.classloaders.IFunctionFactory;
+import jfk.function.exception.BadArityException;
+import jfk.function.exception.BadParameterTypeException;
+import jfk.function.exception.TargetBindException;
+
+/**
+ * An annotation processor that generates at compile time the functions of the {@link Function}
+ * methods, so that no code must be generated at run-time.
+ * For each class <i>p.Foo</i> that declares public function methods, the class <i>p.Foo$$JFKFunctions</i>
+ * is generated: it implements {@link IGeneratedFunctions} and contains a function class for each
+ * method, with the same behavior of the ones generated at run-time by the
+ * {@link jfk.function.classloaders.FunctionClassLoader} (argument checks, typed interfaces, equality).
+ * <p>
+ * The processor is registered as a service, so it runs every time a class is compiled with JFK on the classpath.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+@SupportedAnnotationTypes( "jfk.function.Function" )
+public class FunctionProcessor extends AbstractProcessor {
+
+    /**
+     * The number of typed function interfaces (i.e., the maximum arity plus one).
+     */
+    private static final int TYPED_FUNCTION_INTERFACES = 5;
+
+    /**
+     * The number of primitive function interfaces for each primitive type.
+     */
+    private static final int PRIMITIVE_FUNCTION_INTERFACES = 3;
+
+
+
+    /* (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#getSupportedSourceVersion()
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+	return SourceVersion.latestSupported();
+    }
+
+
+    /* (non-Javadoc)
+     * @see javax.annotation.processing.AbstractProcessor#process(java.util.Set, javax.annotation.processing.RoundEnvironment)
+     */
+    @Override
+    public boolean process( final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnvironment ) {
+	// group the methods by the class they are declared in
+	final Map<TypeElement, List<ExecutableElement>> functionMethods = new LinkedHashMap<TypeElement, List<ExecutableElement>>();
+	for( final Element element : roundEnvironment.getElementsAnnotatedWith( Function.class ) ){
+	    if( element.getKind() != ElementKind.METHOD )
+		continue;
+
+	    final ExecutableElement method = (ExecutableElement) element;
+	    final TypeElement targetType   = (TypeElement) method.getEnclosingElement();
+
+	    // only public methods can be bound to a function
+	    if( (! method.getModifiers().contains( Modifier.PUBLIC )) || (! isAccessible( targetType )) )
+		continue;
+
+	    List<ExecutableElement> methods = functionMethods.get( targetType );
+	    if( methods == null ){
+		methods = new ArrayList<ExecutableElement>();
+		functionMethods.put( targetType, methods );
+	    }
+	    methods.add( method );
+	}
+
+
+	// generate a class for each target class
+	for( final Map.Entry<TypeElement, List<ExecutableElement>> entry : functionMethods.entrySet() )
+	    try {
+		generateFunctionsClass( entry.getKey(), entry.getValue() );
+	    } catch (final IOException e) {
+		processingEnv.getMessager().printMessage( Diagnostic.Kind.ERROR,
+							  "Cannot generate the functions of " + entry.getKey() + ": " + e.getMessage(),
+							  entry.getKey() );
+	    }
+
+	// other processors can handle the function annotation too
+	return false;
+    }
+
+
+
+    /**
+     * Checks if the generated class, in the same package, can access the target class.
+     * @param targetType the target class
+     * @return true if the target class is accessible
+     */
+    private final boolean isAccessible( final TypeElement targetType ){
+	Element current = targetType;
+	while( current instanceof TypeElement ){
+	    final TypeElement type = (TypeElement) current;
+	    if( type.getModifiers().contains( Modifier.PRIVATE )
+		    || type.getNestingKind() == NestingKind.LOCAL
+		    || type.getNestingKind() == NestingKind.ANONYMOUS )
+		return false;
+
+	    // an inner class cannot be instantiated without the outer one, but it can be a target
+	    current = type.getEnclosingElement();
+	}
+
+	return true;
+    }
+
+
+
+    /**
+     * Generates the class with the functions of a target class.
+     * @param targetType the target class
+     * @param methods the function methods of the target class
+     * @throws IOException if the source file cannot be written
+     */
+    private final void generateFunctionsClass( final TypeElement targetType, final List<ExecutableElement> methods ) throws IOException {
+	final PackageElement targetPackage = processingEnv.getElementUtils().getPackageOf( targetType );
+	final String packageName           = targetPackage.getQualifiedName().toString();
+	final String binaryName            = processingEnv.getElementUtils().getBinaryName( targetType ).toString();
+	final String className             = binaryName.substring( packageName.length() == 0 ? 0 : packageName.length() + 1 ) + GeneratedFunctions.CLASS_NAME_SUFFIX;
+	final String targetTypeName        = getSourceTypeName( targetType.asType() );
+
+	final StringBuffer code = new StringBuffer( 10000 );
+	if( packageName.length() > 0 ){
+	    code.append( "package " );
+	    code.append( packageName );
+	    code.append( ";\n\n" );
+	}
+
+	code.append( "/**\n * The functions of " );
+	code.append( targetTypeName );
+	code.append( ", generated by " );
+	code.append( FunctionProcessor.class.getName() );
+	code.append( ".\n */\n" );
+	code.append( "@javax.annotation.processing.Generated( \"" );
+	code.append( FunctionProcessor.class.getName() );
+	code.append( "\" )\n" );
+	code.append( "@SuppressWarnings( { \"rawtypes\", \"unchecked\" } )\n" );
+	code.append( "public final class " );
+	code.append( className );
+	code.append( " implements " );
+	code.append( IGeneratedFunctions.class.getName() );
+	code.append( " {\n\n" );
+
+
+	// the factory method
+	code.append( "    @Override\n" );
+	code.append( "    public " );
+	code.append( IFunctionFactory.class.getName() );
+	code.append( " getFunctionFactory( final String methodKey, final boolean checked ){\n" );
+	code.append( "\tswitch( methodKey ){\n" );
+	for( int i = 0; i < methods.size(); i++ ){
+	    final ExecutableElement method = methods.get( i );
+	    final boolean unchecked        = method.getAnnotation( Function.class ).unchecked();
+
+	    code.append( "\tcase \"" );
+	    code.append( getMethodKey( method ) );
+	    code.append( "\":\n\t    return target -> { final Function" );
+	    code.append( i );
+	    code.append( " function = new Function" );
+	    code.append( i );
+	    code.append( unchecked ? "( false );" : "( checked );" );
+	    code.append( " function.setTargetObject( target ); return function; };\n" );
+	}
+	code.append( "\tdefault:\n\t    return null;\n\t}\n    }\n\n" );
+
+
+	// the function classes
+	for( int i = 0; i < methods.size(); i++ )
+	    code.append( getFunctionClassSourceCode( "Function" + i, targetTypeName, methods.get( i ) ) );
+
+	code.append( "}\n" );
+
+
+	final String generatedClassName = (packageName.length() == 0 ? className : packageName + "." + className);
+	final Writer writer = processingEnv.getFiler().createSourceFile( generatedClassName, targetType ).openWriter();
+	try {
+	    writer.write( code.toString() );
+	} finally {
+	    writer.close();
+	}
+    }
+
+
+
+    /**
+     * Generates the function class for a method.
+     * @param className the name of the class
+     * @param targetTypeName the source name of the target class
+     * @param method the method of the function
+     * @return the source code of the (nested) function class
+     */
+    private final String getFunctionClassSourceCode( final String className, final String targetTypeName, final ExecutableElement method ){
+	final List<? extends VariableElement> parameters = method.getParameters();
+	final int arity                                  = parameters.size();
+	final TypeMirror returnType                      = method.getReturnType();
+	final boolean isStatic                           = method.getModifiers().contains( Modifier.STATIC );
+	final String invocationTarget                    = (isStatic ? targetTypeName : "this.target");
+
+	final String parameterTypes[] = new String[ arity ];
+	final String boxedTypes[]     = new String[ arity ];
+	for( int i = 0; i < arity; i++ ){
+	    final TypeMirror parameterType = parameters.get( i ).asType();
+	    parameterTypes[ i ] = getSourceTypeName( parameterType );
+	    boxedTypes[ i ]     = getBoxedSourceTypeName( parameterType );
+	}
+
+
+	final StringBuffer code = new StringBuffer( 5000 );
+	code.append( "    /**\n     * The function of " );
+	code.append( getMethodKey( method ) );
+	code.append( ".\n     */\n" );
+	code.append( "    public static final class " );
+	code.append( className );
+	code.append( " implements " );
+	code.append( IFunction.class.getName() );
+	code.append( ", " );
+	code.append( IFunctionBinder.class.getName() );
+
+	// the typed interfaces
+	if( arity < TYPED_FUNCTION_INTERFACES ){
+	    code.append( ", jfk.function.IFunction" );
+	    code.append( arity );
+	    code.append( "<" );
+	    for( int i = 0; i < arity; i++ ){
+		code.append( boxedTypes[ i ] );
+		code.append( ", " );
+	    }
+	    code.append( getBoxedSourceTypeName( returnType ) );
+	    code.append( ">" );
+	}
+
+	final String primitiveName = getPrimitiveFunctionTypeName( method );
+	if( primitiveName != null ){
+	    code.append( ", jfk.function.I" );
+	    code.append( Character.toUpperCase( primitiveName.charAt( 0 ) ) );
+	    code.append( primitiveName.substring( 1 ) );
+	    code.append( "Function" );
+	    code.append( arity );
+	}
+	code.append( " {\n\n" );
+
+
+	// fields and constructor
+	code.append( "\tprivate final boolean checked;\n" );
+	code.append( "\tprivate " );
+	code.append( targetTypeName );
+	code.append( " target;\n\n" );
+	code.append( "\tpublic " );
+	code.append( className );
+	code.append( "( final boolean checked ){\n\t    this.checked = checked;\n\t}\n\n" );
+
+
+	// executeCall, with the argument checks
+	code.append( "\t@Override\n\tpublic Object executeCall( final Object... arguments ) throws " );
+	code.append( BadArityException.class.getName() );
+	code.append( ", " );
+	code.append( BadParameterTypeException.class.getName() );
+	code.append( " {\n" );
+	if( arity > 0 ){
+	    code.append( "\t    if( checked ){\n" );
+	    code.append( "\t\tif( arguments == null || arguments.length != " );
+	    code.append( arity );
+	    code.append( " )\n\t\t    throw " );
+	    code.append( ArgumentChecks.class.getName() );
+	    code.append( ".badArity( " );
+	    code.append( arity );
+	    code.append( ", arguments );\n" );
+
+	    for( int i = 0; i < arity; i++ ){
+		if( "java.lang.Object".equals( boxedTypes[ i ] ) )
+		    continue;
+
+		final boolean primitive = parameters.get( i ).asType().getKind().isPrimitive();
+		code.append( "\t\tif( " );
+		if( ! primitive ){
+		    code.append( "arguments[" );
+		    code.append( i );
+		    code.append( "] != null && " );
+		}
+		code.append( "! (arguments[" );
+		code.append( i );
+		code.append( "] instanceof " );
+		code.append( boxedTypes[ i ] );
+		code.append( ") )\n\t\t    throw " );
+		code.append( ArgumentChecks.class.getName() );
+		code.append( ".badParameterType( " );
+		code.append( boxedTypes[ i ] );
+		code.append( ".class, arguments[" );
+		code.append( i );
+		code.append( "] );\n" );
+	    }
+
+	    code.append( "\t    }\n\n" );
+	}
+
+	final String arrayArguments[] = new String[ arity ];
+	for( int i = 0; i < arity; i++ )
+	    arrayArguments[ i ] = "(" + boxedTypes[ i ] + ") arguments[" + i + "]";
+	code.append( getGuardedSourceCode( method, getReturnSourceCode( returnType, getInvocationSourceCode( invocationTarget, method, arrayArguments ) ) ) );
+	code.append( "\t}\n\n" );
+
+
+	// the typed call
+	final String typedArguments[] = new String[ arity ];
+	for( int i = 0; i < arity; i++ )
+	    typedArguments[ i ] = "arg" + i;
+
+	if( arity < TYPED_FUNCTION_INTERFACES ){
+	    code.append( "\t@Override\n\tpublic " );
+	    code.append( getBoxedSourceTypeName( returnType ) );
+	    code.append( " call(" );
+	    for( int i = 0; i < arity; i++ ){
+		code.append( i > 0 ? ", " : " " );
+		code.append( "final " );
+		code.append( boxedTypes[ i ] );
+		code.append( " arg" );
+		code.append( i );
+	    }
+	    code.append( " ){\n" );
+	    code.append( getGuardedSourceCode( method, getReturnSourceCode( returnType, getInvocationSourceCode( invocationTarget, method, typedArguments ) ) ) );
+	    code.append( "\t}\n\n" );
+	}
+
+	if( primitiveName != null ){
+	    code.append( "\t@Override\n\tpublic " );
+	    code.append( primitiveName );
+	    code.append( " call" );
+	    code.append( Character.toUpperCase( primitiveName.charAt( 0 ) ) );
+	    code.append( primitiveName.substring( 1 ) );
+	    code.append( "(" );
+	    for( int i = 0; i < arity; i++ ){
+		code.append( i > 0 ? ", " : " " );
+		code.append( "final " );
+		code.append( primitiveName );
+		code.append( " arg" );
+		code.append( i );
+	    }
+	    code.append( " ){\n" );
+	    code.append( getGuardedSourceCode( method, "\t    return " + getInvocationSourceCode( invocationTarget, method, typedArguments ) + ";\n" ) );
+	    code.append( "\t}\n\n" );
+	}
+
+
+	// the binder methods and the equality
+	code.append( "\t@Override\n\tpublic void setTargetObject( final Object target ) throws " );
+	code.append( TargetBindException.class.getName() );
+	code.append( " {\n\t    if( ! (target instanceof " );
+	code.append( targetTypeName );
+	code.append( ") )\n\t\tthrow new " );
+	code.append( TargetBindException.class.getName() );
+	code.append( "(\"The binding object is not of the right type!\");\n\n\t    this.target = (" );
+	code.append( targetTypeName );
+	code.append( ") target;\n\t}\n\n" );
+
+	code.append( "\t@Override\n\tpublic Object getTargetObject(){\n\t    return target;\n\t}\n\n" );
+
+	code.append( "\t@Override\n\tpublic boolean equals( final Object other ){\n" );
+	code.append( "\t    return other == this || (other != null && other.getClass() == getClass() && ((" );
+	code.append( className );
+	code.append( ") other).target == target);\n\t}\n\n" );
+
+	code.append( "\t@Override\n\tpublic int hashCode(){\n" );
+	code.append( "\t    return getClass().hashCode() ^ System.identityHashCode( target );\n\t}\n" );
+
+	code.append( "    }\n\n" );
+	return code.toString();
+    }
+
+
+
+    /**
+     * Generates the invocation of the method.
+     */
+    private static final String getInvocationSourceCode( final String invocationTarget, final ExecutableElement method, final String[] arguments ){
+	final StringBuffer invocation = new StringBuffer( 200 );
+	invocation.append( invocationTarget );
+	invocation.append( "." );
+	invocation.append( method.getSimpleName() );
+	invocation.append( "(" );
+	for( int i = 0; i < arguments.length; i++ ){
+	    invocation.append( i > 0 ? ", " : " " );
+	    invocation.append( arguments[ i ] );
+	}
+	invocation.append( arguments.length > 0 ? " )" : ")" );
+	return invocation.toString();
+    }
+
+
+    /**
+     * Wraps the statements that invoke a method that declares exceptions, so that the checked ones
+     * are rethrown as they are although the function methods do not declare them.
+     */
+    private static final String getGuardedSourceCode( final ExecutableElement method, final String statements ){
+	if( method.getThrownTypes().isEmpty() )
+	    return statements;
+
+	return "\t    try {\n" + statements.replace( "\t    ", "\t\t" )
+	    + "\t    } catch( final Throwable e ){\n\t\tthrow " + GeneratedFunctions.class.getName() + ".rethrow( e );\n\t    }\n";
+    }
+
+
+    /**
+     * Generates the statements that return the result of the invocation (null for void methods).
+     */
+    private static final String getReturnSourceCode( final TypeMirror returnType, final String invocation ){
+	if( returnType.getKind() == TypeKind.VOID )
+	    return "\t    " + invocation + ";\n\t    return null;\n";
+	else
+	    return "\t    return " + invocation + ";\n";
+    }
+
+
+    /**
+     * Provides the name of the primitive type of the method, if the method matches one of the
+     * primitive function interfaces (i.e., all the parameters and the return value are of the same
+     * type among int, long and double).
+     * @param method the method
+     * @return the name of the primitive type or null
+     */
+    private static final String getPrimitiveFunctionTypeName( final ExecutableElement method ){
+	final TypeKind returnKind = method.getReturnType().getKind();
+	if( returnKind != TypeKind.INT && returnKind != TypeKind.LONG && returnKind != TypeKind.DOUBLE )
+	    return null;
+
+	if( method.getParameters().size() >= PRIMITIVE_FUNCTION_INTERFACES )
+	    return null;
+
+	for( final VariableElement parameter : method.getParameters() )
+	    if( parameter.asType().getKind() != returnKind )
+		return null;
+
+	return method.getReturnType().toString();
+    }
+
+
+    /**
+     * Computes the key of the method, the same computed at run-time by {@link GeneratedFunctions#getMethodKey(java.lang.reflect.Method)}.
+     */
+    private final String getMethodKey( final ExecutableElement method ){
+	final StringBuffer key = new StringBuffer( 100 );
+	key.append( method.getSimpleName() );
+	key.append( "(" );
+	final List<? extends VariableElement> parameters = method.getParameters();
+	for( int i = 0; i < parameters.size(); i++ ){
+	    if( i > 0 )
+		key.append( "," );
+	    key.append( getRuntimeTypeName( parameters.get( i ).asType() ) );
+	}
+	key.append( ")" );
+	return key.toString();
+    }
+
+
+    /**
+     * Provides the name of the erasure of a type as returned by {@link Class#getTypeName()}
+     * (i.e., with the binary names of the nested classes).
+     */
+    private final String getRuntimeTypeName( final TypeMirror type ){
+	final TypeMirror erasure = processingEnv.getTypeUtils().erasure( type );
+	if( erasure.getKind() == TypeKind.ARRAY )
+	    return getRuntimeTypeName( ((ArrayType) erasure).getComponentType() ) + "[]";
+	else if( erasure.getKind() == TypeKind.DECLARED )
+	    return processingEnv.getElementUtils().getBinaryName( (TypeElement) ((DeclaredType) erasure).asElement() ).toString();
+	else
+	    return erasure.toString();
+    }
+
+
+    /**
+     * Provides the name of the erasure of a type as it must appear in the source code.
+     */
+    private final String getSourceTypeName( final TypeMirror type ){
+	return processingEnv.getTypeUtils().erasure( type ).toString();
+    }
+
+
+    /**
+     * Provides the source name of the erasure of a type, boxing the primitive types.
+     */
+    private final String getBoxedSourceTypeName( final TypeMirror type ){
+	if( type.getKind() == TypeKind.VOID )
+	    return "java.lang.Void";
+	else if( type.getKind().isPrimitive() )
+	    return processingEnv.getTypeUtils().boxedClass( processingEnv.getTypeUtils().getPrimitiveType( type.getKind() ) ).getQualifiedName().toString();
+	else
+	    return getSourceTypeName( type );
+    }
+
+}
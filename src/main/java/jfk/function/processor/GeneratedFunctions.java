@@ -0,0 +1,136 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.function.processor;
+
+import java.lang.reflect.Method;
+
+import jfk.function.classloaders.IFunctionFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Provides the functions generated at compile time by the {@link FunctionProcessor}.
+ * The generated class of a target class <i>p.Foo</i> is <i>p.Foo$$JFKFunctions</i>, and
+ * it is searched for (only once) in the class loader of the target class.
+ * 
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public final class GeneratedFunctions {
+
+    /**
+     * The suffix of the name of the generated classes.
+     */
+    public static final String CLASS_NAME_SUFFIX = "$$JFKFunctions";
+
+    /**
+     * The logger for this class.
+     */
+    private static Logger logger = org.apache.log4j.Logger.getLogger( GeneratedFunctions.class );
+
+    /**
+     * The instance of the generated class of each target class, or null if the class has not been processed.
+     */
+    private static final ClassValue<IGeneratedFunctions> generatedFunctions = new ClassValue<IGeneratedFunctions>() {
+	@Override
+	protected IGeneratedFunctions computeValue( final Class targetClass ){
+	    final String generatedClassName = targetClass.getName() + CLASS_NAME_SUFFIX;
+	    try {
+		final Class<?> generatedClass = Class.forName( generatedClassName, true, targetClass.getClassLoader() );
+		if( logger.isDebugEnabled() )
+		    logger.debug("Found the generated functions " + generatedClassName );
+		return (IGeneratedFunctions) generatedClass.getConstructor().newInstance();
+	    } catch (final ClassNotFoundException e) {
+		// the class has not been processed
+		return null;
+	    } catch (final Exception e) {
+		logger.error("Cannot instantiate the generated functions " + generatedClassName, e );
+		return null;
+	    }
+	}
+    };
+
+
+    /**
+     * Not instantiable.
+     */
+    private GeneratedFunctions() {
+	super();
+    }
+
+
+    /**
+     * Provides the factory of the functions generated at compile time for the specified method.
+     * @param targetMethod the method the functions are bound to
+     * @param checked true if the functions must check the arguments of executeCall
+     * @return the function factory, or null if the declaring class of the method has not been processed
+     */
+    public static IFunctionFactory getFunctionFactory( final Method targetMethod, final boolean checked ){
+	final IGeneratedFunctions functions = generatedFunctions.get( targetMethod.getDeclaringClass() );
+	if( functions == null )
+	    return null;
+	else
+	    return functions.getFunctionFactory( getMethodKey( targetMethod ), checked );
+    }
+
+
+    /**
+     * Computes the key that identifies a method within its class, that is the name of the method followed
+     * by the names of the parameter types, as for instance <tt>sum(long,java.lang.Long[])</tt>.
+     * @param targetMethod the method to compute the key of
+     * @return the key of the method
+     */
+    public static String getMethodKey( final Method targetMethod ){
+	final StringBuffer key = new StringBuffer( 100 );
+	key.append( targetMethod.getName() );
+	key.append( "(" );
+	final Class parameterTypes[] = targetMethod.getParameterTypes();
+	for( int i = 0; i < parameterTypes.length; i++ ){
+	    if( i > 0 )
+		key.append( "," );
+	    key.append( parameterTypes[ i ].getTypeName() );
+	}
+	key.append( ")" );
+	return key.toString();
+    }
+
+
+    /**
+     * Rethrows the exception of a target method as it is, also if it is a checked exception the function
+     * does not declare, as the functions defined at run-time do. It is used by the generated classes to
+     * call the methods that declare checked exceptions.
+     * @param error the exception thrown by the target method
+     * @return never returns, the return type lets the generated code <i>throw</i> the call
+     */
+    public static RuntimeException rethrow( final Throwable error ){
+	throw GeneratedFunctions.<RuntimeException>sneakyThrow( error );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static <T extends Throwable> T sneakyThrow( final Throwable error ) throws T {
+	throw (T) error;
+    }
+
+}
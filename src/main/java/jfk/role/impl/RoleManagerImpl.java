@@ -1,10 +1,10 @@
 package jfk.role.impl;
 
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.security.SecureClassLoader;
 import java.util.HashMap;
 
 import javassist.CannotCompileException;
@@ -17,15 +17,36 @@ import javassist.CtNewConstructor;
 import javassist.CtNewMethod;
 import javassist.Modifier;
 import javassist.NotFoundException;
+import jfk.core.ClassMetadata;
+import jfk.core.ClassMetadata.AnnotatedMethod;
+import jfk.function.classloaders.ClassLoaderUtils;
+import jfk.function.classloaders.ClassPoolManager;
+import jfk.function.classloaders.Diagnostics;
+import jfk.function.classloaders.GeneratorStatistics;
 import jfk.role.IRole;
 import jfk.role.IRoleManager;
 import jfk.role.RoleMap;
 import org.apache.log4j.*;
-import org.apache.log4j.xml.DOMConfigurator;
 
 public class RoleManagerImpl implements IRoleManager{
 
 
+    /**
+     * The class loader that defines the role classes, one for each role class
+     * so that it can be discarded with the class.
+     */
+    private static final class RoleClassLoader extends SecureClassLoader {
+
+	RoleClassLoader( final ClassLoader parent ){
+	    super( parent );
+	}
+
+	final Class defineRoleClass( final String name, final byte[] bytecode ){
+	    return defineClass( name, bytecode, 0, bytecode.length );
+	}
+    }
+
+
     /**
      * The logger for this class loader.
      */
@@ -37,6 +58,11 @@ public class RoleManagerImpl implements IRoleManager{
      * by the name of the function annotation.
      */
     private final HashMap<Long, Class> cacheClasses = new HashMap<Long, Class>();
+
+    /**
+     * If true the role classes are defined as hidden classes.
+     */
+    private boolean hiddenClasses = false;
     
 
     public void addRole(Class target, IRole role)
@@ -44,31 +70,35 @@ public class RoleManagerImpl implements IRoleManager{
 	// key for the hash table
 	Long key = (long)target.hashCode() + (long)role.hashCode();
 	
-	// get the class pool for working with classes 
-	// and modifying them on the fly
-	final ClassPool pool = ClassPool.getDefault();
+	// get the pool of the roles of the role class loader
+	final ClassPool pool = ClassPoolManager.getClassPool( GeneratorStatistics.ROLE, role.getClass().getClassLoader() );
 	    
 	    	    
 	// a name for the class to implement.
 	// The name is composed by the concatenation of the target class simple name
 	// and the role class name
-	final String roleClassName = String.format( "%s%s",
-						    target.getSimpleName(),
-						    role.getClass().getSimpleName() ); 
+	// (hidden classes must be in the package of the role class)
+	final String roleClassName = ClassLoaderUtils.getRoleClassName( target, role.getClass() );
+	final String qualifiedRoleClassName = ( hiddenClasses
+						? ClassLoaderUtils.getPackagedClassName( role.getClass(), roleClassName )
+						: roleClassName );
 	    
 	    
 	// create a new class for the specified name
-	final CtClass newRoleCtClass = pool.makeClass( roleClassName );
+	final long generationStart = System.nanoTime();
+	final CtClass newRoleCtClass = pool.makeClass( qualifiedRoleClassName );
 	    
 	try {
 	    CtClass roleCtClass = pool.get(role.getClass().getCanonicalName());
 	    newRoleCtClass.setSuperclass(roleCtClass);
 	} catch (NotFoundException e1) {
 	    logger.error( "Cannot get the role CtClass!", e1 );
+	    newRoleCtClass.detach();
 	    return;
 	}
 	catch (CannotCompileException e1) {
 	    logger.error( "Cannot compile exception!", e1 );
+	    newRoleCtClass.detach();
 	    return;
 	}
 		
@@ -77,8 +107,16 @@ public class RoleManagerImpl implements IRoleManager{
 	Class<?>[] interfaces = role.getClass().getInterfaces();
 	    
 		
-	// create a CtClass for IRole
-	final CtClass iRoleCtClass = pool.makeInterface(interfaces[0].getName());
+	// get the CtClass of the IRole interface (from the pool, so that no
+	// class is defined in the pool other than the role class)
+	final CtClass iRoleCtClass;
+	try {
+	    iRoleCtClass = pool.get(interfaces[0].getName());
+	} catch (NotFoundException e1) {
+	    logger.error( "Cannot get the role interface CtClass!", e1 );
+	    newRoleCtClass.detach();
+	    return;
+	}
 	newRoleCtClass.addInterface(iRoleCtClass);
 	    
 	    
@@ -95,7 +133,7 @@ public class RoleManagerImpl implements IRoleManager{
 							  targetDataType,
 							  targetFieldName
 							  );
-	    logger.debug( String.format( "[ROLE] Connector field [%s]", targetFieldSourceCode ) );
+	    Diagnostics.dumpSource( roleClassName, targetFieldSourceCode );
 	    CtField targetField = CtField.make( targetFieldSourceCode, newRoleCtClass);
 			
 	    newRoleCtClass.addField(targetField);
@@ -106,6 +144,7 @@ public class RoleManagerImpl implements IRoleManager{
 							     targetDataType,
 							     targetFieldName
 							     );
+	    Diagnostics.dumpSource( roleClassName, strConstructorSourceCode );
 			
 	    final CtConstructor constructor =
 		CtNewConstructor.make(strConstructorSourceCode, newRoleCtClass);
@@ -132,7 +171,8 @@ public class RoleManagerImpl implements IRoleManager{
 			    continue;
 		    		
 
-			String currentDelegateMethodBodySource = getSourceCodeForDelegateMethod( interfaceMethods[ m ], "this", null );		    		
+			String currentDelegateMethodBodySource = getSourceCodeForDelegateMethod( interfaceMethods[ m ], "this", null );
+			Diagnostics.dumpSource( roleClassName, currentDelegateMethodBodySource );
 			CtMethod ctMet = CtNewMethod.make( currentDelegateMethodBodySource,
 							   newRoleCtClass);
 
@@ -141,64 +181,57 @@ public class RoleManagerImpl implements IRoleManager{
 		    }// for(int m=0; m<interfaceMethods.length; m++)
 		    	
 		    	
-		// analyze the annotation of the method
-		Annotation[] annotations = roleMethods[i].getAnnotations();
-		    	
-		// a role method must have an annotation
-		if(annotations.length == 0)
-		    {
-			continue;
-		    }
-		for(int a =0; a<annotations.length; a++)
-		    {
-			if (annotations[a] instanceof RoleMap)
-			    {   			
-				// here we have a method with a recognized annotation	
-				// The body of the method will be	
-				// _target.method
-		    			
-				RoleMap roleMap = (RoleMap)annotations[a];
-		    			
-				if (roleMap.target().getName() != 
-				    target.getName())
-				    {
-		    				
-					//throw new IllegalArgumentException(
-					//		"The target class is not compatible " +
-					//		"with the target in the RoleMap annotation!" );
-				    }
-		    			
-		    			
-		    			
-
-				    	    	
-				String connectorMethodSourceCode = getSourceCodeForDelegateMethod( roleMethods[ i ], targetFieldName, roleMap.method() );
-				    	
-				CtMethod newMethodSgn = CtMethod.make(
-								      connectorMethodSourceCode,
-								      newRoleCtClass);
+	    } // end for (int i = 0; i < roleMethods.length; i++)
+
+
+	    // the methods mapped on the target (from the index of the role class)
+	    for( AnnotatedMethod roleMapMethod : ClassMetadata.forClass( role.getClass() ).getDeclaredRoleMaps() )
+		{
+		    // here we have a method with a recognized annotation	
+		    // The body of the method will be	
+		    // _target.method
+		    RoleMap roleMap = (RoleMap) roleMapMethod.getAnnotation();
+
+		    String connectorMethodSourceCode = getSourceCodeForDelegateMethod( roleMapMethod.getMethod(), targetFieldName, roleMap.method() );
+		    Diagnostics.dumpSource( roleClassName, connectorMethodSourceCode );
 				    	
+		    CtMethod newMethodSgn = CtMethod.make(
+							  connectorMethodSourceCode,
+							  newRoleCtClass);
 				    	
-				newRoleCtClass.addMethod( newMethodSgn );
-			    }
-		    							
-		    }
-		    		
-	    } // end for (int i = 0; i < roleMethods.length; i++)  
+		    newRoleCtClass.addMethod( newMethodSgn );
+		}  
 		    
 			
-	    Class finalClass = newRoleCtClass.toClass();
+	    // define the class thru a dedicated class loader (CtClass.toClass() requires
+	    // reflective access to ClassLoader.defineClass, that is denied on modern JVMs)
+	    final byte[] bytecode = ClassPoolManager.toBytecode( newRoleCtClass );
+	    GeneratorStatistics.ROLE.classGenerated( System.nanoTime() - generationStart );
+	    GeneratorStatistics.ROLE.classDefined( bytecode.length );
+	    Class finalClass = ( hiddenClasses
+				 ? ClassLoaderUtils.defineHiddenClass( role.getClass(), bytecode )
+				 : new RoleClassLoader( role.getClass().getClassLoader() ).defineRoleClass( roleClassName, bytecode ) );
 	    cacheClasses.put(key, finalClass);
 		    
 	} catch ( Exception e ) {
 	    logger.error( "Cannot compile exception while making the role connection", e );
-	    e.printStackTrace();
+	    newRoleCtClass.detach();
 	    return;
 	}
 		
     }
 	
 	
+    /**
+     * Sets if the role classes must be defined as hidden classes, in the package and class loader
+     * of the role class, so that they can be unloaded as soon as they are no more reachable.
+     * @param hiddenClasses true to define hidden classes
+     */
+    public void setHiddenClasses( final boolean hiddenClasses ){
+	this.hiddenClasses = hiddenClasses;
+    }
+
+
     public IRole getAsRole(Object target, IRole role)
     {
 		
@@ -210,9 +243,9 @@ public class RoleManagerImpl implements IRoleManager{
 	    if( ! cacheClasses.containsKey( key ) )
 		classToReturn = null;
 	    else{
-		Class classTest = cacheClasses.get(key);
+		Class<?> classTest = cacheClasses.get(key);
 			
-		Constructor ctr = classTest.getDeclaredConstructor(target.getClass());
+		Constructor<?> ctr = classTest.getDeclaredConstructor(target.getClass());
 			
 		classToReturn = (IRole) ctr.newInstance(target);
 	    }
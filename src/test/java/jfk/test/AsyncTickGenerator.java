@@ -0,0 +1,54 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.test;
+
+import jfk.function.delegates.Delegate;
+import jfk.function.delegates.DispatchMode;
+import jfk.function.delegates.IDelegatable;
+import jfk.function.delegates.OverflowPolicy;
+import jfk.function.delegates.WaitStrategy;
+
+/**
+ * A generator of ticks whose delegates are called by other threads, through the executor or a ring buffer.
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public abstract class AsyncTickGenerator implements IDelegatable {
+
+    @Delegate( name="asyncTick", dispatch = DispatchMode.ASYNCHRONOUS, queueCapacity = 1, overflow = OverflowPolicy.DROP )
+    public abstract void asyncTick( int amount, String label );
+    
+    @Delegate( name="parallelTick", dispatch = DispatchMode.PARALLEL, join = true )
+    public abstract void parallelTick( int amount, String label );
+    
+    @Delegate( name="ringTick", dispatch = DispatchMode.RING_BUFFER, queueCapacity = 3, overflow = OverflowPolicy.DROP )
+    public abstract void ringTick( int amount, String label );
+    
+    @Delegate( name="sequencedTick", dispatch = DispatchMode.RING_BUFFER, queueCapacity = 64, waitStrategy = WaitStrategy.SLEEP )
+    public abstract void sequencedTick( int amount, String label );
+    
+    @Delegate( name="relayTick", dispatch = DispatchMode.RING_BUFFER, queueCapacity = 1 )
+    public abstract void relayTick( int amount, String label );
+}
@@ -24,6 +24,8 @@
  */
 package jfk.test;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -33,14 +35,21 @@ import java.util.StringTokenizer;
 
 import jfk.core.JFK;
 import jfk.function.Function;
+import jfk.function.IClosure;
 import jfk.function.IFunction;
 import jfk.function.IFunctionBuilder;
 import jfk.function.JFKException;
+import jfk.function.classloaders.BytecodeCache;
 import jfk.function.classloaders.ClassLoaderUtils;
+import jfk.function.classloaders.ClassPoolManager;
+import jfk.function.classloaders.Diagnostics;
 import jfk.function.classloaders.FunctionClassLoader;
+import jfk.function.classloaders.GeneratorStatistics;
 import jfk.function.classloaders.IFunctionBinder;
 import jfk.function.classloaders.IFunctionClassDefiner;
 import jfk.function.exception.CannotBindFunctionException;
+import jfk.function.exception.ClosureException;
+import jfk.function.impl.ClosureBuilderImpl;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -89,7 +98,7 @@ public class ClassLoaderTest {
     
     
     @Test
-    public void testFunctionClassDefinition() throws ClassNotFoundException, InstantiationException, IllegalAccessException, JFKException{
+    public void testFunctionClassDefinition() throws ReflectiveOperationException, JFKException{
 	
 	// get a new class loader
 	IFunctionClassDefiner loader = new FunctionClassLoader();
@@ -104,7 +113,7 @@ public class ClassLoaderTest {
 		    continue;
 		
 		// now get the IFunction object
-		Class clazz = loader.getIFunctionClassDefinition( dummy, m );
+		Class<?> clazz = loader.getIFunctionClassDefinition( dummy, m );
 		
 		if( clazz == null )
 		    fail("Loaded class is null");
@@ -130,7 +139,7 @@ public class ClassLoaderTest {
 		System.out.println("Superclass " + clazz.getSuperclass().getName());
 		
 		// get an instance
-		IFunction function = (IFunction) clazz.newInstance();
+		IFunction function = (IFunction) clazz.getDeclaredConstructor().newInstance();
 		
 		
 		if( function == null )
@@ -144,7 +153,7 @@ public class ClassLoaderTest {
 		((IFunctionBinder) function).setTargetObject(dummy);
 		
 		// execute the function
-		String result = (String) function.executeCall( null );
+		String result = (String) function.executeCall( (Object[]) null );
 		
 		// test the result
 		if( ! dummy.resultString.equals(result) )
@@ -165,7 +174,7 @@ public class ClassLoaderTest {
 	IFunction function = builder.bindFunction( dummy, "hello" );
 	
 	// execute the function
-	String result = (String) function.executeCall( null );
+	String result = (String) function.executeCall( (Object[]) null );
 	
 	// test the result
 	if( ! dummy.resultString.equals(result) )
@@ -177,7 +186,7 @@ public class ClassLoaderTest {
 	if( function.equals(function2) )
 	    fail("Two functions should not be equale with different names!");
 	
-	Double d1 = new Double(10.5);
+	Double d1 = Double.valueOf(10.5);
 	Double d2 = (Double) function2.executeCall( new Object[]{ d1 } );
 	if( (d1.doubleValue() * 2) != (d2.doubleValue() ) )
 	    fail("Return value is not the same! (" + d1.doubleValue() + " vs " + d2.doubleValue() + ")");
@@ -186,7 +195,7 @@ public class ClassLoaderTest {
 	// test arity
 	try{
 	    function2 = builder.bindFunction(dummy, "string2");
-	    function2.executeCall(null);
+	    function2.executeCall( (Object[]) null );
 	}catch(JFKException e){
 	    e.printStackTrace();
 	}
@@ -245,6 +254,165 @@ public class ClassLoaderTest {
     
     
     
+    @Test
+    public void testSharedFunctionClass() throws JFKException{
+	DummyClass dummy1 = new DummyClass();
+	DummyClass dummy2 = new DummyClass();
+	
+	IFunctionBuilder builder = JFK.getFunctionBuilder();
+	IFunction function1 = builder.bindFunction( dummy1, "string" );
+	long definedClasses = GeneratorStatistics.FUNCTION.getDefinedClasses();
+	IFunction function2 = builder.bindFunction( dummy2, "string" );
+	
+	// the second function must reuse the class of the first one
+	if( GeneratorStatistics.FUNCTION.getDefinedClasses() != definedClasses )
+	    fail("A new function class has been defined for the same method!");
+	if( function1.getClass() != function2.getClass() )
+	    fail("Functions bound to the same method do not share the class!");
+	
+	// but each function must be bound to its own target
+	if( ((IFunctionBinder) function1).getTargetObject() != dummy1 
+		|| ((IFunctionBinder) function2).getTargetObject() != dummy2 )
+	    fail("Function bound to the wrong target!");
+	if( function1.equals( function2 ) )
+	    fail("Functions bound to different targets cannot be equal!");
+	
+	// the same happens using the class definer directly
+	IFunctionClassDefiner loader1 = new FunctionClassLoader();
+	IFunctionClassDefiner loader2 = new FunctionClassLoader();
+	for( Method m : DummyClass.class.getMethods() )
+	    if( m.isAnnotationPresent( Function.class ) )
+		if( loader1.getIFunctionClassDefinition( dummy1, m ) != loader2.getIFunctionClassDefinition( dummy2, m ) )
+		    fail("Class definer does not reuse the function class!");
+    }
+    
+    
+    
+    @Test
+    public void testHiddenFunctionClass() throws JFKException, ReflectiveOperationException{
+	DummyClass dummy = new DummyClass();
+	FunctionClassLoader loader = new FunctionClassLoader();
+	loader.setHiddenClasses( true );
+	
+	for( Method m : DummyClass.class.getMethods() )
+	    if( m.isAnnotationPresent( Function.class ) && m.getAnnotation( Function.class ).name().equals( "string" ) ){
+		Class<?> clazz = loader.getIFunctionClassDefinition( dummy, m );
+		if( ! clazz.isHidden() )
+		    fail("The function class is not hidden!");
+		if( ! DummyClass.class.getPackageName().equals( clazz.getPackageName() ) )
+		    fail("The hidden function class is not in the package of the target class!");
+		
+		IFunction function = (IFunction) clazz.getDeclaredConstructor().newInstance();
+		((IFunctionBinder) function).setTargetObject( dummy );
+		assertEquals( dummy.resultString + 10, function.executeCall( new Object[]{ 10 } ) );
+	    }
+    }
+    
+    
+    
+    @Test
+    public void testBytecodeCache() throws JFKException, ClosureException, IOException{
+	File directory = File.createTempFile( "jfk", "cache" );
+	directory.delete();
+	BytecodeCache cache = new BytecodeCache();
+	assertNull( cache.computeKey( "disabled" ) );
+	cache.setDirectory( directory.getPath() );
+	
+	// the key depends on every part, and it cannot be computed for classes without bytecode
+	assertEquals( cache.computeKey( DummyClass.class, "a" ), cache.computeKey( DummyClass.class, "a" ) );
+	assertFalse( cache.computeKey( DummyClass.class, "a" ).equals( cache.computeKey( DummyClass.class, "b" ) ) );
+	assertNull( cache.computeKey( DummyClass.class, int[].class ) );
+	
+	ClosureBuilderImpl builder = new ClosureBuilderImpl();
+	builder.setBytecodeCache( cache );
+	String code = "public int triple( int value ){ return value * 3; }";
+	
+	// the first closure is generated and stored, the second one (a new class loader,
+	// as in a new run) is loaded from the cache
+	long cachedClosures = GeneratorStatistics.CLOSURE.getCachedClasses();
+	IClosure first  = builder.buildClosure( code );
+	IClosure second = builder.buildClosure( code );
+	assertEquals( 1, cache.getHits() );
+	assertEquals( cachedClosures + 1, GeneratorStatistics.CLOSURE.getCachedClasses() );
+	assertEquals( first.getClass().getName(), second.getClass().getName() );
+	assertNotSame( first.getClass(), second.getClass() );
+	assertEquals( Integer.valueOf( 30 ), second.executeCall( new Object[]{ 10 } ) );
+	
+	// an invalid entry is ignored
+	for( File entry : directory.listFiles() )
+	    java.nio.file.Files.write( entry.toPath(), new byte[]{ 1, 2, 3, 4, 5 } );
+	IClosure third = builder.buildClosure( code );
+	assertEquals( 1, cache.getHits() );
+	assertEquals( Integer.valueOf( 30 ), third.executeCall( new Object[]{ 10 } ) );
+	
+	for( File entry : directory.listFiles() )
+	    entry.delete();
+	directory.delete();
+    }
+    
+    
+    
+    @Test
+    public void testDiagnostics() throws JFKException, ClosureException, IOException{
+	assertFalse( Diagnostics.isEnabled() );
+	File directory = File.createTempFile( "jfk", "diagnostics" );
+	directory.delete();
+	
+	Diagnostics.setDirectory( directory.getPath() );
+	try{
+	    assertTrue( Diagnostics.isEnabled() );
+	    IClosure closure = new ClosureBuilderImpl().buildClosure( "public int quadruple( int value ){ return value * 4; }" );
+	    assertEquals( Integer.valueOf( 40 ), closure.executeCall( new Object[]{ 10 } ) );
+	    
+	    // both the source and the bytecode of the closure class are dumped
+	    String className = closure.getClass().getName();
+	    File source   = new File( directory, className + ".src" );
+	    File bytecode = new File( directory, className + ".class" );
+	    assertTrue( source.isFile() );
+	    assertTrue( new String( java.nio.file.Files.readAllBytes( source.toPath() ) ).contains( "value * 4" ) );
+	    assertTrue( bytecode.isFile() );
+	    assertEquals( 0xCA, java.nio.file.Files.readAllBytes( bytecode.toPath() )[ 0 ] & 0xFF );
+	}finally{
+	    Diagnostics.setDirectory( "" );
+	    for( File dump : directory.listFiles() )
+		dump.delete();
+	    directory.delete();
+	}
+	
+	// nothing is dumped when disabled
+	assertFalse( Diagnostics.isEnabled() );
+	new ClosureBuilderImpl().buildClosure( "public int quintuple( int value ){ return value * 5; }" );
+	assertFalse( directory.exists() );
+    }
+    
+    
+    
+    @Test
+    public void testClassPoolManager() throws ClosureException, JFKException{
+	ClosureBuilderImpl builder = new ClosureBuilderImpl();
+	for( int i = 0; i < 10; i++ )
+	    builder.buildClosure( "public String concat" + i + "( String a, java.util.List b ){ return a + b.size() + " + i + "; }" );
+	
+	// the pool retains the classes used by the closures, but not the closures
+	int entries = ClassPoolManager.getEntries( GeneratorStatistics.CLOSURE );
+	assertTrue( entries > 0 );
+	assertTrue( ClassPoolManager.getRetainedBytes( GeneratorStatistics.CLOSURE ) > 0 );
+	assertNotNull( ClassPoolManager.getClassPool( GeneratorStatistics.CLOSURE, null ).getOrNull( "java.util.List" ) );
+	
+	// the pools can be bounded
+	ClassPoolManager.setMaxEntries( 2 );
+	try{
+	    assertTrue( ClassPoolManager.getEntries( GeneratorStatistics.CLOSURE ) <= 2 );
+	    IClosure closure = builder.buildClosure( "public String concat( String a, java.util.List b ){ return a + b.size(); }" );
+	    assertEquals( "a0", closure.executeCall( new Object[]{ "a", new java.util.ArrayList() } ) );
+	    assertTrue( ClassPoolManager.getEntries( GeneratorStatistics.CLOSURE ) <= 2 );
+	}finally{
+	    ClassPoolManager.setMaxEntries( ClassPoolManager.DEFAULT_MAX_ENTRIES );
+	}
+    }
+    
+    
+    
     @Test
     public void speedTest() throws SecurityException, NoSuchMethodException, IllegalArgumentException, IllegalAccessException, InvocationTargetException, JFKException{
 	// create the dummy object
@@ -256,7 +424,7 @@ public class ClassLoaderTest {
 	IFunction function = builder.bindFunction( dummy, "hello" );
 	long end1 = System.nanoTime();
 	
-	function.executeCall(null);
+	function.executeCall( (Object[]) null );
 	long end2 = System.nanoTime();
 	
 	System.out.println("Total compilation and execution time = " + (end2 - start1) );
@@ -274,7 +442,7 @@ public class ClassLoaderTest {
 		    continue;
 		
 		end1 = System.nanoTime();
-		m.invoke(dummy, null);
+		m.invoke(dummy, (Object[]) null);
 		end2 = System.nanoTime();
 		break;
 	    }
@@ -25,12 +25,22 @@
 package jfk.test;
 
 
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import jfk.core.JFK;
 import jfk.function.IClosure;
 import jfk.function.IClosureBuilder;
 import jfk.function.exception.BadArityException;
 import jfk.function.exception.BadParameterTypeException;
 import jfk.function.exception.ClosureException;
+import jfk.function.impl.ClosureBuilderImpl;
+import jfk.function.impl.ClosureCache;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -70,7 +80,7 @@ public class ClosureTest {
 	    fail("Didn't get a closure!");
 	
 	// execute the closure
-	closure.executeCall(null);
+	closure.executeCall( (Object[]) null );
 
 	// a new closure
 	code = new StringBuffer(1000);
@@ -81,7 +91,7 @@ public class ClosureTest {
 	    fail("Didn't get a closure!");
 
 	// execute the closure
-	closure.executeCall(null);
+	closure.executeCall( (Object[]) null );
 	
 	
 	// a new closure
@@ -90,7 +100,7 @@ public class ClosureTest {
 	closure = builder.buildClosure( code.toString() );
 	String s = "Hello";
 	int i = 10;
-	String result = (String) closure.executeCall( new Object[]{ s, new Integer(i) } );
+	String result = (String) closure.executeCall( new Object[]{ s, Integer.valueOf(i) } );
 
 	if( ! result.equals( s + i ) )
 	    fail("Closure result incorrect!");
@@ -100,12 +110,151 @@ public class ClosureTest {
 	code.append( "public Integer loop( Integer ir ){ for(int i =0; i< ir.intValue(); i++) System.out.println(\"Interaction \" + i); return ir; } ");
 	closure = builder.buildClosure( code.toString() );
 	
-	Integer k = new Integer( 30 );
+	Integer k = Integer.valueOf( 30 );
 	Integer ir = (Integer) closure.executeCall( new Object[]{ k } );
 	
 	if( ir.intValue() != k.intValue() )
 	    fail("Closure return mismatch!");
 	
     }
+    
+    
+    @Test
+    public void testHiddenClosure() throws ClosureException, BadArityException, BadParameterTypeException, InterruptedException{
+	ClosureBuilderImpl builder = new ClosureBuilderImpl();
+	builder.setHiddenClasses( true );
+	
+	IClosure closure = builder.buildClosure( "public int square( int value ){ return value * value; }" );
+	assertTrue( "The closure class is not hidden!", closure.getClass().isHidden() );
+	assertEquals( Integer.valueOf( 49 ), closure.executeCall( new Object[]{ 7 } ) );
+	
+	// the class must be unloaded once the closure is no more reachable
+	WeakReference<Class> closureClass = new WeakReference<Class>( closure.getClass() );
+	closure = null;
+	for( int i = 0; i < 50 && closureClass.get() != null; i++ ){
+	    System.gc();
+	    Thread.sleep( 20 );
+	}
+	assertNull( "The hidden closure class has not been unloaded!", closureClass.get() );
+    }
+    
+    
+    @Test
+    public void testClosureCache() throws ClosureException, BadArityException, BadParameterTypeException, InterruptedException{
+	ClosureCache cache = new ClosureCache();
+	cache.setMaxEntries( 2 );
+	ClosureBuilderImpl builder = new ClosureBuilderImpl();
+	builder.setClosureCache( cache );
+	String code = "public int cube( int value ){ return value * value * value; }";
+	
+	// the same code (but for the surrounding spaces) reuses the compiled class
+	IClosure first  = builder.buildClosure( code );
+	IClosure second = builder.buildClosure( "  " + code + "\n" );
+	assertNotSame( first, second );
+	assertSame( first.getClass(), second.getClass() );
+	assertEquals( Integer.valueOf( 27 ), second.executeCall( new Object[]{ 3 } ) );
+	assertEquals( 1, cache.getHits() );
+	assertEquals( 1, cache.getMisses() );
+	
+	// the options are part of the key
+	builder.setUncheckedInvocation( true );
+	IClosure unchecked = builder.buildClosure( code );
+	assertNotSame( first.getClass(), unchecked.getClass() );
+	assertEquals( 2, cache.getSize() );
+	
+	// the least recently used class is evicted, and it can be unloaded
+	builder.setUncheckedInvocation( false );
+	assertSame( first.getClass(), builder.buildClosure( code ).getClass() );
+	builder.buildClosure( "public int negate( int value ){ return - value; }" );
+	assertEquals( 1, cache.getEvictions() );
+	assertEquals( 2, cache.getSize() );
+	assertSame( first.getClass(), builder.buildClosure( code ).getClass() );
+	
+	WeakReference<Class> evictedClass = new WeakReference<Class>( unchecked.getClass() );
+	unchecked = null;
+	for( int i = 0; i < 50 && evictedClass.get() != null; i++ ){
+	    System.gc();
+	    Thread.sleep( 20 );
+	}
+	assertNull( "The evicted closure class has not been unloaded!", evictedClass.get() );
+    }
+    
+    
+    @Test
+    public void testCapturedVariables() throws ClosureException, BadArityException, BadParameterTypeException{
+	ClosureCache cache = new ClosureCache();
+	ClosureBuilderImpl builder = new ClosureBuilderImpl();
+	builder.setClosureCache( cache );
+	String code = "public int scale( int value ){ return value * factor + offset; }";
+	
+	Map<String, Object> environment = new HashMap<String, Object>();
+	environment.put( "factor", 3 );
+	environment.put( "offset", 1 );
+	IClosure first = builder.buildClosure( code, environment );
+	assertEquals( Integer.valueOf( 31 ), first.executeCall( new Object[]{ 10 } ) );
+	
+	// other values of the same types share the same class
+	environment.put( "factor", 5 );
+	environment.put( "offset", 2 );
+	IClosure second = builder.buildClosure( code, environment );
+	assertEquals( Integer.valueOf( 52 ), second.executeCall( new Object[]{ 10 } ) );
+	assertEquals( Integer.valueOf( 31 ), first.executeCall( new Object[]{ 10 } ) );
+	assertSame( first.getClass(), second.getClass() );
+	assertEquals( 1, cache.getMisses() );
+	
+	// hidden closures capture variables as well
+	builder.setHiddenClasses( true );
+	assertEquals( Integer.valueOf( 52 ), builder.buildClosure( code, environment ).executeCall( new Object[]{ 10 } ) );
+	
+	// reference values and the configured builder
+	IClosure greet = JFK.getClosureBuilder().buildClosure( "public String greet( String name ){ return prefix + name + suffix.size(); }",
+							      Map.of( "prefix", "Hello ", "suffix", new java.util.ArrayList() ) );
+	assertEquals( "Hello JFK0", greet.executeCall( new Object[]{ "JFK" } ) );
+	
+	try{
+	    builder.buildClosure( code, Map.of( "not valid", 1 ) );
+	    fail("Captured a variable with an invalid name!");
+	}catch( ClosureException e ){
+	    // ok
+	}
+    }
 
+
+    @Test
+    public void testBatchAndAsyncClosures() throws ClosureException, BadArityException, BadParameterTypeException, InterruptedException{
+	ClosureCache cache = new ClosureCache();
+	ClosureBuilderImpl builder = new ClosureBuilderImpl();
+	builder.setClosureCache( cache );
+	String twice  = "public int twice( int value ){ return value * 2; }";
+	String square = "public int square( int value ){ return value * value; }";
+	
+	// the same code is compiled once
+	List<IClosure> closures = builder.buildClosures( Arrays.asList( twice, square, twice ) );
+	assertEquals( 3, closures.size() );
+	assertEquals( Integer.valueOf( 8 ),  closures.get( 0 ).executeCall( new Object[]{ 4 } ) );
+	assertEquals( Integer.valueOf( 16 ), closures.get( 1 ).executeCall( new Object[]{ 4 } ) );
+	assertNotSame( closures.get( 0 ), closures.get( 2 ) );
+	assertSame( closures.get( 0 ).getClass(), closures.get( 2 ).getClass() );
+	assertSame( closures.get( 0 ).getClass().getClassLoader(), closures.get( 1 ).getClass().getClassLoader() );
+	assertEquals( 2, cache.getSize() );
+	
+	// the next batch reuses the compiled classes
+	assertSame( closures.get( 1 ).getClass(), builder.buildClosures( Arrays.asList( square ) ).get( 0 ).getClass() );
+	
+	// asynchronous closures
+	Future<IClosure> future = builder.buildClosureAsync( "public int add( int value ){ return value + delta; }",
+							     Map.of( "delta", 5 ) );
+	try{
+	    assertEquals( Integer.valueOf( 9 ), future.get().executeCall( new Object[]{ 4 } ) );
+	}catch( ExecutionException e ){
+	    fail("Cannot build the asynchronous closure: " + e.getCause() );
+	}
+	
+	try{
+	    builder.buildClosureAsync( "not java code" ).get();
+	    fail("Built an invalid closure!");
+	}catch( ExecutionException e ){
+	    assertTrue( e.getCause() instanceof ClosureException );
+	}
+    }
 }
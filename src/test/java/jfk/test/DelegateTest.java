@@ -25,15 +25,30 @@
 package jfk.test;
 
 
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import jfk.core.DefaultBeanProvider;
+import jfk.core.IBeanProvider;
 import jfk.core.JFK;
+import jfk.core.Metrics;
+import jfk.function.delegates.Delegate;
 import jfk.function.delegates.IDelegatable;
 import jfk.function.delegates.IDelegate;
+import jfk.function.delegates.IDelegateErrorHandler;
 import jfk.function.delegates.IDelegateManager;
 import jfk.function.exception.delegates.AlreadyImplementedDelegateException;
 import jfk.function.exception.delegates.CannotConnectDelegateException;
 import jfk.function.exception.delegates.DelegateException;
+import jfk.function.impl.DelegateDispatcher;
+import jfk.function.impl.DelegateRingBuffer;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -85,6 +100,12 @@ public class DelegateTest {
 	for( Method m : consumer.getClass().getDeclaredMethods() )
 	    System.out.println("Method -> " + m.getName());
 	
+	// the target is kept in a field of its own type
+	boolean typedTarget = false;
+	for( Field f : consumer.getClass().getDeclaredFields() )
+	    typedTarget |= f.getType().equals( EventConsumer.class );
+	assertTrue( "The target is not in a typed field", typedTarget );
+	
 	((EventGenerator) consumer).notifyEvent("Hello Event!");
 	
 	
@@ -106,4 +127,345 @@ public class DelegateTest {
 	
     }
     
+
+    @Test
+    public void testAddAndRemoveDelegates() throws CannotConnectDelegateException, AlreadyImplementedDelegateException, InterruptedException{
+	IDelegateManager manager = JFK.getDelegateManager();
+	manager.forgetDelegatable( EventGenerator.class );
+	final EventGenerator generator = (EventGenerator) manager.createAndBind( EventGenerator.class, new EventConsumer() );
+	manager.forgetDelegatable( EventGenerator.class );
+	
+	EventCounter counter = new EventCounter();
+	assertTrue( generator.addDelegate( counter, "event" ) );
+	assertFalse( "Added the same delegate twice", generator.addDelegate( counter, "event" ) );
+	generator.notifyEvent( "Counted" );
+	assertEquals( 1, counter.getEvents() );
+	
+	// the delegate is removed and receives no more events
+	assertTrue( generator.removeDelegate( counter ) );
+	assertFalse( generator.removeDelegate( counter ) );
+	generator.notifyEvent( "Not counted" );
+	assertEquals( 1, counter.getEvents() );
+	
+	// the delegates can be added by many threads
+	final EventCounter[] counters = new EventCounter[ 8 ];
+	Thread[] threads = new Thread[ counters.length ];
+	for( int i = 0; i < threads.length; i++ ){
+	    counters[ i ] = new EventCounter();
+	    final EventCounter threadCounter = counters[ i ];
+	    threads[ i ] = new Thread( new Runnable(){
+		public void run(){
+		    generator.addDelegate( threadCounter, "event" );
+		}
+	    });
+	    threads[ i ].start();
+	}
+	for( Thread thread : threads )
+	    thread.join();
+	
+	generator.notifyEvent( "Counted by all" );
+	for( EventCounter threadCounter : counters )
+	    assertEquals( 1, threadCounter.getEvents() );
+	
+	// removing the delegates in any order keeps the others connected
+	assertTrue( generator.removeDelegate( counters[ 0 ] ) );
+	assertTrue( generator.removeDelegate( counters[ 4 ] ) );
+	assertTrue( generator.removeDelegate( counters[ 7 ] ) );
+	generator.notifyEvent( "Counted by the others" );
+	for( int i = 0; i < counters.length; i++ )
+	    assertEquals( ( i == 0 || i == 4 || i == 7 ) ? 1 : 2, counters[ i ].getEvents() );
+	for( int i = 1; i < counters.length; i++ )
+	    assertEquals( i != 4 && i != 7, generator.removeDelegate( counters[ i ] ) );
+	generator.notifyEvent( "Counted by none" );
+	assertEquals( 2, counters[ 1 ].getEvents() );
+    }
+
+    @Test
+    public void testDelegateErrorHandler() throws CannotConnectDelegateException, AlreadyImplementedDelegateException{
+	final List<Throwable> errors = new ArrayList<Throwable>();
+	IBeanProvider springProvider = JFK.getBeanProvider();
+	
+	try{
+	    DefaultBeanProvider provider = new DefaultBeanProvider(){
+		@Override
+		protected Object createBean( String name ){
+		    if( "IDelegateErrorHandler".equals( name ) )
+			return new IDelegateErrorHandler(){
+			    public void delegateFailed( IDelegatable source, IDelegate delegate, Throwable error ){
+				errors.add( error );
+			    }
+			};
+		    
+		    return super.createBean( name );
+		}
+	    };
+	    JFK.setBeanProvider( provider );
+	    
+	    TickCounter primary = new TickCounter();
+	    TickGenerator generator = (TickGenerator) JFK.getDelegateManager().createAndBind( TickGenerator.class, primary );
+	    TickCounter counter = new TickCounter();
+	    assertTrue( generator.addDelegate( new TickCounter( true ), "tick" ) );
+	    assertTrue( generator.addDelegate( counter, "tick" ) );
+	    assertFalse( "Added a delegate without the connection", generator.addDelegate( counter, "event" ) );
+	    
+	    // the failing delegate does not stop the others
+	    generator.tick( 5, "first" );
+	    generator.tick( 2, "second" );
+	    assertEquals( 7, primary.getTotal() );
+	    assertEquals( 7, counter.getTotal() );
+	    assertEquals( 2, errors.size() );
+	    assertTrue( errors.get( 0 ) instanceof IllegalStateException );
+	    
+	    // the hidden delegate classes call the stubs as well
+	    provider.setHiddenClasses( true );
+	    JFK.getDelegateManager().forgetDelegatable( TickGenerator.class );
+	    generator = (TickGenerator) JFK.getDelegateManager().createAndBind( TickGenerator.class, new TickCounter() );
+	    assertTrue( generator.addDelegate( counter, "tick" ) );
+	    generator.tick( 3, "hidden" );
+	    assertEquals( 10, counter.getTotal() );
+	}finally{
+	    JFK.setBeanProvider( springProvider );
+	}
+    }
+
+    @Test
+    public void testAsynchronousDelegates() throws CannotConnectDelegateException, AlreadyImplementedDelegateException, InterruptedException{
+	CountDownLatch release = new CountDownLatch( 1 );
+	TickWorker primary = new TickWorker( release );
+	IDelegateManager manager = JFK.getDelegateManager();
+	manager.forgetDelegatable( AsyncTickGenerator.class );
+	AsyncTickGenerator generator = (AsyncTickGenerator) manager.createAndBind( AsyncTickGenerator.class, primary );
+	manager.forgetDelegatable( AsyncTickGenerator.class );
+	
+	// the parallel delegates are called by other threads, and joined
+	TickWorker second = new TickWorker( release );
+	assertTrue( generator.addDelegate( second, "parallelTick" ) );
+	generator.parallelTick( 2, "parallel" );
+	assertEquals( 2, primary.getParallelTicks() );
+	assertEquals( 2, second.getParallelTicks() );
+	assertFalse( primary.getThreads().contains( Thread.currentThread() ) );
+	
+	// the asynchronous delegate does not block the caller, and the full queue drops the calls
+	String name = AsyncTickGenerator.class.getName() + "#asyncTick";
+	long drops = Metrics.getInstance().getDelegateQueueDrops().get( name );
+	generator.asyncTick( 1, "first" );
+	assertTrue( primary.getStarted().await( 10, TimeUnit.SECONDS ) );
+	assertEquals( Integer.valueOf( 1 ), Metrics.getInstance().getDelegateQueueDepths().get( name ) );
+	generator.asyncTick( 1, "dropped" );
+	assertEquals( drops + 1, Metrics.getInstance().getDelegateQueueDrops().get( name ).longValue() );
+	assertEquals( 0, primary.getAsyncTicks() );
+	
+	release.countDown();
+	for( int i = 0; i < 1000 && Metrics.getInstance().getDelegateQueueDepths().get( name ) > 0; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( Integer.valueOf( 0 ), Metrics.getInstance().getDelegateQueueDepths().get( name ) );
+	assertEquals( 1, primary.getAsyncTicks() );
+    }
+    
+    
+    @Test
+    public void testRingBufferDelegates() throws CannotConnectDelegateException, AlreadyImplementedDelegateException, InterruptedException{
+	CountDownLatch release = new CountDownLatch( 1 );
+	TickWorker worker = new TickWorker( release );
+	IDelegateManager manager = JFK.getDelegateManager();
+	manager.forgetDelegatable( AsyncTickGenerator.class );
+	AsyncTickGenerator generator = (AsyncTickGenerator) manager.createAndBind( AsyncTickGenerator.class, worker );
+	manager.forgetDelegatable( AsyncTickGenerator.class );
+	
+	// the calls are dispatched by the consumer thread in their order
+	for( int i = 0; i < 10000; i++ )
+	    generator.sequencedTick( i, "sequenced" );
+	for( int i = 0; i < 1000 && worker.getSequencedTicks().size() < 10000; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( 10000, worker.getSequencedTicks().size() );
+	for( int i = 0; i < 10000; i++ )
+	    assertEquals( Integer.valueOf( i ), worker.getSequencedTicks().get( i ) );
+	assertFalse( worker.getThreads().contains( Thread.currentThread() ) );
+	
+	// the buffer has four slots, freed only when the batch of the consumer is done
+	String name = AsyncTickGenerator.class.getName() + "#ringTick";
+	long drops = Metrics.getInstance().getDelegateQueueDrops().get( name );
+	generator.ringTick( 1, "first" );
+	assertTrue( worker.getStarted().await( 10, TimeUnit.SECONDS ) );
+	for( int i = 0; i < 3; i++ )
+	    generator.ringTick( 1, "queued" + i );
+	assertEquals( Integer.valueOf( 4 ), Metrics.getInstance().getDelegateQueueDepths().get( name ) );
+	generator.ringTick( 1, "dropped" );
+	assertEquals( drops + 1, Metrics.getInstance().getDelegateQueueDrops().get( name ).longValue() );
+	
+	release.countDown();
+	for( int i = 0; i < 1000 && Metrics.getInstance().getDelegateQueueDepths().get( name ) > 0; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( Integer.valueOf( 0 ), Metrics.getInstance().getDelegateQueueDepths().get( name ) );
+	assertEquals( Arrays.asList( "first", "queued0", "queued1", "queued2" ), worker.getRingTicks() );
+	
+	// a delegate that calls the method again on the consumer thread, while the buffer is full, calls it itself
+	worker.getThreads().clear();
+	worker.setRelay( generator );
+	generator.relayTick( 3, "relayed" );
+	for( int i = 0; i < 1000 && worker.getRelayedTicks().size() < 4; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( Arrays.asList( 3, 2, 1, 0 ), worker.getRelayedTicks() );
+	assertEquals( 1, worker.getThreads().size() );
+	assertFalse( worker.getThreads().contains( Thread.currentThread() ) );
+	
+	// the dispatched slots do not keep the arguments
+	String label = new String( "collectable" );
+	WeakReference<String> labelReference = new WeakReference<String>( label );
+	generator.sequencedTick( 10000, label );
+	label = null;
+	for( int i = 0; i < 1000 && worker.getSequencedTicks().size() < 10001; i++ )
+	    Thread.sleep( 10 );
+	for( int i = 0; i < 100 && labelReference.get() != null; i++ ){
+	    System.gc();
+	    Thread.sleep( 10 );
+	}
+	assertNull( labelReference.get() );
+	
+	// the consumer thread stops when idle, and is started again by the next call
+	DelegateRingBuffer ringBuffer = null;
+	for( DelegateDispatcher dispatcher : DelegateDispatcher.getDispatchers() )
+	    if( dispatcher.getName().equals( AsyncTickGenerator.class.getName() + "#sequencedTick" ) )
+		ringBuffer = dispatcher.getRingBuffer();
+	assertNotNull( ringBuffer );
+	for( int i = 0; i < 1000 && ringBuffer.isRunning(); i++ )
+	    Thread.sleep( 10 );
+	assertFalse( ringBuffer.isRunning() );
+	generator.sequencedTick( 10001, "restarted" );
+	for( int i = 0; i < 1000 && worker.getSequencedTicks().size() < 10002; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( Integer.valueOf( 10001 ), worker.getSequencedTicks().get( 10001 ) );
+	
+	// once closed the consumer stops, and the callers call the delegates
+	ringBuffer.close();
+	for( int i = 0; i < 1000 && ringBuffer.isRunning(); i++ )
+	    Thread.sleep( 10 );
+	assertFalse( ringBuffer.isRunning() );
+	worker.getThreads().clear();
+	generator.sequencedTick( 10002, "closed" );
+	assertEquals( Integer.valueOf( 10002 ), worker.getSequencedTicks().get( 10002 ) );
+	assertTrue( worker.getThreads().contains( Thread.currentThread() ) );
+	assertFalse( ringBuffer.isRunning() );
+    }
+    
+    
+    @Test
+    public void testBatchConnections() throws CannotConnectDelegateException, AlreadyImplementedDelegateException, InterruptedException{
+	IDelegateManager manager = JFK.getDelegateManager();
+	manager.forgetDelegatable( EventGenerator.class );
+	
+	// the batches of the connection must keep the arguments of the delegate method
+	try {
+	    manager.createAndBind( EventGenerator.class, new BadEventBatcher() );
+	    fail( "Connected a batch of integers to string events!" );
+	} catch (CannotConnectDelegateException e) {
+	    assertTrue( e.getMessage().contains( "batch" ) );
+	}
+	
+	// the full batches are delivered by the caller, the last one by the timer
+	EventBatcher batcher = new EventBatcher();
+	EventGenerator generator = (EventGenerator) manager.createAndBind( EventGenerator.class, batcher );
+	manager.forgetDelegatable( EventGenerator.class );
+	for( int i = 0; i < 7; i++ )
+	    generator.notifyEvent( "Event " + i );
+	assertEquals( 2, batcher.getBatches().size() );
+	assertEquals( Arrays.asList( "Event 0", "Event 1", "Event 2" ), batcher.getBatches().get( 0 ) );
+	assertEquals( Thread.currentThread(), batcher.getThreads().get( 1 ) );
+	for( int i = 0; i < 1000 && batcher.getBatches().size() < 3; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( Arrays.asList( "Event 6" ), batcher.getBatches().get( 2 ) );
+	assertNotSame( Thread.currentThread(), batcher.getThreads().get( 2 ) );
+	
+	// an added batch connection delivers its pending batch when removed
+	EventBatcher added = new EventBatcher();
+	assertTrue( generator.addDelegate( added, "event" ) );
+	generator.notifyEvent( "added" );
+	assertTrue( added.getBatches().isEmpty() );
+	assertTrue( generator.removeDelegate( added ) );
+	assertEquals( Arrays.asList( Arrays.asList( "added" ) ), added.getBatches() );
+	
+	// the calls are not blocked while a batch is delivered
+	CountDownLatch release = new CountDownLatch( 1 );
+	final EventBatcher slow = new EventBatcher( release );
+	final EventGenerator slowGenerator = (EventGenerator) manager.createAndBind( EventGenerator.class, slow );
+	manager.forgetDelegatable( EventGenerator.class );
+	Thread filler = new Thread( new Runnable() {
+	    @Override
+	    public void run() {
+		for( int i = 0; i < 3; i++ )
+		    slowGenerator.notifyEvent( "Slow " + i );
+	    }
+	});
+	filler.start();
+	assertTrue( slow.getDelivering().await( 10, TimeUnit.SECONDS ) );
+	Thread caller = new Thread( new Runnable() {
+	    @Override
+	    public void run() {
+		slowGenerator.notifyEvent( "During" );
+	    }
+	});
+	caller.start();
+	caller.join( 10000 );
+	assertFalse( caller.isAlive() );
+	release.countDown();
+	filler.join( 10000 );
+	for( int i = 0; i < 1000 && slow.getBatches().size() < 2; i++ )
+	    Thread.sleep( 10 );
+	assertEquals( Arrays.asList( Arrays.asList( "Slow 0", "Slow 1", "Slow 2" ), Arrays.asList( "During" ) ), slow.getBatches() );
+	
+	// a connection that fills the next batch while receiving one gets it after the current one
+	final EventBatcher echoing = new EventBatcher();
+	final EventGenerator echoGenerator = (EventGenerator) manager.createAndBind( EventGenerator.class, echoing );
+	manager.forgetDelegatable( EventGenerator.class );
+	echoing.setEcho( echoGenerator );
+	Thread emitter = new Thread( new Runnable() {
+	    @Override
+	    public void run() {
+		for( int i = 0; i < 3; i++ )
+		    echoGenerator.notifyEvent( "Echoed " + i );
+	    }
+	});
+	emitter.start();
+	emitter.join( 10000 );
+	assertFalse( emitter.isAlive() );
+	assertEquals( Arrays.asList( Arrays.asList( "Echoed 0", "Echoed 1", "Echoed 2" ),
+				     Arrays.asList( "Echo Echoed 0", "Echo Echoed 1", "Echo Echoed 2" ) ), echoing.getBatches() );
+	assertEquals( emitter, echoing.getThreads().get( 1 ) );
+    }
+    
+    
+    @Test
+    public void testDispatchersByClass() throws Exception{
+	Delegate asyncTick = AsyncTickGenerator.class.getMethod( "asyncTick", int.class, String.class ).getAnnotation( Delegate.class );
+	DelegateDispatcher dispatcher = DelegateDispatcher.forDelegate( AsyncTickGenerator.class, "asyncTick", asyncTick, null );
+	assertSame( dispatcher, DelegateDispatcher.forDelegate( AsyncTickGenerator.class, "asyncTick", asyncTick, null ) );
+	
+	// a class with the same name in another class loader has its own dispatchers
+	final byte[] bytecode;
+	InputStream input = AsyncTickGenerator.class.getResourceAsStream( "AsyncTickGenerator.class" );
+	try{
+	    bytecode = input.readAllBytes();
+	}finally{
+	    input.close();
+	}
+	Class reloaded = new ClassLoader( AsyncTickGenerator.class.getClassLoader() ){
+	    @Override
+	    protected Class<?> loadClass( String name, boolean resolve ) throws ClassNotFoundException{
+		if( ! name.equals( AsyncTickGenerator.class.getName() ) )
+		    return super.loadClass( name, resolve );
+		
+		synchronized( getClassLoadingLock( name ) ){
+		    Class<?> loaded = findLoadedClass( name );
+		    return ( loaded != null ? loaded : defineClass( name, bytecode, 0, bytecode.length ) );
+		}
+	    }
+	}.loadClass( AsyncTickGenerator.class.getName() );
+	assertNotSame( AsyncTickGenerator.class, reloaded );
+	
+	DelegateDispatcher reloadedDispatcher = DelegateDispatcher.forDelegate( reloaded, "asyncTick", asyncTick, null );
+	assertNotSame( dispatcher, reloadedDispatcher );
+	assertEquals( dispatcher.getName(), reloadedDispatcher.getName() );
+	assertTrue( DelegateDispatcher.getDispatchers().contains( dispatcher ) );
+	assertTrue( DelegateDispatcher.getDispatchers().contains( reloadedDispatcher ) );
+    }
 }
@@ -44,7 +44,7 @@ public class DummyClass {
     
     @Function( name = "double" )
     public Double doubleValue( Double value ){
-	return new Double( value.doubleValue() * 2 );
+	return Double.valueOf( value.doubleValue() * 2 );
     }
     
     
@@ -58,4 +58,28 @@ public class DummyClass {
     public String composeStringInteger(String s, Integer value ){
 	return s + value.toString();
     }
+    
+    
+    @Function( name = "twice" )
+    public int twice( int value ){
+	return value * 2;
+    }
+    
+    
+    @Function( name = "sum" )
+    public long sum( long a, long b ){
+	return a + b;
+    }
+    
+    
+    @Function( name = "length" )
+    public int length( CharSequence value ){
+	return (value == null ? -1 : value.length());
+    }
+    
+    
+    @Function( name = "trustedTwice", unchecked = true )
+    public int trustedTwice( int value ){
+	return value * 2;
+    }
 }
@@ -0,0 +1,94 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import jfk.function.delegates.Connect;
+import jfk.function.delegates.IDelegate;
+
+/**
+ * An event consumer that receives the events in batches.
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class EventBatcher implements IDelegate {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<List<String>>();
+    
+    private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+    
+    private final CountDownLatch delivering = new CountDownLatch( 1 );
+    
+    private final CountDownLatch release;
+    
+    private volatile EventGenerator echo;
+    
+    public EventBatcher(){
+	this( new CountDownLatch( 0 ) );
+    }
+    
+    public EventBatcher( CountDownLatch release ){
+	super();
+	this.release = release;
+    }
+    
+    @Connect( name="event", batchSize = 3, batchTimeout = 500 )
+    public void storeEvents( List<String> events ){
+	delivering.countDown();
+	try{
+	    release.await();
+	}catch( InterruptedException e ){
+	    Thread.currentThread().interrupt();
+	}
+	batches.add( events );
+	threads.add( Thread.currentThread() );
+	
+	// re-emit the events received for the first time
+	EventGenerator generator = echo;
+	if( generator != null )
+	    for( String event : events )
+		if( ! event.startsWith( "Echo " ) )
+		    generator.notifyEvent( "Echo " + event );
+    }
+    
+    public void setEcho( EventGenerator echo ){
+	this.echo = echo;
+    }
+    
+    public CountDownLatch getDelivering(){
+	return delivering;
+    }
+    
+    public List<List<String>> getBatches(){
+	return batches;
+    }
+    
+    public List<Thread> getThreads(){
+	return threads;
+    }
+}
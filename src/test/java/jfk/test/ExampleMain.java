@@ -69,14 +69,14 @@ public class ExampleMain {
 	IFunction function = builder.bindFunction( dummy, "hello" );
 	
 	// execute the function
-	String result = (String) function.executeCall( null );
+	String result = (String) function.executeCall( (Object[]) null );
 	
 	
 	// get a pointer to another function
 	// the "double" function returns a computation of a double passed on the stack
 	IFunction function2 = builder.bindFunction(dummy, "double" );
 	dummy = null;			// note that the dummy object is no more used!!!
-	Double d1 = new Double(10.5);
+	Double d1 = Double.valueOf(10.5);
 	Double d2 = (Double) function2.executeCall( new Object[]{ d1 } );
 	System.out.println("Computation of the double function returned " + d2);
 	// it prints
@@ -89,7 +89,7 @@ public class ExampleMain {
 	IFunction closure = closureBuilder.buildClosure("public String concat(String s, Integer i){ return s + i.intValue(); }");
 	
 	// now use the closure, please note that there is no object/class created here!
-	String closureResult = (String) closure.executeCall( new Object[]{ "Hello JFK!", new Integer(1234) } );
+	String closureResult = (String) closure.executeCall( new Object[]{ "Hello JFK!", Integer.valueOf(1234) } );
 	System.out.println("Closure result: " + closureResult);
 	// it prints
 	// Closure result: Hello JFK!1234
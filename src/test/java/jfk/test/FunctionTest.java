@@ -25,8 +25,35 @@
 package jfk.test;
 
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jfk.core.ClassMetadata;
+import jfk.core.DefaultBeanProvider;
+import jfk.core.IBeanProvider;
 import jfk.core.JFK;
+import jfk.function.IFunction;
+import jfk.function.IFunction1;
+import jfk.function.IFunction2;
 import jfk.function.IFunctionBuilder;
+import jfk.function.IIntFunction1;
+import jfk.function.ILongFunction2;
+import jfk.function.JFKException;
+import jfk.function.classloaders.IFunctionBinder;
+import jfk.function.classloaders.IFunctionFactory;
+import jfk.function.exception.BadArityException;
+import jfk.function.exception.BadParameterTypeException;
+import jfk.function.exception.CannotBindFunctionException;
+import jfk.function.exception.ClosureException;
+import jfk.function.exception.CollectedTargetException;
+import jfk.function.impl.FunctionBuilderImpl;
+import jfk.function.impl.FunctionFactoryCache;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -52,6 +79,362 @@ public class FunctionTest {
 	if( fBuilder == null )
 	    fail("Did not get a function builder from the configuration!");
     }
-
+    
+    
+    @Test
+    public void testArgumentChecks() throws JFKException{
+	DummyClass dummy = new DummyClass();
+	IFunction length = JFK.getFunctionBuilder().bindFunction( dummy, "length" );
+	
+	// subclasses and null are accepted for reference parameters
+	assertEquals( Integer.valueOf( 3 ), length.executeCall( new Object[]{ "JFK" } ) );
+	assertEquals( Integer.valueOf( 3 ), length.executeCall( new Object[]{ new StringBuffer( "JFK" ) } ) );
+	assertEquals( Integer.valueOf( -1 ), length.executeCall( new Object[]{ null } ) );
+	
+	try{
+	    length.executeCall( new Object[]{ Integer.valueOf( 10 ) } );
+	    fail("The function accepted a wrong argument type!");
+	}catch( BadParameterTypeException e ){
+	    assertEquals( CharSequence.class, e.getRequiredType() );
+	    assertEquals( Integer.class, e.getSuppliedType() );
+	}
+	
+	try{
+	    length.executeCall( new Object[]{ "JFK", "JFK" } );
+	    fail("The function accepted a wrong number of arguments!");
+	}catch( BadArityException e ){
+	    assertEquals( 1, e.getRequiredArity() );
+	    assertEquals( 2, e.getSuppliedArity() );
+	}
+	
+	// null is not accepted for primitive parameters
+	IFunction twice = JFK.getFunctionBuilder().bindFunction( dummy, "twice" );
+	try{
+	    twice.executeCall( new Object[]{ null } );
+	    fail("The function accepted a null primitive argument!");
+	}catch( BadParameterTypeException e ){
+	    assertEquals( Integer.class, e.getRequiredType() );
+	    assertEquals( Void.class, e.getSuppliedType() );
+	}
+    }
+    
+    
+    @Test
+    public void testUncheckedFunction() throws JFKException{
+	DummyClass dummy = new DummyClass();
+	
+	// an unchecked function does not build the bad parameter type exception
+	IFunction trusted = JFK.getFunctionBuilder().bindFunction( dummy, "trustedTwice" );
+	assertEquals( Integer.valueOf( 20 ), trusted.executeCall( new Object[]{ 10 } ) );
+	try{
+	    trusted.executeCall( new Object[]{ "10" } );
+	    fail("The unchecked function accepted a wrong argument type!");
+	}catch( ClassCastException e ){
+	    // ok, no check has been done
+	}
+	
+	// a builder can disable the checks of all the functions
+	FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	builder.setUncheckedInvocation( true );
+	IFunction twice = builder.bindFunction( dummy, "twice" );
+	assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	try{
+	    twice.executeCall( new Object[]{ "10" } );
+	    fail("The unchecked function accepted a wrong argument type!");
+	}catch( ClassCastException e ){
+	    // ok, no check has been done
+	}
+	
+	// while the default one does not
+	IFunction checkedTwice = JFK.getFunctionBuilder().bindFunction( dummy, "twice" );
+	try{
+	    checkedTwice.executeCall( new Object[]{ "10" } );
+	    fail("The checked function accepted a wrong argument type!");
+	}catch( BadParameterTypeException e ){
+	    // ok
+	}
+    }
+    
+    
+    @Test
+    public void testGeneratedFunctions() throws JFKException{
+	DummyClass dummy = new DummyClass();
+	
+	// the test classes are processed at compile time, so the functions are not defined at run-time
+	IFunction twice = JFK.getFunctionBuilder().bindFunction( dummy, "twice" );
+	assertTrue( twice.getClass().getName().startsWith( DummyClass.class.getName() + "$$JFKFunctions" ) );
+	assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	assertEquals( 20, ((IIntFunction1) twice).callInt( 10 ) );
+	assertEquals( 30L, ((ILongFunction2) JFK.getFunctionBuilder().bindFunction( dummy, "sum" )).callLong( 10L, 20L ) );
+	assertEquals( twice, JFK.getFunctionBuilder().bindFunction( dummy, "twice" ) );
+	assertFalse( twice.equals( JFK.getFunctionBuilder().bindFunction( new DummyClass(), "twice" ) ) );
+	
+	try{
+	    twice.executeCall( new Object[]{ "10" } );
+	    fail("The generated function accepted a wrong argument type!");
+	}catch( BadParameterTypeException e ){
+	    // ok
+	}
+	
+	// the generated functions can be disabled
+	FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	builder.setGeneratedFunctions( false );
+	IFunction definedTwice = builder.bindFunction( dummy, "twice" );
+	assertFalse( definedTwice.getClass().getName().startsWith( DummyClass.class.getName() + "$$JFKFunctions" ) );
+	assertEquals( Integer.valueOf( 20 ), definedTwice.executeCall( new Object[]{ 10 } ) );
+    }
+    
+    
+    @Test
+    @SuppressWarnings( "unchecked" )
+    public void testGeneratedFunctionsCheckedExceptions() throws JFKException{
+	ThrowingDummyClass dummy = new ThrowingDummyClass();
+	
+	// the methods that declare checked exceptions are generated too, and rethrow them as they are
+	IFunction read = JFK.getFunctionBuilder().bindFunction( dummy, "read" );
+	assertTrue( read.getClass().getName().startsWith( ThrowingDummyClass.class.getName() + "$$JFKFunctions" ) );
+	assertEquals( "Read file", read.executeCall( new Object[]{ "file" } ) );
+	assertEquals( "Read file", ((IFunction1<String, String>) read).call( "file" ) );
+	try{
+	    read.executeCall( new Object[]{ null } );
+	    fail("The generated function did not throw the checked exception!");
+	}catch( Exception e ){
+	    assertTrue( e instanceof IOException );
+	}
+	
+	IIntFunction1 increment = (IIntFunction1) JFK.getFunctionBuilder().bindFunction( dummy, "increment" );
+	assertEquals( 11, increment.callInt( 10 ) );
+	try{
+	    increment.callInt( -1 );
+	    fail("The generated function did not throw the checked exception!");
+	}catch( Exception e ){
+	    assertTrue( e instanceof IOException );
+	}
+    }
+    
+    
+    @Test
+    public void testFunctionFactoryCache() throws Exception{
+	final FunctionFactoryCache cache = new FunctionFactoryCache();
+	final AtomicInteger definitions = new AtomicInteger();
+	final CountDownLatch start = new CountDownLatch( 1 );
+	final Callable<IFunctionFactory> definition = new Callable<IFunctionFactory>() {
+	    @Override
+	    public IFunctionFactory call() throws Exception {
+		definitions.incrementAndGet();
+		Thread.sleep( 100 );
+		return new IFunctionFactory() {
+		    @Override
+		    public IFunction newFunction( Object targetObject ){
+			return null;
+		    }
+		};
+	    }
+	};
+	
+	// many threads asking for the same cold factory define it only once
+	ExecutorService executor = Executors.newFixedThreadPool( 8 );
+	Future[] factories = new Future[ 8 ];
+	for( int i = 0; i < factories.length; i++ )
+	    factories[ i ] = executor.submit( new Callable<IFunctionFactory>() {
+		@Override
+		public IFunctionFactory call() throws Exception {
+		    start.await();
+		    return cache.get( DummyClass.class, "twice", definition );
+		}
+	    });
+	start.countDown();
+	for( Future factory : factories )
+	    assertSame( factories[ 0 ].get(), factory.get() );
+	executor.shutdown();
+	
+	assertEquals( 1, definitions.get() );
+	assertEquals( 1, cache.getMisses() );
+	assertEquals( 7, cache.getHits() );
+	assertEquals( 1, cache.getSize() );
+	assertTrue( cache.getDefinitionTime() > 0 );
+	
+	// a bounded cache evicts the oldest factories
+	FunctionFactoryCache bounded = new FunctionFactoryCache( 2 );
+	IFunctionFactory first = bounded.get( DummyClass.class, "first", definition );
+	bounded.get( DummyClass.class, "second", definition );
+	bounded.get( DummyClass.class, "third", definition );
+	assertEquals( 2, bounded.getSize() );
+	assertNotSame( first, bounded.get( DummyClass.class, "first", definition ) );
+	assertEquals( 4, bounded.getMisses() );
+	
+	// a failed definition is not cached
+	FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	for( int i = 0; i < 2; i++ )
+	    try{
+		builder.bindFunction( new DummyClass(), "noSuchFunction" );
+		fail("Bound a function that does not exist!");
+	    }catch( CannotBindFunctionException e ){
+		// ok
+	    }
+	assertEquals( 2, builder.getFunctionCache().getMisses() );
+	assertEquals( 0, builder.getFunctionCache().getSize() );
+	
+	// a change of configuration discards the functions, not the statistics
+	builder.bindFunction( new DummyClass(), "twice" );
+	builder.setWeakBinding( true );
+	assertEquals( 0, builder.getFunctionCache().getSize() );
+	assertEquals( 3, builder.getFunctionCache().getMisses() );
+	assertTrue( builder.getFunctionCache().getDefinitionTime() > 0 );
+    }
+    
+    
+    @Test
+    public void testWeakBinding() throws JFKException, InterruptedException{
+	for( String definer : new String[]{ "IFunctionClassDefiner", "MethodHandleFunctionDefiner" } ){
+	    FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	    builder.setFunctionClassDefiner( definer );
+	    builder.setWeakBinding( true );
+	    
+	    DummyClass dummy = new DummyClass();
+	    IFunction twice = builder.bindFunction( dummy, "twice" );
+	    @SuppressWarnings( "unchecked" )
+	    IFunction1<Integer, Integer> typedTwice = (IFunction1<Integer, Integer>) twice;
+	    assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	    assertEquals( Integer.valueOf( 20 ), typedTwice.call( 10 ) );
+	    assertSame( dummy, ((IFunctionBinder) twice).getTargetObject() );
+	    assertEquals( twice, builder.bindFunction( dummy, "twice" ) );
+	    
+	    // the function does not keep the target reachable
+	    WeakReference<Object> target = new WeakReference<Object>( dummy );
+	    dummy = null;
+	    for( int i = 0; i < 50 && target.get() != null; i++ ){
+		System.gc();
+		Thread.sleep( 20 );
+	    }
+	    assertNull( "The " + definer + " function keeps its target reachable!", target.get() );
+	    assertNull( ((IFunctionBinder) twice).getTargetObject() );
+	    
+	    try{
+		twice.executeCall( new Object[]{ 10 } );
+		fail("A function with a collected target has been called!");
+	    }catch( CollectedTargetException e ){
+		// ok
+	    }
+	}
+    }
+    
+    
+    @Test
+    public void testMethodHandleBackend() throws JFKException{
+	FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	builder.setFunctionClassDefiner( "MethodHandleFunctionDefiner" );
+	builder.setGeneratedFunctions( false );
+	DummyClass dummy = new DummyClass();
+	
+	IFunction doubleFunction = builder.bindFunction( dummy, "double" );
+	assertEquals( 21.0, ((Double) doubleFunction.executeCall( new Object[]{ 10.5 } )).doubleValue(), 0 );
+	assertTrue( doubleFunction instanceof IFunction1 );
+	assertFalse( doubleFunction instanceof IFunction2 );
+	
+	// primitive arguments and return values are boxed
+	IFunction twice = builder.bindFunction( dummy, "twice" );
+	@SuppressWarnings( "unchecked" )
+	IFunction1<Integer, Integer> typedTwice = (IFunction1<Integer, Integer>) twice;
+	assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	assertEquals( Integer.valueOf( 20 ), typedTwice.call( 10 ) );
+	
+	@SuppressWarnings( "unchecked" )
+	IFunction2<String, Integer, String> string2 = (IFunction2<String, Integer, String>) builder.bindFunction( dummy, "string2" );
+	assertEquals( "A10", string2.call( "A", 10 ) );
+	
+	// the arguments are checked as in the compiled functions
+	IFunction length = builder.bindFunction( dummy, "length" );
+	assertEquals( Integer.valueOf( -1 ), length.executeCall( new Object[]{ null } ) );
+	try{
+	    length.executeCall( new Object[]{ Integer.valueOf( 10 ) } );
+	    fail("The function accepted a wrong argument type!");
+	}catch( BadParameterTypeException e ){
+	    assertEquals( CharSequence.class, e.getRequiredType() );
+	}
+	
+	// functions bound to the same method and target are equal
+	assertEquals( twice, builder.bindFunction( dummy, "twice" ) );
+	assertFalse( twice.equals( builder.bindFunction( new DummyClass(), "twice" ) ) );
+    }
+    
+    
+    @Test
+    @SuppressWarnings( "deprecation" )
+    public void testMethodHandleBackendNonPublicClass() throws JFKException{
+	FunctionBuilderImpl builder = new FunctionBuilderImpl();
+	builder.setFunctionClassDefiner( "MethodHandleFunctionDefiner" );
+	builder.setGeneratedFunctions( false );
+	
+	// the method of a non public class is called thru a method handle, without
+	// changing the accessibility of the method shared by the class metadata
+	IFunction triple = builder.bindFunction( new PackageDummyClass(), "triple" );
+	assertEquals( Integer.valueOf( 30 ), triple.executeCall( new Object[]{ 10 } ) );
+	assertFalse( ClassMetadata.forClass( PackageDummyClass.class ).getFunction( "triple" ).getMethod().isAccessible() );
+    }
+    
+    
+    @Test
+    public void testDefaultBeanProvider() throws JFKException, ClosureException{
+	IBeanProvider springProvider = JFK.getBeanProvider();
+	IFunctionBuilder springBuilder = JFK.getFunctionBuilder();
+	
+	// the singletons are cached and the lookups do not build them again
+	assertSame( springBuilder, JFK.getFunctionBuilder() );
+	assertNotSame( JFK.getClosureBuilder(), JFK.getClosureBuilder() );
+	
+	try{
+	    // the programmatic configuration does not need spring
+	    DefaultBeanProvider provider = new DefaultBeanProvider();
+	    JFK.setBeanProvider( provider );
+	    assertSame( provider, JFK.getBeanProvider() );
+	    
+	    IFunctionBuilder builder = JFK.getFunctionBuilder();
+	    assertTrue( builder instanceof FunctionBuilderImpl );
+	    assertNotSame( springBuilder, builder );
+	    assertSame( builder, JFK.getFunctionBuilder() );
+	    assertSame( provider.getBytecodeCache(), JFK.getBean( "BytecodeCache" ) );
+	    
+	    // functions are defined as with the xml configuration
+	    ((FunctionBuilderImpl) builder).setGeneratedFunctions( false );
+	    IFunction twice = builder.bindFunction( new DummyClass(), "twice" );
+	    assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	    assertNotNull( JFK.getClosureBuilder().buildClosure( "public int square( int value ){ return value * value; }" ) );
+	    
+	    try{
+		JFK.getBean( "Missing" );
+		fail("The provider returned an unknown bean!");
+	    }catch( IllegalArgumentException e ){
+		// ok
+	    }
+	}finally{
+	    JFK.setBeanProvider( springProvider );
+	}
+	
+	// the singletons of the previous provider are back
+	assertSame( springBuilder, JFK.getFunctionBuilder() );
+    }
+    
+    
+    @Test
+    public void testClassMetadata(){
+	ClassMetadata metadata = ClassMetadata.forClass( DummyClass.class );
+	
+	// the index is computed only once
+	assertSame( metadata, ClassMetadata.forClass( DummyClass.class ) );
+	
+	ClassMetadata.AnnotatedMethod twice = metadata.getFunction( "twice" );
+	assertNotNull( twice );
+	assertEquals( "twice", twice.getMethod().getName() );
+	assertEquals( Integer.TYPE, twice.getReturnType() );
+	assertArrayEquals( new Class[]{ Integer.TYPE }, twice.getParameterTypes() );
+	
+	assertNull( metadata.getFunction( "missing" ) );
+	assertTrue( metadata.getDeclaredDelegates().isEmpty() );
+	
+	// delegates and connections
+	assertFalse( ClassMetadata.forClass( EventGenerator.class ).getDeclaredDelegates().isEmpty() );
+	assertFalse( ClassMetadata.forClass( EventConsumer.class ).getDeclaredConnections().isEmpty() );
+    }
 
 }
@@ -0,0 +1,166 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import jfk.core.JFK;
+import jfk.core.Metrics;
+import jfk.function.IClosure;
+import jfk.function.IFunction;
+import jfk.function.IFunction1;
+import jfk.function.IIntFunction1;
+import jfk.function.JFKException;
+import jfk.function.delegates.IDelegateManager;
+import jfk.function.exception.ClosureException;
+import jfk.function.impl.ClosureBuilderImpl;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * A test for the run-time metrics.
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class MetricsTest {
+
+    @Test
+    public void testFunctionMetrics() throws JFKException{
+	Metrics metrics = Metrics.getInstance();
+	DummyClass dummy = new DummyClass();
+	
+	// functions are not metered by default
+	IFunction notMetered = JFK.getFunctionBuilder().bindFunction( dummy, "twice" );
+	assertFalse( java.lang.reflect.Proxy.isProxyClass( notMetered.getClass() ) );
+	
+	metrics.setMeteredFunctions( "twice, jfk.test.DummyClass#length" );
+	try{
+	    assertEquals( "jfk.test.DummyClass#length,twice", metrics.getMeteredFunctions() );
+	    IFunction twice  = JFK.getFunctionBuilder().bindFunction( dummy, "twice" );
+	    IFunction length = JFK.getFunctionBuilder().bindFunction( dummy, "length" );
+	    IFunction sum    = JFK.getFunctionBuilder().bindFunction( dummy, "sum" );
+	    assertFalse( java.lang.reflect.Proxy.isProxyClass( sum.getClass() ) );
+	    
+	    // a metered function keeps the typed interfaces of the function, and calls it without reflection
+	    assertFalse( java.lang.reflect.Proxy.isProxyClass( twice.getClass() ) );
+	    assertTrue( twice.getClass().isHidden() );
+	    long calls = metrics.getFunctionInvocations().containsKey( "jfk.test.DummyClass#twice" )
+		         ? metrics.getFunctionInvocations().get( "jfk.test.DummyClass#twice" )
+		         : 0;
+	    @SuppressWarnings( "unchecked" )
+	    IFunction1<Integer, Integer> typedTwice = (IFunction1<Integer, Integer>) twice;
+	    assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	    assertEquals( Integer.valueOf( 20 ), typedTwice.call( 10 ) );
+	    assertEquals( 20, ((IIntFunction1) twice).callInt( 10 ) );
+	    assertEquals( twice, notMetered );
+	    assertEquals( calls + 3, metrics.getFunctionInvocations().get( "jfk.test.DummyClass#twice" ).longValue() );
+	    
+	    long histogramCalls = 0;
+	    for( long bucket : metrics.getFunctionLatencyHistograms().get( "jfk.test.DummyClass#twice" ) )
+		histogramCalls += bucket;
+	    assertEquals( calls + 3, histogramCalls );
+	    assertTrue( metrics.getFunctionMeanLatencies().get( "jfk.test.DummyClass#twice" ) > 0 );
+	    
+	    // the exceptions of the function are thrown by the metered function
+	    assertEquals( Integer.valueOf( 3 ), length.executeCall( new Object[]{ "abc" } ) );
+	    try{
+		length.executeCall( new Object[]{ 10 } );
+		fail("The metered function accepted a wrong argument!");
+	    }catch( jfk.function.exception.BadParameterTypeException e ){
+		// ok
+	    }
+	    assertEquals( 2L, metrics.getFunctionInvocations().get( "jfk.test.DummyClass#length" ).longValue() );
+	    
+	    metrics.reset();
+	    assertEquals( 0L, metrics.getFunctionInvocations().get( "jfk.test.DummyClass#twice" ).longValue() );
+	}finally{
+	    metrics.setMeteredFunctions( "" );
+	}
+	
+	assertEquals( "", metrics.getMeteredFunctions() );
+	assertTrue( metrics.getBoundFunctions() > 0 );
+	assertTrue( metrics.getCacheHitRates().get( "functions" ) > 0 );
+    }
+    
+    
+    @Test
+    public void testDelegateMetrics() throws JFKException{
+	Metrics metrics = Metrics.getInstance();
+	IDelegateManager manager = JFK.getDelegateManager();
+	manager.forgetDelegatable( EventGenerator.class );
+	
+	metrics.setDelegateMetrics( true );
+	try{
+	    EventGenerator generator = (EventGenerator) manager.createAndBind( EventGenerator.class, new EventConsumer() );
+	    generator.notifyEvent( "Metered event 1" );
+	    generator.notifyEvent( "Metered event 2" );
+	    assertEquals( 2L, metrics.getDelegateDispatches().get( "jfk.test.EventGenerator#notifyEvent" ).longValue() );
+	}finally{
+	    metrics.setDelegateMetrics( false );
+	    manager.forgetDelegatable( EventGenerator.class );
+	}
+	
+	// the delegates implemented without metrics do not count
+	EventGenerator generator = (EventGenerator) manager.createAndBind( EventGenerator.class, new EventConsumer() );
+	generator.notifyEvent( "Event" );
+	assertEquals( 2L, metrics.getDelegateDispatches().get( "jfk.test.EventGenerator#notifyEvent" ).longValue() );
+	manager.forgetDelegatable( EventGenerator.class );
+	metrics.reset();
+    }
+    
+    
+    @Test
+    public void testMBean() throws Exception{
+	IClosure closure = new ClosureBuilderImpl().buildClosure( "public int sextuple( int value ){ return value * 6; }" );
+	assertEquals( Integer.valueOf( 60 ), closure.executeCall( new Object[]{ 10 } ) );
+	
+	assertTrue( Metrics.registerMBean() );
+	try{
+	    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	    ObjectName name = new ObjectName( Metrics.OBJECT_NAME );
+	    assertTrue( server.isRegistered( name ) );
+	    
+	    // the maps are exposed as open types
+	    TabularData definedClasses = (TabularData) server.getAttribute( name, "DefinedClasses" );
+	    assertEquals( 4, definedClasses.size() );
+	    assertEquals( Boolean.FALSE, server.getAttribute( name, "DelegateMetrics" ) );
+	    
+	    Map<String, Long> generationTimes = Metrics.getInstance().getGenerationTimes();
+	    assertTrue( generationTimes.containsKey( "CLOSURE" ) );
+	    assertTrue( Metrics.getInstance().getDefinedClasses().get( "CLOSURE" ) > 0 );
+	}finally{
+	    Metrics.unregisterMBean();
+	}
+	
+	assertFalse( ManagementFactory.getPlatformMBeanServer().isRegistered( new ObjectName( Metrics.OBJECT_NAME ) ) );
+    }
+
+}
@@ -0,0 +1,143 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jfk.function.delegates.Connect;
+import jfk.function.delegates.IDelegate;
+
+/**
+ * A consumer of the asynchronous ticks, that can wait before counting them, and keeps the ring buffer
+ * ticks in the order they are received.
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class TickWorker implements IDelegate {
+
+    private final CountDownLatch started = new CountDownLatch( 1 );
+    
+    private final CountDownLatch release;
+    
+    private final AtomicInteger asyncTicks = new AtomicInteger();
+    
+    private final AtomicInteger parallelTicks = new AtomicInteger();
+    
+    private final List<String> ringTicks = new CopyOnWriteArrayList<String>();
+    
+    private final List<Integer> sequencedTicks = new CopyOnWriteArrayList<Integer>();
+    
+    private final List<Integer> relayedTicks = new CopyOnWriteArrayList<Integer>();
+    
+    private volatile AsyncTickGenerator relay;
+    
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    
+    public TickWorker( CountDownLatch release ){
+	super();
+	this.release = release;
+    }
+    
+    @Connect( name="asyncTick" )
+    public void countAsyncTick( int amount, String label ){
+	threads.add( Thread.currentThread() );
+	started.countDown();
+	try{
+	    release.await();
+	}catch( InterruptedException e ){
+	    Thread.currentThread().interrupt();
+	}
+	asyncTicks.addAndGet( amount );
+    }
+    
+    @Connect( name="parallelTick" )
+    public void countParallelTick( int amount, String label ){
+	threads.add( Thread.currentThread() );
+	parallelTicks.addAndGet( amount );
+    }
+    
+    @Connect( name="ringTick" )
+    public void recordRingTick( int amount, String label ){
+	threads.add( Thread.currentThread() );
+	started.countDown();
+	try{
+	    release.await();
+	}catch( InterruptedException e ){
+	    Thread.currentThread().interrupt();
+	}
+	ringTicks.add( label );
+    }
+    
+    @Connect( name="sequencedTick" )
+    public void recordSequencedTick( int amount, String label ){
+	threads.add( Thread.currentThread() );
+	sequencedTicks.add( amount );
+    }
+    
+    public CountDownLatch getStarted(){
+	return started;
+    }
+    
+    public int getAsyncTicks(){
+	return asyncTicks.get();
+    }
+    
+    public int getParallelTicks(){
+	return parallelTicks.get();
+    }
+    
+    @Connect( name="relayTick" )
+    public void relayTick( int amount, String label ){
+	threads.add( Thread.currentThread() );
+	relayedTicks.add( amount );
+	if( (amount > 0) && (relay != null) )
+	    relay.relayTick( amount - 1, label );
+    }
+    
+    public void setRelay( AsyncTickGenerator relay ){
+	this.relay = relay;
+    }
+    
+    public List<Integer> getRelayedTicks(){
+	return relayedTicks;
+    }
+    
+    public List<String> getRingTicks(){
+	return ringTicks;
+    }
+    
+    public List<Integer> getSequencedTicks(){
+	return sequencedTicks;
+    }
+    
+    public Set<Thread> getThreads(){
+	return threads;
+    }
+}
@@ -0,0 +1,99 @@
+/* 
+ * JFK - Java Function Kernel
+ *
+ * This project provides a run-time framework to achieve functional programming
+ * in Java. The idea is to have the capability to get something similar to function pointers
+ * and C# delegates in Java, doing all the bindings and reference resolution at run-time being able,
+ * at the same time, being able to compile the program using a function-first-class entity and abstraction.
+ *
+ * Copyright (C) Luca Ferrari 2010-2012 - fluca1978 (at) gmail.com
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package jfk.test;
+
+import jfk.core.JFK;
+import jfk.function.IClosure;
+import jfk.function.IFunction;
+import jfk.function.IFunction0;
+import jfk.function.IFunction1;
+import jfk.function.IFunction2;
+import jfk.function.IIntFunction1;
+import jfk.function.ILongFunction2;
+import jfk.function.JFKException;
+import jfk.function.exception.ClosureException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * A test for the arity and primitive specialized function interfaces.
+ * @author Luca Ferrari - fluca1978 (at) gmail.com
+ *
+ */
+public class TypedFunctionTest {
+
+    @Test
+    public void testArityInterfaces() throws JFKException{
+	DummyClass dummy = new DummyClass();
+	
+	IFunction hello = JFK.getFunctionBuilder().bindFunction( dummy, "hello" );
+	assertTrue( "A function without arguments must be a IFunction0", hello instanceof IFunction0 );
+	assertEquals( dummy.resultString, ((IFunction0) hello).call() );
+	
+	IFunction doubleFunction = JFK.getFunctionBuilder().bindFunction( dummy, "double" );
+	assertTrue( "A function with one argument must be a IFunction1", doubleFunction instanceof IFunction1 );
+	assertFalse( doubleFunction instanceof IFunction2 );
+	
+	@SuppressWarnings( "unchecked" )
+	IFunction1<Double, Double> typed = (IFunction1<Double, Double>) doubleFunction;
+	assertEquals( 21.0, typed.call( 10.5 ).doubleValue(), 0 );
+	
+	@SuppressWarnings( "unchecked" )
+	IFunction2<String, Integer, String> string2 = (IFunction2<String, Integer, String>) JFK.getFunctionBuilder().bindFunction( dummy, "string2" );
+	assertEquals( "A10", string2.call( "A", 10 ) );
+    }
+    
+    
+    @Test
+    public void testPrimitiveInterfaces() throws JFKException{
+	DummyClass dummy = new DummyClass();
+	
+	IFunction twice = JFK.getFunctionBuilder().bindFunction( dummy, "twice" );
+	assertTrue( "An int -> int function must be a IIntFunction1", twice instanceof IIntFunction1 );
+	assertEquals( 20, ((IIntFunction1) twice).callInt( 10 ) );
+	
+	// the boxed variants must still work
+	@SuppressWarnings( "unchecked" )
+	IFunction1<Integer, Integer> boxedTwice = (IFunction1<Integer, Integer>) twice;
+	assertEquals( Integer.valueOf( 20 ), twice.executeCall( new Object[]{ 10 } ) );
+	assertEquals( Integer.valueOf( 20 ), boxedTwice.call( 10 ) );
+	
+	IFunction sum = JFK.getFunctionBuilder().bindFunction( dummy, "sum" );
+	assertTrue( "A long,long -> long function must be a ILongFunction2", sum instanceof ILongFunction2 );
+	assertEquals( 5L, ((ILongFunction2) sum).callLong( 2L, 3L ) );
+	assertFalse( sum instanceof IIntFunction1 );
+    }
+    
+    
+    @Test
+    public void testTypedClosure() throws JFKException, ClosureException{
+	IClosure closure = JFK.getClosureBuilder().buildClosure( "public int square( int value ){ return value * value; }" );
+	
+	assertTrue( closure instanceof IIntFunction1 );
+	assertEquals( 49, ((IIntFunction1) closure).callInt( 7 ) );
+	assertEquals( Integer.valueOf( 49 ), closure.executeCall( new Object[]{ 7 } ) );
+    }
+}